@@ -0,0 +1,211 @@
+package com.engineerfadyfawzi.pets;
+
+import android.app.Activity;
+import android.app.Application;
+import android.app.Instrumentation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.widget.EditText;
+import android.widget.Spinner;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.engineerfadyfawzi.pets.data.PetContract.DraftEntry;
+import com.engineerfadyfawzi.pets.data.PetContract.PetEntry;
+import com.engineerfadyfawzi.pets.data.PetDbHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Opens the editor on a pet seeded in the {@link PetPrefetchCache}, and checks that its inputs
+ * show the pet on the first frame, before the loader returns.
+ *
+ * The pet is renamed in the database behind the provider's back after it's cached, so the cache
+ * isn't invalidated: the first frame shows the cached name, and the loader the new one.
+ */
+@RunWith( AndroidJUnit4.class )
+public class EditorFirstFrameTest
+{
+    private static final String CACHED_NAME = "Cached Tommy";
+    private static final String LOADED_NAME = "Loaded Tommy";
+    private static final String BREED = "Terrier";
+    private static final int WEIGHT = 7;
+    
+    /**
+     * Longest time to wait for the prefetch, and for the loader
+     */
+    private static final long TIMEOUT_MILLIS = 5000;
+    
+    private Instrumentation mInstrumentation;
+    private Context mContext;
+    private ContentResolver mContentResolver;
+    private Uri mPetUri;
+    private Activity mEditor;
+    
+    @Before
+    public void setUp()
+    {
+        mInstrumentation = InstrumentationRegistry.getInstrumentation();
+        mContext = mInstrumentation.getTargetContext();
+        mContentResolver = mContext.getContentResolver();
+        
+        ContentValues values = new ContentValues();
+        values.put( PetEntry.COLUMN_PET_NAME, CACHED_NAME );
+        values.put( PetEntry.COLUMN_PET_BREED, BREED );
+        values.put( PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_FEMALE );
+        values.put( PetEntry.COLUMN_PET_WEIGHT, WEIGHT );
+        mPetUri = mContentResolver.insert( PetEntry.CONTENT_URI, values );
+        assertNotNull( mPetUri );
+    }
+    
+    @After
+    public void tearDown()
+    {
+        if ( mEditor != null )
+        {
+            mEditor.finish();
+            mInstrumentation.waitForIdleSync();
+        }
+        mContentResolver.delete( DraftEntry.buildDraftUri( ContentUris.parseId( mPetUri ) ), null, null );
+        mContentResolver.delete( mPetUri, null, null );
+    }
+    
+    @Test
+    public void prefetchedPet_shownOnFirstFrame() throws InterruptedException
+    {
+        // Seed the cache as the catalog does, and wait for the pet to be read.
+        PetPrefetchCache petPrefetchCache = PetPrefetchCache.getInstance( mContext );
+        petPrefetchCache.prefetch( new long[] { ContentUris.parseId( mPetUri ) } );
+        long deadline = SystemClock.uptimeMillis() + TIMEOUT_MILLIS;
+        while ( petPrefetchCache.get( mPetUri ) == null )
+        {
+            if ( SystemClock.uptimeMillis() > deadline )
+                fail( "The pet wasn't prefetched" );
+            Thread.sleep( 10 );
+        }
+        
+        // Rename it without notifying the change, so the cache keeps the old name.
+        SQLiteDatabase database = new PetDbHelper( mContext ).getWritableDatabase();
+        try
+        {
+            ContentValues values = new ContentValues();
+            values.put( PetEntry.COLUMN_PET_NAME, LOADED_NAME );
+            assertEquals( 1, database.update( PetEntry.TABLE_NAME, values, PetEntry._ID + " = ?",
+                    new String[] { String.valueOf( ContentUris.parseId( mPetUri ) ) } ) );
+        }
+        finally
+        {
+            database.close();
+        }
+        
+        // Read the inputs once the editor is resumed, in the same main thread message as its
+        // creation: before its first frame is drawn, and before its loader can deliver the pet.
+        final String[] firstFrame = new String[ 4 ];
+        Application application = ( Application ) mContext.getApplicationContext();
+        Application.ActivityLifecycleCallbacks callbacks = new Application.ActivityLifecycleCallbacks()
+        {
+            @Override
+            public void onActivityResumed( Activity activity )
+            {
+                if ( !( activity instanceof EditorActivity ) || firstFrame[ 0 ] != null )
+                    return;
+                
+                firstFrame[ 0 ] = getText( activity, R.id.edit_pet_name );
+                firstFrame[ 1 ] = getText( activity, R.id.edit_pet_breed );
+                firstFrame[ 2 ] = getText( activity, R.id.edit_pet_weight );
+                firstFrame[ 3 ] = String.valueOf(
+                        ( ( Spinner ) activity.findViewById( R.id.spinner_gender ) ).getSelectedItemPosition() );
+            }
+            
+            @Override
+            public void onActivityCreated( Activity activity, Bundle savedInstanceState )
+            {
+            }
+            
+            @Override
+            public void onActivityStarted( Activity activity )
+            {
+            }
+            
+            @Override
+            public void onActivityPaused( Activity activity )
+            {
+            }
+            
+            @Override
+            public void onActivityStopped( Activity activity )
+            {
+            }
+            
+            @Override
+            public void onActivitySaveInstanceState( Activity activity, Bundle outState )
+            {
+            }
+            
+            @Override
+            public void onActivityDestroyed( Activity activity )
+            {
+            }
+        };
+        application.registerActivityLifecycleCallbacks( callbacks );
+        try
+        {
+            Intent intent = new Intent( mContext, EditorActivity.class );
+            intent.setData( mPetUri );
+            intent.addFlags( Intent.FLAG_ACTIVITY_NEW_TASK );
+            mEditor = mInstrumentation.startActivitySync( intent );
+        }
+        finally
+        {
+            application.unregisterActivityLifecycleCallbacks( callbacks );
+        }
+        
+        assertEquals( CACHED_NAME, firstFrame[ 0 ] );
+        assertEquals( BREED, firstFrame[ 1 ] );
+        assertEquals( String.valueOf( WEIGHT ), firstFrame[ 2 ] );
+        assertEquals( String.valueOf( PetEntry.GENDER_FEMALE ), firstFrame[ 3 ] );
+        
+        // The loader still loads the pet, and shows its new name.
+        deadline = SystemClock.uptimeMillis() + TIMEOUT_MILLIS;
+        while ( !LOADED_NAME.equals( getTextOnMainThread( R.id.edit_pet_name ) ) )
+        {
+            if ( SystemClock.uptimeMillis() > deadline )
+                fail( "The loader didn't show the pet" );
+            Thread.sleep( 10 );
+        }
+    }
+    
+    private static String getText( Activity activity, int id )
+    {
+        return ( ( EditText ) activity.findViewById( id ) ).getText().toString();
+    }
+    
+    private String getTextOnMainThread( final int id )
+    {
+        final String[] text = new String[ 1 ];
+        mInstrumentation.runOnMainSync( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                text[ 0 ] = getText( mEditor, id );
+            }
+        } );
+        return text[ 0 ];
+    }
+}
@@ -0,0 +1,229 @@
+package com.engineerfadyfawzi.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.engineerfadyfawzi.pets.data.PetContract.PetEntry;
+import com.engineerfadyfawzi.pets.data.PetContract.ShelterEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Cancels long scans of the pets while they run, through the provider, through the fan-out
+ * query of all the shelters, and by stopping a {@link LivePetQuery}: the scan stops quickly,
+ * releasing its connection, and no rows are delivered.
+ */
+@RunWith( AndroidJUnit4.class )
+public class PetQueryCancellationTest
+{
+    private static final String LOG_TAG = PetQueryCancellationTest.class.getSimpleName();
+    
+    /**
+     * Number of pets inserted for the scan
+     */
+    private static final int PETS = 100;
+    
+    /**
+     * Selection scanning the pets table to the fifth power (10^10 rows), which doesn't finish
+     * within the test unless it's cancelled. It's only evaluated if there is a pet.
+     */
+    private static final String SLOW_SELECTION = "(SELECT COUNT(*) FROM " + PetEntry.TABLE_NAME + " a, "
+            + PetEntry.TABLE_NAME + " b, " + PetEntry.TABLE_NAME + " c, " + PetEntry.TABLE_NAME + " d, "
+            + PetEntry.TABLE_NAME + " e) >= 0";
+    
+    /**
+     * Time the scan runs before it's cancelled, and the longest time it may take to stop
+     */
+    private static final long SCAN_MILLIS = 300;
+    private static final long MAX_STOP_MILLIS = 1000;
+    
+    private ContentResolver mContentResolver;
+    private final List< Uri > mPetUris = new ArrayList<>();
+    
+    @Before
+    public void setUp()
+    {
+        mContentResolver = InstrumentationRegistry.getInstrumentation().getTargetContext().getContentResolver();
+        for ( int i = 0; i < PETS; i++ )
+        {
+            ContentValues values = new ContentValues();
+            values.put( PetEntry.COLUMN_PET_NAME, "Scanned " + i );
+            values.put( PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_UNKNOWN );
+            mPetUris.add( mContentResolver.insert( PetEntry.CONTENT_URI, values ) );
+        }
+    }
+    
+    @After
+    public void tearDown()
+    {
+        for ( Uri petUri : mPetUris )
+            mContentResolver.delete( petUri, null, null );
+    }
+    
+    @Test
+    public void cancelledPetsQuery_stopsQuickly() throws InterruptedException
+    {
+        assertCancelled( PetEntry.CONTENT_URI );
+    }
+    
+    @Test
+    public void cancelledAllSheltersQuery_stopsQuickly() throws InterruptedException
+    {
+        // The scan of the default shelter is cancelled with the scans of the other shelters.
+        assertCancelled( ShelterEntry.ALL_PETS_URI );
+    }
+    
+    @Test
+    public void stoppedLivePetQuery_stopsAndDeliversNothing() throws InterruptedException
+    {
+        final AtomicInteger deliveries = new AtomicInteger();
+        final AtomicReference< LivePetQuery > livePetQuery = new AtomicReference<>();
+        InstrumentationRegistry.getInstrumentation().runOnMainSync( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                livePetQuery.set( new LivePetQuery( mContentResolver, SLOW_SELECTION, null, PetRow.BY_ID ) );
+                livePetQuery.get().setListener( new LivePetQuery.Listener()
+                {
+                    @Override
+                    public void onReloaded()
+                    {
+                        deliveries.incrementAndGet();
+                    }
+                    
+                    @Override
+                    public void onRowInserted( int position )
+                    {
+                        deliveries.incrementAndGet();
+                    }
+                    
+                    @Override
+                    public void onRowRemoved( int position )
+                    {
+                        deliveries.incrementAndGet();
+                    }
+                    
+                    @Override
+                    public void onRowChanged( int position )
+                    {
+                        deliveries.incrementAndGet();
+                    }
+                    
+                    @Override
+                    public void onRowMoved( int fromPosition, int toPosition )
+                    {
+                        deliveries.incrementAndGet();
+                    }
+                } );
+                livePetQuery.get().start();
+            }
+        } );
+        
+        SystemClock.sleep( SCAN_MILLIS );
+        assertTrue( "Scan finished before it was stopped", isQueryThreadAlive() );
+        
+        long start = SystemClock.uptimeMillis();
+        InstrumentationRegistry.getInstrumentation().runOnMainSync( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                livePetQuery.get().stop();
+            }
+        } );
+        
+        // The query thread ends once its query is cancelled.
+        while ( isQueryThreadAlive() && SystemClock.uptimeMillis() - start < MAX_STOP_MILLIS )
+            SystemClock.sleep( 10 );
+        long stopMillis = SystemClock.uptimeMillis() - start;
+        Log.i( LOG_TAG, "Live query stopped in " + stopMillis + " ms" );
+        assertFalse( "Live query still running after " + stopMillis + " ms", isQueryThreadAlive() );
+        
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+        assertEquals( 0, deliveries.get() );
+        assertEquals( 0, livePetQuery.get().getCursor().getCount() );
+    }
+    
+    /**
+     * Scan the pets of the URI on another thread, cancel the scan while it runs, and check that
+     * it stops quickly without returning a cursor.
+     *
+     * @param uri
+     *
+     * @throws InterruptedException
+     */
+    private void assertCancelled( final Uri uri ) throws InterruptedException
+    {
+        final CancellationSignal cancellationSignal = new CancellationSignal();
+        final AtomicReference< Object > result = new AtomicReference<>();
+        Thread scan = new Thread( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    Cursor cursor = mContentResolver.query( uri, new String[]{ PetEntry._ID },
+                            SLOW_SELECTION, null, null, cancellationSignal );
+                    result.set( cursor );
+                    if ( cursor != null )
+                        cursor.close();
+                }
+                catch ( RuntimeException exception )
+                {
+                    result.set( exception );
+                }
+            }
+        } );
+        scan.start();
+        
+        SystemClock.sleep( SCAN_MILLIS );
+        assertTrue( "Scan finished before it was cancelled", scan.isAlive() );
+        
+        long start = SystemClock.uptimeMillis();
+        cancellationSignal.cancel();
+        scan.join( MAX_STOP_MILLIS );
+        long stopMillis = SystemClock.uptimeMillis() - start;
+        Log.i( LOG_TAG, "Query of " + uri + " stopped in " + stopMillis + " ms" );
+        
+        assertFalse( "Query still running after " + stopMillis + " ms", scan.isAlive() );
+        assertTrue( "Query returned " + result.get(), result.get() instanceof OperationCanceledException );
+    }
+    
+    /**
+     * Return whether the query thread of a live query is running, they're only started by the
+     * live query of this test.
+     *
+     * @return
+     */
+    private static boolean isQueryThreadAlive()
+    {
+        for ( Thread thread : Thread.getAllStackTraces().keySet() )
+            if ( "LivePetQuery".equals( thread.getName() ) && thread.isAlive() )
+                return true;
+        
+        return false;
+    }
+}
@@ -0,0 +1,273 @@
+package com.engineerfadyfawzi.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.engineerfadyfawzi.pets.data.PetContract.PetEntry;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Syncs the pets with a {@link RegistryServer} running in the test process, end to end through
+ * HTTP and the provider: an initial sync of 50000 pets from the registry, and of 50000 pets to
+ * it, then small incremental syncs with changes on both sides. Each sync is timed, and its
+ * throughput, requests and compressed bytes are logged.
+ */
+@RunWith( AndroidJUnit4.class )
+public class PetSyncEngineTest
+{
+    private static final String LOG_TAG = PetSyncEngineTest.class.getSimpleName();
+    
+    /**
+     * Name of the shared preferences of the sync state of PetSyncEngine
+     */
+    private static final String SYNC_PREFERENCES_NAME = "pet_sync";
+    
+    /**
+     * Pets of an initial sync, pets of the registry of the incremental syncs, and pets changed on
+     * each side before each incremental sync
+     */
+    private static final int INITIAL_PETS = 50000;
+    private static final int REGISTRY_PETS = 1000;
+    private static final int CHANGED_PETS = 20;
+    private static final int INCREMENTAL_SYNCS = 10;
+    
+    /**
+     * Prefix of the names of the pets of the test, to delete them after it
+     */
+    private static final String NAME_PREFIX = "Synced ";
+    
+    private static final String[] BREEDS = { "Terrier", "Labrador", "Beagle", "Siamese", "Persian" };
+    
+    private Context mContext;
+    private ContentResolver mContentResolver;
+    private RegistryServer mRegistry;
+    private PetSyncEngine mSyncEngine;
+    
+    @Before
+    public void setUp() throws IOException
+    {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mContentResolver = mContext.getContentResolver();
+        mContext.getSharedPreferences( SYNC_PREFERENCES_NAME, Context.MODE_PRIVATE ).edit().clear().commit();
+        mRegistry = new RegistryServer();
+        mSyncEngine = new PetSyncEngine( mContext, mRegistry.getUrl() );
+        
+        // The pets already on the device go to the registry first, so only the pets of the test
+        // are synced and counted below.
+        syncUntilUnchanged();
+        mRegistry.resetCounts();
+    }
+    
+    @After
+    public void tearDown() throws IOException, InterruptedException
+    {
+        mContentResolver.delete( PetEntry.CONTENT_URI, PetEntry.COLUMN_PET_NAME + " LIKE ?",
+                new String[]{ NAME_PREFIX + "%" } );
+        mRegistry.close();
+        mContext.getSharedPreferences( SYNC_PREFERENCES_NAME, Context.MODE_PRIVATE ).edit().clear().commit();
+    }
+    
+    @Test
+    public void initialSync_pullsAllRegistryPets() throws Exception
+    {
+        for ( int i = 0; i < INITIAL_PETS; i++ )
+            mRegistry.put( registryPet( "registry-" + i, 1, i ) );
+        
+        PetSyncEngine.Result result = timeSync( "Initial pull of " + INITIAL_PETS + " pets" );
+        assertEquals( 0, result.pushed );
+        assertEquals( INITIAL_PETS, result.pulled );
+        assertEquals( INITIAL_PETS, countTestPets() );
+        
+        // The received pets are logged as inserted, so they're pushed back once, and the registry
+        // answers with its copies, which are the same and not applied again.
+        result = timeSync( "Push back of the received pets" );
+        assertEquals( INITIAL_PETS, result.pushed );
+        assertUnchanged( mSyncEngine.sync() );
+    }
+    
+    @Test
+    public void initialSync_pushesAllLocalPets() throws Exception
+    {
+        ArrayList< ContentProviderOperation > operations = new ArrayList<>();
+        for ( int i = 0; i < INITIAL_PETS; i++ )
+        {
+            operations.add( ContentProviderOperation.newInsert( PetEntry.CONTENT_URI )
+                    .withValue( PetEntry.COLUMN_PET_NAME, NAME_PREFIX + i )
+                    .withValue( PetEntry.COLUMN_PET_BREED, BREEDS[ i % BREEDS.length ] )
+                    .withValue( PetEntry.COLUMN_PET_GENDER, i % 3 )
+                    .withValue( PetEntry.COLUMN_PET_WEIGHT, 1 + i % 50 )
+                    .build() );
+            if ( operations.size() == 500 )
+            {
+                mContentResolver.applyBatch( PetContract.CONTENT_AUTHORITY, operations );
+                operations.clear();
+            }
+        }
+        
+        // The registry keeps them all, then sends them back as its changes, which are the same
+        // as the local pets and not applied again.
+        PetSyncEngine.Result result = timeSync( "Initial push of " + INITIAL_PETS + " pets" );
+        assertEquals( INITIAL_PETS, result.pushed );
+        assertEquals( INITIAL_PETS, result.pulled );
+        assertUnchanged( mSyncEngine.sync() );
+    }
+    
+    @Test
+    public void incrementalSync_sendsOnlyTheChanges() throws Exception
+    {
+        for ( int i = 0; i < REGISTRY_PETS; i++ )
+            mRegistry.put( registryPet( "registry-" + i, 1, i ) );
+        syncUntilUnchanged();
+        mRegistry.resetCounts();
+        
+        long syncMillis = 0;
+        for ( int sync = 0; sync < INCREMENTAL_SYNCS; sync++ )
+        {
+            // Different pets changed in the registry and on the device.
+            int first = sync * 2 * CHANGED_PETS;
+            for ( int i = first; i < first + CHANGED_PETS; i++ )
+            {
+                JSONObject pet = mRegistry.get( "registry-" + i );
+                mRegistry.put( registryPet( "registry-" + i, pet.getInt( "version" ) + 1, i + 1000 ) );
+            }
+            for ( int i = first + CHANGED_PETS; i < first + 2 * CHANGED_PETS; i++ )
+            {
+                ContentValues values = new ContentValues();
+                values.put( PetEntry.COLUMN_PET_WEIGHT, 100 + sync );
+                assertEquals( 1, mContentResolver.update( PetEntry.CONTENT_URI, values,
+                        PetEntry.COLUMN_PET_SYNC_ID + "=?", new String[]{ "registry-" + i } ) );
+            }
+            
+            long start = SystemClock.uptimeMillis();
+            PetSyncEngine.Result result = mSyncEngine.sync();
+            syncMillis += SystemClock.uptimeMillis() - start;
+            
+            // The local changes, with the registry changes received by the previous sync, which
+            // are logged when they're applied. The registry answers with the changes, and its
+            // copies of the pushed pets.
+            assertEquals( sync == 0 ? CHANGED_PETS : 2 * CHANGED_PETS, result.pushed );
+            assertEquals( 2 * CHANGED_PETS, result.pulled );
+            assertEquals( 1 + 1000 + first, readWeight( "registry-" + first ) );
+            assertEquals( 100 + sync, mRegistry.get( "registry-" + ( first + CHANGED_PETS ) ).getInt( "weight" ) );
+        }
+        
+        Log.i( LOG_TAG, INCREMENTAL_SYNCS + " incremental syncs of " + CHANGED_PETS + " pets each way: "
+                + syncMillis / INCREMENTAL_SYNCS + " ms per sync, "
+                + mRegistry.getRequestCount() / INCREMENTAL_SYNCS + " requests, "
+                + mRegistry.getBytesReceived() / INCREMENTAL_SYNCS + " bytes sent and "
+                + mRegistry.getBytesSent() / INCREMENTAL_SYNCS + " bytes received per sync" );
+        assertUnchanged( mSyncEngine.sync() );
+    }
+    
+    /**
+     * Sync, and log how long it took, with its throughput and traffic.
+     *
+     * @param name of the sync in the log.
+     *
+     * @return
+     *
+     * @throws IOException
+     */
+    private PetSyncEngine.Result timeSync( String name ) throws IOException
+    {
+        mRegistry.resetCounts();
+        long start = SystemClock.uptimeMillis();
+        PetSyncEngine.Result result = mSyncEngine.sync();
+        long millis = Math.max( 1, SystemClock.uptimeMillis() - start );
+        Log.i( LOG_TAG, name + ": " + millis + " ms, "
+                + ( result.pushed + result.pulled ) * 1000L / millis + " pets/s, "
+                + mRegistry.getRequestCount() + " requests, "
+                + mRegistry.getBytesReceived() / 1024 + " KiB sent, "
+                + mRegistry.getBytesSent() / 1024 + " KiB received" );
+        return result;
+    }
+    
+    /**
+     * Sync until nothing is sent or received anymore, which takes at most three syncs: one
+     * pushing the pets received by the previous one, and one finding nothing.
+     *
+     * @throws IOException
+     */
+    private void syncUntilUnchanged() throws IOException
+    {
+        for ( int sync = 0; sync < 3; sync++ )
+        {
+            PetSyncEngine.Result result = mSyncEngine.sync();
+            if ( result.pushed == 0 && result.pulled == 0 )
+                return;
+        }
+        assertUnchanged( mSyncEngine.sync() );
+    }
+    
+    private static void assertUnchanged( PetSyncEngine.Result result )
+    {
+        assertEquals( 0, result.pushed );
+        assertEquals( 0, result.pulled );
+    }
+    
+    private static JSONObject registryPet( String syncId, int version, int i ) throws JSONException
+    {
+        JSONObject pet = new JSONObject()
+                .put( "sync_id", syncId )
+                .put( "version", version )
+                .put( "deleted", false )
+                .put( "name", NAME_PREFIX + syncId )
+                .put( "gender", i % 3 )
+                .put( "weight", 1 + i );
+        if ( i % 10 != 0 )
+            pet.put( "breed", BREEDS[ i % BREEDS.length ] );
+        return pet;
+    }
+    
+    private int countTestPets()
+    {
+        Cursor cursor = mContentResolver.query( PetEntry.CONTENT_URI, new String[]{ PetEntry._ID },
+                PetEntry.COLUMN_PET_NAME + " LIKE ?", new String[]{ NAME_PREFIX + "%" }, null );
+        assertNotNull( cursor );
+        try
+        {
+            return cursor.getCount();
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+    
+    private int readWeight( String syncId )
+    {
+        Cursor cursor = mContentResolver.query( PetEntry.CONTENT_URI, new String[]{ PetEntry.COLUMN_PET_WEIGHT },
+                PetEntry.COLUMN_PET_SYNC_ID + "=?", new String[]{ syncId }, null );
+        assertNotNull( cursor );
+        try
+        {
+            assertEquals( 1, cursor.getCount() );
+            cursor.moveToFirst();
+            return cursor.getInt( 0 );
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+}
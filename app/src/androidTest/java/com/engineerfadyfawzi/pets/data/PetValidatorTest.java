@@ -0,0 +1,112 @@
+package com.engineerfadyfawzi.pets.data;
+
+import android.content.ContentValues;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.engineerfadyfawzi.pets.data.PetContract.PetEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the {@link PetValidator} generated from the columns of {@link PetEntry} accepts
+ * exactly the values {@link PetValidation} allows. It needs ContentValues, so it runs on a device.
+ */
+@RunWith( AndroidJUnit4.class )
+public class PetValidatorTest
+{
+    @Test
+    public void gender_sameAsPetValidation()
+    {
+        for ( int gender = -2; gender <= 5; gender++ )
+        {
+            ContentValues values = validPet();
+            values.put( PetEntry.COLUMN_PET_GENDER, gender );
+            assertEquals( "gender " + gender, PetValidation.isValidGender( gender ), isValid( values, true ) );
+        }
+    }
+    
+    @Test
+    public void status_sameAsPetValidation()
+    {
+        for ( int status = -2; status <= 5; status++ )
+        {
+            ContentValues values = new ContentValues();
+            values.put( PetEntry.COLUMN_PET_STATUS, status );
+            assertEquals( "status " + status, PetValidation.isValidStatus( status ), isValid( values, false ) );
+        }
+    }
+    
+    @Test
+    public void insert_requiresNameAndGender()
+    {
+        assertTrue( isValid( validPet(), true ) );
+        
+        ContentValues withoutName = validPet();
+        withoutName.remove( PetEntry.COLUMN_PET_NAME );
+        assertFalse( isValid( withoutName, true ) );
+        
+        ContentValues emptyName = validPet();
+        emptyName.put( PetEntry.COLUMN_PET_NAME, "" );
+        assertFalse( isValid( emptyName, true ) );
+        
+        ContentValues withoutGender = validPet();
+        withoutGender.remove( PetEntry.COLUMN_PET_GENDER );
+        assertFalse( isValid( withoutGender, true ) );
+    }
+    
+    @Test
+    public void update_onlyChecksTheGivenValues()
+    {
+        // An update without a name keeps the name.
+        assertTrue( isValid( new ContentValues(), false ) );
+        
+        ContentValues nullName = new ContentValues();
+        nullName.putNull( PetEntry.COLUMN_PET_NAME );
+        assertFalse( isValid( nullName, false ) );
+    }
+    
+    @Test
+    public void weightAndVersion_minimums()
+    {
+        ContentValues values = new ContentValues();
+        values.put( PetEntry.COLUMN_PET_WEIGHT, 0 );
+        values.put( PetEntry.COLUMN_PET_VERSION, 1 );
+        assertTrue( isValid( values, false ) );
+        
+        values.put( PetEntry.COLUMN_PET_WEIGHT, -1 );
+        assertFalse( isValid( values, false ) );
+        
+        // The weight is optional, the version isn't.
+        values.putNull( PetEntry.COLUMN_PET_WEIGHT );
+        assertTrue( isValid( values, false ) );
+        values.put( PetEntry.COLUMN_PET_VERSION, 0 );
+        assertFalse( isValid( values, false ) );
+    }
+    
+    private static ContentValues validPet()
+    {
+        ContentValues values = new ContentValues();
+        values.put( PetEntry.COLUMN_PET_NAME, "Toto" );
+        values.put( PetEntry.COLUMN_PET_GENDER, PetValidation.GENDER_MALE );
+        return values;
+    }
+    
+    private static boolean isValid( ContentValues values, boolean isInsert )
+    {
+        try
+        {
+            PetValidator.validate( values, isInsert );
+            return true;
+        }
+        catch ( IllegalArgumentException illegalArgumentException )
+        {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.engineerfadyfawzi.pets.data;
+
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.ContentObserver;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.engineerfadyfawzi.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Queues bursts of pet inserts with a {@link PetWriteQueue} and counts the notifications of the
+ * pets URI: the provider notifies once per applied group, so one notification is one write
+ * (one transaction, one commit) of the queue.
+ */
+@RunWith( AndroidJUnit4.class )
+public class PetWriteQueueTest
+{
+    /**
+     * Time the notifications are given to reach the observer, they're delivered asynchronously.
+     */
+    private static final long NOTIFICATION_MILLIS = 500;
+    
+    private ContentResolver mContentResolver;
+    private HandlerThread mObserverThread;
+    private ContentObserver mObserver;
+    private final AtomicInteger mNotifications = new AtomicInteger();
+    private final List< Future< ContentProviderResult > > mInserts = new ArrayList<>();
+    
+    @Before
+    public void setUp()
+    {
+        mContentResolver = InstrumentationRegistry.getInstrumentation().getTargetContext().getContentResolver();
+        mObserverThread = new HandlerThread( "PetWriteQueueTest" );
+        mObserverThread.start();
+        mObserver = new ContentObserver( new Handler( mObserverThread.getLooper() ) )
+        {
+            @Override
+            public void onChange( boolean selfChange )
+            {
+                mNotifications.incrementAndGet();
+            }
+        };
+        mContentResolver.registerContentObserver( PetEntry.CONTENT_URI, true, mObserver );
+    }
+    
+    @After
+    public void tearDown() throws Exception
+    {
+        mContentResolver.unregisterContentObserver( mObserver );
+        mObserverThread.quit();
+        
+        for ( Future< ContentProviderResult > insert : mInserts )
+            mContentResolver.delete( insert.get().uri, null, null );
+    }
+    
+    @Test
+    public void burst_writtenOnce() throws Exception
+    {
+        PetWriteQueue queue = new PetWriteQueue( mContentResolver, 100, 1000, PetWriteQueue.Durability.FULL );
+        insertPets( queue, 20 );
+        waitForInserts();
+        
+        assertEquals( 1, mNotifications.get() );
+        queue.close();
+    }
+    
+    @Test
+    public void separateBursts_writtenOnceEach() throws Exception
+    {
+        PetWriteQueue queue = new PetWriteQueue( mContentResolver, 50, 1000, PetWriteQueue.Durability.RELAXED );
+        for ( int burst = 0; burst < 3; burst++ )
+        {
+            insertPets( queue, 5 );
+            waitForInserts();
+        }
+        
+        assertEquals( 3, mNotifications.get() );
+        queue.close();
+    }
+    
+    @Test
+    public void largeBurst_writtenEveryMaxOperations() throws Exception
+    {
+        // The delay is longer than the test, so only a full group or the close applies the writes.
+        PetWriteQueue queue = new PetWriteQueue( mContentResolver, 60000, 10, PetWriteQueue.Durability.FULL );
+        insertPets( queue, 25 );
+        queue.close();
+        waitForInserts();
+        
+        assertEquals( 3, mNotifications.get() );
+    }
+    
+    private void insertPets( PetWriteQueue queue, int count )
+    {
+        for ( int i = 0; i < count; i++ )
+        {
+            ContentValues values = new ContentValues();
+            values.put( PetEntry.COLUMN_PET_NAME, "Queued " + i );
+            values.put( PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_UNKNOWN );
+            mInserts.add( queue.insert( values ) );
+        }
+    }
+    
+    /**
+     * Wait for all the inserts, then for their notifications.
+     *
+     * @throws Exception
+     */
+    private void waitForInserts() throws Exception
+    {
+        for ( Future< ContentProviderResult > insert : mInserts )
+            assertNotNull( insert.get().uri );
+        SystemClock.sleep( NOTIFICATION_MILLIS );
+    }
+}
@@ -0,0 +1,363 @@
+package com.engineerfadyfawzi.pets.data;
+
+import android.net.Uri;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Stand-in of the central registry for the sync tests: a minimal HTTP/1.1 server on a local
+ * port of the test process, answering the push and pull requests of {@link PetSyncEngine} the
+ * way the registry does. It serves one connection at a time, and closes each after its answer.
+ *
+ * It keeps the latest copy of each pet, and the sequence number of the last change of each
+ * pet, which the pulls page through. A pushed pet is kept if its version is greater than the one
+ * of the registry, and a deleted pet stays deleted.
+ */
+final class RegistryServer implements Runnable
+{
+    private static final String JSON_PETS = "pets";
+    private static final String JSON_CONFLICTS = "conflicts";
+    private static final String JSON_NEXT = "next";
+    private static final String JSON_MORE = "more";
+    private static final String JSON_SYNC_ID = "sync_id";
+    private static final String JSON_VERSION = "version";
+    private static final String JSON_DELETED = "deleted";
+    
+    private final ServerSocket mServerSocket;
+    private final Thread mThread;
+    
+    /**
+     * Latest copy of each pet by sync id, and the sync id of each change by sequence number
+     * (only the last change of each pet is kept).
+     */
+    private final HashMap< String, JSONObject > mPets = new HashMap<>();
+    private final HashMap< String, Long > mChangeSeqs = new HashMap<>();
+    private final TreeMap< Long, String > mChanges = new TreeMap<>();
+    private long mSeq;
+    
+    /**
+     * Number of requests, and bytes received and sent in their bodies (as sent, compressed)
+     */
+    private int mRequests;
+    private long mBytesReceived;
+    private long mBytesSent;
+    
+    RegistryServer() throws IOException
+    {
+        mServerSocket = new ServerSocket( 0, 50, InetAddress.getByName( "127.0.0.1" ) );
+        mThread = new Thread( this, "RegistryServer" );
+        mThread.start();
+    }
+    
+    /**
+     * Return the base URL of the registry, for {@link PetSyncEngine}.
+     *
+     * @return
+     */
+    String getUrl()
+    {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort();
+    }
+    
+    void close() throws IOException, InterruptedException
+    {
+        mServerSocket.close();
+        mThread.join();
+    }
+    
+    /**
+     * Change a pet in the registry, as another device would through a push.
+     *
+     * @param pet
+     *
+     * @throws JSONException
+     */
+    synchronized void put( JSONObject pet ) throws JSONException
+    {
+        String syncId = pet.getString( JSON_SYNC_ID );
+        mPets.put( syncId, pet );
+        Long previousSeq = mChangeSeqs.put( syncId, ++mSeq );
+        if ( previousSeq != null )
+            mChanges.remove( previousSeq );
+        mChanges.put( mSeq, syncId );
+    }
+    
+    synchronized JSONObject get( String syncId )
+    {
+        return mPets.get( syncId );
+    }
+    
+    synchronized int getRequestCount()
+    {
+        return mRequests;
+    }
+    
+    synchronized long getBytesReceived()
+    {
+        return mBytesReceived;
+    }
+    
+    synchronized long getBytesSent()
+    {
+        return mBytesSent;
+    }
+    
+    synchronized void resetCounts()
+    {
+        mRequests = 0;
+        mBytesReceived = 0;
+        mBytesSent = 0;
+    }
+    
+    @Override
+    public void run()
+    {
+        while ( !mServerSocket.isClosed() )
+        {
+            try
+            {
+                Socket socket = mServerSocket.accept();
+                try
+                {
+                    serve( socket );
+                }
+                finally
+                {
+                    socket.close();
+                }
+            }
+            catch ( IOException | JSONException exception )
+            {
+                // Closed by close(), or a failed request, which fails the sync of the test.
+            }
+        }
+    }
+    
+    /**
+     * Read a request from the socket and write its answer.
+     *
+     * @param socket
+     *
+     * @throws IOException
+     * @throws JSONException
+     */
+    private void serve( Socket socket ) throws IOException, JSONException
+    {
+        InputStream input = new BufferedInputStream( socket.getInputStream() );
+        String[] requestLine = readLine( input ).split( " " );
+        Map< String, String > headers = new HashMap<>();
+        for ( String line = readLine( input ); !line.isEmpty(); line = readLine( input ) )
+        {
+            int colon = line.indexOf( ':' );
+            headers.put( line.substring( 0, colon ).trim().toLowerCase( Locale.US ), line.substring( colon + 1 ).trim() );
+        }
+        
+        byte[] body = readBody( input, headers );
+        int bodyLength = body.length;
+        if ( "gzip".equalsIgnoreCase( headers.get( "content-encoding" ) ) )
+            body = readAll( new GZIPInputStream( new ByteArrayInputStream( body ) ) );
+        
+        Uri uri = Uri.parse( requestLine[ 1 ] );
+        JSONObject answer;
+        if ( "POST".equals( requestLine[ 0 ] ) && "/push".equals( uri.getPath() ) )
+            answer = push( new JSONObject( new String( body, "UTF-8" ) ) );
+        else if ( "GET".equals( requestLine[ 0 ] ) && "/pull".equals( uri.getPath() ) )
+            answer = pull( Long.parseLong( uri.getQueryParameter( "since" ) ),
+                    Integer.parseInt( uri.getQueryParameter( "limit" ) ) );
+        else
+            answer = null;
+        
+        // The answer is compressed when it's asked for, as HttpURLConnection does by default.
+        String acceptEncoding = headers.get( "accept-encoding" );
+        boolean gzip = acceptEncoding != null && acceptEncoding.contains( "gzip" );
+        byte[] answerBody = new byte[ 0 ];
+        if ( answer != null )
+        {
+            answerBody = answer.toString().getBytes( "UTF-8" );
+            if ( gzip )
+            {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                OutputStream gzipOutput = new GZIPOutputStream( compressed );
+                gzipOutput.write( answerBody );
+                gzipOutput.close();
+                answerBody = compressed.toByteArray();
+            }
+        }
+        
+        OutputStream output = socket.getOutputStream();
+        output.write( ( "HTTP/1.1 " + ( answer == null ? "404 Not Found" : "200 OK" ) + "\r\n"
+                + "Content-Type: application/json; charset=utf-8\r\n"
+                + ( answer != null && gzip ? "Content-Encoding: gzip\r\n" : "" )
+                + "Content-Length: " + answerBody.length + "\r\n"
+                + "Connection: close\r\n\r\n" ).getBytes( "US-ASCII" ) );
+        output.write( answerBody );
+        output.flush();
+        
+        synchronized ( this )
+        {
+            mRequests++;
+            mBytesReceived += bodyLength;
+            mBytesSent += answerBody.length;
+        }
+    }
+    
+    /**
+     * Keep the pushed pets which are newer than the copies of the registry, and answer with the
+     * copies of the others.
+     *
+     * @param request
+     *
+     * @return
+     *
+     * @throws JSONException
+     */
+    private synchronized JSONObject push( JSONObject request ) throws JSONException
+    {
+        JSONArray pets = request.getJSONArray( JSON_PETS );
+        JSONArray conflicts = new JSONArray();
+        for ( int i = 0; i < pets.length(); i++ )
+        {
+            JSONObject pet = pets.getJSONObject( i );
+            JSONObject registryPet = mPets.get( pet.getString( JSON_SYNC_ID ) );
+            if ( registryPet != null && registryPet.optBoolean( JSON_DELETED, false ) )
+            {
+                if ( !pet.optBoolean( JSON_DELETED, false ) )
+                    conflicts.put( registryPet );
+            }
+            else if ( pet.optBoolean( JSON_DELETED, false ) || registryPet == null
+                    || pet.getInt( JSON_VERSION ) > registryPet.getInt( JSON_VERSION ) )
+                put( pet );
+            else
+                conflicts.put( registryPet );
+        }
+        return new JSONObject().put( JSON_CONFLICTS, conflicts );
+    }
+    
+    /**
+     * Answer with a page of the pets changed after the given sequence number.
+     *
+     * @param since
+     * @param limit
+     *
+     * @return
+     *
+     * @throws JSONException
+     */
+    private synchronized JSONObject pull( long since, int limit ) throws JSONException
+    {
+        JSONArray pets = new JSONArray();
+        long next = since;
+        Iterator< Map.Entry< Long, String > > changes = mChanges.tailMap( since, false ).entrySet().iterator();
+        while ( pets.length() < limit && changes.hasNext() )
+        {
+            Map.Entry< Long, String > change = changes.next();
+            pets.put( mPets.get( change.getValue() ) );
+            next = change.getKey();
+        }
+        return new JSONObject().put( JSON_PETS, pets ).put( JSON_NEXT, next ).put( JSON_MORE, changes.hasNext() );
+    }
+    
+    /**
+     * Read the body of a request, sent with a length or in chunks.
+     *
+     * @param input
+     * @param headers
+     *
+     * @return
+     *
+     * @throws IOException
+     */
+    private static byte[] readBody( InputStream input, Map< String, String > headers ) throws IOException
+    {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        if ( "chunked".equalsIgnoreCase( headers.get( "transfer-encoding" ) ) )
+        {
+            while ( true )
+            {
+                String sizeLine = readLine( input );
+                int semicolon = sizeLine.indexOf( ';' );
+                int size = Integer.parseInt( ( semicolon == -1 ? sizeLine : sizeLine.substring( 0, semicolon ) ).trim(), 16 );
+                if ( size == 0 )
+                {
+                    // The trailer, up to an empty line.
+                    String trailer;
+                    do
+                        trailer = readLine( input );
+                    while ( !trailer.isEmpty() );
+                    break;
+                }
+                copy( input, body, size );
+                readLine( input );
+            }
+        }
+        else if ( headers.containsKey( "content-length" ) )
+            copy( input, body, Integer.parseInt( headers.get( "content-length" ) ) );
+        
+        return body.toByteArray();
+    }
+    
+    private static void copy( InputStream input, ByteArrayOutputStream output, int length ) throws IOException
+    {
+        byte[] buffer = new byte[ 8192 ];
+        while ( length > 0 )
+        {
+            int read = input.read( buffer, 0, Math.min( buffer.length, length ) );
+            if ( read == -1 )
+                throw new IOException( "Request ended early" );
+            output.write( buffer, 0, read );
+            length -= read;
+        }
+    }
+    
+    private static byte[] readAll( InputStream input ) throws IOException
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[ 8192 ];
+        int read;
+        while ( ( read = input.read( buffer ) ) != -1 )
+            output.write( buffer, 0, read );
+        return output.toByteArray();
+    }
+    
+    /**
+     * Read a line of the request, without its CRLF.
+     *
+     * @param input
+     *
+     * @return
+     *
+     * @throws IOException
+     */
+    private static String readLine( InputStream input ) throws IOException
+    {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ( ( c = input.read() ) != '\n' )
+        {
+            if ( c == -1 )
+                throw new IOException( "Request ended early" );
+            if ( c != '\r' )
+                line.append( ( char ) c );
+        }
+        return line.toString();
+    }
+}
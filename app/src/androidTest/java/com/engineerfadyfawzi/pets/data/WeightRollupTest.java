@@ -0,0 +1,269 @@
+package com.engineerfadyfawzi.pets.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.engineerfadyfawzi.pets.data.PetContract.WeightEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Edits the weight measurements of a database of its own at random (inserts, updates of the
+ * weight and time, moves to another pet, deletes), and checks that the daily and monthly rollups
+ * kept by the triggers are the aggregates of the measurements. Then measures the latency of the
+ * weight trend of a pet read from the rollups, against the same trend aggregated from a million
+ * measurements.
+ */
+@RunWith( AndroidJUnit4.class )
+public class WeightRollupTest
+{
+    private static final String LOG_TAG = WeightRollupTest.class.getSimpleName();
+    
+    /**
+     * Shelter of the database of the test, so the pets of the app aren't touched
+     */
+    private static final String SHELTER_ID = "weight-rollup-test";
+    
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+    
+    /**
+     * Time of the first measurement, and the length of the history of a pet
+     */
+    private static final long START_MILLIS = 1500000000000L;
+    private static final long HISTORY_MILLIS = 800 * DAY_MILLIS;
+    
+    /**
+     * SQL expressions of the start of the day and of the month of a measurement, as PetDbHelper
+     * rolls it up.
+     */
+    private static final String DAY_START = "(" + WeightEntry.COLUMN_MEASURED + " / " + DAY_MILLIS + ") * " + DAY_MILLIS;
+    private static final String MONTH_START = "CAST(strftime('%s', " + WeightEntry.COLUMN_MEASURED + " / 1000,"
+            + " 'unixepoch', 'start of month') AS INTEGER) * 1000";
+    
+    private Context mContext;
+    private PetDbHelper mDbHelper;
+    private SQLiteDatabase mDatabase;
+    
+    @Before
+    public void setUp()
+    {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mContext.deleteDatabase( PetDbHelper.getShelterDatabaseName( SHELTER_ID ) );
+        mDbHelper = new PetDbHelper( mContext, SHELTER_ID );
+        mDatabase = mDbHelper.getWritableDatabase();
+    }
+    
+    @After
+    public void tearDown()
+    {
+        mDbHelper.close();
+        mContext.deleteDatabase( PetDbHelper.getShelterDatabaseName( SHELTER_ID ) );
+    }
+    
+    @Test
+    public void randomEdits_rollupsMatchMeasurements()
+    {
+        Random random = new Random( 40 );
+        List< Long > ids = new ArrayList<>();
+        for ( int edit = 0; edit < 3000; edit++ )
+        {
+            int operation = random.nextInt( 10 );
+            if ( operation < 4 || ids.isEmpty() )
+            {
+                ids.add( insertMeasurement( random.nextInt( 5 ) + 1, randomTime( random ),
+                        random.nextInt( 100 ) + 1 ) );
+                continue;
+            }
+            
+            String id = String.valueOf( ids.get( random.nextInt( ids.size() ) ) );
+            switch ( operation )
+            {
+                case 4:
+                case 5:
+                    mDatabase.delete( WeightEntry.TABLE_NAME, WeightEntry._ID + "=?", new String[]{ id } );
+                    ids.remove( Long.valueOf( id ) );
+                    break;
+                case 6:
+                    mDatabase.execSQL( "UPDATE " + WeightEntry.TABLE_NAME + " SET " + WeightEntry.COLUMN_WEIGHT
+                            + " = ? WHERE " + WeightEntry._ID + " = ?", new Object[]{ random.nextInt( 100 ) + 1, id } );
+                    break;
+                case 7:
+                    mDatabase.execSQL( "UPDATE " + WeightEntry.TABLE_NAME + " SET " + WeightEntry.COLUMN_MEASURED
+                            + " = ? WHERE " + WeightEntry._ID + " = ?", new Object[]{ randomTime( random ), id } );
+                    break;
+                case 8:
+                    // Moved to another pet.
+                    mDatabase.execSQL( "UPDATE " + WeightEntry.TABLE_NAME + " SET " + WeightEntry.COLUMN_PET_ID
+                            + " = ? WHERE " + WeightEntry._ID + " = ?", new Object[]{ random.nextInt( 5 ) + 1, id } );
+                    break;
+                default:
+                    // All the measurements of a pet shifted by a few hours, across the ends of
+                    // the days and months, and given a new weight.
+                    mDatabase.execSQL( "UPDATE " + WeightEntry.TABLE_NAME + " SET " + WeightEntry.COLUMN_MEASURED
+                            + " = " + WeightEntry.COLUMN_MEASURED + " + ?, " + WeightEntry.COLUMN_WEIGHT + " = ?"
+                            + " WHERE " + WeightEntry.COLUMN_PET_ID + " = ?", new Object[]{
+                            ( random.nextInt( 7 ) - 3 ) * 60 * 60 * 1000L, random.nextInt( 100 ) + 1,
+                            random.nextInt( 5 ) + 1 } );
+            }
+            
+            if ( edit % 10 == 0 )
+                assertRollupsMatchMeasurements();
+        }
+        assertRollupsMatchMeasurements();
+    }
+    
+    @Test
+    public void trendFromRollups_fasterThanFromMeasurements()
+    {
+        // A million measurements: 100 pets, each measured every 2 hours for about 2 years.
+        int pets = 100;
+        int measurementsPerPet = 10000;
+        long interval = HISTORY_MILLIS / measurementsPerPet;
+        long insertStart = SystemClock.uptimeMillis();
+        SQLiteStatement insert = mDatabase.compileStatement( "INSERT INTO " + WeightEntry.TABLE_NAME + " ("
+                + WeightEntry.COLUMN_PET_ID + ", " + WeightEntry.COLUMN_MEASURED + ", " + WeightEntry.COLUMN_WEIGHT
+                + ") VALUES (?, ?, ?)" );
+        mDatabase.beginTransaction();
+        try
+        {
+            for ( int pet = 1; pet <= pets; pet++ )
+                for ( int i = 0; i < measurementsPerPet; i++ )
+                {
+                    insert.bindLong( 1, pet );
+                    insert.bindLong( 2, START_MILLIS + i * interval );
+                    insert.bindLong( 3, 1000 + pet * 10 + i % 97 );
+                    insert.executeInsert();
+                }
+            mDatabase.setTransactionSuccessful();
+        }
+        finally
+        {
+            mDatabase.endTransaction();
+            insert.close();
+        }
+        Log.i( LOG_TAG, "Inserted " + pets * measurementsPerPet + " measurements in "
+                + ( SystemClock.uptimeMillis() - insertStart ) + " ms" );
+        
+        // The monthly trend of each pet, the way a chart reads it.
+        long rollupMillis = 0;
+        long measurementsMillis = 0;
+        for ( int pet = 1; pet <= pets; pet++ )
+        {
+            String[] petId = { String.valueOf( pet ) };
+            long start = SystemClock.uptimeMillis();
+            String fromRollups = readRows( "SELECT " + WeightEntry.COLUMN_PERIOD_START + ", "
+                    + WeightEntry.COLUMN_TOTAL_WEIGHT + " / " + WeightEntry.COLUMN_MEASUREMENTS + ", "
+                    + WeightEntry.COLUMN_MIN_WEIGHT + ", " + WeightEntry.COLUMN_MAX_WEIGHT
+                    + " FROM " + WeightEntry.MONTHLY_TABLE_NAME + " WHERE " + WeightEntry.COLUMN_PET_ID + " = ?"
+                    + " ORDER BY " + WeightEntry.COLUMN_PERIOD_START, petId );
+            rollupMillis += SystemClock.uptimeMillis() - start;
+            
+            start = SystemClock.uptimeMillis();
+            String fromMeasurements = readRows( "SELECT " + MONTH_START + " AS month, "
+                    + "SUM(" + WeightEntry.COLUMN_WEIGHT + ") / COUNT(*), "
+                    + "MIN(" + WeightEntry.COLUMN_WEIGHT + "), MAX(" + WeightEntry.COLUMN_WEIGHT + ")"
+                    + " FROM " + WeightEntry.TABLE_NAME + " WHERE " + WeightEntry.COLUMN_PET_ID + " = ?"
+                    + " GROUP BY month ORDER BY month", petId );
+            measurementsMillis += SystemClock.uptimeMillis() - start;
+            
+            assertEquals( fromMeasurements, fromRollups );
+        }
+        Log.i( LOG_TAG, "Monthly trend of " + pets + " pets: " + rollupMillis + " ms from the rollups, "
+                + measurementsMillis + " ms from the measurements" );
+        
+        assertTrue( "Rollups took " + rollupMillis + " ms, measurements " + measurementsMillis + " ms",
+                rollupMillis < measurementsMillis );
+    }
+    
+    private long insertMeasurement( long petId, long measured, int weight )
+    {
+        SQLiteStatement insert = mDatabase.compileStatement( "INSERT INTO " + WeightEntry.TABLE_NAME + " ("
+                + WeightEntry.COLUMN_PET_ID + ", " + WeightEntry.COLUMN_MEASURED + ", " + WeightEntry.COLUMN_WEIGHT
+                + ") VALUES (?, ?, ?)" );
+        try
+        {
+            insert.bindLong( 1, petId );
+            insert.bindLong( 2, measured );
+            insert.bindLong( 3, weight );
+            return insert.executeInsert();
+        }
+        finally
+        {
+            insert.close();
+        }
+    }
+    
+    private static long randomTime( Random random )
+    {
+        return START_MILLIS + ( long ) ( random.nextDouble() * HISTORY_MILLIS );
+    }
+    
+    /**
+     * Check that each rollup table has exactly one row per pet and period of the measurements,
+     * with their count, sum, minimum and maximum.
+     */
+    private void assertRollupsMatchMeasurements()
+    {
+        assertRollupMatchesMeasurements( WeightEntry.DAILY_TABLE_NAME, DAY_START );
+        assertRollupMatchesMeasurements( WeightEntry.MONTHLY_TABLE_NAME, MONTH_START );
+    }
+    
+    private void assertRollupMatchesMeasurements( String rollupTable, String periodStart )
+    {
+        String expected = readRows( "SELECT " + WeightEntry.COLUMN_PET_ID + ", " + periodStart + " AS period, "
+                + "COUNT(*), SUM(" + WeightEntry.COLUMN_WEIGHT + "), MIN(" + WeightEntry.COLUMN_WEIGHT + "), "
+                + "MAX(" + WeightEntry.COLUMN_WEIGHT + ") FROM " + WeightEntry.TABLE_NAME
+                + " GROUP BY " + WeightEntry.COLUMN_PET_ID + ", period ORDER BY " + WeightEntry.COLUMN_PET_ID + ", period",
+                null );
+        String actual = readRows( "SELECT " + WeightEntry.COLUMN_PET_ID + ", " + WeightEntry.COLUMN_PERIOD_START + ", "
+                + WeightEntry.COLUMN_MEASUREMENTS + ", " + WeightEntry.COLUMN_TOTAL_WEIGHT + ", "
+                + WeightEntry.COLUMN_MIN_WEIGHT + ", " + WeightEntry.COLUMN_MAX_WEIGHT + " FROM " + rollupTable
+                + " ORDER BY " + WeightEntry.COLUMN_PET_ID + ", " + WeightEntry.COLUMN_PERIOD_START, null );
+        assertEquals( rollupTable, expected, actual );
+    }
+    
+    /**
+     * Return the rows of a query as text, one line per row, so they're compared at once.
+     *
+     * @param sql
+     * @param selectionArgs
+     *
+     * @return
+     */
+    private String readRows( String sql, String[] selectionArgs )
+    {
+        StringBuilder rows = new StringBuilder();
+        Cursor cursor = mDatabase.rawQuery( sql, selectionArgs );
+        try
+        {
+            while ( cursor.moveToNext() )
+            {
+                for ( int column = 0; column < cursor.getColumnCount(); column++ )
+                    rows.append( cursor.getLong( column ) ).append( ' ' );
+                rows.append( '\n' );
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+        return rows.toString();
+    }
+}
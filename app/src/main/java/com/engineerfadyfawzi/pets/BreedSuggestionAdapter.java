@@ -0,0 +1,188 @@
+package com.engineerfadyfawzi.pets;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.os.AsyncTask;
+import android.widget.ArrayAdapter;
+import android.widget.Filter;
+
+import com.engineerfadyfawzi.pets.data.BreedIndex;
+import com.engineerfadyfawzi.pets.data.PetContract.BreedEntry;
+import com.engineerfadyfawzi.pets.data.PetContract.PetEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link BreedSuggestionAdapter} is an adapter for an AutoCompleteTextView that suggests the
+ * most common breeds starting with what the user typed.
+ *
+ * Suggestions are served from a {@link BreedIndex} held in memory, which is loaded once in the
+ * background and loaded again (on the next keystroke) only after the pets have changed.
+ */
+public class BreedSuggestionAdapter extends ArrayAdapter< String >
+{
+    /**
+     * Maximum number of breeds suggested at once
+     */
+    private static final int MAX_SUGGESTIONS = 5;
+    
+    /**
+     * Content resolver used to load the breeds
+     */
+    private final ContentResolver mContentResolver;
+    
+    /**
+     * The current breed index, or null if it hasn't been loaded yet or it's stale.
+     */
+    private volatile BreedIndex mBreedIndex;
+    
+    /**
+     * Number of pet changes seen so far, so a load that raced with a change isn't kept.
+     */
+    private volatile int mChangeCount;
+    
+    /**
+     * Observer that marks the breed index stale whenever the pets change.
+     */
+    private final ContentObserver mPetsObserver = new ContentObserver( null )
+    {
+        @Override
+        public void onChange( boolean selfChange )
+        {
+            mChangeCount++;
+            mBreedIndex = null;
+        }
+    };
+    
+    /**
+     * Filter that looks up the suggestions. Filtering runs on a background thread.
+     */
+    private final Filter mBreedFilter = new Filter()
+    {
+        @Override
+        protected FilterResults performFiltering( CharSequence constraint )
+        {
+            List< String > suggestions = constraint == null ? new ArrayList< String >()
+                    : getBreedIndex().suggest( constraint.toString(), MAX_SUGGESTIONS );
+            
+            FilterResults results = new FilterResults();
+            results.values = suggestions;
+            results.count = suggestions.size();
+            return results;
+        }
+        
+        @Override
+        @SuppressWarnings( "unchecked" )
+        protected void publishResults( CharSequence constraint, FilterResults results )
+        {
+            setNotifyOnChange( false );
+            clear();
+            if ( results.values != null )
+                addAll( ( List< String > ) results.values );
+            notifyDataSetChanged();
+        }
+    };
+    
+    /**
+     * Constructs a new {@link BreedSuggestionAdapter}, and starts loading the breeds.
+     *
+     * @param context the context (of the app)
+     */
+    public BreedSuggestionAdapter( Context context )
+    {
+        super( context, android.R.layout.simple_dropdown_item_1line, new ArrayList< String >() );
+        mContentResolver = context.getContentResolver();
+        
+        // Load the index before the user starts typing, so the first suggestion is instant too.
+        AsyncTask.THREAD_POOL_EXECUTOR.execute( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                getBreedIndex();
+            }
+        } );
+    }
+    
+    /**
+     * Start listening for pet changes to keep the suggestions fresh.
+     */
+    public void registerObserver()
+    {
+        mContentResolver.registerContentObserver( PetEntry.CONTENT_URI, true, mPetsObserver );
+    }
+    
+    /**
+     * Stop listening for pet changes. Call this when the adapter isn't used anymore.
+     */
+    public void unregisterObserver()
+    {
+        mContentResolver.unregisterContentObserver( mPetsObserver );
+    }
+    
+    @Override
+    public Filter getFilter()
+    {
+        return mBreedFilter;
+    }
+    
+    /**
+     * Return the breed index, loading it from the provider if needed. Must not be called on
+     * the main thread.
+     *
+     * @return
+     */
+    private synchronized BreedIndex getBreedIndex()
+    {
+        BreedIndex breedIndex = mBreedIndex;
+        if ( breedIndex == null )
+        {
+            int changeCount = mChangeCount;
+            breedIndex = loadBreedIndex( mContentResolver );
+            
+            // If the pets changed while loading, use this index once but load again next time.
+            if ( changeCount == mChangeCount )
+                mBreedIndex = breedIndex;
+        }
+        
+        return breedIndex;
+    }
+    
+    /**
+     * Load an index of all the breeds from the provider. This queries the database, so it must
+     * not be called on the main thread.
+     *
+     * @param contentResolver
+     *
+     * @return
+     */
+    private static BreedIndex loadBreedIndex( ContentResolver contentResolver )
+    {
+        String[] projection = { BreedEntry.COLUMN_BREED_NAME, BreedEntry.COLUMN_BREED_PET_COUNT };
+        Cursor cursor = contentResolver.query( BreedEntry.CONTENT_URI, projection, null, null, null );
+        if ( cursor == null )
+            return BreedIndex.EMPTY;
+        
+        try
+        {
+            String[] names = new String[ cursor.getCount() ];
+            int[] counts = new int[ names.length ];
+            int row = 0;
+            while ( cursor.moveToNext() )
+            {
+                names[ row ] = cursor.getString( 0 );
+                counts[ row ] = cursor.getInt( 1 );
+                row++;
+            }
+            
+            return new BreedIndex( names, counts );
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+}
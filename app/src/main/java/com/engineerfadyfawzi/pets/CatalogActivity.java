@@ -2,49 +2,154 @@ package com.engineerfadyfawzi.pets;
 
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
-import androidx.loader.app.LoaderManager;
-import androidx.loader.content.CursorLoader;
-import androidx.loader.content.Loader;
 
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.text.format.Formatter;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
 import android.widget.ListView;
+import android.widget.Toast;
 
+import com.engineerfadyfawzi.pets.data.CatalogSnapshot;
+import com.engineerfadyfawzi.pets.data.LivePetQuery;
+import com.engineerfadyfawzi.pets.data.PetContract;
 import com.engineerfadyfawzi.pets.data.PetContract.PetEntry;
+import com.engineerfadyfawzi.pets.data.PetContract.TagEntry;
+import com.engineerfadyfawzi.pets.data.PetDbHelper;
+import com.engineerfadyfawzi.pets.data.PetRow;
+import com.engineerfadyfawzi.pets.data.PetStorageProfile;
+import com.engineerfadyfawzi.pets.data.PetWriter;
 
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
+import com.google.android.material.snackbar.Snackbar;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
 
 /**
  * Display list of pets that were entered and stored in the app.
  */
-public class CatalogActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks< Cursor >
+public class CatalogActivity extends AppCompatActivity
 {
     /**
-     * Identifies for the pet data loader
+     * Name of the directory (in the app's files directory) holding the backups,
+     * and suffix of the backup files
+     */
+    private static final String BACKUP_DIRECTORY = "backups";
+    private static final String BACKUP_SUFFIX = ".db.gz";
+    
+    /**
+     * Name of the directory (in the app's files directory) holding the recorded call traces,
+     * and suffix of the trace files
+     */
+    private static final String TRACE_DIRECTORY = "traces";
+    private static final String TRACE_SUFFIX = ".trace.gz";
+    
+    /**
+     * Request code of the editor opened on an existing pet
+     */
+    private static final int EDIT_PET_REQUEST = 1;
+    
+    /**
+     * Live list of the pets shown in the ListView
      */
-    private static final int PET_LOADER = 0;
+    private LivePetQuery mLivePetQuery;
+    
+    /**
+     * Listener of the live list, kept when the list is replaced by a filtered one
+     */
+    private LivePetQuery.Listener mLivePetQueryListener;
+    
+    /**
+     * Tags filtering the list: the pets have all of mAllTags and one of mAnyTags, if any.
+     */
+    private ArrayList< String > mAllTags = new ArrayList<>();
+    private ArrayList< String > mAnyTags = new ArrayList<>();
     
     /**
      * Adapter for the ListView
      */
     private PetCursorAdapter mPetCursorAdapter;
     
+    /**
+     * Number of rows before and after the visible ones prefetched for the editor
+     */
+    private static final int PREFETCH_MARGIN_ROWS = 10;
+    
+    /**
+     * Name of the file (in the app's files directory) of the {@link CatalogSnapshot}
+     */
+    private static final String CATALOG_SNAPSHOT_FILE = "catalog.snapshot";
+    
+    /**
+     * Time without changes after which the snapshot is written
+     */
+    private static final long SNAPSHOT_DELAY_MILLIS = 1000;
+    
+    private File mSnapshotFile;
+    private final Handler mSnapshotHandler = new Handler( Looper.getMainLooper() );
+    private boolean mSnapshotPending;
+    
+    /**
+     * Copy the first rows (on the main thread, where they change) and write them in the background.
+     * The writes run one after the other, so the last rows are written last.
+     */
+    private final Runnable mWriteSnapshot = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            mSnapshotPending = false;
+            final List< PetRow > rows = mLivePetQuery.getFirstRows( CatalogSnapshot.MAX_ROWS );
+            final File snapshotFile = mSnapshotFile;
+            AsyncTask.SERIAL_EXECUTOR.execute( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    CatalogSnapshot.write( snapshotFile, rows );
+                }
+            } );
+        }
+    };
+    
     @Override
     protected void onCreate( Bundle savedInstanceState )
     {
         super.onCreate( savedInstanceState );
+        final long createTime = SystemClock.elapsedRealtime();
         setContentView( R.layout.activity_catalog );
         
+        if ( savedInstanceState != null )
+        {
+            mAllTags = savedInstanceState.getStringArrayList( "mAllTags" );
+            mAnyTags = savedInstanceState.getStringArrayList( "mAnyTags" );
+        }
+        
         // Setup FAB to open EditorActivity
         FloatingActionButton fab = findViewById( R.id.fab );
         fab.setOnClickListener( new View.OnClickListener()
@@ -58,18 +163,56 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         } );
         
         // Find the ListView which will be populated with the pet data.
-        ListView petListView = findViewById( R.id.list_view );
+        final ListView petListView = findViewById( R.id.list_view );
         
         // Find and set empty view on the ListView, so that it only shows when the list has 0 items.
         View emptyView = findViewById( R.id.empty_view );
         petListView.setEmptyView( emptyView );
         
         // Setup an Adapter to create a list item for each row of pet data in the Cursor.
-        // There is no pet data yet (until the loader finishes) so pass in null for the Cursor.
+        // There is no pet data yet (until the live query is set up) so pass in null for the Cursor.
         mPetCursorAdapter = new PetCursorAdapter( this, null );
         // Attach cursor adapter to the ListView.
         petListView.setAdapter( mPetCursorAdapter );
         
+        // Cancel the thumbnail requests of the rows scrolled off-screen, so the photos of the
+        // rows the user scrolled past don't delay the ones on screen.
+        petListView.setRecyclerListener( new AbsListView.RecyclerListener()
+        {
+            @Override
+            public void onMovedToScrapHeap( View view )
+            {
+                mPetCursorAdapter.cancelThumbnail( view );
+            }
+        } );
+        
+        // Read the whole rows of the pets on screen and of the next and previous ones in the
+        // background, so the editor opened by a tap shows the pet right away. It's also called
+        // after each layout, so the first rows are prefetched as soon as they're shown.
+        final PetPrefetchCache petPrefetchCache = PetPrefetchCache.getInstance( this );
+        petListView.setOnScrollListener( new AbsListView.OnScrollListener()
+        {
+            @Override
+            public void onScrollStateChanged( AbsListView view, int scrollState )
+            {
+            
+            }
+            
+            @Override
+            public void onScroll( AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount )
+            {
+                int first = Math.max( 0, firstVisibleItem - PREFETCH_MARGIN_ROWS );
+                int last = Math.min( totalItemCount, firstVisibleItem + visibleItemCount + PREFETCH_MARGIN_ROWS );
+                if ( first >= last )
+                    return;
+                
+                long[] ids = new long[ last - first ];
+                for ( int position = first; position < last; position++ )
+                    ids[ position - first ] = mPetCursorAdapter.getItemId( position );
+                petPrefetchCache.prefetch( ids );
+            }
+        } );
+        
         // Setup item click listener
         petListView.setOnItemClickListener( new AdapterView.OnItemClickListener()
         {
@@ -89,14 +232,263 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
                 // Set the URI on the data field of the intent
                 editPetIntent.setData( editPetUri );
                 
-                // Launch the {@link EditorActivity} to display the data for the current pet.
-                startActivity( editPetIntent );
+                // Launch the {@link EditorActivity} to display the data for the current pet, and
+                // offer to undo the delete if the pet is deleted there.
+                startActivityForResult( editPetIntent, EDIT_PET_REQUEST );
             }
         } );
         
-        // Initializes the CursorLoader. The PET_LOADER value is eventually passed to onCreateLoader().
-        // Kick off the loader
-        getSupportLoaderManager().initLoader( PET_LOADER, null, this );
+        // Load the pets in the background and keep them up to date. Instead of querying all the
+        // pets again after each change (like a CursorLoader does), the live query only queries
+        // the changed pet, and updates the rows of the cursor shown by the adapter in place.
+        mLivePetQuery = createLivePetQuery();
+        mPetCursorAdapter.swapCursor( mLivePetQuery.getCursor() );
+        
+        // Show the rows of the snapshot right away (reading it is a small memory mapped read),
+        // until the live query loads the current rows and replaces them. The snapshot is the
+        // whole catalog, so it isn't shown for a filtered list.
+        mSnapshotFile = new File( getFilesDir(), CATALOG_SNAPSHOT_FILE );
+        List< PetRow > snapshotRows = isFilteredByTags() ? null : CatalogSnapshot.read( mSnapshotFile );
+        if ( snapshotRows != null )
+            mLivePetQuery.setInitialRows( snapshotRows );
+        
+        mLivePetQueryListener = new LivePetQuery.Listener()
+        {
+            private boolean mFirstLoad = true;
+            
+            @Override
+            public void onReloaded()
+            {
+                scheduleSnapshot();
+                if ( !mFirstLoad )
+                    return;
+                
+                // Report when the first rows are laid out: the time is logged, and the system
+                // logs it too as "Fully drawn" (and returns it from "adb shell am start -W"),
+                // to measure startup.
+                mFirstLoad = false;
+                petListView.post( new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        Log.i( "CatalogActivity", "First rows shown "
+                                + ( SystemClock.elapsedRealtime() - createTime ) + " ms after onCreate" );
+                        if ( Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT )
+                            reportFullyDrawn();
+                    }
+                } );
+            }
+            
+            @Override
+            public void onRowInserted( int position )
+            {
+                scheduleSnapshot();
+            }
+            
+            @Override
+            public void onRowRemoved( int position )
+            {
+                scheduleSnapshot();
+            }
+            
+            @Override
+            public void onRowChanged( int position )
+            {
+                scheduleSnapshot();
+            }
+            
+            @Override
+            public void onRowMoved( int fromPosition, int toPosition )
+            {
+                scheduleSnapshot();
+            }
+        };
+        mLivePetQuery.setListener( mLivePetQueryListener );
+        mLivePetQuery.start();
+    }
+    
+    @Override
+    protected void onSaveInstanceState( Bundle outState )
+    {
+        super.onSaveInstanceState( outState );
+        outState.putStringArrayList( "mAllTags", mAllTags );
+        outState.putStringArrayList( "mAnyTags", mAnyTags );
+    }
+    
+    /**
+     * Return a live query of the pets with the tags of the filter, if any.
+     *
+     * @return
+     */
+    private LivePetQuery createLivePetQuery()
+    {
+        return new LivePetQuery( getContentResolver(), TagEntry.buildTaggedPetsUri( mAllTags, mAnyTags ),
+                null, null, PetRow.BY_ID );
+    }
+    
+    private boolean isFilteredByTags()
+    {
+        return !mAllTags.isEmpty() || !mAnyTags.isEmpty();
+    }
+    
+    /**
+     * Replace the list with the pets with the given tags. The provider finds them with its tag
+     * index, and only those pets are read.
+     *
+     * @param allTags
+     * @param anyTags
+     */
+    private void setTagFilter( ArrayList< String > allTags, ArrayList< String > anyTags )
+    {
+        // The pending snapshot is of the current list, so it's written before the list changes.
+        if ( mSnapshotPending )
+        {
+            mSnapshotHandler.removeCallbacks( mWriteSnapshot );
+            mWriteSnapshot.run();
+        }
+        
+        mAllTags = allTags;
+        mAnyTags = anyTags;
+        mLivePetQuery.stop();
+        mLivePetQuery = createLivePetQuery();
+        mLivePetQuery.setListener( mLivePetQueryListener );
+        mPetCursorAdapter.swapCursor( mLivePetQuery.getCursor() );
+        mLivePetQuery.start();
+    }
+    
+    /**
+     * Read the tags in the background, then let the user pick the tags of the pets to show.
+     */
+    private void showTagFilterDialog()
+    {
+        final ContentResolver contentResolver = getContentResolver();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                final ArrayList< String > tags = new ArrayList<>();
+                Cursor cursor = contentResolver.query( TagEntry.CONTENT_URI, new String[]{ TagEntry.COLUMN_TAG_NAME },
+                        null, null, null );
+                if ( cursor != null )
+                {
+                    try
+                    {
+                        while ( cursor.moveToNext() )
+                            tags.add( cursor.getString( 0 ) );
+                    }
+                    finally
+                    {
+                        cursor.close();
+                    }
+                }
+                
+                new Handler( Looper.getMainLooper() ).post( new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        if ( !isFinishing() )
+                            showTagFilterDialog( tags );
+                    }
+                } );
+            }
+        } );
+    }
+    
+    /**
+     * Let the user pick the tags of the pets to show, checking the tags of the current filter.
+     *
+     * @param tags
+     */
+    private void showTagFilterDialog( final ArrayList< String > tags )
+    {
+        if ( tags.isEmpty() )
+        {
+            Toast.makeText( this, R.string.catalog_no_tags, Toast.LENGTH_SHORT ).show();
+            return;
+        }
+        
+        final boolean[] checked = new boolean[ tags.size() ];
+        for ( int i = 0; i < tags.size(); i++ )
+            checked[ i ] = mAllTags.contains( tags.get( i ) ) || mAnyTags.contains( tags.get( i ) );
+        
+        new AlertDialog.Builder( this )
+                .setTitle( R.string.filter_tags_dialog_title )
+                .setMultiChoiceItems( tags.toArray( new String[ 0 ] ), checked,
+                        new DialogInterface.OnMultiChoiceClickListener()
+                        {
+                            @Override
+                            public void onClick( DialogInterface dialogInterface, int which, boolean isChecked )
+                            {
+                                checked[ which ] = isChecked;
+                            }
+                        } )
+                .setPositiveButton( R.string.filter_tags_all, new DialogInterface.OnClickListener()
+                {
+                    @Override
+                    public void onClick( DialogInterface dialogInterface, int id )
+                    {
+                        setTagFilter( getCheckedTags( tags, checked ), new ArrayList< String >() );
+                    }
+                } )
+                .setNeutralButton( R.string.filter_tags_any, new DialogInterface.OnClickListener()
+                {
+                    @Override
+                    public void onClick( DialogInterface dialogInterface, int id )
+                    {
+                        setTagFilter( new ArrayList< String >(), getCheckedTags( tags, checked ) );
+                    }
+                } )
+                .setNegativeButton( R.string.filter_tags_clear, new DialogInterface.OnClickListener()
+                {
+                    @Override
+                    public void onClick( DialogInterface dialogInterface, int id )
+                    {
+                        setTagFilter( new ArrayList< String >(), new ArrayList< String >() );
+                    }
+                } )
+                .show();
+    }
+    
+    private static ArrayList< String > getCheckedTags( List< String > tags, boolean[] checked )
+    {
+        ArrayList< String > checkedTags = new ArrayList<>();
+        for ( int i = 0; i < tags.size(); i++ )
+            if ( checked[ i ] )
+                checkedTags.add( tags.get( i ) );
+        return checkedTags;
+    }
+    
+    @Override
+    protected void onDestroy()
+    {
+        super.onDestroy();
+        
+        // Stop updating the pets, and clear out the adapter's reference to the cursor.
+        // A pending snapshot is written right away, the rows won't change anymore.
+        if ( mSnapshotPending )
+        {
+            mSnapshotHandler.removeCallbacks( mWriteSnapshot );
+            mWriteSnapshot.run();
+        }
+        mLivePetQuery.stop();
+        mPetCursorAdapter.swapCursor( null );
+    }
+    
+    /**
+     * Write the snapshot once the rows haven't changed for {@link #SNAPSHOT_DELAY_MILLIS},
+     * so a burst of changes only writes it once. A filtered list isn't written.
+     */
+    private void scheduleSnapshot()
+    {
+        if ( isFilteredByTags() )
+            return;
+        
+        mSnapshotPending = true;
+        mSnapshotHandler.removeCallbacks( mWriteSnapshot );
+        mSnapshotHandler.postDelayed( mWriteSnapshot, SNAPSHOT_DELAY_MILLIS );
     }
     
     /**
@@ -106,11 +498,12 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
     {
         // Create a ContentValues object where column names are the keys,
         // and Toto's pet attributes are the values.
-        ContentValues values = new ContentValues();
-        values.put( PetEntry.COLUMN_PET_NAME, "Toto" );
-        values.put( PetEntry.COLUMN_PET_BREED, "Terrier" );
-        values.put( PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_MALE );
-        values.put( PetEntry.COLUMN_PET_WEIGHT, 7 );
+        ContentValues values = new PetWriter()
+                .setName( "Toto" )
+                .setBreed( "Terrier" )
+                .setGender( PetEntry.GENDER_MALE )
+                .setWeight( 7 )
+                .getValues();
         
         // Insert a new row for Toto in the provider using the ContentResolver.
         // Use the {@link PetEntry#CONTENT_URI} to indicate that we want to insert
@@ -127,8 +520,323 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
      */
     private void deleteAllPets()
     {
-        int rowsDeleted = getContentResolver().delete( PetEntry.CONTENT_URI, null, null );
+        // The pets are only marked as deleted, and counted without reading them, so this is
+        // quick however many pets there are.
+        Bundle result = getContentResolver().call( PetEntry.CONTENT_URI, PetContract.METHOD_DELETE,
+                PetEntry.CONTENT_URI.toString(), null );
+        int rowsDeleted = result.getInt( PetContract.EXTRA_DELETED_PETS );
         Log.v( "CatalogActivity", rowsDeleted + " rows deleted from pet database" );
+        if ( rowsDeleted > 0 )
+            showUndoDelete( R.string.catalog_delete_pets_successful, result.getLong( PetContract.EXTRA_DELETION_ID ) );
+    }
+    
+    @Override
+    protected void onActivityResult( int requestCode, int resultCode, Intent data )
+    {
+        super.onActivityResult( requestCode, resultCode, data );
+        if ( requestCode == EDIT_PET_REQUEST && resultCode == EditorActivity.RESULT_PET_DELETED && data != null )
+            showUndoDelete( R.string.editor_delete_pet_successful,
+                    data.getLongExtra( PetContract.EXTRA_DELETION_ID, -1 ) );
+    }
+    
+    /**
+     * Show a snackbar with the message of a delete, and an action undoing it. The snackbar lasts
+     * less than the time during which the delete can be undone.
+     *
+     * @param messageId
+     * @param deletionId of the delete, see {@link PetContract#EXTRA_DELETION_ID}.
+     */
+    private void showUndoDelete( int messageId, final long deletionId )
+    {
+        Snackbar.make( findViewById( R.id.list_view ), messageId, Snackbar.LENGTH_LONG )
+                .setAction( R.string.undo, new View.OnClickListener()
+                {
+                    @Override
+                    public void onClick( View view )
+                    {
+                        undoDelete( deletionId );
+                    }
+                } )
+                .show();
+    }
+    
+    /**
+     * Undo a delete of pets in the background. The list shows the pets again when the provider
+     * notifies the change.
+     *
+     * @param deletionId
+     */
+    private void undoDelete( long deletionId )
+    {
+        final Context appContext = getApplicationContext();
+        final Bundle extras = new Bundle();
+        extras.putLong( PetContract.EXTRA_DELETION_ID, deletionId );
+        AsyncTask.THREAD_POOL_EXECUTOR.execute( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                Bundle result = appContext.getContentResolver().call( PetEntry.CONTENT_URI,
+                        PetContract.METHOD_UNDO_DELETE, null, extras );
+                if ( result == null || result.getInt( PetContract.EXTRA_UNDELETED_PETS ) == 0 )
+                    postToast( appContext, appContext.getString( R.string.catalog_undo_delete_failed ) );
+            }
+        } );
+    }
+    
+    /**
+     * Return the directory of the backups, in the app's external storage if available so the
+     * backups can be copied off the device.
+     *
+     * @return
+     */
+    private File getBackupDirectory()
+    {
+        File directory = getExternalFilesDir( BACKUP_DIRECTORY );
+        return directory != null ? directory : new File( getFilesDir(), BACKUP_DIRECTORY );
+    }
+    
+    /**
+     * Back up all the pets to a new file in the background, and show its size and duration.
+     */
+    private void backupPets()
+    {
+        String timestamp = new SimpleDateFormat( "yyyyMMdd-HHmmss", Locale.US ).format( new Date() );
+        final File backupFile = new File( getBackupDirectory(), "shelter-" + timestamp + BACKUP_SUFFIX );
+        runBackupCall( PetContract.METHOD_BACKUP, backupFile,
+                R.string.catalog_backup_successful, R.string.catalog_backup_failed );
+    }
+    
+    /**
+     * Prompt the user to confirm that they want to replace all the pets with the latest backup.
+     */
+    private void showRestoreConfirmationDialog()
+    {
+        File latestBackup = null;
+        File[] backupFiles = getBackupDirectory().listFiles();
+        if ( backupFiles != null )
+        {
+            for ( File backupFile : backupFiles )
+            {
+                if ( backupFile.getName().endsWith( BACKUP_SUFFIX ) && ( latestBackup == null
+                        || backupFile.lastModified() > latestBackup.lastModified() ) )
+                    latestBackup = backupFile;
+            }
+        }
+        
+        if ( latestBackup == null )
+        {
+            Toast.makeText( this, R.string.catalog_no_backup, Toast.LENGTH_SHORT ).show();
+            return;
+        }
+        
+        final File restoreFile = latestBackup;
+        String backupDate = DateFormat.getDateTimeInstance().format( new Date( restoreFile.lastModified() ) );
+        new AlertDialog.Builder( this )
+                .setMessage( getString( R.string.restore_dialog_msg, backupDate ) )
+                .setPositiveButton( R.string.restore, new DialogInterface.OnClickListener()
+                {
+                    @Override
+                    public void onClick( DialogInterface dialogInterface, int id )
+                    {
+                        runBackupCall( PetContract.METHOD_RESTORE, restoreFile,
+                                R.string.catalog_restore_successful, R.string.catalog_restore_failed );
+                    }
+                } )
+                .setNegativeButton( R.string.cancel, null )
+                .show();
+    }
+    
+    /**
+     * Call the backup or restore method of the provider with the file in the background,
+     * then show the size and duration, or the failure.
+     *
+     * @param method          {@link PetContract#METHOD_BACKUP} or {@link PetContract#METHOD_RESTORE}.
+     * @param file            to write the backup to, or to read it from.
+     * @param successfulResId message with the size and the duration.
+     * @param failedResId     message of a failure.
+     */
+    private void runBackupCall( final String method, final File file, final int successfulResId,
+            final int failedResId )
+    {
+        final Context appContext = getApplicationContext();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                String message;
+                try
+                {
+                    int mode = PetContract.METHOD_BACKUP.equals( method )
+                            ? ParcelFileDescriptor.MODE_WRITE_ONLY | ParcelFileDescriptor.MODE_CREATE
+                            | ParcelFileDescriptor.MODE_TRUNCATE
+                            : ParcelFileDescriptor.MODE_READ_ONLY;
+                    file.getParentFile().mkdirs();
+                    
+                    Bundle extras = new Bundle();
+                    extras.putParcelable( PetContract.EXTRA_FILE_DESCRIPTOR, ParcelFileDescriptor.open( file, mode ) );
+                    Bundle result = appContext.getContentResolver().call( PetEntry.CONTENT_URI, method, null, extras );
+                    
+                    message = appContext.getString( successfulResId,
+                            Formatter.formatShortFileSize( appContext, result.getLong( PetContract.EXTRA_BACKUP_BYTES ) ),
+                            result.getLong( PetContract.EXTRA_BACKUP_MILLIS ) );
+                }
+                catch ( IOException | RuntimeException exception )
+                {
+                    Log.e( "CatalogActivity", "Failed to " + method + " " + file, exception );
+                    if ( PetContract.METHOD_BACKUP.equals( method ) )
+                        file.delete();
+                    message = appContext.getString( failedResId );
+                }
+                
+                final String toastMessage = message;
+                new Handler( Looper.getMainLooper() ).post( new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        Toast.makeText( appContext, toastMessage, Toast.LENGTH_LONG ).show();
+                    }
+                } );
+            }
+        } );
+    }
+    
+    /**
+     * Start recording the calls of the provider to a new trace file in the background, so the
+     * workload can be replayed by
+     * {@link com.engineerfadyfawzi.pets.data.PetTraceReplayer}. The file is in the app's external
+     * storage if available, like the backups, so it can be copied off the device.
+     */
+    private void startRecording()
+    {
+        File directory = getExternalFilesDir( TRACE_DIRECTORY );
+        String timestamp = new SimpleDateFormat( "yyyyMMdd-HHmmss", Locale.US ).format( new Date() );
+        final File traceFile = new File( directory != null ? directory : new File( getFilesDir(), TRACE_DIRECTORY ),
+                "calls-" + timestamp + TRACE_SUFFIX );
+        final Context appContext = getApplicationContext();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                String message;
+                try
+                {
+                    traceFile.getParentFile().mkdirs();
+                    Bundle extras = new Bundle();
+                    extras.putParcelable( PetContract.EXTRA_FILE_DESCRIPTOR, ParcelFileDescriptor.open( traceFile,
+                            ParcelFileDescriptor.MODE_WRITE_ONLY | ParcelFileDescriptor.MODE_CREATE
+                                    | ParcelFileDescriptor.MODE_TRUNCATE ) );
+                    appContext.getContentResolver().call( PetEntry.CONTENT_URI, PetContract.METHOD_START_RECORDING,
+                            null, extras );
+                    message = appContext.getString( R.string.catalog_recording_started, traceFile.getName() );
+                }
+                catch ( IOException | RuntimeException exception )
+                {
+                    Log.e( "CatalogActivity", "Failed to start recording to " + traceFile, exception );
+                    traceFile.delete();
+                    message = appContext.getString( R.string.catalog_recording_failed );
+                }
+                
+                postToast( appContext, message );
+            }
+        } );
+    }
+    
+    /**
+     * Stop recording the calls of the provider in the background, and show how many were recorded.
+     */
+    private void stopRecording()
+    {
+        final Context appContext = getApplicationContext();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                Bundle result = appContext.getContentResolver().call( PetEntry.CONTENT_URI,
+                        PetContract.METHOD_STOP_RECORDING, null, null );
+                postToast( appContext, appContext.getString( R.string.catalog_recording_stopped,
+                        result == null ? 0 : result.getInt( PetContract.EXTRA_RECORDED_CALLS ) ) );
+            }
+        } );
+    }
+    
+    /**
+     * Let the user pick the storage profile of the database, checking the selected one.
+     */
+    private void showStorageProfileDialog()
+    {
+        final List< PetStorageProfile > profiles = PetStorageProfile.getAll();
+        String[] names = new String[ profiles.size() ];
+        for ( int i = 0; i < names.length; i++ )
+            names[ i ] = profiles.get( i ).getName();
+        
+        new AlertDialog.Builder( this )
+                .setTitle( R.string.action_storage_profile )
+                .setSingleChoiceItems( names, profiles.indexOf( PetDbHelper.getStorageProfile( this ) ),
+                        new DialogInterface.OnClickListener()
+                        {
+                            @Override
+                            public void onClick( DialogInterface dialog, int which )
+                            {
+                                dialog.dismiss();
+                                setStorageProfile( profiles.get( which ) );
+                            }
+                        } )
+                .setNegativeButton( R.string.cancel, null )
+                .show();
+    }
+    
+    /**
+     * Apply the storage profile in the background, since the database may be rebuilt.
+     *
+     * @param profile
+     */
+    private void setStorageProfile( final PetStorageProfile profile )
+    {
+        final Context appContext = getApplicationContext();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                String message;
+                try
+                {
+                    appContext.getContentResolver().call( PetEntry.CONTENT_URI,
+                            PetContract.METHOD_SET_STORAGE_PROFILE, profile.getName(), null );
+                    message = appContext.getString( R.string.catalog_storage_profile_applied, profile.getName() );
+                }
+                catch ( RuntimeException exception )
+                {
+                    Log.e( "CatalogActivity", "Failed to apply storage profile " + profile, exception );
+                    message = appContext.getString( R.string.catalog_storage_profile_failed );
+                }
+                
+                postToast( appContext, message );
+            }
+        } );
+    }
+    
+    /**
+     * Show a toast from a background thread.
+     *
+     * @param appContext
+     * @param message
+     */
+    private static void postToast( final Context appContext, final String message )
+    {
+        new Handler( Looper.getMainLooper() ).post( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                Toast.makeText( appContext, message, Toast.LENGTH_LONG ).show();
+            }
+        } );
     }
     
     @Override
@@ -137,6 +845,12 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         // Inflate the menu options from the res/menu/menu_catalog.xml file.
         // This adds menu items to the app bar.
         getMenuInflater().inflate( R.menu.menu_catalog, menu );
+        
+        // Recording the database calls and switching the storage profile are tools for
+        // developers, left out of release builds.
+        menu.findItem( R.id.action_start_recording ).setVisible( BuildConfig.DEBUG );
+        menu.findItem( R.id.action_stop_recording ).setVisible( BuildConfig.DEBUG );
+        menu.findItem( R.id.action_storage_profile ).setVisible( BuildConfig.DEBUG );
         return true;
     }
     
@@ -146,6 +860,11 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         // User clicked on a menu option in the app bar overflow menu
         switch ( item.getItemId() )
         {
+            // Respond to a click on the "Filter by tags" menu option
+            case R.id.action_filter_tags:
+                showTagFilterDialog();
+                return true;
+            
             // Respond to a click on the "Insert dummy data" menu option
             case R.id.action_insert_dummy_data:
                 insertPet();
@@ -155,58 +874,36 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
             case R.id.action_delete_all_entries:
                 showDeleteAllConfirmationDialog();
                 return true;
+            
+            // Respond to a click on the "Back up" menu option
+            case R.id.action_backup:
+                backupPets();
+                return true;
+            
+            // Respond to a click on the "Restore" menu option
+            case R.id.action_restore:
+                showRestoreConfirmationDialog();
+                return true;
+            
+            // Respond to a click on the "Record database calls" menu option
+            case R.id.action_start_recording:
+                startRecording();
+                return true;
+            
+            // Respond to a click on the "Stop recording" menu option
+            case R.id.action_stop_recording:
+                stopRecording();
+                return true;
+            
+            // Respond to a click on the "Storage profile" menu option
+            case R.id.action_storage_profile:
+                showStorageProfileDialog();
+                return true;
         }
         
         return super.onOptionsItemSelected( item );
     }
     
-    @Override
-    public Loader< Cursor > onCreateLoader( int loaderID, Bundle args )
-    {
-        // Define a projection that specifies which columns from the table we care about.
-        String[] projection = {
-                PetEntry._ID,
-                PetEntry.COLUMN_PET_NAME,
-                PetEntry.COLUMN_PET_BREED };
-        
-        // This loader will execute the ContentProvider's query method on a background thread.
-        return new CursorLoader(
-                this,               // Parent activity context
-                PetEntry.CONTENT_URI,       // Table to query (URI): Provider content URI to query
-                projection,                 // Projection to return: Columns to incluede in the resulting Cursor
-                null,               // No selection clause
-                null,           // No selection arguments
-                null );             // Default sort order
-    }
-    
-    /**
-     * Defines the callback that CursorLoader calls when it's finished its query.
-     *
-     * @param loader
-     * @param cursor
-     */
-    @Override
-    public void onLoadFinished( Loader< Cursor > loader, Cursor cursor )
-    {
-        // Update {@link PetCursorAdapter} w ith this new cursor containing updated pet data
-        mPetCursorAdapter.swapCursor( cursor );
-    }
-    
-    /**
-     * Invoked when the CursorLoader is being reset. For example, this is called if the data in the
-     * provider (PetContentProvider or database) changes and teh Cursor becomes stale.
-     *
-     * @param loader
-     */
-    @Override
-    public void onLoaderReset( Loader< Cursor > loader )
-    {
-        // Callback called when the data needs to be deleted.
-        // Clears out the adapter's reference to the Cursor.
-        // This prevents memory leaks.
-        mPetCursorAdapter.swapCursor( null );
-    }
-    
     /**
      * Prompt the user to confirm that they want to delete all these pets.
      */
@@ -7,23 +7,51 @@ import androidx.loader.app.LoaderManager;
 import androidx.loader.content.CursorLoader;
 import androidx.loader.content.Loader;
 
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.DialogInterface;
+import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.text.Editable;
 import android.text.TextUtils;
+import android.text.TextWatcher;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.MotionEvent;
 import android.view.View;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
+import android.widget.AutoCompleteTextView;
 import android.widget.EditText;
+import android.widget.ImageView;
 import android.widget.Spinner;
 import android.widget.Toast;
 
+import com.engineerfadyfawzi.pets.data.Debouncer;
+import com.engineerfadyfawzi.pets.data.PetContract;
+import com.engineerfadyfawzi.pets.data.PetContract.DraftEntry;
 import com.engineerfadyfawzi.pets.data.PetContract.PetEntry;
+import com.engineerfadyfawzi.pets.data.PetContract.TagEntry;
+import com.engineerfadyfawzi.pets.data.PetPhotoStore;
+import com.engineerfadyfawzi.pets.data.PetReader;
+import com.engineerfadyfawzi.pets.data.PetTracer;
+import com.engineerfadyfawzi.pets.data.PetWriter;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
 
 /**
  * Allows user to create a new pet or edit an existing one.
@@ -36,6 +64,39 @@ public class EditorActivity extends AppCompatActivity
      */
     private static final int EXISTING_PET_LOADER = 1;
     
+    /**
+     * Identifies the loader of the draft to restore
+     */
+    private static final int DRAFT_LOADER = 2;
+    
+    /**
+     * Identifies the loader of the tags of the pet to edit
+     */
+    private static final int TAGS_LOADER = 3;
+    
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = EditorActivity.class.getSimpleName();
+    
+    /**
+     * The draft is saved once the user stopped typing for this long, or at the latest this long
+     * after the first unsaved change, so a burst of typing is saved in one write.
+     */
+    private static final long DRAFT_DELAY_MILLIS = 500;
+    private static final long DRAFT_MAX_DELAY_MILLIS = 3000;
+    
+    /**
+     * Request code of the activity picking the pet photo
+     */
+    private static final int PICK_PHOTO_REQUEST = 1;
+    
+    /**
+     * Result of the editor when it deleted the pet, so the catalog can offer to undo the delete,
+     * with the {@link PetContract#EXTRA_DELETION_ID} of the delete
+     */
+    public static final int RESULT_PET_DELETED = RESULT_FIRST_USER;
+    
     /**
      * Content URI for the existing pet (null if it's a new pet)
      */
@@ -47,9 +108,14 @@ public class EditorActivity extends AppCompatActivity
     private EditText mNameEditText;
     
     /**
-     * EditText field to enter the pet's breed
+     * EditText field to enter the pet's breed (suggesting known breeds)
+     */
+    private AutoCompleteTextView mBreedEditText;
+    
+    /**
+     * Adapter for the breed suggestions
      */
-    private EditText mBreedEditText;
+    private BreedSuggestionAdapter mBreedSuggestionAdapter;
     
     /**
      * EditText field to enter the pet's weight
@@ -61,6 +127,33 @@ public class EditorActivity extends AppCompatActivity
      */
     private Spinner mGenderSpinner;
     
+    /**
+     * EditText field to enter the pet's tags, separated by commas
+     */
+    private EditText mTagsEditText;
+    
+    /**
+     * Tags of the pet as saved, to find which ones the user added or removed, or null until
+     * they're loaded. They aren't part of the drafts.
+     */
+    private ArrayList< String > mSavedTags;
+    
+    /**
+     * The pet shown from the {@link PetPrefetchCache} when the editor opened, until the loader
+     * loads the pet, or null if it wasn't cached.
+     */
+    private PetPrefetchCache.Pet mPrefetchedPet;
+    
+    /**
+     * ImageView showing the pet's photo, tap it to pick another photo
+     */
+    private ImageView mPhotoImageView;
+    
+    /**
+     * Path of the pet's photo (in the app's private storage), or null if the pet has no photo
+     */
+    private String mPhotoPath;
+    
     /**
      * Boolean flag that keeps of whether the pet has been edited (true) or not (false).
      */
@@ -80,6 +173,63 @@ public class EditorActivity extends AppCompatActivity
         }
     };
     
+    /**
+     * Whether the draft is saved while the user edits. It stops once the pet is saved, deleted
+     * or the changes are discarded, and the draft is deleted.
+     */
+    private boolean mDraftEnabled = true;
+    
+    /**
+     * Whether a draft was restored into the inputs, so the loaded pet doesn't overwrite them
+     */
+    private boolean mDraftRestored = false;
+    
+    /**
+     * Whether a draft should be restored once loaded (only when the editor isn't recreated,
+     * since the inputs then restore their own state)
+     */
+    private boolean mRestoreDraft;
+    
+    /**
+     * Changes since the draft was last saved, and when the next save is due
+     */
+    private final Debouncer mDraftDebouncer = new Debouncer( DRAFT_DELAY_MILLIS, DRAFT_MAX_DELAY_MILLIS );
+    
+    private final Handler mDraftHandler = new Handler();
+    
+    private final Runnable mSaveDraft = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            saveDraft();
+        }
+    };
+    
+    /**
+     * TextWatcher scheduling a save of the draft after each change of an input field.
+     */
+    private final TextWatcher mDraftTextWatcher = new TextWatcher()
+    {
+        @Override
+        public void beforeTextChanged( CharSequence text, int start, int count, int after )
+        {
+        
+        }
+        
+        @Override
+        public void onTextChanged( CharSequence text, int start, int before, int count )
+        {
+        
+        }
+        
+        @Override
+        public void afterTextChanged( Editable editable )
+        {
+            scheduleDraft();
+        }
+    };
+    
     /**
      * Gender of the pet. The possible valid values are in the PetContract.java file:
      * {@link PetEntry#GENDER_UNKNOWN}, {@link PetEntry#GENDER_MALE}, or
@@ -94,7 +244,13 @@ public class EditorActivity extends AppCompatActivity
         setContentView( R.layout.activity_editor );
         
         if ( savedInstanceState != null )
+        {
             mPetHasChanged = savedInstanceState.getBoolean( "mPetHasChanged" );
+            mPhotoPath = savedInstanceState.getString( "mPhotoPath" );
+            mDraftRestored = savedInstanceState.getBoolean( "mDraftRestored" );
+            mSavedTags = savedInstanceState.getStringArrayList( "mSavedTags" );
+        }
+        mRestoreDraft = savedInstanceState == null;
         
         // Examine the intent that was used to launch this activity,
         // in order to figure out if we're creating a new pet or editing an existing one.
@@ -115,6 +271,10 @@ public class EditorActivity extends AppCompatActivity
             // Invalidate teh options menu, so the "Delete" menu option can be hidden.
             // (It doesn't make sense to delete a pet that hasn't been created yet.)
             invalidateOptionsMenu();
+            
+            // A new pet has no tags yet.
+            if ( mSavedTags == null )
+                mSavedTags = new ArrayList<>();
         }
         else
         {
@@ -124,6 +284,7 @@ public class EditorActivity extends AppCompatActivity
             // Initializes a loader to read the pet data from the database,
             // and display the current values in the editor.
             getSupportLoaderManager().initLoader( EXISTING_PET_LOADER, null, this );
+            getSupportLoaderManager().initLoader( TAGS_LOADER, null, this );
         }
         
         // Find all relevant views that we will need to read user input from.
@@ -131,6 +292,8 @@ public class EditorActivity extends AppCompatActivity
         mBreedEditText = findViewById( R.id.edit_pet_breed );
         mWeightEditText = findViewById( R.id.edit_pet_weight );
         mGenderSpinner = findViewById( R.id.spinner_gender );
+        mPhotoImageView = findViewById( R.id.edit_pet_photo );
+        mTagsEditText = findViewById( R.id.edit_pet_tags );
         
         // Setup onTouchListener on all the input fields, so we can determine if the user
         // has touched or modified them. This will let us know if there are unsaved changes
@@ -139,8 +302,205 @@ public class EditorActivity extends AppCompatActivity
         mBreedEditText.setOnTouchListener( mTouchListener );
         mWeightEditText.setOnTouchListener( mTouchListener );
         mGenderSpinner.setOnTouchListener( mTouchListener );
+        mTagsEditText.setOnTouchListener( mTouchListener );
+        
+        // Save what the user types as a draft, and restore the draft of the last edit, if any.
+        mNameEditText.addTextChangedListener( mDraftTextWatcher );
+        mBreedEditText.addTextChangedListener( mDraftTextWatcher );
+        mWeightEditText.addTextChangedListener( mDraftTextWatcher );
+        getSupportLoaderManager().initLoader( DRAFT_LOADER, null, this );
         
         setupSpinner();
+        setupBreedSuggestions();
+        setupPhoto();
+        
+        // If the catalog prefetched the pet, show it right away instead of empty inputs until the
+        // loader returns. The loader still loads it, to show any later change. (A recreated editor
+        // restores its own inputs.)
+        if ( mEditPetUri != null && savedInstanceState == null )
+        {
+            mPrefetchedPet = PetPrefetchCache.getInstance( this ).get( mEditPetUri );
+            if ( mPrefetchedPet != null )
+                updateInputs( mPrefetchedPet.name, mPrefetchedPet.breed, mPrefetchedPet.gender,
+                        mPrefetchedPet.weight, mPrefetchedPet.photo );
+        }
+    }
+    
+    @Override
+    protected void onPause()
+    {
+        super.onPause();
+        
+        // The editor may be killed once it's in the background, so save the draft now.
+        if ( mDraftDebouncer.hasChanges() )
+            saveDraft();
+    }
+    
+    @Override
+    protected void onDestroy()
+    {
+        super.onDestroy();
+        mBreedSuggestionAdapter.unregisterObserver();
+    }
+    
+    /**
+     * Setup the breed field to suggest the most common known breeds starting with what the user
+     * typed, so breeds are entered the same way every time.
+     */
+    private void setupBreedSuggestions()
+    {
+        mBreedSuggestionAdapter = new BreedSuggestionAdapter( this );
+        mBreedSuggestionAdapter.registerObserver();
+        mBreedEditText.setAdapter( mBreedSuggestionAdapter );
+    }
+    
+    /**
+     * Setup the photo, so tapping it lets the user pick another photo of the pet.
+     */
+    private void setupPhoto()
+    {
+        showPhoto();
+        mPhotoImageView.setOnClickListener( new View.OnClickListener()
+        {
+            @Override
+            public void onClick( View view )
+            {
+                Intent pickPhotoIntent = new Intent( Intent.ACTION_GET_CONTENT );
+                pickPhotoIntent.setType( "image/*" );
+                startActivityForResult(
+                        Intent.createChooser( pickPhotoIntent, getString( R.string.pick_photo_title ) ),
+                        PICK_PHOTO_REQUEST );
+            }
+        } );
+    }
+    
+    /**
+     * Show the thumbnail of the current photo (loaded in the background).
+     */
+    private void showPhoto()
+    {
+        ThumbnailLoader.getInstance( this ).load( mPhotoPath, mPhotoImageView,
+                R.drawable.thumbnail_placeholder );
+    }
+    
+    /**
+     * Schedule a save of the draft after a change of the inputs. Changes made within
+     * {@link #DRAFT_DELAY_MILLIS} of each other are saved together.
+     */
+    private void scheduleDraft()
+    {
+        if ( !mDraftEnabled )
+            return;
+        
+        mDraftHandler.removeCallbacks( mSaveDraft );
+        mDraftHandler.postAtTime( mSaveDraft, mDraftDebouncer.change( SystemClock.uptimeMillis() ) );
+    }
+    
+    /**
+     * Save the inputs as the draft of the pet in the background, if the user changed them.
+     * Saves run one at a time in order, so the last one wins.
+     */
+    private void saveDraft()
+    {
+        mDraftHandler.removeCallbacks( mSaveDraft );
+        final int changes = mDraftDebouncer.takeChanges();
+        
+        // The inputs also change when they're filled in from the database or the saved state,
+        // which isn't worth a draft.
+        if ( !mDraftEnabled || !mPetHasChanged )
+            return;
+        
+        // Read the inputs on the main thread, only the write is done in the background.
+        final ContentValues values = new ContentValues();
+        values.put( DraftEntry.COLUMN_DRAFT_PET_ID, getDraftPetId() );
+        values.put( DraftEntry.COLUMN_DRAFT_NAME, mNameEditText.getText().toString() );
+        values.put( DraftEntry.COLUMN_DRAFT_BREED, mBreedEditText.getText().toString() );
+        values.put( DraftEntry.COLUMN_DRAFT_GENDER, mGender );
+        values.put( DraftEntry.COLUMN_DRAFT_WEIGHT, mWeightEditText.getText().toString() );
+        values.put( DraftEntry.COLUMN_DRAFT_PHOTO, mPhotoPath );
+        
+        final ContentResolver contentResolver = getContentResolver();
+        AsyncTask.SERIAL_EXECUTOR.execute( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                contentResolver.insert( DraftEntry.CONTENT_URI, values );
+                Log.d( LOG_TAG, "Saved draft after " + changes + " changes" );
+            }
+        } );
+    }
+    
+    /**
+     * Stop saving the draft, and delete it in the background (after any save in progress).
+     */
+    private void clearDraft()
+    {
+        mDraftEnabled = false;
+        mDraftHandler.removeCallbacks( mSaveDraft );
+        mDraftDebouncer.takeChanges();
+        
+        final ContentResolver contentResolver = getContentResolver();
+        final Uri draftUri = DraftEntry.buildDraftUri( getDraftPetId() );
+        AsyncTask.SERIAL_EXECUTOR.execute( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                contentResolver.delete( draftUri, null, null );
+            }
+        } );
+    }
+    
+    /**
+     * Return the id of the edited pet its draft is saved for, or {@link DraftEntry#NEW_PET_ID}.
+     *
+     * @return
+     */
+    private long getDraftPetId()
+    {
+        return mEditPetUri == null ? DraftEntry.NEW_PET_ID : ContentUris.parseId( mEditPetUri );
+    }
+    
+    @Override
+    protected void onActivityResult( int requestCode, int resultCode, Intent data )
+    {
+        super.onActivityResult( requestCode, resultCode, data );
+        
+        if ( requestCode != PICK_PHOTO_REQUEST || resultCode != RESULT_OK || data == null
+                || data.getData() == null )
+            return;
+        
+        // Copy the picked photo into the app's storage in the background, as it can be big
+        // (and the picked URI may not be readable later on).
+        final Uri pickedPhotoUri = data.getData();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                final String photoPath = PetPhotoStore.importPhoto( EditorActivity.this, pickedPhotoUri );
+                runOnUiThread( new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        if ( photoPath == null )
+                        {
+                            Toast.makeText( EditorActivity.this,
+                                    getString( R.string.editor_import_photo_failed ),
+                                    Toast.LENGTH_SHORT ).show();
+                            return;
+                        }
+                        
+                        mPhotoPath = photoPath;
+                        mPetHasChanged = true;
+                        showPhoto();
+                        scheduleDraft();
+                    }
+                } );
+            }
+        } );
     }
     
     /**
@@ -175,6 +535,8 @@ public class EditorActivity extends AppCompatActivity
                     else
                         mGender = PetEntry.GENDER_UNKNOWN;
                 }
+                
+                scheduleDraft();
             }
             
             // Because AdapterView is an abstract class, onNothingSelected must be defined
@@ -228,11 +590,13 @@ public class EditorActivity extends AppCompatActivity
         
         // Create a ContentValues object where column names are the keys,
         // and a new pet attributes are the values.
-        ContentValues values = new ContentValues();
-        values.put( PetEntry.COLUMN_PET_NAME, petName );
-        values.put( PetEntry.COLUMN_PET_BREED, petBreed );
-        values.put( PetEntry.COLUMN_PET_GENDER, petGender );
-        values.put( PetEntry.COLUMN_PET_WEIGHT, petWeight );
+        ContentValues values = new PetWriter()
+                .setName( petName )
+                .setBreed( petBreed )
+                .setGender( petGender )
+                .setWeight( petWeight )
+                .setPhoto( mPhotoPath )
+                .getValues();
         
         // Determine if this is a new or existing pet by checking if mEditPetUri is null or not
         if ( mEditPetUri == null )
@@ -256,7 +620,16 @@ public class EditorActivity extends AppCompatActivity
     {
         // This is a NEW pet, so insert a new pet into the provider,
         //  returning the content URI for the new pet.
-        Uri newUri = getContentResolver().insert( PetEntry.CONTENT_URI, values );
+        Uri newUri;
+        PetTracer.beginSection( "ContentResolver.insert" );
+        try
+        {
+            newUri = getContentResolver().insert( PetEntry.CONTENT_URI, values );
+        }
+        finally
+        {
+            PetTracer.endSection();
+        }
         
         // Show a toast message depending on whether or not the insertion was successful
         if ( newUri == null )
@@ -264,9 +637,14 @@ public class EditorActivity extends AppCompatActivity
             Toast.makeText( this, getString( R.string.editor_insert_pet_failed ),
                     Toast.LENGTH_SHORT ).show();
         else
+        {
             // Otherwise, the insertion was successful and we can display a toast.
+            // The draft isn't needed anymore.
             Toast.makeText( this, getString( R.string.editor_insert_pet_successful ),
                     Toast.LENGTH_SHORT ).show();
+            clearDraft();
+            saveTags( ContentUris.parseId( newUri ) );
+        }
     }
     
     /**
@@ -277,7 +655,16 @@ public class EditorActivity extends AppCompatActivity
     private void updatePet( ContentValues values )
     {
         // Update an existing pet into the provider, retuning the integer represents rows updated
-        int rowsUpdated = getContentResolver().update( mEditPetUri, values, null, null );
+        int rowsUpdated;
+        PetTracer.beginSection( "ContentResolver.update" );
+        try
+        {
+            rowsUpdated = getContentResolver().update( mEditPetUri, values, null, null );
+        }
+        finally
+        {
+            PetTracer.endSection();
+        }
         
         // Show a toast message depending on whether or not the update was successful.
         if ( rowsUpdated == 0 )
@@ -285,9 +672,82 @@ public class EditorActivity extends AppCompatActivity
             Toast.makeText( this, getString( R.string.editor_update_pet_failed ),
                     Toast.LENGTH_SHORT ).show();
         else
+        {
             // Otherwise, the update was successful and we can display a toast.
+            // The draft isn't needed anymore.
             Toast.makeText( this, getString( R.string.editor_update_pet_successful ),
                     Toast.LENGTH_SHORT ).show();
+            clearDraft();
+            saveTags( ContentUris.parseId( mEditPetUri ) );
+        }
+    }
+    
+    /**
+     * Save the tags the user added to or removed from the pet, all in one batch.
+     *
+     * @param petId
+     */
+    private void saveTags( long petId )
+    {
+        // The tags weren't loaded yet, so the field doesn't show them: there is nothing to save.
+        if ( mSavedTags == null )
+            return;
+        
+        // Tags are compared ignoring case, like the provider does.
+        LinkedHashMap< String, String > tags = new LinkedHashMap<>();
+        for ( String tag : mTagsEditText.getText().toString().split( "," ) )
+            if ( !TextUtils.isEmpty( tag.trim() ) )
+                tags.put( tag.trim().toLowerCase( Locale.ROOT ), tag.trim() );
+        
+        ArrayList< ContentProviderOperation > operations = new ArrayList<>();
+        HashSet< String > savedTags = new HashSet<>();
+        for ( String savedTag : mSavedTags )
+        {
+            savedTags.add( savedTag.toLowerCase( Locale.ROOT ) );
+            if ( !tags.containsKey( savedTag.toLowerCase( Locale.ROOT ) ) )
+                operations.add( ContentProviderOperation.newDelete(
+                        TagEntry.buildPetTagUri( petId, savedTag ) ).build() );
+        }
+        for ( Map.Entry< String, String > tag : tags.entrySet() )
+            if ( !savedTags.contains( tag.getKey() ) )
+                operations.add( ContentProviderOperation.newInsert( TagEntry.buildPetTagsUri( petId ) )
+                        .withValue( TagEntry.COLUMN_TAG_NAME, tag.getValue() ).build() );
+        
+        if ( operations.isEmpty() )
+            return;
+        
+        try
+        {
+            getContentResolver().applyBatch( PetContract.CONTENT_AUTHORITY, operations );
+            mSavedTags = new ArrayList<>( tags.values() );
+        }
+        catch ( RemoteException | OperationApplicationException | RuntimeException exception )
+        {
+            Log.e( LOG_TAG, "Failed to save tags of pet " + petId, exception );
+            Toast.makeText( this, getString( R.string.editor_save_tags_failed ), Toast.LENGTH_SHORT ).show();
+        }
+    }
+    
+    /**
+     * Close the record of the pet as adopted, unsaved changes aside. The provider then moves it
+     * to the archive, so it leaves the catalog.
+     */
+    private void markPetAdopted()
+    {
+        ContentValues values = new PetWriter().setStatus( PetEntry.STATUS_ADOPTED ).getValues();
+        int rowsUpdated = getContentResolver().update( mEditPetUri, values, null, null );
+        
+        if ( rowsUpdated == 0 )
+        {
+            Toast.makeText( this, getString( R.string.editor_mark_adopted_failed ),
+                    Toast.LENGTH_SHORT ).show();
+            return;
+        }
+        
+        Toast.makeText( this, getString( R.string.editor_mark_adopted_successful ),
+                Toast.LENGTH_SHORT ).show();
+        clearDraft();
+        finish();
     }
     
     /**
@@ -304,7 +764,10 @@ public class EditorActivity extends AppCompatActivity
             // Pass in null for the selection and selection args because the mEditPetUri
             // content URI already identifies the pet that we want (to delete).
             // Delete an existing pet into the provider, retuning the integer represents rows deleted
-            int rowsDeleted = getContentResolver().delete( mEditPetUri, null, null );
+            Bundle result = getContentResolver().call( mEditPetUri, PetContract.METHOD_DELETE,
+                    mEditPetUri.toString(), null );
+            int rowsDeleted = result.getInt( PetContract.EXTRA_DELETED_PETS );
+            clearDraft();
             
             // Show a toast message depending on whether or not the delete was successful.
             if ( rowsDeleted == 0 )
@@ -312,9 +775,10 @@ public class EditorActivity extends AppCompatActivity
                 Toast.makeText( this, getString( R.string.editor_delete_pet_failed ),
                         Toast.LENGTH_SHORT ).show();
             else
-                // Otherwise, the delete was successful and we can display a toast.
-                Toast.makeText( this, getString( R.string.editor_delete_pet_successful ),
-                        Toast.LENGTH_SHORT ).show();
+                // Otherwise, the delete was successful, and the catalog shows it with an undo
+                // action.
+                setResult( RESULT_PET_DELETED, new Intent().putExtra( PetContract.EXTRA_DELETION_ID,
+                        result.getLong( PetContract.EXTRA_DELETION_ID ) ) );
             
             // Optionally you could add it after the successful delete toast, would make more sense,
             // because if the pet couldn't have been deleted, you would still be in the EditorActivity,
@@ -347,11 +811,12 @@ public class EditorActivity extends AppCompatActivity
     {
         super.onPrepareOptionsMenu( menu );
         
-        // If this is a new pet, hide the "Delete" menu item.
+        // If this is a new pet, hide the "Delete" and "Mark as Adopted" menu items.
         if ( mEditPetUri == null )
         {
             MenuItem menuItem = menu.findItem( R.id.action_delete );
             menuItem.setVisible( false );
+            menu.findItem( R.id.action_mark_adopted ).setVisible( false );
         }
         
         return true;
@@ -366,11 +831,24 @@ public class EditorActivity extends AppCompatActivity
             // Respond to a click on the "Save" menu option
             case R.id.action_save:
                 // Save pet to database
-                savePet();
+                PetTracer.beginSection( "EditorActivity.savePet" );
+                try
+                {
+                    savePet();
+                }
+                finally
+                {
+                    PetTracer.endSection();
+                }
                 // Exit activity (return to previous one)
                 finish();
                 return true;
             
+            // Respond to a click on the "Mark as Adopted" menu option
+            case R.id.action_mark_adopted:
+                markPetAdopted();
+                return true;
+            
             // Respond to a click on the "Delete" menu option
             case R.id.action_delete:
                 // Pop up confirmation dialog for deletion
@@ -398,6 +876,7 @@ public class EditorActivity extends AppCompatActivity
                             public void onClick( DialogInterface dialogInterface, int id )
                             {
                                 // User clicked "Discard" button, navigate to parent activity.
+                                clearDraft();
                                 NavUtils.navigateUpFromSameTask( EditorActivity.this );
                             }
                         };
@@ -432,6 +911,7 @@ public class EditorActivity extends AppCompatActivity
                     public void onClick( DialogInterface dialogInterface, int id )
                     {
                         // User clicked "Discard" button, close the current activity.
+                        clearDraft();
                         finish();
                     }
                 };
@@ -445,11 +925,24 @@ public class EditorActivity extends AppCompatActivity
     {
         super.onSaveInstanceState( outState );
         outState.putBoolean( "mPetHasChanged", mPetHasChanged );
+        outState.putString( "mPhotoPath", mPhotoPath );
+        outState.putBoolean( "mDraftRestored", mDraftRestored );
+        outState.putStringArrayList( "mSavedTags", mSavedTags );
     }
     
     @Override
     public Loader< Cursor > onCreateLoader( int id, Bundle args )
     {
+        // The draft of the pet is a single row, read by its key.
+        if ( id == DRAFT_LOADER )
+            return new CursorLoader( this, DraftEntry.buildDraftUri( getDraftPetId() ),
+                    null, null, null, null );
+        
+        // The tags of the pet, by name.
+        if ( id == TAGS_LOADER )
+            return new CursorLoader( this, TagEntry.buildPetTagsUri( ContentUris.parseId( mEditPetUri ) ),
+                    new String[]{ TagEntry.COLUMN_TAG_NAME }, null, null, null );
+        
         // Since the editor shows all pet attributes, define a projection that contains
         // all columns from the pet table.
         String[] projection = {
@@ -457,7 +950,8 @@ public class EditorActivity extends AppCompatActivity
                 PetEntry.COLUMN_PET_NAME,
                 PetEntry.COLUMN_PET_BREED,
                 PetEntry.COLUMN_PET_GENDER,
-                PetEntry.COLUMN_PET_WEIGHT };
+                PetEntry.COLUMN_PET_WEIGHT,
+                PetEntry.COLUMN_PET_PHOTO };
         
         // This loader will execute the ContentProvider's query method on a background thread.
         return new CursorLoader(
@@ -472,6 +966,22 @@ public class EditorActivity extends AppCompatActivity
     @Override
     public void onLoadFinished( Loader< Cursor > loader, Cursor cursor )
     {
+        if ( loader.getId() == DRAFT_LOADER )
+        {
+            restoreDraft( cursor );
+            return;
+        }
+        
+        if ( loader.getId() == TAGS_LOADER )
+        {
+            showTags( cursor );
+            return;
+        }
+        
+        // The restored draft is newer than the saved pet.
+        if ( mDraftRestored )
+            return;
+        
         // Bail early if the cursor is null or there is less than 1 row in the cursor.
         if ( cursor == null || cursor.getCount() < 1 )
             return;
@@ -480,20 +990,23 @@ public class EditorActivity extends AppCompatActivity
         // (This should be the only row in the cursor)
         if ( cursor.moveToFirst() )
         {
-            // Find the columns of pet attributes that we're interested in.
-            int petNameColumnIndex = cursor.getColumnIndex( PetEntry.COLUMN_PET_NAME );
-            int petBreedColumnIndex = cursor.getColumnIndex( PetEntry.COLUMN_PET_BREED );
-            int petGenderColumnIndex = cursor.getColumnIndex( PetEntry.COLUMN_PET_GENDER );
-            int petWeightColumnIndex = cursor.getColumnIndex( PetEntry.COLUMN_PET_WEIGHT );
+            // Extract out the values of the pet attributes from the Cursor.
+            PetReader petReader = new PetReader( cursor );
+            String petName = petReader.getName();
+            String petBreed = petReader.getBreed();
+            int petGender = petReader.getGender();
+            int petWeight = petReader.getWeight();
+            String petPhoto = petReader.getPhoto();
             
-            // Extract out the values from the Cursor for the given column index.
-            String petName = cursor.getString( petNameColumnIndex );
-            String petBreed = cursor.getString( petBreedColumnIndex );
-            int petGender = cursor.getInt( petGenderColumnIndex );
-            int petWeight = cursor.getInt( petWeightColumnIndex );
+            // The prefetched pet is already shown, so the inputs are only updated if it changed,
+            // and don't lose what the user typed since the editor opened.
+            PetPrefetchCache.Pet prefetchedPet = mPrefetchedPet;
+            mPrefetchedPet = null;
+            if ( prefetchedPet != null && prefetchedPet.matches( petName, petBreed, petGender, petWeight, petPhoto ) )
+                return;
             
             // Update the views on the screen with the values form the database
-            updateInputs( petName, petBreed, petGender, petWeight );
+            updateInputs( petName, petBreed, petGender, petWeight, petPhoto );
         }
     }
     
@@ -504,19 +1017,77 @@ public class EditorActivity extends AppCompatActivity
      * @param petBreed
      * @param petGender
      * @param petWeight
+     * @param petPhoto
      */
-    private void updateInputs( String petName, String petBreed, int petGender, int petWeight )
+    private void updateInputs( String petName, String petBreed, int petGender, int petWeight,
+            String petPhoto )
     {
         mNameEditText.setText( petName );
         mBreedEditText.setText( petBreed );
         // Call setSelection() so that option is displayed on screen as the current selection
         mGenderSpinner.setSelection( petGender );
         mWeightEditText.setText( String.valueOf( petWeight ) );
+        
+        // Keep a photo the user just picked (and hasn't saved yet) over the saved one.
+        if ( !mPetHasChanged || mPhotoPath == null )
+        {
+            mPhotoPath = petPhoto;
+            showPhoto();
+        }
+    }
+    
+    /**
+     * Show the saved tags of the pet, the first time they're loaded. Afterwards the field keeps
+     * what the user typed.
+     *
+     * @param cursor
+     */
+    private void showTags( Cursor cursor )
+    {
+        if ( mSavedTags != null || cursor == null )
+            return;
+        
+        mSavedTags = new ArrayList<>();
+        while ( cursor.moveToNext() )
+            mSavedTags.add( cursor.getString( 0 ) );
+        mTagsEditText.setText( TextUtils.join( ", ", mSavedTags ) );
+    }
+    
+    /**
+     * Restore the draft of the last edit into the inputs, if there is one.
+     *
+     * @param cursor
+     */
+    private void restoreDraft( Cursor cursor )
+    {
+        if ( !mRestoreDraft || cursor == null || !cursor.moveToFirst() )
+            return;
+        mRestoreDraft = false;
+        
+        mNameEditText.setText( cursor.getString( cursor.getColumnIndex( DraftEntry.COLUMN_DRAFT_NAME ) ) );
+        mBreedEditText.setText( cursor.getString( cursor.getColumnIndex( DraftEntry.COLUMN_DRAFT_BREED ) ) );
+        mGenderSpinner.setSelection( cursor.getInt( cursor.getColumnIndex( DraftEntry.COLUMN_DRAFT_GENDER ) ) );
+        mWeightEditText.setText( cursor.getString( cursor.getColumnIndex( DraftEntry.COLUMN_DRAFT_WEIGHT ) ) );
+        mPhotoPath = cursor.getString( cursor.getColumnIndex( DraftEntry.COLUMN_DRAFT_PHOTO ) );
+        showPhoto();
+        
+        // Filling in the inputs isn't a change of the draft.
+        mDraftHandler.removeCallbacks( mSaveDraft );
+        mDraftDebouncer.takeChanges();
+        
+        // The restored changes are unsaved changes, the same as if they were just made.
+        mDraftRestored = true;
+        mPetHasChanged = true;
+        Toast.makeText( this, getString( R.string.editor_draft_restored ), Toast.LENGTH_SHORT ).show();
     }
     
     @Override
     public void onLoaderReset( Loader< Cursor > loader )
     {
+        // The draft and tags loaders don't fill in the inputs on their own.
+        if ( loader.getId() == DRAFT_LOADER || loader.getId() == TAGS_LOADER )
+            return;
+        
         // If the loader is invalidated, clear all teh data from the input fields.
         clearInputs();
     }
@@ -530,6 +1101,8 @@ public class EditorActivity extends AppCompatActivity
         mBreedEditText.setText( "" );
         mWeightEditText.setText( "" );
         mGenderSpinner.setSelection( 0 ); // Select "Unknown" gender
+        mPhotoPath = null;
+        showPhoto();
     }
     
     /**
@@ -7,9 +7,10 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.CursorAdapter;
+import android.widget.ImageView;
 import android.widget.TextView;
 
-import com.engineerfadyfawzi.pets.data.PetContract.PetEntry;
+import com.engineerfadyfawzi.pets.data.PetReader;
 
 /**
  * {@link PetCursorAdapter} is an adapter for a list or grid view
@@ -18,6 +19,17 @@ import com.engineerfadyfawzi.pets.data.PetContract.PetEntry;
  */
 public class PetCursorAdapter extends CursorAdapter
 {
+    /**
+     * Loader of the pet photo thumbnails
+     */
+    private final ThumbnailLoader mThumbnailLoader;
+    
+    /**
+     * Reader of the pets of the cursor, kept across the rows so the column indices are only
+     * looked up once per cursor.
+     */
+    private PetReader mPetReader;
+    
     /**
      * Constructs a new {@link PetCursorAdapter}.
      *
@@ -27,6 +39,7 @@ public class PetCursorAdapter extends CursorAdapter
     public PetCursorAdapter( Context context, Cursor cursor )
     {
         super( context, cursor, 0 /* flags */ );
+        mThumbnailLoader = ThumbnailLoader.getInstance( context );
     }
     
     /**
@@ -68,23 +81,40 @@ public class PetCursorAdapter extends CursorAdapter
         // Find individual views that we want to modify in the list item layout.
         TextView petNameTextView = view.findViewById( R.id.pet_name_text_view );
         TextView petBreedTextView = view.findViewById( R.id.pet_breed_text_view );
-        
-        // Find the columns of pet attributes that we're interested in.
-        int petNameColumnIndex = cursor.getColumnIndex( PetEntry.COLUMN_PET_NAME );
-        int petBreedColumnIndex = cursor.getColumnIndex( PetEntry.COLUMN_PET_BREED );
+        ImageView petPhotoImageView = view.findViewById( R.id.pet_photo_image_view );
         
         // Read the pet attributes from the Cursor for the current pet.
-        String petName = cursor.getString( petNameColumnIndex );
-        String petBreed = cursor.getString( petBreedColumnIndex );
+        PetReader petReader = mPetReader = PetReader.of( mPetReader, cursor );
+        String petName = petReader.getName();
+        String petBreed = petReader.getBreed();
+        String petPhoto = petReader.hasPhoto() ? petReader.getPhoto() : null;
         
         // If the pet breed is empty string or null, then use some default text
         // that says "Unknown breed", so the TextView isn't blank.
         // I add String.trim() method to delete any white space avoiding empty white space breed
-        if ( TextUtils.isEmpty( petBreed.trim() ) )
+        // (An unknown breed is read as null since breeds moved to their own table.)
+        if ( petBreed == null || TextUtils.isEmpty( petBreed.trim() ) )
             petBreed = context.getString( R.string.unknown_breed );
         
         // Update the TextViews with the attributes for the current pet.
         petNameTextView.setText( petName );
         petBreedTextView.setText( petBreed );
+        
+        // Load the photo thumbnail in the background. If this view was showing another pet
+        // (the ListView reuses the views scrolled off-screen), that pet's request is cancelled.
+        mThumbnailLoader.load( petPhoto, petPhotoImageView, R.drawable.thumbnail_placeholder );
+    }
+    
+    /**
+     * Cancel the pending thumbnail request of a list item view, for instance when it's scrolled
+     * off-screen.
+     *
+     * @param view list item view, returned earlier by newView() method
+     */
+    public void cancelThumbnail( View view )
+    {
+        ImageView petPhotoImageView = view.findViewById( R.id.pet_photo_image_view );
+        if ( petPhotoImageView != null )
+            mThumbnailLoader.cancel( petPhotoImageView );
     }
 }
\ No newline at end of file
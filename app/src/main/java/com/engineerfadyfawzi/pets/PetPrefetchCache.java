@@ -0,0 +1,242 @@
+package com.engineerfadyfawzi.pets;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.engineerfadyfawzi.pets.data.PetContract;
+import com.engineerfadyfawzi.pets.data.PetContract.BreedEntry;
+import com.engineerfadyfawzi.pets.data.PetContract.PetEntry;
+import com.engineerfadyfawzi.pets.data.PrefetchCache;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Cache of the pets shown (or about to be shown) in the catalog, with all the attributes the
+ * editor shows, so the editor can fill in its inputs as soon as it's opened instead of waiting
+ * for its loader.
+ *
+ * The catalog asks for the pets around the visible rows with {@link #prefetch(long[])}, they're
+ * read in the background with one query. A change of a pet removes it from the cache, and a change
+ * of all the pets (or of the breeds) clears the cache, so a cached pet is never older than the
+ * last notified change (see {@link PrefetchCache}).
+ */
+public class PetPrefetchCache
+{
+    /**
+     * Tag for the log messages
+     */
+    public static final String LOG_TAG = PetPrefetchCache.class.getSimpleName();
+    
+    /**
+     * Maximum number of cached pets, the least recently used ones are dropped beyond it.
+     * A few screens of rows.
+     */
+    private static final int MAX_PETS = 100;
+    
+    /**
+     * Columns read for each pet, the ones the editor shows
+     */
+    private static final String[] PROJECTION = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT,
+            PetEntry.COLUMN_PET_PHOTO };
+    
+    /**
+     * A cached pet, as the editor shows it.
+     */
+    public static final class Pet
+    {
+        public final long id;
+        public final String name;
+        public final String breed;
+        public final int gender;
+        public final int weight;
+        public final String photo;
+        
+        Pet( long id, String name, String breed, int gender, int weight, String photo )
+        {
+            this.id = id;
+            this.name = name;
+            this.breed = breed;
+            this.gender = gender;
+            this.weight = weight;
+            this.photo = photo;
+        }
+        
+        /**
+         * Return whether the pet has the given attributes, for instance the ones loaded afterwards.
+         *
+         * @param name
+         * @param breed
+         * @param gender
+         * @param weight
+         * @param photo
+         *
+         * @return
+         */
+        public boolean matches( String name, String breed, int gender, int weight, String photo )
+        {
+            return TextUtils.equals( this.name, name ) && TextUtils.equals( this.breed, breed )
+                    && this.gender == gender && this.weight == weight && TextUtils.equals( this.photo, photo );
+        }
+    }
+    
+    private static PetPrefetchCache sInstance;
+    
+    private final ContentResolver mContentResolver;
+    private final PrefetchCache< Pet > mPets = new PrefetchCache<>( MAX_PETS );
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    
+    /**
+     * Return the app wide cache, shared by the catalog and the editor.
+     *
+     * @param context
+     *
+     * @return
+     */
+    public static synchronized PetPrefetchCache getInstance( Context context )
+    {
+        if ( sInstance == null )
+            sInstance = new PetPrefetchCache( context.getApplicationContext().getContentResolver() );
+        
+        return sInstance;
+    }
+    
+    private PetPrefetchCache( ContentResolver contentResolver )
+    {
+        mContentResolver = contentResolver;
+        
+        // The observer is called on the thread delivering the change, so the cache is up to date
+        // without going through the main thread.
+        ContentObserver observer = new ContentObserver( null )
+        {
+            @Override
+            public void onChange( boolean selfChange )
+            {
+                onChange( selfChange, null );
+            }
+            
+            @Override
+            public void onChange( boolean selfChange, Uri uri )
+            {
+                invalidate( uri );
+            }
+        };
+        mContentResolver.registerContentObserver( PetEntry.CONTENT_URI, true, observer );
+        mContentResolver.registerContentObserver( BreedEntry.CONTENT_URI, true, observer );
+    }
+    
+    /**
+     * Return the cached pet of the given URI, or null if it isn't cached (or isn't a URI of a
+     * single pet of the default shelter, the only ones cached).
+     *
+     * @param petUri
+     *
+     * @return
+     */
+    public Pet get( Uri petUri )
+    {
+        List< String > segments = petUri.getPathSegments();
+        if ( segments.size() != 2 || !PetContract.PATH_PETS.equals( segments.get( 0 ) )
+                || !TextUtils.isDigitsOnly( segments.get( 1 ) ) )
+            return null;
+        
+        return mPets.get( ContentUris.parseId( petUri ) );
+    }
+    
+    /**
+     * Read the given pets in the background, unless they're cached or being read already.
+     * Cheap enough to call on each scroll.
+     *
+     * @param ids
+     */
+    public void prefetch( long[] ids )
+    {
+        final int generation = mPets.getGeneration();
+        final List< Long > missingIds = mPets.claim( ids );
+        if ( missingIds.isEmpty() )
+            return;
+        
+        mExecutor.execute( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                load( missingIds, generation );
+            }
+        } );
+    }
+    
+    /**
+     * Read the given pets and cache them, unless the pets changed in the meantime. Runs on the
+     * cache's thread.
+     *
+     * @param ids
+     * @param generation when the pets were asked for.
+     */
+    private void load( List< Long > ids, int generation )
+    {
+        HashMap< Long, Pet > pets = new HashMap<>( ids.size() * 2 );
+        String[] selectionArgs = new String[ ids.size() ];
+        for ( int i = 0; i < ids.size(); i++ )
+            selectionArgs[ i ] = String.valueOf( ids.get( i ) );
+        String selection = PetEntry._ID + " IN (" + TextUtils.join( ",", Collections.nCopies( ids.size(), "?" ) ) + ")";
+        
+        try
+        {
+            Cursor cursor = mContentResolver.query( PetEntry.CONTENT_URI, PROJECTION, selection, selectionArgs, null );
+            if ( cursor != null )
+            {
+                try
+                {
+                    while ( cursor.moveToNext() )
+                        pets.put( cursor.getLong( 0 ), new Pet( cursor.getLong( 0 ), cursor.getString( 1 ),
+                                cursor.getString( 2 ), cursor.getInt( 3 ), cursor.getInt( 4 ), cursor.getString( 5 ) ) );
+                }
+                finally
+                {
+                    cursor.close();
+                }
+            }
+        }
+        catch ( RuntimeException exception )
+        {
+            Log.w( LOG_TAG, "Failed to prefetch " + ids.size() + " pets", exception );
+        }
+        
+        mPets.complete( ids, pets, generation );
+    }
+    
+    /**
+     * Drop the pets changed at the given URI. A change of the data of a pet (such as its records
+     * or tags) doesn't change what the editor shows, anything else but a single pet clears the cache.
+     *
+     * @param uri changed, or null if unknown.
+     */
+    private void invalidate( Uri uri )
+    {
+        List< String > segments = uri == null ? null : uri.getPathSegments();
+        if ( segments != null && segments.size() >= 2 && PetContract.PATH_PETS.equals( segments.get( 0 ) )
+                && TextUtils.isDigitsOnly( segments.get( 1 ) ) )
+        {
+            if ( segments.size() == 2 )
+                mPets.invalidate( Long.parseLong( segments.get( 1 ) ) );
+            return;
+        }
+        
+        mPets.invalidateAll();
+    }
+}
@@ -0,0 +1,235 @@
+package com.engineerfadyfawzi.pets;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.ThumbnailUtils;
+import android.os.Handler;
+import android.os.Looper;
+import android.widget.ImageView;
+
+import com.engineerfadyfawzi.pets.data.ThumbnailCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads square thumbnails of the pet photos into ImageViews, off the main thread.
+ *
+ * Photos are decoded downsampled (never at full resolution) and the thumbnails are cached twice:
+ * in a memory cache bounded in bytes, and as small JPEG files in a bounded disk cache, so a
+ * thumbnail is only decoded from the full photo once. Both caches are the ones of
+ * {@link ThumbnailCache}.
+ *
+ * Each ImageView has at most one request. Loading another thumbnail into the same view (when a
+ * ListView reuses the row) or calling {@link #cancel(ImageView)} (when the row scrolls off-screen)
+ * cancels the previous request.
+ */
+public class ThumbnailLoader
+{
+    /**
+     * Tag for the log messages
+     */
+    public static final String LOG_TAG = ThumbnailLoader.class.getSimpleName();
+    
+    /**
+     * Name of the directory (in the app's cache directory) of the disk cache
+     */
+    private static final String DISK_CACHE_DIRECTORY = "thumbnails";
+    
+    /**
+     * Maximum size of the disk cache in bytes. The least recently used files are deleted beyond it.
+     */
+    private static final long DISK_CACHE_MAX_BYTES = 20 * 1024 * 1024;
+    
+    /**
+     * Quality of the thumbnails written to the disk cache
+     */
+    private static final int DISK_CACHE_JPEG_QUALITY = 85;
+    
+    private static ThumbnailLoader sInstance;
+    
+    private final ThumbnailCache< Bitmap > mCache;
+    private final ExecutorService mExecutor = Executors.newFixedThreadPool( 2 );
+    private final Handler mMainHandler = new Handler( Looper.getMainLooper() );
+    
+    /**
+     * Return the app wide loader, so all the screens share the same caches.
+     *
+     * @param context
+     *
+     * @return
+     */
+    public static synchronized ThumbnailLoader getInstance( Context context )
+    {
+        if ( sInstance == null )
+        {
+            Context appContext = context.getApplicationContext();
+            sInstance = new ThumbnailLoader(
+                    new File( appContext.getCacheDir(), DISK_CACHE_DIRECTORY ),
+                    appContext.getResources().getDimensionPixelSize( R.dimen.thumbnail_size ),
+                    ThumbnailCache.getMemoryCacheMaxBytes( Runtime.getRuntime().maxMemory() ) );
+        }
+        
+        return sInstance;
+    }
+    
+    /**
+     * Constructs a new {@link ThumbnailLoader}
+     *
+     * @param diskCacheDirectory of the thumbnail files.
+     * @param thumbnailSize      width and height of the thumbnails in pixels.
+     * @param memoryCacheBytes   maximum size of the memory cache in bytes.
+     */
+    ThumbnailLoader( File diskCacheDirectory, int thumbnailSize, int memoryCacheBytes )
+    {
+        mCache = new ThumbnailCache< Bitmap >( diskCacheDirectory, DISK_CACHE_MAX_BYTES, thumbnailSize,
+                memoryCacheBytes )
+        {
+            @Override
+            protected int sizeOf( Bitmap thumbnail )
+            {
+                return thumbnail.getRowBytes() * thumbnail.getHeight();
+            }
+            
+            @Override
+            protected Bitmap decodeThumbnail( File photoFile )
+            {
+                return ThumbnailLoader.decodeThumbnail( photoFile, getThumbnailSize() );
+            }
+            
+            @Override
+            protected Bitmap readThumbnail( File cacheFile )
+            {
+                return BitmapFactory.decodeFile( cacheFile.getAbsolutePath() );
+            }
+            
+            @Override
+            protected void writeThumbnail( Bitmap thumbnail, OutputStream output ) throws IOException
+            {
+                if ( !thumbnail.compress( Bitmap.CompressFormat.JPEG, DISK_CACHE_JPEG_QUALITY, output ) )
+                    throw new IOException( "Failed to compress thumbnail" );
+            }
+        };
+    }
+    
+    /**
+     * Show the thumbnail of the given photo in the ImageView, or the placeholder if the photo
+     * is null or until the thumbnail is loaded.
+     *
+     * @param photoPath        of the photo, or null if there is none.
+     * @param imageView        to show the thumbnail in.
+     * @param placeholderResId drawable to show when there is no thumbnail (yet).
+     */
+    public void load( final String photoPath, final ImageView imageView, int placeholderResId )
+    {
+        cancel( imageView );
+        
+        if ( photoPath == null )
+        {
+            imageView.setImageResource( placeholderResId );
+            return;
+        }
+        
+        Bitmap cached = mCache.getFromMemory( photoPath );
+        if ( cached != null )
+        {
+            imageView.setImageBitmap( cached );
+            return;
+        }
+        
+        imageView.setImageResource( placeholderResId );
+        final Object request = new Object();
+        Future< ? > future = mExecutor.submit( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                final Bitmap thumbnail = loadThumbnail( photoPath );
+                if ( thumbnail == null || Thread.currentThread().isInterrupted() )
+                    return;
+                
+                mMainHandler.post( new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        // Only show it if the view wasn't reused for another request meanwhile.
+                        if ( imageView.getTag( R.id.thumbnail_request ) == request )
+                        {
+                            imageView.setTag( R.id.thumbnail_request, null );
+                            imageView.setTag( R.id.thumbnail_future, null );
+                            imageView.setImageBitmap( thumbnail );
+                        }
+                    }
+                } );
+            }
+        } );
+        imageView.setTag( R.id.thumbnail_request, request );
+        imageView.setTag( R.id.thumbnail_future, future );
+    }
+    
+    /**
+     * Cancel the pending request of the ImageView, if any.
+     *
+     * @param imageView
+     */
+    public void cancel( ImageView imageView )
+    {
+        Future< ? > future = ( Future< ? > ) imageView.getTag( R.id.thumbnail_future );
+        if ( future != null )
+            future.cancel( true );
+        
+        imageView.setTag( R.id.thumbnail_request, null );
+        imageView.setTag( R.id.thumbnail_future, null );
+    }
+    
+    /**
+     * Return the thumbnail of the photo from the memory cache, the disk cache, or by decoding the
+     * photo, in that order. Runs on a background thread.
+     *
+     * @param photoPath
+     *
+     * @return the thumbnail, or null if the photo can't be decoded.
+     */
+    Bitmap loadThumbnail( String photoPath )
+    {
+        return mCache.load( photoPath );
+    }
+    
+    /**
+     * Decode a square thumbnail of the photo. The photo is decoded with the largest power of two
+     * downsampling that keeps it at least as big as the thumbnail, then cropped to the center.
+     *
+     * @param photoFile
+     * @param thumbnailSize
+     *
+     * @return
+     */
+    private static Bitmap decodeThumbnail( File photoFile, int thumbnailSize )
+    {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile( photoFile.getAbsolutePath(), options );
+        if ( options.outWidth <= 0 || options.outHeight <= 0 )
+            return null;
+        
+        int sampleSize = 1;
+        while ( options.outWidth / ( sampleSize * 2 ) >= thumbnailSize
+                && options.outHeight / ( sampleSize * 2 ) >= thumbnailSize )
+            sampleSize *= 2;
+        
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        Bitmap sampled = BitmapFactory.decodeFile( photoFile.getAbsolutePath(), options );
+        if ( sampled == null )
+            return null;
+        
+        return ThumbnailUtils.extractThumbnail( sampled, thumbnailSize, thumbnailSize,
+                ThumbnailUtils.OPTIONS_RECYCLE_INPUT );
+    }
+}
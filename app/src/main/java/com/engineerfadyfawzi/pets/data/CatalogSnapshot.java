@@ -0,0 +1,254 @@
+package com.engineerfadyfawzi.pets.data;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Compact binary snapshot of the first rows of the catalog (id, name and breed), so the catalog
+ * can show them as soon as it starts, before the database answers, then reconcile them with the
+ * {@link LivePetQuery}.
+ *
+ * The file starts with a header: a magic number, the format version, the number of rows, the
+ * length of the rows and their CRC32. Then each row is its id (8 bytes), and its name and breed,
+ * each as a 2 bytes length followed by UTF-8 bytes (a length of -1 for a null breed). A file with
+ * another magic number or format version, or whose rows don't match the length or the CRC32, is
+ * ignored and deleted.
+ *
+ * The file is read through a memory mapped buffer, and written to a temporary file renamed over
+ * it, so a reader never sees a half written snapshot.
+ */
+public final class CatalogSnapshot
+{
+    /**
+     * Tag for the log messages
+     */
+    public static final String LOG_TAG = CatalogSnapshot.class.getSimpleName();
+    
+    /**
+     * Number of rows kept in the snapshot, a couple of screens
+     */
+    public static final int MAX_ROWS = 40;
+    
+    /**
+     * Magic number of the snapshot files ("PETS")
+     */
+    private static final int MAGIC = 0x50455453;
+    
+    /**
+     * Version of the file format. Increment it when the format changes, so old files are ignored.
+     */
+    private static final int FORMAT_VERSION = 1;
+    
+    /**
+     * Size of the header: magic, version, row count, rows length and CRC32
+     */
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 8;
+    
+    /**
+     * Names and breeds longer than this (in UTF-8 bytes) are cut, to fit the 2 bytes length
+     */
+    private static final int MAX_STRING_BYTES = Short.MAX_VALUE;
+    
+    private static final Charset UTF_8 = Charset.forName( "UTF-8" );
+    
+    // Only static helpers, so there's no reason to instantiate it.
+    private CatalogSnapshot()
+    {
+    
+    }
+    
+    /**
+     * Read the rows of the snapshot file.
+     *
+     * @param file
+     *
+     * @return the rows, or null if there is no valid snapshot.
+     */
+    public static List< PetRow > read( File file )
+    {
+        if ( !file.isFile() )
+            return null;
+        
+        try
+        {
+            RandomAccessFile randomAccessFile = new RandomAccessFile( file, "r" );
+            try
+            {
+                FileChannel channel = randomAccessFile.getChannel();
+                MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+                List< PetRow > rows = decode( buffer );
+                if ( rows != null )
+                    return rows;
+            }
+            finally
+            {
+                randomAccessFile.close();
+            }
+        }
+        catch ( IOException | BufferUnderflowException | IllegalArgumentException exception )
+        {
+            Log.w( LOG_TAG, "Failed to read catalog snapshot " + file, exception );
+        }
+        
+        // The file is invalid, so it's rewritten after the next change.
+        file.delete();
+        return null;
+    }
+    
+    /**
+     * Write the first {@link #MAX_ROWS} rows to the snapshot file. This writes a file, so it must
+     * not be called on the main thread.
+     *
+     * @param file
+     * @param rows
+     */
+    public static void write( File file, List< PetRow > rows )
+    {
+        int count = Math.min( rows.size(), MAX_ROWS );
+        List< byte[] > names = new ArrayList<>( count );
+        List< byte[] > breeds = new ArrayList<>( count );
+        int length = 0;
+        for ( int i = 0; i < count; i++ )
+        {
+            PetRow row = rows.get( i );
+            names.add( encodeString( row.name ) );
+            breeds.add( row.breed == null ? null : encodeString( row.breed ) );
+            length += 8 + 2 + names.get( i ).length + 2 + ( breeds.get( i ) == null ? 0 : breeds.get( i ).length );
+        }
+        
+        ByteBuffer payload = ByteBuffer.allocate( length );
+        for ( int i = 0; i < count; i++ )
+        {
+            payload.putLong( rows.get( i ).id );
+            putString( payload, names.get( i ) );
+            putString( payload, breeds.get( i ) );
+        }
+        
+        CRC32 crc = new CRC32();
+        crc.update( payload.array() );
+        
+        ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+        header.putInt( MAGIC ).putInt( FORMAT_VERSION ).putInt( count ).putInt( length ).putLong( crc.getValue() );
+        
+        File temporary = new File( file.getPath() + ".tmp" );
+        try
+        {
+            FileOutputStream output = new FileOutputStream( temporary );
+            try
+            {
+                output.write( header.array() );
+                output.write( payload.array() );
+                output.getFD().sync();
+            }
+            finally
+            {
+                output.close();
+            }
+            
+            if ( !temporary.renameTo( file ) )
+                throw new IOException( "Failed to rename " + temporary );
+        }
+        catch ( IOException ioException )
+        {
+            Log.w( LOG_TAG, "Failed to write catalog snapshot " + file, ioException );
+            temporary.delete();
+        }
+    }
+    
+    /**
+     * Check the header and the CRC32 of the snapshot, then decode its rows.
+     *
+     * @param buffer
+     *
+     * @return the rows, or null if the snapshot isn't valid.
+     */
+    private static List< PetRow > decode( ByteBuffer buffer )
+    {
+        if ( buffer.remaining() < HEADER_SIZE
+                || buffer.getInt() != MAGIC
+                || buffer.getInt() != FORMAT_VERSION )
+            return null;
+        
+        int count = buffer.getInt();
+        int length = buffer.getInt();
+        long expectedCrc = buffer.getLong();
+        if ( count < 0 || count > MAX_ROWS || length != buffer.remaining() )
+            return null;
+        
+        // The buffer is memory mapped, so the CRC32 is computed in chunks, without a heap copy
+        // of the whole file.
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[ Math.min( length, 4096 ) ];
+        ByteBuffer rowsBuffer = buffer.slice();
+        while ( rowsBuffer.hasRemaining() )
+        {
+            int read = Math.min( chunk.length, rowsBuffer.remaining() );
+            rowsBuffer.get( chunk, 0, read );
+            crc.update( chunk, 0, read );
+        }
+        if ( crc.getValue() != expectedCrc )
+            return null;
+        
+        List< PetRow > rows = new ArrayList<>( count );
+        for ( int i = 0; i < count; i++ )
+        {
+            long id = buffer.getLong();
+            String name = getString( buffer );
+            String breed = getString( buffer );
+            if ( name == null )
+                return null;
+            
+            // Photos aren't in the snapshot, they're shown once the rows are reconciled.
+            rows.add( new PetRow( id, name, breed, null ) );
+        }
+        
+        return buffer.hasRemaining() ? null : rows;
+    }
+    
+    private static byte[] encodeString( String string )
+    {
+        byte[] bytes = string.getBytes( UTF_8 );
+        if ( bytes.length <= MAX_STRING_BYTES )
+            return bytes;
+        
+        // A cut name is only shown until the rows are reconciled, a cut character is fine.
+        byte[] cut = new byte[ MAX_STRING_BYTES ];
+        System.arraycopy( bytes, 0, cut, 0, MAX_STRING_BYTES );
+        return cut;
+    }
+    
+    private static void putString( ByteBuffer buffer, byte[] bytes )
+    {
+        if ( bytes == null )
+        {
+            buffer.putShort( ( short ) -1 );
+            return;
+        }
+        
+        buffer.putShort( ( short ) bytes.length );
+        buffer.put( bytes );
+    }
+    
+    private static String getString( ByteBuffer buffer )
+    {
+        int length = buffer.getShort();
+        if ( length < 0 )
+            return null;
+        
+        byte[] bytes = new byte[ length ];
+        buffer.get( bytes );
+        return new String( bytes, UTF_8 );
+    }
+}
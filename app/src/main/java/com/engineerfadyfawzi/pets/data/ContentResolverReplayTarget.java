@@ -0,0 +1,152 @@
+package com.engineerfadyfawzi.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.engineerfadyfawzi.pets.data.PetContract.PetEntry;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * Replays the calls of a {@link PetTrace} against the provider through a ContentResolver, for
+ * instance from an instrumentation run with a provider of its own database.
+ */
+public class ContentResolverReplayTarget implements PetTraceReplayer.Target
+{
+    private final ContentResolver mContentResolver;
+    
+    public ContentResolverReplayTarget( ContentResolver contentResolver )
+    {
+        mContentResolver = contentResolver;
+    }
+    
+    @Override
+    public int execute( PetTrace.Call call ) throws Exception
+    {
+        switch ( call.kind )
+        {
+            case PetTrace.KIND_QUERY:
+                // Counting the rows runs the query, as it did when it was recorded.
+                Cursor cursor = mContentResolver.query( Uri.parse( call.uri ), call.projection, call.selection,
+                        call.selectionArgs, call.sortOrder );
+                if ( cursor == null )
+                    return 0;
+                try
+                {
+                    return cursor.getCount();
+                }
+                finally
+                {
+                    cursor.close();
+                }
+            
+            case PetTrace.KIND_INSERT:
+                return mContentResolver.insert( Uri.parse( call.uri ), toContentValues( call.values ) ) == null ? 0 : 1;
+            
+            case PetTrace.KIND_UPDATE:
+                return mContentResolver.update( Uri.parse( call.uri ), toContentValues( call.values ),
+                        call.selection, call.selectionArgs );
+            
+            case PetTrace.KIND_DELETE:
+                return mContentResolver.delete( Uri.parse( call.uri ), call.selection, call.selectionArgs );
+            
+            case PetTrace.KIND_BATCH:
+                return mContentResolver.applyBatch( PetContract.CONTENT_AUTHORITY, toOperations( call ) ).length;
+            
+            case PetTrace.KIND_CALL:
+                Bundle extras = toBundle( call.values );
+                if ( PetContract.METHOD_APPLY_GROUP.equals( call.method ) )
+                    extras.putParcelableArrayList( PetContract.EXTRA_OPERATIONS, toOperations( call ) );
+                Bundle result = mContentResolver.call( PetEntry.CONTENT_URI, call.method, call.arg, extras );
+                return result == null ? 0 : result.size();
+            
+            default:
+                throw new IllegalArgumentException( "Unknown call kind " + call.kind );
+        }
+    }
+    
+    /**
+     * Return the operations of the calls of a group. Queries made within the group aren't
+     * operations, so they're left out.
+     *
+     * @param group
+     *
+     * @return
+     */
+    private static ArrayList< ContentProviderOperation > toOperations( PetTrace.Call group )
+    {
+        ArrayList< ContentProviderOperation > operations = new ArrayList<>( group.children.size() );
+        for ( PetTrace.Call call : group.children )
+        {
+            Uri uri = Uri.parse( call.uri );
+            switch ( call.kind )
+            {
+                case PetTrace.KIND_INSERT:
+                    operations.add( ContentProviderOperation.newInsert( uri )
+                            .withValues( toContentValues( call.values ) ).build() );
+                    break;
+                case PetTrace.KIND_UPDATE:
+                    operations.add( ContentProviderOperation.newUpdate( uri )
+                            .withValues( toContentValues( call.values ) )
+                            .withSelection( call.selection, call.selectionArgs ).build() );
+                    break;
+                case PetTrace.KIND_DELETE:
+                    operations.add( ContentProviderOperation.newDelete( uri )
+                            .withSelection( call.selection, call.selectionArgs ).build() );
+                    break;
+            }
+        }
+        return operations;
+    }
+    
+    private static ContentValues toContentValues( Map< String, Object > values )
+    {
+        ContentValues contentValues = new ContentValues();
+        if ( values == null )
+            return contentValues;
+        
+        for ( Map.Entry< String, Object > entry : values.entrySet() )
+        {
+            Object value = entry.getValue();
+            if ( value == null )
+                contentValues.putNull( entry.getKey() );
+            else if ( value instanceof Integer )
+                contentValues.put( entry.getKey(), ( Integer ) value );
+            else if ( value instanceof Long )
+                contentValues.put( entry.getKey(), ( Long ) value );
+            else if ( value instanceof Double )
+                contentValues.put( entry.getKey(), ( Double ) value );
+            else if ( value instanceof byte[] )
+                contentValues.put( entry.getKey(), ( byte[] ) value );
+            else
+                contentValues.put( entry.getKey(), value.toString() );
+        }
+        return contentValues;
+    }
+    
+    private static Bundle toBundle( Map< String, Object > values )
+    {
+        Bundle extras = new Bundle();
+        if ( values == null )
+            return extras;
+        
+        for ( Map.Entry< String, Object > entry : values.entrySet() )
+        {
+            Object value = entry.getValue();
+            if ( value instanceof Integer )
+                extras.putInt( entry.getKey(), ( Integer ) value );
+            else if ( value instanceof Long )
+                extras.putLong( entry.getKey(), ( Long ) value );
+            else if ( value instanceof Double )
+                extras.putDouble( entry.getKey(), ( Double ) value );
+            else if ( value != null )
+                extras.putString( entry.getKey(), value.toString() );
+        }
+        return extras;
+    }
+}
@@ -0,0 +1,522 @@
+package com.engineerfadyfawzi.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.AbstractCursor;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+import android.text.TextUtils;
+
+import com.engineerfadyfawzi.pets.data.PetContract.PetEntry;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A live, sorted and filtered list of pets, kept up to date by applying the changes of single
+ * pets instead of running the whole query again.
+ *
+ * When the provider notifies a change of a single pet (content://com.engineerfadyfawzi.pets/pets/#)
+ * only that pet is queried again, and it's inserted into, removed from or moved within the list
+ * by a {@link PetRowList}.
+ * A change of the pets content URI itself (for instance after a bulk update or delete) reloads the
+ * whole list. Changes of the data of a pet (such as its records) are ignored, except its tags
+ * when the list is filtered by tags.
+ *
+ * The rows are read through {@link #getCursor()}, a cursor backed by the list itself, which
+ * notifies its DataSetObservers after each change, so a CursorAdapter only rebinds visible rows.
+ *
+ * {@link #start()} and {@link #stop()} must be called on the main thread, and the list only
+ * changes (and is only read) on the main thread.
+ */
+public class LivePetQuery
+{
+    /**
+     * Columns of each row of the list (and of {@link #getCursor()}).
+     */
+    public static final String[] PROJECTION = PetSchema.Pets.CATALOG_COLUMNS;
+    
+    /**
+     * Listener of the changes of the list, each one called on the main thread after the list
+     * has been changed.
+     */
+    public interface Listener extends PetRowList.Listener
+    {
+        void onReloaded();
+    }
+    
+    private final ContentResolver mContentResolver;
+    private final Uri mQueryUri;
+    private final String mSelection;
+    private final String[] mSelectionArgs;
+    
+    /**
+     * The rows, sorted. Only changed on the main thread.
+     */
+    private final PetRowList mRows;
+    
+    private final LiveCursor mCursor = new LiveCursor();
+    private final Handler mMainHandler = new Handler( Looper.getMainLooper() );
+    private HandlerThread mQueryThread;
+    private ContentObserver mPetsObserver;
+    private Listener mListener;
+    private boolean mStopped;
+    
+    /**
+     * Signal cancelling the query in progress, if any, and the ones after it, when stopped
+     */
+    private final CancellationSignal mCancellationSignal = new CancellationSignal();
+    
+    /**
+     * Constructs a new {@link LivePetQuery}
+     *
+     * @param contentResolver to query the pets with.
+     * @param selection       to filter the pets with, or null for all the pets.
+     * @param selectionArgs   of the selection.
+     * @param order           of the rows, for instance {@link PetRow#BY_ID}.
+     */
+    public LivePetQuery( ContentResolver contentResolver, String selection, String[] selectionArgs,
+            Comparator< PetRow > order )
+    {
+        this( contentResolver, PetEntry.CONTENT_URI, selection, selectionArgs, order );
+    }
+    
+    /**
+     * Constructs a new {@link LivePetQuery} of the pets at the given pets URI, for instance
+     * filtered by tags with {@link PetContract.TagEntry#buildTaggedPetsUri}.
+     *
+     * @param contentResolver to query the pets with.
+     * @param queryUri        the pets content URI, with its query parameters.
+     * @param selection       to filter the pets with, or null for all the pets.
+     * @param selectionArgs   of the selection.
+     * @param order           of the rows, for instance {@link PetRow#BY_ID}.
+     */
+    public LivePetQuery( ContentResolver contentResolver, Uri queryUri, String selection,
+            String[] selectionArgs, Comparator< PetRow > order )
+    {
+        mContentResolver = contentResolver;
+        mQueryUri = queryUri;
+        mSelection = selection;
+        mSelectionArgs = selectionArgs;
+        mRows = new PetRowList( order );
+        
+        // The cursor is told about each change before the listener, so the listener reads the
+        // changed rows through it.
+        mRows.setListener( new PetRowList.Listener()
+        {
+            @Override
+            public void onRowInserted( int position )
+            {
+                mCursor.notifyRowsChanged();
+                if ( mListener != null )
+                    mListener.onRowInserted( position );
+            }
+            
+            @Override
+            public void onRowRemoved( int position )
+            {
+                mCursor.notifyRowsChanged();
+                if ( mListener != null )
+                    mListener.onRowRemoved( position );
+            }
+            
+            @Override
+            public void onRowChanged( int position )
+            {
+                mCursor.notifyRowsChanged();
+                if ( mListener != null )
+                    mListener.onRowChanged( position );
+            }
+            
+            @Override
+            public void onRowMoved( int fromPosition, int toPosition )
+            {
+                mCursor.notifyRowsChanged();
+                if ( mListener != null )
+                    mListener.onRowMoved( fromPosition, toPosition );
+            }
+        } );
+    }
+    
+    /**
+     * Set the listener of the changes of the list, or null for none.
+     *
+     * @param listener
+     */
+    public void setListener( Listener listener )
+    {
+        mListener = listener;
+    }
+    
+    /**
+     * Show the given rows until the list is loaded, for instance the rows of a
+     * {@link CatalogSnapshot}. The first load replaces them. Must be called before {@link #start()}.
+     *
+     * @param rows
+     */
+    public void setInitialRows( List< PetRow > rows )
+    {
+        // They're sorted again, in case they were saved by a list sorted differently.
+        List< PetRow > sortedRows = new ArrayList<>( rows );
+        mRows.sort( sortedRows );
+        mRows.replaceAll( sortedRows );
+        mCursor.notifyRowsChanged();
+    }
+    
+    /**
+     * Return a copy of the first rows of the list, at most count of them.
+     *
+     * @param count
+     *
+     * @return
+     */
+    public List< PetRow > getFirstRows( int count )
+    {
+        return mRows.getFirstRows( count );
+    }
+    
+    /**
+     * Return the cursor backed by the list. It stays valid (and changes) until {@link #stop()}.
+     *
+     * @return
+     */
+    public Cursor getCursor()
+    {
+        return mCursor;
+    }
+    
+    /**
+     * Load the list in the background and start applying changes.
+     */
+    public void start()
+    {
+        mQueryThread = new HandlerThread( "LivePetQuery" );
+        mQueryThread.start();
+        final Handler queryHandler = new Handler( mQueryThread.getLooper() );
+        
+        // Change notifications are delivered on the query thread, so every query (the whole
+        // list or one row) runs there, one after the other, in the order of the changes.
+        mPetsObserver = new ContentObserver( queryHandler )
+        {
+            @Override
+            public void onChange( boolean selfChange )
+            {
+                onChange( selfChange, null );
+            }
+            
+            @Override
+            public void onChange( boolean selfChange, Uri uri )
+            {
+                // The pets URI changed as a whole, or a single pet changed. Other descendants of
+                // the pets URI (the records of a pet, or the joins) aren't part of the rows.
+                if ( uri == null || uri.getPathSegments().size() == 1 )
+                {
+                    reload();
+                    return;
+                }
+                
+                long id = parsePetId( uri );
+                if ( id != -1 )
+                    refreshRow( id );
+                else if ( isTagsOfFilteredPet( uri ) )
+                    refreshRow( Long.parseLong( uri.getPathSegments().get( 1 ) ) );
+            }
+        };
+        mContentResolver.registerContentObserver( PetEntry.CONTENT_URI, true, mPetsObserver );
+        
+        queryHandler.post( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                reload();
+            }
+        } );
+    }
+    
+    /**
+     * Stop applying changes, and cancel the query in progress, so a replaced list doesn't keep
+     * a database connection busy. The list keeps its last state.
+     */
+    public void stop()
+    {
+        mStopped = true;
+        mCancellationSignal.cancel();
+        mContentResolver.unregisterContentObserver( mPetsObserver );
+        mQueryThread.quit();
+        mMainHandler.removeCallbacksAndMessages( null );
+    }
+    
+    /**
+     * Return the id of the pet of a single pet content URI, or -1 for any other URI.
+     *
+     * @param uri
+     *
+     * @return
+     */
+    private static long parsePetId( Uri uri )
+    {
+        List< String > segments = uri.getPathSegments();
+        if ( segments.size() != 2 || !PetContract.PATH_PETS.equals( segments.get( 0 ) ) )
+            return -1;
+        
+        try
+        {
+            return ContentUris.parseId( uri );
+        }
+        catch ( NumberFormatException numberFormatException )
+        {
+            return -1;
+        }
+    }
+    
+    /**
+     * Return whether the given URI is the tags of a pet, and the list is filtered by tags, so the
+     * pet may join or leave the list.
+     *
+     * @param uri
+     *
+     * @return
+     */
+    private boolean isTagsOfFilteredPet( Uri uri )
+    {
+        List< String > segments = uri.getPathSegments();
+        return mQueryUri.getQuery() != null && segments.size() == 3
+                && PetContract.PATH_PETS.equals( segments.get( 0 ) )
+                && PetContract.PATH_TAGS.equals( segments.get( 2 ) )
+                && TextUtils.isDigitsOnly( segments.get( 1 ) );
+    }
+    
+    /**
+     * Query all the rows (on the query thread) and replace the list with them (on the main thread).
+     */
+    private void reload()
+    {
+        final List< PetRow > rows = new ArrayList<>();
+        PetTracer.beginSection( "LivePetQuery.reload" );
+        try
+        {
+            Cursor cursor = mContentResolver.query( mQueryUri, PROJECTION, mSelection,
+                    mSelectionArgs, null, mCancellationSignal );
+            if ( cursor != null )
+            {
+                try
+                {
+                    while ( cursor.moveToNext() )
+                        rows.add( new PetRow( cursor.getLong( 0 ), cursor.getString( 1 ),
+                                cursor.getString( 2 ), cursor.getString( 3 ) ) );
+                }
+                finally
+                {
+                    cursor.close();
+                }
+            }
+            mRows.sort( rows );
+        }
+        catch ( OperationCanceledException operationCanceledException )
+        {
+            // Stopped, so nothing is delivered.
+            return;
+        }
+        finally
+        {
+            PetTracer.endSection();
+        }
+        
+        mMainHandler.post( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if ( mStopped )
+                    return;
+                
+                PetTracer.beginSection( "LivePetQuery.applyReload" );
+                try
+                {
+                    mRows.replaceAll( rows );
+                    mCursor.notifyRowsChanged();
+                    if ( mListener != null )
+                        mListener.onReloaded();
+                }
+                finally
+                {
+                    PetTracer.endSection();
+                }
+            }
+        } );
+    }
+    
+    /**
+     * Query a single row again (on the query thread) and apply it to the list (on the main thread):
+     * the row is removed if it doesn't exist or doesn't match the selection anymore.
+     *
+     * @param id
+     */
+    private void refreshRow( final long id )
+    {
+        String selection = PetEntry._ID + "=?";
+        String[] selectionArgs = new String[]{ String.valueOf( id ) };
+        if ( mSelection != null )
+        {
+            selection = selection + " AND (" + mSelection + ")";
+            if ( mSelectionArgs != null )
+            {
+                String[] args = new String[ mSelectionArgs.length + 1 ];
+                args[ 0 ] = selectionArgs[ 0 ];
+                System.arraycopy( mSelectionArgs, 0, args, 1, mSelectionArgs.length );
+                selectionArgs = args;
+            }
+        }
+        
+        PetRow row = null;
+        PetTracer.beginSection( "LivePetQuery.refreshRow" );
+        try
+        {
+            Cursor cursor = mContentResolver.query( mQueryUri, PROJECTION, selection,
+                    selectionArgs, null, mCancellationSignal );
+            if ( cursor != null )
+            {
+                try
+                {
+                    if ( cursor.moveToFirst() )
+                        row = new PetRow( cursor.getLong( 0 ), cursor.getString( 1 ),
+                                cursor.getString( 2 ), cursor.getString( 3 ) );
+                }
+                finally
+                {
+                    cursor.close();
+                }
+            }
+        }
+        catch ( OperationCanceledException operationCanceledException )
+        {
+            return;
+        }
+        finally
+        {
+            PetTracer.endSection();
+        }
+        
+        final PetRow newRow = row;
+        mMainHandler.post( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if ( mStopped )
+                    return;
+                
+                PetTracer.beginSection( "LivePetQuery.applyRow" );
+                try
+                {
+                    mRows.applyRow( id, newRow );
+                }
+                finally
+                {
+                    PetTracer.endSection();
+                }
+            }
+        } );
+    }
+    
+    /**
+     * Cursor reading the rows of the list directly, without copying them.
+     */
+    private class LiveCursor extends AbstractCursor
+    {
+        /**
+         * Tell the DataSetObservers of the cursor (like a CursorAdapter) that the rows changed.
+         */
+        void notifyRowsChanged()
+        {
+            mDataSetObservable.notifyChanged();
+        }
+        
+        @Override
+        public int getCount()
+        {
+            return mRows.size();
+        }
+        
+        @Override
+        public String[] getColumnNames()
+        {
+            return PROJECTION;
+        }
+        
+        @Override
+        public String getString( int column )
+        {
+            PetRow row = mRows.get( getPosition() );
+            switch ( column )
+            {
+                case 0:
+                    return String.valueOf( row.id );
+                case 1:
+                    return row.name;
+                case 2:
+                    return row.breed;
+                case 3:
+                    return row.photo;
+                default:
+                    throw new IllegalArgumentException( "Unknown column " + column );
+            }
+        }
+        
+        @Override
+        public long getLong( int column )
+        {
+            if ( column == 0 )
+                return mRows.get( getPosition() ).id;
+            
+            return Long.parseLong( getString( column ) );
+        }
+        
+        @Override
+        public int getInt( int column )
+        {
+            return ( int ) getLong( column );
+        }
+        
+        @Override
+        public short getShort( int column )
+        {
+            return ( short ) getLong( column );
+        }
+        
+        @Override
+        public float getFloat( int column )
+        {
+            return Float.parseFloat( getString( column ) );
+        }
+        
+        @Override
+        public double getDouble( int column )
+        {
+            return Double.parseDouble( getString( column ) );
+        }
+        
+        @Override
+        public int getType( int column )
+        {
+            if ( column == 0 )
+                return FIELD_TYPE_INTEGER;
+            
+            return isNull( column ) ? FIELD_TYPE_NULL : FIELD_TYPE_STRING;
+        }
+        
+        @Override
+        public boolean isNull( int column )
+        {
+            return getString( column ) == null;
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package com.engineerfadyfawzi.pets.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.util.Log;
+
+import com.engineerfadyfawzi.pets.data.PetContract.PetEntry;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Backup and restore of the whole database, used by {@link PetProvider} for
+ * {@link PetContract#METHOD_BACKUP} and {@link PetContract#METHOD_RESTORE}.
+ *
+ * A backup is a gzip compressed copy of the database file. It's taken from a consistent snapshot:
+ * with SQLite 3.27 or later the snapshot is written by VACUUM INTO, which only blocks writers while
+ * it reads the database, then it's compressed without holding any lock. With older versions the
+ * database file itself is compressed while a transaction blocks the writers (readers can still
+ * read), which is consistent because the database uses a rollback journal.
+ *
+ * A restore decompresses the backup next to the database file, checks it, and renames it over the
+ * database file, so the database is either fully replaced or left unchanged.
+ *
+ * The methods read and write files, so they must not be called on the main thread.
+ */
+final class PetBackup
+{
+    /**
+     * Tag for the log messages
+     */
+    public static final String LOG_TAG = PetBackup.class.getSimpleName();
+    
+    /**
+     * Suffix of the temporary files, next to the database file
+     */
+    private static final String SNAPSHOT_SUFFIX = "-snapshot";
+    private static final String RESTORE_SUFFIX = "-restore";
+    
+    /**
+     * Files SQLite keeps next to the database file, which must not outlive a restore
+     */
+    private static final String[] DATABASE_FILE_SUFFIXES = { "-journal", "-wal", "-shm" };
+    
+    // Only static helpers, so there's no reason to instantiate it.
+    private PetBackup()
+    {
+    
+    }
+    
+    /**
+     * Write a gzip compressed copy of the database to the output, and close the output.
+     *
+     * @param database
+     * @param output
+     *
+     * @return the size of the compressed backup in bytes.
+     *
+     * @throws IOException
+     */
+    static long backup( SQLiteDatabase database, OutputStream output ) throws IOException
+    {
+        File databaseFile = new File( database.getPath() );
+        CountingOutputStream counter = new CountingOutputStream( output );
+        
+        try
+        {
+            if ( supportsVacuumInto( database ) )
+            {
+                // VACUUM INTO fails if the file already exists, for instance after a crash.
+                File snapshot = new File( databaseFile.getPath() + SNAPSHOT_SUFFIX );
+                snapshot.delete();
+                try
+                {
+                    database.execSQL( "VACUUM INTO ?", new Object[]{ snapshot.getPath() } );
+                    compress( snapshot, counter );
+                }
+                finally
+                {
+                    snapshot.delete();
+                }
+            }
+            else
+            {
+                // An immediate transaction holds the write lock, so the file doesn't change
+                // until it's compressed. Nothing is written, so it's never marked successful.
+                database.beginTransactionNonExclusive();
+                try
+                {
+                    compress( databaseFile, counter );
+                }
+                finally
+                {
+                    database.endTransaction();
+                }
+            }
+        }
+        finally
+        {
+            closeQuietly( counter );
+        }
+        
+        return counter.mCount;
+    }
+    
+    /**
+     * Decompress a backup from the input next to the database file, close the input, and check
+     * that the backup is a pets database this version of the app can open.
+     *
+     * @param databaseFile the database file the backup will replace.
+     * @param input
+     *
+     * @return the restored file, to pass to {@link #replace}.
+     *
+     * @throws IOException if the backup can't be read or isn't valid. Nothing is left behind.
+     */
+    static File decompress( File databaseFile, InputStream input ) throws IOException
+    {
+        File restored = new File( databaseFile.getPath() + RESTORE_SUFFIX );
+        boolean valid = false;
+        try
+        {
+            FileOutputStream output = new FileOutputStream( restored );
+            try
+            {
+                copy( new GZIPInputStream( input ), output );
+                
+                // Make sure the file is on disk before it replaces the database.
+                output.getFD().sync();
+            }
+            finally
+            {
+                output.close();
+            }
+            
+            check( restored );
+            valid = true;
+            return restored;
+        }
+        finally
+        {
+            closeQuietly( input );
+            if ( !valid )
+                restored.delete();
+        }
+    }
+    
+    /**
+     * Replace the database file with a restored file, in a single rename. The database must not
+     * have a write in progress, since its journal is deleted.
+     *
+     * @param databaseFile
+     * @param restored     returned by {@link #decompress}.
+     *
+     * @throws IOException
+     */
+    static void replace( File databaseFile, File restored ) throws IOException
+    {
+        // A journal left next to the new file would be rolled back into it.
+        for ( String suffix : DATABASE_FILE_SUFFIXES )
+            new File( databaseFile.getPath() + suffix ).delete();
+        
+        if ( !restored.renameTo( databaseFile ) )
+        {
+            restored.delete();
+            throw new IOException( "Failed to rename " + restored + " to " + databaseFile );
+        }
+    }
+    
+    /**
+     * Check that the file is an intact pets database, not newer than this version of the app.
+     *
+     * @param file
+     *
+     * @throws IOException
+     */
+    private static void check( File file ) throws IOException
+    {
+        SQLiteDatabase database;
+        try
+        {
+            database = SQLiteDatabase.openDatabase( file.getPath(), null, SQLiteDatabase.OPEN_READONLY );
+        }
+        catch ( SQLiteException sqLiteException )
+        {
+            throw new IOException( "Backup isn't a database", sqLiteException );
+        }
+        
+        try
+        {
+            int version = database.getVersion();
+            if ( version < 1 || version > PetDbHelper.DATABASE_VERSION )
+                throw new IOException( "Backup has unsupported database version " + version );
+            
+            String integrity = queryString( database, "PRAGMA integrity_check" );
+            if ( !"ok".equals( integrity ) )
+                throw new IOException( "Backup is corrupt: " + integrity );
+            
+            if ( queryString( database, "SELECT name FROM sqlite_master WHERE type='table' AND name='"
+                    + PetEntry.TABLE_NAME + "'" ) == null )
+                throw new IOException( "Backup has no pets" );
+        }
+        catch ( SQLiteException sqLiteException )
+        {
+            throw new IOException( "Backup can't be read", sqLiteException );
+        }
+        finally
+        {
+            database.close();
+        }
+    }
+    
+    /**
+     * Return whether the SQLite version of the device supports VACUUM INTO (3.27 or later).
+     *
+     * @param database
+     *
+     * @return
+     */
+    private static boolean supportsVacuumInto( SQLiteDatabase database )
+    {
+        String[] version = queryString( database, "SELECT sqlite_version()" ).split( "\\." );
+        int major = Integer.parseInt( version[ 0 ] );
+        int minor = version.length > 1 ? Integer.parseInt( version[ 1 ] ) : 0;
+        return major > 3 || ( major == 3 && minor >= 27 );
+    }
+    
+    private static String queryString( SQLiteDatabase database, String sql )
+    {
+        Cursor cursor = database.rawQuery( sql, null );
+        try
+        {
+            return cursor.moveToFirst() ? cursor.getString( 0 ) : null;
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+    
+    /**
+     * Compress the file into the output, streaming, without closing the output.
+     *
+     * @param file
+     * @param output
+     *
+     * @throws IOException
+     */
+    private static void compress( File file, OutputStream output ) throws IOException
+    {
+        InputStream input = new FileInputStream( file );
+        try
+        {
+            GZIPOutputStream gzip = new GZIPOutputStream( output, 64 * 1024 );
+            copy( input, gzip );
+            gzip.finish();
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+    
+    private static void copy( InputStream input, OutputStream output ) throws IOException
+    {
+        byte[] buffer = new byte[ 64 * 1024 ];
+        int read;
+        while ( ( read = input.read( buffer ) ) != -1 )
+            output.write( buffer, 0, read );
+    }
+    
+    private static void closeQuietly( Closeable closeable )
+    {
+        try
+        {
+            closeable.close();
+        }
+        catch ( IOException ioException )
+        {
+            Log.w( LOG_TAG, "Failed to close backup stream", ioException );
+        }
+    }
+    
+    /**
+     * Output stream counting the bytes written through it.
+     */
+    private static class CountingOutputStream extends OutputStream
+    {
+        private final OutputStream mOutput;
+        private long mCount;
+        
+        CountingOutputStream( OutputStream output )
+        {
+            mOutput = output;
+        }
+        
+        @Override
+        public void write( int oneByte ) throws IOException
+        {
+            mOutput.write( oneByte );
+            mCount++;
+        }
+        
+        @Override
+        public void write( byte[] buffer, int offset, int count ) throws IOException
+        {
+            mOutput.write( buffer, offset, count );
+            mCount += count;
+        }
+        
+        @Override
+        public void flush() throws IOException
+        {
+            mOutput.flush();
+        }
+        
+        @Override
+        public void close() throws IOException
+        {
+            mOutput.close();
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package com.engineerfadyfawzi.pets.data;
+
+import android.content.ContentValues;
+import android.net.Uri;
+import android.os.Bundle;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records the calls of {@link PetProvider} to a {@link PetTrace}, while it's enabled with
+ * {@link PetContract#METHOD_START_RECORDING}.
+ *
+ * The arguments are sanitized as soon as a call starts (see {@link PetTrace.Sanitizer}), so
+ * nothing users typed is kept. The calls made while a group is applied on the same thread are
+ * nested in the call of the group, in order.
+ *
+ * The provider times each call itself, through {@link #start} and {@link #finish}. Writing a call
+ * is buffered, so the provider only waits for the compression of a few hundred bytes.
+ */
+final class PetCallRecorder
+{
+    /**
+     * Tag for the log messages
+     */
+    public static final String LOG_TAG = PetCallRecorder.class.getSimpleName();
+    
+    private final PetTrace.Writer mWriter;
+    private final PetTrace.Sanitizer mSanitizer = new PetTrace.Sanitizer();
+    private final long mStartNanos = System.nanoTime();
+    
+    /**
+     * Call in progress on each thread, the group of the calls it makes
+     */
+    private final ThreadLocal< PetTrace.Call > mCurrentCall = new ThreadLocal<>();
+    
+    /**
+     * Number of recorded calls, and whether the writer failed, so the recording stopped.
+     * Guarded by this.
+     */
+    private int mRecordedCalls;
+    private boolean mFailed;
+    
+    /**
+     * A call being timed, returned by {@link #start} and passed to {@link #finish}.
+     */
+    static final class Timing
+    {
+        private final PetTrace.Call mCall;
+        private final PetTrace.Call mParent;
+        private final long mStartNanos;
+        
+        private Timing( PetTrace.Call call, PetTrace.Call parent, long startNanos )
+        {
+            mCall = call;
+            mParent = parent;
+            mStartNanos = startNanos;
+        }
+    }
+    
+    /**
+     * @param output to write the trace to, closed by {@link #close()}.
+     *
+     * @throws IOException
+     */
+    PetCallRecorder( OutputStream output ) throws IOException
+    {
+        mWriter = new PetTrace.Writer( output, System.currentTimeMillis() );
+    }
+    
+    Timing startQuery( Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder )
+    {
+        return start( new PetTrace.Call( PetTrace.KIND_QUERY, sanitize( uri ), projection,
+                mSanitizer.sanitizeSelection( selection ), mSanitizer.sanitize( selectionArgs ), sortOrder,
+                null, null, null ) );
+    }
+    
+    Timing startInsert( Uri uri, ContentValues values )
+    {
+        return start( new PetTrace.Call( PetTrace.KIND_INSERT, sanitize( uri ), null, null, null, null,
+                null, null, sanitize( values ) ) );
+    }
+    
+    Timing startUpdate( Uri uri, ContentValues values, String selection, String[] selectionArgs )
+    {
+        return start( new PetTrace.Call( PetTrace.KIND_UPDATE, sanitize( uri ), null,
+                mSanitizer.sanitizeSelection( selection ), mSanitizer.sanitize( selectionArgs ), null,
+                null, null, sanitize( values ) ) );
+    }
+    
+    Timing startDelete( Uri uri, String selection, String[] selectionArgs )
+    {
+        return start( new PetTrace.Call( PetTrace.KIND_DELETE, sanitize( uri ), null,
+                mSanitizer.sanitizeSelection( selection ), mSanitizer.sanitize( selectionArgs ), null,
+                null, null, null ) );
+    }
+    
+    Timing startBatch()
+    {
+        return start( new PetTrace.Call( PetTrace.KIND_BATCH, null, null, null, null, null, null, null, null ) );
+    }
+    
+    /**
+     * Start a call of a provider-defined method. Only its number and string extras are kept
+     * (they're set by the app, such as a limit or a durability), the operations of a group are
+     * recorded as the calls they make.
+     *
+     * @param method
+     * @param arg
+     * @param extras
+     *
+     * @return
+     */
+    Timing startCall( String method, String arg, Bundle extras )
+    {
+        LinkedHashMap< String, Object > values = null;
+        if ( extras != null )
+        {
+            values = new LinkedHashMap<>();
+            for ( String key : extras.keySet() )
+            {
+                Object value = extras.get( key );
+                if ( value instanceof Number || value instanceof String )
+                    values.put( key, value );
+            }
+        }
+        
+        return start( new PetTrace.Call( PetTrace.KIND_CALL, null, null, null, null, null, method,
+                mSanitizer.sanitize( arg ), values ) );
+    }
+    
+    private Timing start( PetTrace.Call call )
+    {
+        PetTrace.Call parent = mCurrentCall.get();
+        mCurrentCall.set( call );
+        long startNanos = System.nanoTime();
+        call.startMicros = ( startNanos - mStartNanos ) / 1000;
+        return new Timing( call, parent, startNanos );
+    }
+    
+    /**
+     * Finish the call and write it, or add it to the group it's part of.
+     *
+     * @param timing      returned by the start of the call.
+     * @param resultCount number of rows returned or changed, or -1 if the call failed.
+     */
+    void finish( Timing timing, int resultCount )
+    {
+        PetTrace.Call call = timing.mCall;
+        call.durationMicros = ( System.nanoTime() - timing.mStartNanos ) / 1000;
+        call.resultCount = resultCount;
+        call.failed = resultCount < 0;
+        
+        if ( timing.mParent != null )
+        {
+            mCurrentCall.set( timing.mParent );
+            timing.mParent.children.add( call );
+            return;
+        }
+        mCurrentCall.remove();
+        
+        synchronized ( this )
+        {
+            if ( mFailed )
+                return;
+            
+            try
+            {
+                mWriter.write( call );
+                mRecordedCalls++;
+            }
+            catch ( IOException ioException )
+            {
+                Log.e( LOG_TAG, "Failed to record call, recording stopped", ioException );
+                mFailed = true;
+            }
+        }
+    }
+    
+    /**
+     * Stop recording, and close the trace.
+     *
+     * @return the number of recorded calls (groups counting as one).
+     */
+    synchronized int close()
+    {
+        try
+        {
+            mWriter.close();
+        }
+        catch ( IOException ioException )
+        {
+            Log.e( LOG_TAG, "Failed to close trace", ioException );
+        }
+        mFailed = true;
+        
+        return mRecordedCalls;
+    }
+    
+    /**
+     * Return the URI with the segments and query parameter values which aren't numbers or
+     * paths of the contract replaced by pseudonyms, such as shelter ids or tag names.
+     *
+     * @param uri
+     *
+     * @return
+     */
+    private String sanitize( Uri uri )
+    {
+        Uri.Builder builder = uri.buildUpon().path( null ).clearQuery();
+        List< String > segments = uri.getPathSegments();
+        for ( int i = 0; i < segments.size(); i++ )
+        {
+            String segment = segments.get( i );
+            builder.appendPath( isContractPath( segments, i ) ? segment : mSanitizer.sanitize( segment ) );
+        }
+        
+        for ( String name : uri.getQueryParameterNames() )
+            for ( String value : uri.getQueryParameters( name ) )
+                builder.appendQueryParameter( name, mSanitizer.sanitize( value ) );
+        
+        return builder.build().toString();
+    }
+    
+    /**
+     * Return whether the segment at the given index is a path of the contract, and not a value:
+     * the first segment, and any segment after it but the shelter id and the tag name.
+     *
+     * @param segments
+     * @param index
+     *
+     * @return
+     */
+    private static boolean isContractPath( List< String > segments, int index )
+    {
+        if ( index == 0 )
+            return true;
+        
+        String previous = segments.get( index - 1 );
+        return !( index == 1 && PetContract.PATH_SHELTERS.equals( previous ) )
+                && !PetContract.PATH_TAGS.equals( previous );
+    }
+    
+    private Map< String, Object > sanitize( ContentValues values )
+    {
+        if ( values == null )
+            return null;
+        
+        LinkedHashMap< String, Object > sanitized = new LinkedHashMap<>();
+        for ( String key : values.keySet() )
+            sanitized.put( key, mSanitizer.sanitizeValue( values.get( key ) ) );
+        return sanitized;
+    }
+}
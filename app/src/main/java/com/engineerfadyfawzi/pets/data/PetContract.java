@@ -1,11 +1,15 @@
 package com.engineerfadyfawzi.pets.data;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
+import java.util.List;
+
 /**
- * API Contract for the Pets app.
+ * API Contract for the Pets app. The names of the tables, views and columns are the ones of
+ * {@link PetSchema}, which creates the database.
  */
 public final class PetContract
 {
@@ -38,22 +42,305 @@ public final class PetContract
      */
     public static final String PATH_PETS = "pets";
     
+    /**
+     * Possible path for looking at the change log of the pets, for instance
+     * content://com.engineerfadyfawzi.pets/pets/changes?since=42
+     */
+    public static final String PATH_PET_CHANGES = PATH_PETS + "/changes";
+    
+    /**
+     * Possible paths for looking at the archived pets, and at all the pets (in care and archived),
+     * for instance content://com.engineerfadyfawzi.pets/pets/archive
+     */
+    public static final String PATH_PET_ARCHIVE = PATH_PETS + "/archive";
+    public static final String PATH_PET_HISTORY = PATH_PETS + "/history";
+    
+    /**
+     * Possible paths for looking at the medical records of a pet, appended to the pet's URI, and
+     * at the pets with their last vaccination, for instance
+     * content://com.engineerfadyfawzi.pets/pets/3/records
+     */
+    public static final String PATH_RECORDS = "records";
+    public static final String PATH_PETS_WITH_LAST_VACCINATION = PATH_PETS + "/last_vaccination";
+    
+    /**
+     * Possible path for looking at the tags, and at the tags of a pet, appended to the pet's URI,
+     * for instance content://com.engineerfadyfawzi.pets/pets/3/tags
+     */
+    public static final String PATH_TAGS = "tags";
+    
+    /**
+     * Name of the provider method (passed to {@link ContentResolver#call}) that compacts the
+     * change log, see {@link ChangeEntry}. Pass {@link #EXTRA_BEFORE_SEQ} to also drop the
+     * deleted pets logged up to that sequence number.
+     */
+    public static final String METHOD_COMPACT_CHANGES = "compactChanges";
+    
+    /**
+     * Sequence number for {@link #METHOD_COMPACT_CHANGES} up to which every consumer of the
+     * change log has read. Type: long
+     */
+    public static final String EXTRA_BEFORE_SEQ = "beforeSeq";
+    
+    /**
+     * Method of {@link ContentResolver#call} applying the {@link #EXTRA_OPERATIONS} in one
+     * transaction, like {@link ContentResolver#applyBatch}, with the {@link #EXTRA_DURABILITY}.
+     * The listeners are notified once, after the commit. Used by {@link PetWriteQueue}.
+     *
+     * Each shelter has its own database, so operations on several shelters are applied in one
+     * transaction per shelter, committed one after the other.
+     */
+    public static final String METHOD_APPLY_GROUP = "applyGroup";
+    
+    /**
+     * Operations of {@link #METHOD_APPLY_GROUP}. Type: ArrayList of ContentProviderOperation
+     */
+    public static final String EXTRA_OPERATIONS = "operations";
+    
+    /**
+     * Durability of {@link #METHOD_APPLY_GROUP}, {@link #DURABILITY_FULL} (the default) or
+     * {@link #DURABILITY_RELAXED}. Type: String
+     */
+    public static final String EXTRA_DURABILITY = "durability";
+    
+    /**
+     * The group is synced to disk when it's committed, so it survives a power loss.
+     */
+    public static final String DURABILITY_FULL = "full";
+    
+    /**
+     * The group is committed without waiting for the disk: it survives the app crashing, but
+     * the last groups may be lost if the device loses power or the OS crashes. Commits are
+     * much faster.
+     */
+    public static final String DURABILITY_RELAXED = "relaxed";
+    
+    /**
+     * Result key of {@link #METHOD_APPLY_GROUP}, with one result per operation.
+     * Type: Parcelable[] of ContentProviderResult
+     */
+    public static final String EXTRA_RESULTS = "results";
+    
+    /**
+     * Method of {@link ContentResolver#call} writing a consistent, gzip compressed copy of the
+     * whole database of a shelter to {@link #EXTRA_FILE_DESCRIPTOR}. The arg is the shelter id,
+     * or null for the default shelter. Writers are only blocked while the snapshot is taken, not
+     * while it's compressed.
+     */
+    public static final String METHOD_BACKUP = "backup";
+    
+    /**
+     * Method of {@link ContentResolver#call} replacing the whole database of a shelter with a
+     * backup written by {@link #METHOD_BACKUP}, read from {@link #EXTRA_FILE_DESCRIPTOR}. The arg
+     * is the shelter id, or null for the default shelter. The backup is checked before it
+     * replaces the database, so a failed restore leaves the database unchanged. Requests wait
+     * while the database is replaced.
+     */
+    public static final String METHOD_RESTORE = "restore";
+    
+    /**
+     * File to write the backup to, or to read it from, for {@link #METHOD_BACKUP} and
+     * {@link #METHOD_RESTORE}. It's closed by the provider. Type: ParcelFileDescriptor
+     */
+    public static final String EXTRA_FILE_DESCRIPTOR = "fileDescriptor";
+    
+    /**
+     * Result keys of {@link #METHOD_BACKUP} and {@link #METHOD_RESTORE}: the size of the
+     * compressed backup in bytes, and how long it took in milliseconds. Type: long
+     */
+    public static final String EXTRA_BACKUP_BYTES = "backupBytes";
+    public static final String EXTRA_BACKUP_MILLIS = "backupMillis";
+    
+    /**
+     * Method of {@link ContentResolver#call} recording the calls of the provider, with their
+     * sanitized arguments and timings, to {@link #EXTRA_FILE_DESCRIPTOR} until
+     * {@link #METHOD_STOP_RECORDING}. The trace is read by {@link PetTraceReplayer}.
+     */
+    public static final String METHOD_START_RECORDING = "startRecording";
+    
+    /**
+     * Method of {@link ContentResolver#call} stopping the recording started by
+     * {@link #METHOD_START_RECORDING}, and closing the trace.
+     */
+    public static final String METHOD_STOP_RECORDING = "stopRecording";
+    
+    /**
+     * Result key of {@link #METHOD_STOP_RECORDING}: the number of recorded calls, a group
+     * counting as one. Type: int
+     */
+    public static final String EXTRA_RECORDED_CALLS = "recordedCalls";
+    
+    /**
+     * Method of {@link ContentResolver#call} selecting the {@link PetStorageProfile} the databases
+     * are opened with, by the name passed as argument (for instance "read-heavy-mmap"). The open
+     * databases are changed right away, and rebuilt if the page size changes, so it must not be
+     * called on the main thread.
+     */
+    public static final String METHOD_SET_STORAGE_PROFILE = "setStorageProfile";
+    
+    /**
+     * Method of {@link ContentResolver#call} deleting the pets of the pets URI, or the pet of the
+     * single pet URI, passed as argument, like {@link ContentResolver#delete} without a
+     * selection. It returns the {@link #EXTRA_DELETED_PETS} and the {@link #EXTRA_DELETION_ID}
+     * of the delete, so it can be undone.
+     */
+    public static final String METHOD_DELETE = "delete";
+    
+    /**
+     * Result key of {@link #METHOD_DELETE}: the number of pets deleted. Type: int
+     */
+    public static final String EXTRA_DELETED_PETS = "deletedPets";
+    
+    /**
+     * Id of a delete of pets, returned by {@link #METHOD_DELETE} (-1 if nothing was deleted) and
+     * passed to {@link #METHOD_UNDO_DELETE}. Type: long
+     */
+    public static final String EXTRA_DELETION_ID = "deletionId";
+    
+    /**
+     * Method of {@link ContentResolver#call} undoing the delete of pets of the
+     * {@link #EXTRA_DELETION_ID} of a shelter (the shelter id passed as argument, or the default
+     * shelter for null), if it was done less than {@link #UNDO_DELETE_MILLIS} ago. A delete of
+     * pets only marks them as deleted, and they're purged afterwards, so undoing it brings them
+     * back as they were, photos, records and tags included.
+     */
+    public static final String METHOD_UNDO_DELETE = "undoDelete";
+    
+    /**
+     * Time during which a delete of pets can be undone with {@link #METHOD_UNDO_DELETE}, in
+     * milliseconds.
+     */
+    public static final long UNDO_DELETE_MILLIS = 10 * 1000;
+    
+    /**
+     * Result key of {@link #METHOD_UNDO_DELETE}: the number of pets brought back, 0 if there was
+     * no delete to undo, or if a later delete of all the pets still deletes them. Type: int
+     */
+    public static final String EXTRA_UNDELETED_PETS = "undeletedPets";
+    
+    /**
+     * Possible path for looking at breed data, for instance
+     * content://com.engineerfadyfawzi.pets/breeds/
+     */
+    public static final String PATH_BREEDS = "breeds";
+    
+    /**
+     * Possible path for looking at the shelters, and at the pets of one shelter, for instance
+     * content://com.engineerfadyfawzi.pets/shelters/north/pets/
+     */
+    public static final String PATH_SHELTERS = "shelters";
+    
+    /**
+     * Possible path (appended to base content URI for possible URI's)
+     * For instance, content://com.engineerfadyfawzi.pets/drafts/ is a valid path for
+     * looking at the drafts of the editor.
+     */
+    public static final String PATH_DRAFTS = "drafts";
+    
+    /**
+     * Possible path (appended to base content URI for possible URI's)
+     * For instance, content://com.engineerfadyfawzi.pets/weights/ is a valid path for
+     * looking at the weight history of the pets.
+     */
+    public static final String PATH_WEIGHTS = "weights";
+    
+    /**
+     * Name of the provider method (passed to {@link ContentResolver#call}) that reads a chunk of
+     * pets as column arrays instead of a Cursor. Rows are returned ordered by {@link PetEntry#_ID}.
+     *
+     * Pass {@link #EXTRA_AFTER_ID} to continue after the last id of the previous chunk, and
+     * optionally {@link #EXTRA_LIMIT} to change the chunk size.
+     */
+    public static final String METHOD_BULK_READ = "bulkRead";
+    
+    /**
+     * Keyset cursor for {@link #METHOD_BULK_READ}: only pets with an id greater than this value
+     * are returned. Type: long (default 0, which starts from the first pet).
+     */
+    public static final String EXTRA_AFTER_ID = "afterId";
+    
+    /**
+     * Maximum number of pets returned by one {@link #METHOD_BULK_READ} call.
+     * Type: int (default {@link #BULK_READ_DEFAULT_LIMIT}).
+     */
+    public static final String EXTRA_LIMIT = "limit";
+    
+    /**
+     * Default and maximum chunk size of {@link #METHOD_BULK_READ}. It's kept small enough that
+     * a chunk of column arrays stays well below the Binder transaction limit.
+     */
+    public static final int BULK_READ_DEFAULT_LIMIT = 2000;
+    
+    /**
+     * Result keys of {@link #METHOD_BULK_READ}.
+     *
+     * The ids, genders and weights are primitive arrays (long[], int[], int[]) of the same length.
+     * Names and breeds are packed into one String each, with an int[] of end offsets per row,
+     * so row i is {@code packed.substring( i == 0 ? 0 : ends[ i - 1 ], ends[ i ] )}.
+     * A null breed is packed as an empty string.
+     */
+    public static final String EXTRA_IDS = "ids";
+    public static final String EXTRA_GENDERS = "genders";
+    public static final String EXTRA_WEIGHTS = "weights";
+    public static final String EXTRA_NAMES = "names";
+    public static final String EXTRA_NAME_ENDS = "nameEnds";
+    public static final String EXTRA_BREEDS = "breeds";
+    public static final String EXTRA_BREED_ENDS = "breedEnds";
+    
+    /**
+     * Result key of {@link #METHOD_BULK_READ} holding the {@link #EXTRA_AFTER_ID} to pass to get
+     * the next chunk, or -1 if this was the last chunk. Type: long
+     */
+    public static final String EXTRA_NEXT_AFTER_ID = "nextAfterId";
+    
     /**
      * Inner class that defines constant values for the pets database table.
      * Each entry in the table represents a single pet.
+     *
+     * The pets table only holds the pets in care, and the pets whose record was just closed
+     * (adopted or transferred, see {@link #COLUMN_PET_STATUS}). Closed records are moved in the
+     * background to the archive table, which has the same columns plus {@link #COLUMN_PET_ARCHIVED},
+     * so the catalog queries, indexes and cursors don't carry the whole history. The archived pets
+     * are read only, at {@link #ARCHIVE_URI}, and all the pets at {@link #HISTORY_URI}.
+     *
+     * The {@link Column} constants define the columns clients read and write, from which
+     * {@link PetReader}, {@link PetWriter} and {@link PetValidator} are generated.
      */
+    @Table( "Pet" )
     public static abstract class PetEntry implements BaseColumns
     {
         /**
          * Name of database table for pets
          */
-        public static final String TABLE_NAME = "pets";
+        public static final String TABLE_NAME = PetSchema.Pets.TABLE_NAME;
+        
+        /**
+         * Name of database view joining each pet with the name of its breed. Queries read from
+         * this view, writes go to {@link #TABLE_NAME}.
+         */
+        public static final String VIEW_NAME = PetSchema.Pets.VIEW_NAME;
+        
+        /**
+         * Name of database table for the archived pets, and of the views joining each archived
+         * pet with the name of its breed, and all the pets (in care and archived) with the name
+         * of their breed.
+         */
+        public static final String ARCHIVE_TABLE_NAME = PetSchema.Pets.ARCHIVE_TABLE_NAME;
+        public static final String ARCHIVE_VIEW_NAME = PetSchema.Pets.ARCHIVE_VIEW_NAME;
+        public static final String HISTORY_VIEW_NAME = PetSchema.Pets.HISTORY_VIEW_NAME;
         
         /**
          * The content URI to access the pet data in the provider.
          */
         public static final Uri CONTENT_URI = Uri.withAppendedPath( BASE_CONTENT_URI, PATH_PETS );
         
+        /**
+         * The content URIs to read the archived pets, and all the pets (in care and archived).
+         * They're read only.
+         */
+        public static final Uri ARCHIVE_URI = Uri.withAppendedPath( BASE_CONTENT_URI, PATH_PET_ARCHIVE );
+        public static final Uri HISTORY_URI = Uri.withAppendedPath( BASE_CONTENT_URI, PATH_PET_HISTORY );
+        
         /**
          * The MIME type of the {@link #CONTENT_URI} for a list of pets.
          */
@@ -71,6 +358,7 @@ public final class PetContract
          *
          * Type: INTEGER
          */
+        @Column( type = Column.Type.LONG, readOnly = true, notNull = true )
         public static final String _ID = BaseColumns._ID;
         
         /**
@@ -78,14 +366,28 @@ public final class PetContract
          *
          * Type: TEXT
          */
-        public static final String COLUMN_PET_NAME = "name";
+        @Column( type = Column.Type.TEXT, required = true, notEmpty = true, error = "Pet requires a name" )
+        public static final String COLUMN_PET_NAME = PetSchema.Pets.COLUMN_PET_NAME;
         
         /**
          * Breed of the pet.
          *
+         * This column isn't stored in the pets table, the provider joins it in from
+         * {@link BreedEntry#COLUMN_BREED_NAME} and resolves it to {@link #COLUMN_PET_BREED_ID}
+         * on insert and update, so clients can keep reading and writing it as plain text.
+         *
          * Type: TEXT
          */
-        public static final String COLUMN_PET_BREED = "breed";
+        @Column( type = Column.Type.TEXT )
+        public static final String COLUMN_PET_BREED = PetSchema.Pets.COLUMN_PET_BREED;
+        
+        /**
+         * Breed of the pet, as the {@link BreedEntry#_ID} of a row in the breeds table,
+         * or null if the breed is unknown.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_PET_BREED_ID = PetSchema.Pets.COLUMN_PET_BREED_ID;
         
         /**
          * Gender of the pet.
@@ -95,21 +397,79 @@ public final class PetContract
          *
          * Type: INTEGER
          */
-        public static final String COLUMN_PET_GENDER = "gender";
+        @Column( type = Column.Type.INT, required = true, notNull = true,
+                values = { PetValidation.GENDER_UNKNOWN, PetValidation.GENDER_MALE,
+                        PetValidation.GENDER_FEMALE } )
+        public static final String COLUMN_PET_GENDER = PetSchema.Pets.COLUMN_PET_GENDER;
         
         /**
          * Weight of the pet.
          *
          * Type: INTEGER
          */
-        public static final String COLUMN_PET_WEIGHT = "weight";
+        @Column( type = Column.Type.INT, min = 0 )
+        public static final String COLUMN_PET_WEIGHT = PetSchema.Pets.COLUMN_PET_WEIGHT;
+        
+        /**
+         * Photo of the pet, as the path of a file in the app's private storage
+         * (see {@link PetPhotoStore}), or null if the pet has no photo.
+         *
+         * Type: TEXT
+         */
+        @Column( type = Column.Type.TEXT )
+        public static final String COLUMN_PET_PHOTO = PetSchema.Pets.COLUMN_PET_PHOTO;
+        
+        /**
+         * Version of the pet, incremented by the provider on each update (unless the update sets
+         * it), and used to resolve conflicts when syncing: the higher version wins.
+         *
+         * Type: INTEGER
+         */
+        @Column( type = Column.Type.INT, notNull = true, min = 1 )
+        public static final String COLUMN_PET_VERSION = PetSchema.Pets.COLUMN_PET_VERSION;
+        
+        /**
+         * Globally unique id of the pet, shared with the sync registry. The provider generates
+         * one on insert if none is given.
+         *
+         * Type: TEXT
+         */
+        @Column( type = Column.Type.TEXT )
+        public static final String COLUMN_PET_SYNC_ID = PetSchema.Pets.COLUMN_PET_SYNC_ID;
+        
+        /**
+         * Adoption status of the pet, {@link #STATUS_IN_CARE} (the default), {@link #STATUS_ADOPTED}
+         * or {@link #STATUS_TRANSFERRED}. Pets that aren't in care are archived.
+         *
+         * Type: INTEGER
+         */
+        @Column( type = Column.Type.INT, notNull = true,
+                values = { PetValidation.STATUS_IN_CARE, PetValidation.STATUS_ADOPTED,
+                        PetValidation.STATUS_TRANSFERRED } )
+        public static final String COLUMN_PET_STATUS = PetSchema.Pets.COLUMN_PET_STATUS;
+        
+        /**
+         * Time the pet was archived, in milliseconds since the epoch, only in the archived pets
+         * (null for the pets in care in {@link #HISTORY_URI}).
+         *
+         * Type: INTEGER
+         */
+        @Column( type = Column.Type.LONG, readOnly = true )
+        public static final String COLUMN_PET_ARCHIVED = PetSchema.Pets.COLUMN_PET_ARCHIVED;
+        
+        /**
+         * Possible values for the adoption status of the pet.
+         */
+        public static final int STATUS_IN_CARE = PetValidation.STATUS_IN_CARE;
+        public static final int STATUS_ADOPTED = PetValidation.STATUS_ADOPTED;
+        public static final int STATUS_TRANSFERRED = PetValidation.STATUS_TRANSFERRED;
         
         /**
          * Possible values for the gender of the pet.
          */
-        public static final int GENDER_UNKNOWN = 0;
-        public static final int GENDER_MALE = 1;
-        public static final int GENDER_FEMALE = 2;
+        public static final int GENDER_UNKNOWN = PetValidation.GENDER_UNKNOWN;
+        public static final int GENDER_MALE = PetValidation.GENDER_MALE;
+        public static final int GENDER_FEMALE = PetValidation.GENDER_FEMALE;
         
         /**
          * Returns whether or not the given gender is {@link #GENDER_UNKNOWN}. {@link #GENDER_MALE}
@@ -121,7 +481,667 @@ public final class PetContract
          */
         public static boolean isValidGender( int gender )
         {
-            return gender == GENDER_UNKNOWN || gender == GENDER_MALE || gender == GENDER_FEMALE;
+            return PetValidation.isValidGender( gender );
+        }
+        
+        /**
+         * Returns whether or not the given status is {@link #STATUS_IN_CARE}, {@link #STATUS_ADOPTED}
+         * or {@link #STATUS_TRANSFERRED}.
+         *
+         * @param status
+         *
+         * @return
+         */
+        public static boolean isValidStatus( int status )
+        {
+            return PetValidation.isValidStatus( status );
+        }
+    }
+    
+    /**
+     * Inner class that defines constant values for the breeds database table.
+     * Each entry in the table represents a single breed, shared by all the pets of that breed.
+     */
+    public static abstract class BreedEntry implements BaseColumns
+    {
+        /**
+         * Name of database table for breeds
+         */
+        public static final String TABLE_NAME = PetSchema.Breeds.TABLE_NAME;
+        
+        /**
+         * The content URI to access the breed data in the provider. It's read only: breeds are
+         * added when a pet with a new breed is saved.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath( BASE_CONTENT_URI, PATH_BREEDS );
+        
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of breeds.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_BREEDS;
+        
+        /**
+         * Unique ID number for the breed (only for use in the database table).
+         *
+         * Type: INTEGER
+         */
+        public static final String _ID = BaseColumns._ID;
+        
+        /**
+         * Name of the breed. Unique, ignoring case, so "terrier" and "Terrier" are the same breed.
+         * It has the same name as {@link PetEntry#COLUMN_PET_BREED}, so the joined pets projection
+         * and selections can use it without an alias.
+         *
+         * Type: TEXT
+         */
+        public static final String COLUMN_BREED_NAME = PetEntry.COLUMN_PET_BREED;
+        
+        /**
+         * Number of pets of the breed. Only available through {@link #CONTENT_URI},
+         * it isn't stored in the breeds table.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_BREED_PET_COUNT = PetSchema.Breeds.COLUMN_BREED_PET_COUNT;
+    }
+    
+    /**
+     * Inner class that defines constant values for the change log of the pets table.
+     *
+     * Triggers on the pets table append one entry per inserted, updated or deleted pet, with a
+     * strictly increasing sequence number, so a consumer mirroring the pets only reads the entries
+     * after the last sequence number it has seen, then the current state of those pets.
+     *
+     * The log is compacted to the last entry of each pet, so an {@link #OP_INSERT} may have been
+     * replaced by a later {@link #OP_UPDATE}: consumers must treat both as "the pet exists now".
+     */
+    public static abstract class ChangeEntry
+    {
+        /**
+         * Name of database table for the change log
+         */
+        public static final String TABLE_NAME = PetSchema.Changes.TABLE_NAME;
+        
+        /**
+         * The content URI to read the change log. It's read only, and accepts the
+         * {@link #QUERY_PARAMETER_SINCE} and {@link #QUERY_PARAMETER_LIMIT} query parameters.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath( BASE_CONTENT_URI, PATH_PET_CHANGES );
+        
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of changes.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_PET_CHANGES;
+        
+        /**
+         * Query parameter of the {@link #CONTENT_URI}: only the entries with a sequence number
+         * greater than this value are returned. Entries are always ordered by sequence number.
+         */
+        public static final String QUERY_PARAMETER_SINCE = "since";
+        
+        /**
+         * Query parameter of the {@link #CONTENT_URI}: at most this number of entries are returned,
+         * so the log can be read in batches.
+         */
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+        
+        /**
+         * Sequence number of the entry, increasing with each change.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_SEQ = PetSchema.Changes.COLUMN_SEQ;
+        
+        /**
+         * Type of the change, one of {@link #OP_INSERT}, {@link #OP_UPDATE} or {@link #OP_DELETE}.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_OP = PetSchema.Changes.COLUMN_OP;
+        
+        /**
+         * {@link PetEntry#_ID} of the changed pet.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_PET_ID = PetSchema.Changes.COLUMN_PET_ID;
+        
+        /**
+         * {@link PetEntry#COLUMN_PET_SYNC_ID} of the changed pet, so deleted pets can still be
+         * identified.
+         *
+         * Type: TEXT
+         */
+        public static final String COLUMN_SYNC_ID = PetSchema.Changes.COLUMN_SYNC_ID;
+        
+        /**
+         * Possible values for the type of the change.
+         */
+        public static final int OP_INSERT = PetSchema.Changes.OP_INSERT;
+        public static final int OP_UPDATE = PetSchema.Changes.OP_UPDATE;
+        public static final int OP_DELETE = PetSchema.Changes.OP_DELETE;
+    }
+    
+    /**
+     * Inner class that defines constant values for the shelters.
+     *
+     * Each shelter has its own database, with its own pets, breeds and change log. The pets of a
+     * shelter are at {@link #buildPetsUri}, with the same columns and operations as
+     * {@link PetEntry#CONTENT_URI}, which is itself the pets of the {@link #DEFAULT_SHELTER_ID}
+     * shelter. A shelter is created by inserting its first pet.
+     *
+     * The pets of all the shelters are queried together at {@link #ALL_PETS_URI}.
+     */
+    public static abstract class ShelterEntry
+    {
+        /**
+         * The content URI to list the shelters. It's read only.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath( BASE_CONTENT_URI, PATH_SHELTERS );
+        
+        /**
+         * The content URI to query the pets of all the shelters at once. It's read only, the rows
+         * have an extra {@link #COLUMN_SHELTER_ID} column, and the sort order may only name
+         * columns, each optionally followed by COLLATE NOCASE and ASC or DESC.
+         */
+        public static final Uri ALL_PETS_URI = Uri.withAppendedPath( CONTENT_URI, PATH_PETS );
+        
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of shelters.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SHELTERS;
+        
+        /**
+         * Id of the shelter, made of letters, digits, '_' and '-'.
+         *
+         * Type: TEXT
+         */
+        public static final String COLUMN_SHELTER_ID = "shelter_id";
+        
+        /**
+         * Id of the shelter of {@link PetEntry#CONTENT_URI}, which always exists.
+         */
+        public static final String DEFAULT_SHELTER_ID = "default";
+        
+        /**
+         * Returns whether or not the given shelter id is valid.
+         *
+         * @param shelterId
+         *
+         * @return
+         */
+        public static boolean isValidShelterId( String shelterId )
+        {
+            return PetValidation.isValidShelterId( shelterId );
+        }
+        
+        /**
+         * Return the content URI of the pets of the given shelter.
+         *
+         * @param shelterId
+         *
+         * @return
+         */
+        public static Uri buildPetsUri( String shelterId )
+        {
+            return CONTENT_URI.buildUpon().appendPath( shelterId ).appendPath( PATH_PETS ).build();
+        }
+    }
+    
+    /**
+     * Inner class that defines constant values for the drafts of the editor.
+     *
+     * While a pet is being edited, the editor saves what was typed so far as a draft, so it can be
+     * restored if the editor is killed or left without saving. There is at most one draft per pet,
+     * and one for a new pet, and it's deleted when the pet is saved or the changes are discarded.
+     *
+     * Drafts only belong to the default shelter, and their changes aren't notified, since only the
+     * editor writing them reads them.
+     */
+    public static abstract class DraftEntry
+    {
+        /**
+         * Name of database table for the drafts
+         */
+        public static final String TABLE_NAME = PetSchema.Drafts.TABLE_NAME;
+        
+        /**
+         * The content URI to save a draft: inserting a draft replaces the previous draft of the
+         * same pet. The draft of a pet is read and deleted at {@link #buildDraftUri}.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath( BASE_CONTENT_URI, PATH_DRAFTS );
+        
+        /**
+         * The MIME type of the {@link #buildDraftUri} for a single draft.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_DRAFTS;
+        
+        /**
+         * {@link PetEntry#_ID} of the edited pet, or {@link #NEW_PET_ID} for a new pet.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_DRAFT_PET_ID = PetSchema.Drafts.COLUMN_DRAFT_PET_ID;
+        
+        /**
+         * Name, breed and weight as typed (so possibly empty or invalid), gender and photo of the
+         * edited pet.
+         *
+         * Type: TEXT, except the gender: INTEGER
+         */
+        public static final String COLUMN_DRAFT_NAME = PetEntry.COLUMN_PET_NAME;
+        public static final String COLUMN_DRAFT_BREED = PetEntry.COLUMN_PET_BREED;
+        public static final String COLUMN_DRAFT_GENDER = PetEntry.COLUMN_PET_GENDER;
+        public static final String COLUMN_DRAFT_WEIGHT = PetEntry.COLUMN_PET_WEIGHT;
+        public static final String COLUMN_DRAFT_PHOTO = PetEntry.COLUMN_PET_PHOTO;
+        
+        /**
+         * Time the draft was last saved, in milliseconds since the epoch.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_DRAFT_UPDATED = PetSchema.Drafts.COLUMN_DRAFT_UPDATED;
+        
+        /**
+         * {@link #COLUMN_DRAFT_PET_ID} of the draft of a new pet.
+         */
+        public static final long NEW_PET_ID = 0;
+        
+        /**
+         * Return the content URI of the draft of the given pet.
+         *
+         * @param petId or {@link #NEW_PET_ID}.
+         *
+         * @return
+         */
+        public static Uri buildDraftUri( long petId )
+        {
+            return ContentUris.withAppendedId( CONTENT_URI, petId );
+        }
+    }
+    
+    /**
+     * Inner class that defines constant values for the weight history of the pets.
+     *
+     * Each measurement is a weight of a pet at a point in time. Changing the weight of a pet records
+     * a measurement, and more measurements (for instance from a vet visit) can be inserted at
+     * {@link #buildWeightsUri}. Measurements are only inserted or deleted, never updated.
+     *
+     * The measurements are rolled up per day and per month (in UTC), as they're inserted or deleted,
+     * so a trend is read from a few rollup rows at {@link #buildDailyUri} and {@link #buildMonthlyUri}
+     * instead of from all the measurements. The average weight of a period is
+     * {@link #COLUMN_TOTAL_WEIGHT} divided by {@link #COLUMN_MEASUREMENTS}.
+     *
+     * The weight history belongs to the default shelter. Deleting a pet deletes its history.
+     */
+    public static abstract class WeightEntry implements BaseColumns
+    {
+        /**
+         * Name of database table for the measurements, and the daily and monthly rollups
+         */
+        public static final String TABLE_NAME = PetSchema.Weights.TABLE_NAME;
+        public static final String DAILY_TABLE_NAME = PetSchema.Weights.DAILY_TABLE_NAME;
+        public static final String MONTHLY_TABLE_NAME = PetSchema.Weights.MONTHLY_TABLE_NAME;
+        
+        /**
+         * Paths of the rollups, appended to the weights URI of a pet
+         */
+        public static final String PATH_DAILY = "daily";
+        public static final String PATH_MONTHLY = "monthly";
+        
+        /**
+         * The content URI of the weight history of all the pets. It's only notified of changes,
+         * the history of a pet is at {@link #buildWeightsUri}.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath( BASE_CONTENT_URI, PATH_WEIGHTS );
+        
+        /**
+         * The MIME type of the {@link #buildWeightsUri} for a list of measurements.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_WEIGHTS;
+        
+        /**
+         * The MIME type of a single measurement.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_WEIGHTS;
+        
+        /**
+         * The MIME type of the {@link #buildDailyUri} and {@link #buildMonthlyUri} for a list of
+         * rollups.
+         */
+        public static final String ROLLUP_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_WEIGHTS + "/rollup";
+        
+        /**
+         * Unique ID number for the measurement (only for use in the database table).
+         *
+         * Type: INTEGER
+         */
+        public static final String _ID = BaseColumns._ID;
+        
+        /**
+         * {@link PetEntry#_ID} of the measured pet, in the measurements and the rollups.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_PET_ID = PetSchema.Weights.COLUMN_PET_ID;
+        
+        /**
+         * Time of the measurement, in milliseconds since the epoch. Defaults to the insert time.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_MEASURED = PetSchema.Weights.COLUMN_MEASURED;
+        
+        /**
+         * Measured weight, in the unit of {@link PetEntry#COLUMN_PET_WEIGHT}.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_WEIGHT = PetSchema.Weights.COLUMN_WEIGHT;
+        
+        /**
+         * Start of the period of a rollup (midnight UTC of the day, or of the first day of the
+         * month), in milliseconds since the epoch.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_PERIOD_START = PetSchema.Weights.COLUMN_PERIOD_START;
+        
+        /**
+         * Number of measurements, sum, minimum and maximum of their weights in the period of a rollup.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_MEASUREMENTS = PetSchema.Weights.COLUMN_MEASUREMENTS;
+        public static final String COLUMN_TOTAL_WEIGHT = PetSchema.Weights.COLUMN_TOTAL_WEIGHT;
+        public static final String COLUMN_MIN_WEIGHT = PetSchema.Weights.COLUMN_MIN_WEIGHT;
+        public static final String COLUMN_MAX_WEIGHT = PetSchema.Weights.COLUMN_MAX_WEIGHT;
+        
+        /**
+         * Return the content URI of the measurements of the given pet.
+         *
+         * @param petId
+         *
+         * @return
+         */
+        public static Uri buildWeightsUri( long petId )
+        {
+            return ContentUris.withAppendedId( CONTENT_URI, petId );
+        }
+        
+        /**
+         * Return the content URI of the daily rollups of the given pet.
+         *
+         * @param petId
+         *
+         * @return
+         */
+        public static Uri buildDailyUri( long petId )
+        {
+            return Uri.withAppendedPath( buildWeightsUri( petId ), PATH_DAILY );
+        }
+        
+        /**
+         * Return the content URI of the monthly rollups of the given pet.
+         *
+         * @param petId
+         *
+         * @return
+         */
+        public static Uri buildMonthlyUri( long petId )
+        {
+            return Uri.withAppendedPath( buildWeightsUri( petId ), PATH_MONTHLY );
+        }
+    }
+    
+    /**
+     * Inner class that defines constant values for the medical records database table.
+     * Each entry in the table is a vaccination or a treatment of a pet.
+     *
+     * The records of a pet are at {@link #buildRecordsUri}, and each record at
+     * {@link #buildRecordUri}. Deleting a pet deletes its records, in the same transaction.
+     * Archived pets keep their records.
+     */
+    public static abstract class RecordEntry implements BaseColumns
+    {
+        /**
+         * Name of database table for the medical records
+         */
+        public static final String TABLE_NAME = PetSchema.Records.TABLE_NAME;
+        
+        /**
+         * The MIME types of the records of a pet, and of a single record.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_RECORDS;
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_RECORDS;
+        
+        /**
+         * Unique ID number for the record (only for use in the database table).
+         *
+         * Type: INTEGER
+         */
+        public static final String _ID = BaseColumns._ID;
+        
+        /**
+         * {@link PetEntry#_ID} of the pet of the record, taken from the URI.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_RECORD_PET_ID = PetSchema.Records.COLUMN_RECORD_PET_ID;
+        
+        /**
+         * Type of the record, {@link #TYPE_VACCINATION} or {@link #TYPE_TREATMENT}.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_RECORD_TYPE = PetSchema.Records.COLUMN_RECORD_TYPE;
+        
+        /**
+         * What was given or done, for instance the name of the vaccine. Required.
+         *
+         * Type: TEXT
+         */
+        public static final String COLUMN_RECORD_DESCRIPTION = PetSchema.Records.COLUMN_RECORD_DESCRIPTION;
+        
+        /**
+         * Time the vaccination or treatment was performed, in milliseconds since the epoch.
+         * Defaults to the insert time.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_RECORD_PERFORMED = PetSchema.Records.COLUMN_RECORD_PERFORMED;
+        
+        /**
+         * Free text notes, or null.
+         *
+         * Type: TEXT
+         */
+        public static final String COLUMN_RECORD_NOTES = PetSchema.Records.COLUMN_RECORD_NOTES;
+        
+        /**
+         * Possible values for the type of the record.
+         */
+        public static final int TYPE_VACCINATION = PetValidation.TYPE_VACCINATION;
+        public static final int TYPE_TREATMENT = PetValidation.TYPE_TREATMENT;
+        
+        /**
+         * The content URI of the pets with their last vaccination: the columns of
+         * {@link PetEntry#CONTENT_URI}, plus {@link #COLUMN_LAST_VACCINATION} and
+         * {@link #COLUMN_LAST_VACCINATION_DESCRIPTION}, which are null for a pet never vaccinated.
+         * It's read only. The pet id is ambiguous in a selection or sort order, so it must be
+         * written {@link PetEntry#VIEW_NAME}._id there.
+         */
+        public static final Uri PETS_WITH_LAST_VACCINATION_URI =
+                Uri.withAppendedPath( BASE_CONTENT_URI, PATH_PETS_WITH_LAST_VACCINATION );
+        
+        /**
+         * {@link #COLUMN_RECORD_PERFORMED} and {@link #COLUMN_RECORD_DESCRIPTION} of the last
+         * vaccination of the pet, in {@link #PETS_WITH_LAST_VACCINATION_URI}.
+         *
+         * Type: INTEGER and TEXT
+         */
+        public static final String COLUMN_LAST_VACCINATION = "last_vaccination";
+        public static final String COLUMN_LAST_VACCINATION_DESCRIPTION = "last_vaccination_description";
+        
+        /**
+         * Returns whether or not the given type is {@link #TYPE_VACCINATION} or {@link #TYPE_TREATMENT}.
+         *
+         * @param type
+         *
+         * @return
+         */
+        public static boolean isValidType( int type )
+        {
+            return PetValidation.isValidRecordType( type );
+        }
+        
+        /**
+         * Return the content URI of the records of the given pet.
+         *
+         * @param petId
+         *
+         * @return
+         */
+        public static Uri buildRecordsUri( long petId )
+        {
+            return Uri.withAppendedPath( ContentUris.withAppendedId( PetEntry.CONTENT_URI, petId ), PATH_RECORDS );
+        }
+        
+        /**
+         * Return the content URI of a record of the given pet.
+         *
+         * @param petId
+         * @param recordId
+         *
+         * @return
+         */
+        public static Uri buildRecordUri( long petId, long recordId )
+        {
+            return ContentUris.withAppendedId( buildRecordsUri( petId ), recordId );
+        }
+    }
+    
+    /**
+     * Inner class that defines constant values for the tags of the pets, such as "good with kids"
+     * or "senior". A pet has any number of tags.
+     *
+     * The pets can be filtered by a combination of tags with {@link #buildTaggedPetsUri}: the
+     * provider answers it from an in-memory index of the pets of each tag, then only reads the
+     * matching pets.
+     */
+    public static abstract class TagEntry implements BaseColumns
+    {
+        /**
+         * Name of database table for the tags, and for the tags of each pet
+         */
+        public static final String TABLE_NAME = PetSchema.Tags.TABLE_NAME;
+        public static final String PET_TAGS_TABLE_NAME = PetSchema.Tags.PET_TAGS_TABLE_NAME;
+        
+        /**
+         * The content URI to access the tags, with the number of pets of each tag. It's read
+         * only: tags are added when a pet is given a new tag.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath( BASE_CONTENT_URI, PATH_TAGS );
+        
+        /**
+         * The MIME types of the {@link #CONTENT_URI} and of the tags of a pet, and of a single
+         * tag of a pet.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_TAGS;
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_TAGS;
+        
+        /**
+         * Unique ID number for the tag (only for use in the database table).
+         *
+         * Type: INTEGER
+         */
+        public static final String _ID = BaseColumns._ID;
+        
+        /**
+         * Name of the tag. Unique, ignoring case, like the breeds.
+         *
+         * Type: TEXT
+         */
+        public static final String COLUMN_TAG_NAME = PetSchema.Tags.COLUMN_TAG_NAME;
+        
+        /**
+         * Number of pets of the tag, archived pets included. Only available through
+         * {@link #CONTENT_URI}, it isn't stored in the tags table.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_TAG_PET_COUNT = PetSchema.Tags.COLUMN_TAG_PET_COUNT;
+        
+        /**
+         * Columns of the pet tags table: {@link PetEntry#_ID} of the pet and {@link #_ID} of the tag.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_PET_ID = PetSchema.Tags.COLUMN_PET_ID;
+        public static final String COLUMN_TAG_ID = PetSchema.Tags.COLUMN_TAG_ID;
+        
+        /**
+         * Query parameters of the pets content URI, each one repeated for every tag: the pets must
+         * have all the {@link #QUERY_PARAMETER_ALL_TAGS}, and at least one of the
+         * {@link #QUERY_PARAMETER_ANY_TAGS} if there are any.
+         */
+        public static final String QUERY_PARAMETER_ALL_TAGS = "all_tags";
+        public static final String QUERY_PARAMETER_ANY_TAGS = "any_tags";
+        
+        /**
+         * Return the content URI of the tags of the given pet. A tag is given to the pet by
+         * inserting its {@link #COLUMN_TAG_NAME} there, and taken back by deleting
+         * {@link #buildPetTagUri}. Deleting this URI takes back all the tags of the pet.
+         *
+         * @param petId
+         *
+         * @return
+         */
+        public static Uri buildPetTagsUri( long petId )
+        {
+            return Uri.withAppendedPath( ContentUris.withAppendedId( PetEntry.CONTENT_URI, petId ), PATH_TAGS );
+        }
+        
+        /**
+         * Return the content URI of a single tag of the given pet.
+         *
+         * @param petId
+         * @param name
+         *
+         * @return
+         */
+        public static Uri buildPetTagUri( long petId, String name )
+        {
+            return buildPetTagsUri( petId ).buildUpon().appendPath( name ).build();
+        }
+        
+        /**
+         * Return the pets content URI, filtered by tags.
+         *
+         * @param allTags the pets must have all of them.
+         * @param anyTags the pets must have at least one of them, unless it's empty.
+         *
+         * @return
+         */
+        public static Uri buildTaggedPetsUri( List< String > allTags, List< String > anyTags )
+        {
+            Uri.Builder builder = PetEntry.CONTENT_URI.buildUpon();
+            for ( String tag : allTags )
+                builder.appendQueryParameter( QUERY_PARAMETER_ALL_TAGS, tag );
+            for ( String tag : anyTags )
+                builder.appendQueryParameter( QUERY_PARAMETER_ANY_TAGS, tag );
+            return builder.build();
         }
     }
-}
\ No newline at end of file
+}
@@ -1,9 +1,14 @@
 package com.engineerfadyfawzi.pets.data;
 
 import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
 
+import com.engineerfadyfawzi.pets.data.PetContract.BreedEntry;
+import com.engineerfadyfawzi.pets.data.PetContract.ChangeEntry;
 import com.engineerfadyfawzi.pets.data.PetContract.PetEntry;
 
 /**
@@ -16,12 +21,46 @@ public class PetDbHelper extends SQLiteOpenHelper
     /**
      * Name of the database file
      */
-    private static final String DATABASE_NAME = "shelter.db";
+    static final String DATABASE_NAME = "shelter.db";
     
     /**
-     * Database version. If you change the database schema, you must increment the database version.
+     * Prefix and suffix of the names of the database files of the other shelters
+     * (see {@link PetContract.ShelterEntry}), around the shelter id.
      */
-    private static final int DATABASE_VERSION = 1;
+    static final String SHELTER_DATABASE_PREFIX = "shelter-";
+    static final String SHELTER_DATABASE_SUFFIX = ".db";
+    
+    /**
+     * Database version, the one of the schema of {@link PetSchema}.
+     */
+    static final int DATABASE_VERSION = PetSchema.DATABASE_VERSION;
+    
+    /**
+     * The deletes of pets and the counts of the pets, which are only used by the provider, so
+     * they're not part of the contract. See {@link PetSchema.Deletions} and
+     * {@link PetSchema.Counts}.
+     */
+    static final String DELETIONS_TABLE_NAME = PetSchema.Deletions.TABLE_NAME;
+    static final String COLUMN_DELETION_ID = PetSchema.Deletions.COLUMN_DELETION_ID;
+    static final String COLUMN_DELETION_TIME = PetSchema.Deletions.COLUMN_DELETION_TIME;
+    static final String COLUMN_DELETION_LAST_PET_ID = PetSchema.Deletions.COLUMN_DELETION_LAST_PET_ID;
+    static final String COLUMN_DELETION_PET_COUNT = PetSchema.Deletions.COLUMN_DELETION_PET_COUNT;
+    static final String COLUMN_PET_DELETION_ID = PetSchema.Pets.COLUMN_PET_DELETION_ID;
+    static final String COUNTS_TABLE_NAME = PetSchema.Counts.TABLE_NAME;
+    static final String COLUMN_LIVE_PETS = PetSchema.Counts.COLUMN_LIVE_PETS;
+    
+    
+    /**
+     * Preferences holding the selected {@link PetStorageProfile}, shared by the databases of
+     * every shelter.
+     */
+    private static final String PREFERENCES_NAME = "storage";
+    private static final String PREFERENCE_STORAGE_PROFILE = "storageProfile";
+    
+    /**
+     * Context the selected storage profile is read with
+     */
+    private final Context mContext;
     
     /**
      * Constructs a new instance of {@link PetDbHelper}
@@ -30,7 +69,183 @@ public class PetDbHelper extends SQLiteOpenHelper
      */
     public PetDbHelper( Context context )
     {
-        super( context, DATABASE_NAME, null, DATABASE_VERSION );
+        this( context, PetContract.ShelterEntry.DEFAULT_SHELTER_ID );
+    }
+    
+    /**
+     * Constructs a new instance of {@link PetDbHelper} for the database of a shelter
+     *
+     * @param context   of the app
+     * @param shelterId of the shelter
+     */
+    public PetDbHelper( Context context, String shelterId )
+    {
+        super( context, getShelterDatabaseName( shelterId ), null, DATABASE_VERSION );
+        mContext = context.getApplicationContext();
+    }
+    
+    /**
+     * Return the storage profile the databases are opened with.
+     *
+     * @param context
+     *
+     * @return
+     */
+    public static PetStorageProfile getStorageProfile( Context context )
+    {
+        String name = context.getSharedPreferences( PREFERENCES_NAME, Context.MODE_PRIVATE )
+                .getString( PREFERENCE_STORAGE_PROFILE, PetStorageProfile.DEFAULT.getName() );
+        try
+        {
+            return PetStorageProfile.forName( name );
+        }
+        catch ( IllegalArgumentException illegalArgumentException )
+        {
+            // A profile of another version of the app.
+            return PetStorageProfile.DEFAULT;
+        }
+    }
+    
+    /**
+     * Select the storage profile the databases are opened with from now on. The databases which
+     * are open already are changed by {@link #applyStorageProfile(PetStorageProfile)}.
+     *
+     * @param context
+     * @param profile
+     */
+    static void setStorageProfile( Context context, PetStorageProfile profile )
+    {
+        SharedPreferences.Editor editor = context.getSharedPreferences( PREFERENCES_NAME,
+                Context.MODE_PRIVATE ).edit();
+        editor.putString( PREFERENCE_STORAGE_PROFILE, profile.getName() );
+        editor.commit();
+    }
+    
+    /**
+     * Apply the selected storage profile to each connection when it's opened. A new database gets
+     * the page size of the profile here, since its tables aren't created yet.
+     *
+     * @param db
+     */
+    @Override
+    public void onConfigure( SQLiteDatabase db )
+    {
+        PetStorageProfile profile = getStorageProfile( mContext );
+        if ( !db.isReadOnly() )
+            runPragma( db, profile.getPageSizePragma() );
+        for ( String pragma : profile.getConnectionPragmas() )
+            runPragma( db, pragma );
+    }
+    
+    /**
+     * Rebuild an existing database whose page size isn't the one of the selected profile, once
+     * it's created or upgraded.
+     *
+     * @param db
+     */
+    @Override
+    public void onOpen( SQLiteDatabase db )
+    {
+        if ( !db.isReadOnly() )
+            rebuildForPageSize( db, getStorageProfile( mContext ) );
+    }
+    
+    /**
+     * Apply a storage profile to the open database, rebuilding it if its page size changes. The
+     * rebuild rewrites the whole file, so this must not be called on the main thread.
+     *
+     * @param profile
+     */
+    void applyStorageProfile( PetStorageProfile profile )
+    {
+        // The database has a single connection (it doesn't use write-ahead logging), so the
+        // pragmas run on the connection every statement uses.
+        SQLiteDatabase db = getWritableDatabase();
+        for ( String pragma : profile.getConnectionPragmas() )
+            runPragma( db, pragma );
+        rebuildForPageSize( db, profile );
+    }
+    
+    /**
+     * Set the synchronous level of the connection for a group committed without syncing to disk
+     * (see {@link PetContract#DURABILITY_RELAXED}), or set it back to the level of the selected
+     * storage profile. It can't change inside a transaction.
+     *
+     * @param relaxed
+     */
+    void setRelaxedDurability( boolean relaxed )
+    {
+        runPragma( getWritableDatabase(), relaxed ? "PRAGMA synchronous = OFF"
+                : getStorageProfile( mContext ).getSynchronousPragma() );
+    }
+    
+    /**
+     * Rebuild the database with the page size of the profile, if it has another one. VACUUM writes
+     * a copy of the database with the pending page size, then replaces the content of the file with
+     * it through the journal, so the rebuild is either done or not.
+     *
+     * @param db
+     * @param profile
+     */
+    private static void rebuildForPageSize( SQLiteDatabase db, PetStorageProfile profile )
+    {
+        String pageSize = runPragma( db, "PRAGMA page_size" );
+        if ( pageSize == null || Integer.parseInt( pageSize ) == profile.getPageSize() )
+            return;
+        
+        Log.i( LOG_TAG, "Rebuilding " + db.getPath() + " from " + pageSize + " to "
+                + profile.getPageSize() + " byte pages" );
+        // The copy is a temporary database, kept in a file rather than in memory whatever the
+        // profile, since it's as big as the database.
+        runPragma( db, profile.getPageSizePragma() );
+        runPragma( db, "PRAGMA temp_store = FILE" );
+        try
+        {
+            db.execSQL( "VACUUM" );
+        }
+        finally
+        {
+            for ( String pragma : profile.getConnectionPragmas() )
+                runPragma( db, pragma );
+        }
+    }
+    
+    /**
+     * Run a pragma, and return the first value it returns, if any. The pragmas which set a value
+     * return it on some versions of SQLite, which execSQL rejects, so they're all run as queries.
+     *
+     * @param db
+     * @param pragma
+     *
+     * @return
+     */
+    private static String runPragma( SQLiteDatabase db, String pragma )
+    {
+        Cursor cursor = db.rawQuery( pragma, null );
+        try
+        {
+            return cursor.moveToFirst() ? cursor.getString( 0 ) : null;
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+    
+    /**
+     * Return the name of the database file of a shelter. The default shelter keeps the original
+     * database file.
+     *
+     * @param shelterId
+     *
+     * @return
+     */
+    static String getShelterDatabaseName( String shelterId )
+    {
+        if ( PetContract.ShelterEntry.DEFAULT_SHELTER_ID.equals( shelterId ) )
+            return DATABASE_NAME;
+        
+        return SHELTER_DATABASE_PREFIX + shelterId + SHELTER_DATABASE_SUFFIX;
     }
     
     /**
@@ -41,16 +256,9 @@ public class PetDbHelper extends SQLiteOpenHelper
     @Override
     public void onCreate( SQLiteDatabase db )
     {
-        // Create a String that contains the SQL statement to create the pets table
-        String SQL_CREATE_PETS_TABLE = "CREATE TABLE " + PetEntry.TABLE_NAME + " ("
-                + PetEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
-                + PetEntry.COLUMN_PET_NAME + " TEXT NOT NULL, "
-                + PetEntry.COLUMN_PET_BREED + " TEXT, "
-                + PetEntry.COLUMN_PET_GENDER + " INTEGER NOT NULL, "
-                + PetEntry.COLUMN_PET_WEIGHT + " INTEGER NOT NULL DEFAULT 0);";
-        
-        // Execute the SQL statement
-        db.execSQL( SQL_CREATE_PETS_TABLE );
+        // Execute the SQL statements to create the tables, their indexes and triggers, and the views
+        for ( String statement : PetSchema.getCreateStatements() )
+            db.execSQL( statement );
     }
     
     /**
@@ -63,6 +271,406 @@ public class PetDbHelper extends SQLiteOpenHelper
     @Override
     public void onUpgrade( SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion )
     {
-        // The database is still at version 1, so there's nothing to do be done here.
+        // The views only hold queries, so rather than altering them step by step, drop them before
+        // the tables they read from change, and recreate them for the current schema at the end.
+        sqLiteDatabase.execSQL( "DROP VIEW IF EXISTS " + PetEntry.HISTORY_VIEW_NAME + ";" );
+        sqLiteDatabase.execSQL( "DROP VIEW IF EXISTS " + PetEntry.ARCHIVE_VIEW_NAME + ";" );
+        sqLiteDatabase.execSQL( "DROP VIEW IF EXISTS " + PetEntry.VIEW_NAME + ";" );
+        
+        // Each step upgrades the schema by one version, so a database of any older version is
+        // brought up to date by running the steps after it in order.
+        // (onUpgrade already runs inside a transaction.)
+        if ( oldVersion < 2 )
+            upgradeToVersion2( sqLiteDatabase );
+        if ( oldVersion < 3 )
+            upgradeToVersion3( sqLiteDatabase );
+        if ( oldVersion < 4 )
+            upgradeToVersion4( sqLiteDatabase );
+        if ( oldVersion < 5 )
+            upgradeToVersion5( sqLiteDatabase );
+        if ( oldVersion < 6 )
+            upgradeToVersion6( sqLiteDatabase );
+        if ( oldVersion < 7 )
+            upgradeToVersion7( sqLiteDatabase );
+        if ( oldVersion < 8 )
+            upgradeToVersion8( sqLiteDatabase );
+        if ( oldVersion < 9 )
+            upgradeToVersion9( sqLiteDatabase );
+        if ( oldVersion < 10 )
+            upgradeToVersion10( sqLiteDatabase );
+        if ( oldVersion < 11 )
+            upgradeToVersion11( sqLiteDatabase );
+        if ( oldVersion < 12 )
+            upgradeToVersion12( sqLiteDatabase );
+        
+        sqLiteDatabase.execSQL( PetSchema.SQL_CREATE_PETS_VIEW );
+        sqLiteDatabase.execSQL( PetSchema.SQL_CREATE_ARCHIVE_VIEW );
+        sqLiteDatabase.execSQL( PetSchema.SQL_CREATE_HISTORY_VIEW );
+    }
+    
+    /**
+     * Version 2 moves the free text breed of each pet into the breeds table, and replaces it
+     * with a {@link PetEntry#COLUMN_PET_BREED_ID} foreign key.
+     *
+     * @param db
+     */
+    private void upgradeToVersion2( SQLiteDatabase db )
+    {
+        db.execSQL( PetSchema.SQL_CREATE_BREEDS_TABLE );
+        
+        // One row per distinct breed. Surrounding white space is dropped and, thanks to the
+        // NOCASE unique column, breeds only differing in case are merged into the first one seen.
+        db.execSQL( "INSERT OR IGNORE INTO " + BreedEntry.TABLE_NAME
+                + " (" + BreedEntry.COLUMN_BREED_NAME + ")"
+                + " SELECT TRIM(breed) FROM " + PetEntry.TABLE_NAME
+                + " WHERE TRIM(breed) <> '' ORDER BY " + PetEntry._ID + ";" );
+        
+        // SQLite can't change a column in place, so rebuild the pets table with the new column,
+        // keeping the ids of the existing pets.
+        // The create statement is spelled out as it was in version 2, so that later changes to
+        // the pets table of PetSchema can't change what this step does.
+        db.execSQL( "ALTER TABLE " + PetEntry.TABLE_NAME + " RENAME TO pets_v1;" );
+        db.execSQL( "CREATE TABLE pets ("
+                + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "name TEXT NOT NULL, "
+                + "breed_id INTEGER REFERENCES breeds(_id), "
+                + "gender INTEGER NOT NULL, "
+                + "weight INTEGER NOT NULL DEFAULT 0);" );
+        db.execSQL( "INSERT INTO " + PetEntry.TABLE_NAME + " ("
+                + PetEntry._ID + ", "
+                + PetEntry.COLUMN_PET_NAME + ", "
+                + PetEntry.COLUMN_PET_BREED_ID + ", "
+                + PetEntry.COLUMN_PET_GENDER + ", "
+                + PetEntry.COLUMN_PET_WEIGHT + ")"
+                + " SELECT p._id, p.name,"
+                + " (SELECT b." + BreedEntry._ID + " FROM " + BreedEntry.TABLE_NAME + " b"
+                + " WHERE b." + BreedEntry.COLUMN_BREED_NAME + " = TRIM(p.breed)),"
+                + " p.gender, p.weight FROM pets_v1 p;" );
+        db.execSQL( "DROP TABLE pets_v1;" );
+        db.execSQL( "CREATE INDEX pets_breed_id_index ON pets(breed_id);" );
+    }
+    
+    /**
+     * Version 3 adds the {@link PetEntry#COLUMN_PET_PHOTO} of each pet.
+     *
+     * @param db
+     */
+    private void upgradeToVersion3( SQLiteDatabase db )
+    {
+        db.execSQL( "ALTER TABLE pets ADD COLUMN photo TEXT;" );
+    }
+    
+    /**
+     * Version 4 adds the change log of the pets. Pets that existed before are logged as inserted,
+     * so consumers starting from the beginning of the log see all of them.
+     *
+     * @param db
+     */
+    private void upgradeToVersion4( SQLiteDatabase db )
+    {
+        // Spelled out as it was in version 4, so that later changes to the change log
+        // statements can't change what this step does.
+        db.execSQL( "CREATE TABLE pet_changes ("
+                + "seq INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "op INTEGER NOT NULL, "
+                + "pet_id INTEGER NOT NULL);" );
+        db.execSQL( "CREATE INDEX pet_changes_pet_id_index ON pet_changes(pet_id);" );
+        db.execSQL( "CREATE TRIGGER pets_insert_log AFTER INSERT ON pets"
+                + " BEGIN INSERT INTO pet_changes (op, pet_id) VALUES (1, NEW._id); END;" );
+        db.execSQL( "CREATE TRIGGER pets_update_log AFTER UPDATE ON pets"
+                + " BEGIN INSERT INTO pet_changes (op, pet_id) VALUES (2, NEW._id); END;" );
+        db.execSQL( "CREATE TRIGGER pets_delete_log AFTER DELETE ON pets"
+                + " BEGIN INSERT INTO pet_changes (op, pet_id) VALUES (3, OLD._id); END;" );
+        db.execSQL( "INSERT INTO pet_changes (op, pet_id) SELECT " + ChangeEntry.OP_INSERT
+                + ", _id FROM pets ORDER BY _id;" );
+    }
+    
+    /**
+     * Version 5 adds the {@link PetEntry#COLUMN_PET_VERSION} and {@link PetEntry#COLUMN_PET_SYNC_ID}
+     * of each pet for syncing, and logs the sync id of each change. Existing pets get a random
+     * sync id.
+     *
+     * @param db
+     */
+    private void upgradeToVersion5( SQLiteDatabase db )
+    {
+        // Drop the version 4 triggers first, so that filling in the sync ids isn't logged.
+        db.execSQL( "DROP TRIGGER pets_insert_log;" );
+        db.execSQL( "DROP TRIGGER pets_update_log;" );
+        db.execSQL( "DROP TRIGGER pets_delete_log;" );
+        
+        db.execSQL( "ALTER TABLE pets ADD COLUMN version INTEGER NOT NULL DEFAULT 1;" );
+        db.execSQL( "ALTER TABLE pets ADD COLUMN sync_id TEXT;" );
+        db.execSQL( "UPDATE pets SET sync_id = LOWER(HEX(RANDOMBLOB(16)));" );
+        db.execSQL( "CREATE UNIQUE INDEX pets_sync_id_index ON pets(sync_id);" );
+        db.execSQL( "CREATE TRIGGER pets_version AFTER UPDATE OF name, breed_id, gender, weight, photo"
+                + " ON pets WHEN NEW.version = OLD.version"
+                + " BEGIN UPDATE pets SET version = OLD.version + 1 WHERE _id = NEW._id; END;" );
+        
+        // Deleted pets have no sync id anymore, so their entries keep a null one.
+        db.execSQL( "ALTER TABLE pet_changes ADD COLUMN sync_id TEXT;" );
+        db.execSQL( "UPDATE pet_changes SET sync_id ="
+                + " (SELECT p.sync_id FROM pets p WHERE p._id = pet_changes.pet_id);" );
+        db.execSQL( "CREATE TRIGGER pets_insert_log AFTER INSERT ON pets"
+                + " BEGIN INSERT INTO pet_changes (op, pet_id, sync_id)"
+                + " VALUES (1, NEW._id, NEW.sync_id); END;" );
+        db.execSQL( "CREATE TRIGGER pets_update_log AFTER UPDATE OF name, breed_id, gender, weight, photo ON pets"
+                + " BEGIN INSERT INTO pet_changes (op, pet_id, sync_id)"
+                + " VALUES (2, NEW._id, NEW.sync_id); END;" );
+        db.execSQL( "CREATE TRIGGER pets_delete_log AFTER DELETE ON pets"
+                + " BEGIN INSERT INTO pet_changes (op, pet_id, sync_id)"
+                + " VALUES (3, OLD._id, OLD.sync_id); END;" );
+    }
+    
+    /**
+     * Version 6 adds the drafts table of the editor.
+     *
+     * @param db
+     */
+    private void upgradeToVersion6( SQLiteDatabase db )
+    {
+        db.execSQL( "CREATE TABLE pet_drafts ("
+                + "pet_id INTEGER PRIMARY KEY, "
+                + "name TEXT, "
+                + "breed TEXT, "
+                + "gender INTEGER NOT NULL DEFAULT 0, "
+                + "weight TEXT, "
+                + "photo TEXT, "
+                + "updated INTEGER NOT NULL);" );
+    }
+    
+    /**
+     * Version 7 adds the weight history of the pets, and its daily and monthly rollups.
+     * The current weight of each pet is its first measurement.
+     *
+     * @param db
+     */
+    private void upgradeToVersion7( SQLiteDatabase db )
+    {
+        // Spelled out as it was in version 7, so that later changes to the weight history
+        // statements can't change what this step does.
+        db.execSQL( "CREATE TABLE pet_weights ("
+                + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "pet_id INTEGER NOT NULL, "
+                + "measured INTEGER NOT NULL, "
+                + "weight INTEGER NOT NULL);" );
+        db.execSQL( "CREATE INDEX pet_weights_pet_id_index ON pet_weights(pet_id, measured);" );
+        for ( String rollup : new String[]{ "pet_weights_daily", "pet_weights_monthly" } )
+            db.execSQL( "CREATE TABLE " + rollup + " ("
+                    + "pet_id INTEGER NOT NULL, "
+                    + "period_start INTEGER NOT NULL, "
+                    + "measurements INTEGER NOT NULL, "
+                    + "total_weight INTEGER NOT NULL, "
+                    + "min_weight INTEGER NOT NULL, "
+                    + "max_weight INTEGER NOT NULL, "
+                    + "PRIMARY KEY (pet_id, period_start));" );
+        
+        String day = "(NEW.measured / 86400000) * 86400000";
+        String month = "CAST(strftime('%s', NEW.measured / 1000, 'unixepoch', 'start of month') AS INTEGER) * 1000";
+        db.execSQL( "CREATE TRIGGER pet_weights_insert_rollup AFTER INSERT ON pet_weights BEGIN "
+                + "INSERT OR IGNORE INTO pet_weights_daily VALUES (NEW.pet_id, " + day + ", 0, 0, NEW.weight, NEW.weight); "
+                + "UPDATE pet_weights_daily SET measurements = measurements + 1,"
+                + " total_weight = total_weight + NEW.weight, min_weight = MIN(min_weight, NEW.weight),"
+                + " max_weight = MAX(max_weight, NEW.weight)"
+                + " WHERE pet_id = NEW.pet_id AND period_start = " + day + "; "
+                + "INSERT OR IGNORE INTO pet_weights_monthly VALUES (NEW.pet_id, " + month + ", 0, 0, NEW.weight, NEW.weight); "
+                + "UPDATE pet_weights_monthly SET measurements = measurements + 1,"
+                + " total_weight = total_weight + NEW.weight, min_weight = MIN(min_weight, NEW.weight),"
+                + " max_weight = MAX(max_weight, NEW.weight)"
+                + " WHERE pet_id = NEW.pet_id AND period_start = " + month + "; END;" );
+        
+        day = "(OLD.measured / 86400000) * 86400000";
+        month = "CAST(strftime('%s', OLD.measured / 1000, 'unixepoch', 'start of month') AS INTEGER) * 1000";
+        String nextMonth = "CAST(strftime('%s', OLD.measured / 1000, 'unixepoch', 'start of month', '+1 month')"
+                + " AS INTEGER) * 1000";
+        db.execSQL( "CREATE TRIGGER pet_weights_delete_rollup AFTER DELETE ON pet_weights BEGIN "
+                + "DELETE FROM pet_weights_daily WHERE pet_id = OLD.pet_id AND period_start = " + day
+                + " AND measurements = 1; "
+                + "UPDATE pet_weights_daily SET measurements = measurements - 1,"
+                + " total_weight = total_weight - OLD.weight,"
+                + " min_weight = (SELECT MIN(weight) FROM pet_weights WHERE pet_id = OLD.pet_id"
+                + " AND measured >= " + day + " AND measured < " + day + " + 86400000),"
+                + " max_weight = (SELECT MAX(weight) FROM pet_weights WHERE pet_id = OLD.pet_id"
+                + " AND measured >= " + day + " AND measured < " + day + " + 86400000)"
+                + " WHERE pet_id = OLD.pet_id AND period_start = " + day + "; "
+                + "DELETE FROM pet_weights_monthly WHERE pet_id = OLD.pet_id AND period_start = " + month
+                + " AND measurements = 1; "
+                + "UPDATE pet_weights_monthly SET measurements = measurements - 1,"
+                + " total_weight = total_weight - OLD.weight,"
+                + " min_weight = (SELECT MIN(min_weight) FROM pet_weights_daily WHERE pet_id = OLD.pet_id"
+                + " AND period_start >= " + month + " AND period_start < " + nextMonth + "),"
+                + " max_weight = (SELECT MAX(max_weight) FROM pet_weights_daily WHERE pet_id = OLD.pet_id"
+                + " AND period_start >= " + month + " AND period_start < " + nextMonth + ")"
+                + " WHERE pet_id = OLD.pet_id AND period_start = " + month + "; END;" );
+        
+        String now = "CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER)";
+        db.execSQL( "CREATE TRIGGER pets_insert_weight AFTER INSERT ON pets WHEN NEW.weight > 0"
+                + " BEGIN INSERT INTO pet_weights (pet_id, measured, weight)"
+                + " VALUES (NEW._id, " + now + ", NEW.weight); END;" );
+        db.execSQL( "CREATE TRIGGER pets_update_weight AFTER UPDATE OF weight ON pets"
+                + " WHEN NEW.weight > 0 AND NEW.weight <> OLD.weight"
+                + " BEGIN INSERT INTO pet_weights (pet_id, measured, weight)"
+                + " VALUES (NEW._id, " + now + ", NEW.weight); END;" );
+        db.execSQL( "CREATE TRIGGER pets_delete_weights AFTER DELETE ON pets BEGIN "
+                + "DELETE FROM pet_weights_daily WHERE pet_id = OLD._id; "
+                + "DELETE FROM pet_weights_monthly WHERE pet_id = OLD._id; "
+                + "DELETE FROM pet_weights WHERE pet_id = OLD._id; END;" );
+        
+        // The rollup triggers exist by now, so the first measurements are rolled up.
+        db.execSQL( "INSERT INTO pet_weights (pet_id, measured, weight)"
+                + " SELECT _id, " + now + ", weight FROM pets WHERE weight > 0 ORDER BY _id;" );
+    }
+    
+    /**
+     * Version 8 adds the {@link PetEntry#COLUMN_PET_STATUS} of each pet, and the archive of the
+     * pets that aren't in care anymore. Existing pets are in care.
+     *
+     * @param db
+     */
+    private void upgradeToVersion8( SQLiteDatabase db )
+    {
+        db.execSQL( "ALTER TABLE pets ADD COLUMN status INTEGER NOT NULL DEFAULT 0;" );
+        db.execSQL( "CREATE INDEX pets_status_index ON pets(status);" );
+        db.execSQL( "CREATE TABLE pets_archive ("
+                + "_id INTEGER PRIMARY KEY, "
+                + "name TEXT NOT NULL, "
+                + "breed_id INTEGER REFERENCES breeds(_id), "
+                + "gender INTEGER NOT NULL, "
+                + "weight INTEGER NOT NULL DEFAULT 0, "
+                + "photo TEXT, "
+                + "version INTEGER NOT NULL DEFAULT 1, "
+                + "sync_id TEXT, "
+                + "status INTEGER NOT NULL, "
+                + "archived INTEGER NOT NULL);" );
+        
+        // Moving a pet to the archive isn't a delete, neither for the change log nor for the
+        // weight history.
+        db.execSQL( "DROP TRIGGER pets_delete_log;" );
+        db.execSQL( "CREATE TRIGGER pets_delete_log AFTER DELETE ON pets"
+                + " WHEN NOT EXISTS (SELECT 1 FROM pets_archive WHERE _id = OLD._id)"
+                + " BEGIN INSERT INTO pet_changes (op, pet_id, sync_id)"
+                + " VALUES (3, OLD._id, OLD.sync_id); END;" );
+        db.execSQL( "DROP TRIGGER pets_delete_weights;" );
+        db.execSQL( "CREATE TRIGGER pets_delete_weights AFTER DELETE ON pets"
+                + " WHEN NOT EXISTS (SELECT 1 FROM pets_archive WHERE _id = OLD._id) BEGIN "
+                + "DELETE FROM pet_weights_daily WHERE pet_id = OLD._id; "
+                + "DELETE FROM pet_weights_monthly WHERE pet_id = OLD._id; "
+                + "DELETE FROM pet_weights WHERE pet_id = OLD._id; END;" );
+    }
+    
+    /**
+     * Version 9 adds the medical records of the pets.
+     *
+     * @param db
+     */
+    private void upgradeToVersion9( SQLiteDatabase db )
+    {
+        db.execSQL( "CREATE TABLE pet_records ("
+                + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "pet_id INTEGER NOT NULL REFERENCES pets(_id), "
+                + "type INTEGER NOT NULL, "
+                + "description TEXT NOT NULL, "
+                + "performed INTEGER NOT NULL, "
+                + "notes TEXT);" );
+        db.execSQL( "CREATE INDEX pet_records_pet_id_index ON pet_records(pet_id, type, performed);" );
+    }
+    
+    /**
+     * Version 10 adds the tags of the pets.
+     *
+     * @param db
+     */
+    private void upgradeToVersion10( SQLiteDatabase db )
+    {
+        db.execSQL( "CREATE TABLE tags ("
+                + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "name TEXT NOT NULL UNIQUE COLLATE NOCASE);" );
+        db.execSQL( "CREATE TABLE pet_tags ("
+                + "pet_id INTEGER NOT NULL REFERENCES pets(_id), "
+                + "tag_id INTEGER NOT NULL REFERENCES tags(_id), "
+                + "PRIMARY KEY (pet_id, tag_id));" );
+        db.execSQL( "CREATE INDEX pet_tags_tag_id_index ON pet_tags(tag_id, pet_id);" );
+    }
+    
+    /**
+     * Version 11 deletes the pets in two steps: they're only marked as deleted, so the delete can
+     * be undone, then purged in the background. See {@link #DELETIONS_TABLE_NAME}. It also counts
+     * the pets which aren't deleted, see {@link #COUNTS_TABLE_NAME}; none of them is deleted yet.
+     *
+     * @param db
+     */
+    private void upgradeToVersion11( SQLiteDatabase db )
+    {
+        db.execSQL( "ALTER TABLE pets ADD COLUMN deletion_id INTEGER NOT NULL DEFAULT 0;" );
+        db.execSQL( "CREATE TABLE pet_deletions ("
+                + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "deleted INTEGER NOT NULL, "
+                + "last_pet_id INTEGER NOT NULL DEFAULT 0, "
+                + "pet_count INTEGER NOT NULL DEFAULT 0);" );
+        db.execSQL( "CREATE INDEX pets_deletion_id_index ON pets(deletion_id);" );
+        db.execSQL( "CREATE TABLE pet_counts (live_pets INTEGER NOT NULL);" );
+        db.execSQL( "INSERT INTO pet_counts SELECT COUNT(*) FROM pets;" );
+        db.execSQL( "CREATE TRIGGER pets_insert_count AFTER INSERT ON pets"
+                + " WHEN NEW.deletion_id = 0 AND NEW._id > (SELECT IFNULL(MAX(last_pet_id), 0) FROM pet_deletions)"
+                + " BEGIN UPDATE pet_counts SET live_pets = live_pets + 1; END;" );
+        db.execSQL( "CREATE TRIGGER pets_delete_count AFTER DELETE ON pets"
+                + " WHEN OLD.deletion_id = 0 AND OLD._id > (SELECT IFNULL(MAX(last_pet_id), 0) FROM pet_deletions)"
+                + " BEGIN UPDATE pet_counts SET live_pets = live_pets - 1; END;" );
+        db.execSQL( "CREATE TRIGGER pets_mark_deleted_count AFTER UPDATE OF deletion_id ON pets"
+                + " WHEN OLD.deletion_id = 0 AND OLD._id > (SELECT IFNULL(MAX(last_pet_id), 0) FROM pet_deletions)"
+                + " AND NEW.deletion_id <> 0"
+                + " BEGIN UPDATE pet_counts SET live_pets = live_pets - 1; END;" );
+        db.execSQL( "CREATE TRIGGER pets_unmark_deleted_count AFTER UPDATE OF deletion_id ON pets"
+                + " WHEN OLD.deletion_id <> 0 AND NEW.deletion_id = 0"
+                + " BEGIN UPDATE pet_counts SET live_pets = live_pets + 1"
+                + " WHERE NEW._id > (SELECT IFNULL(MAX(last_pet_id), 0) FROM pet_deletions); "
+                + "UPDATE pet_deletions SET pet_count = pet_count + 1 WHERE _id = (SELECT _id FROM pet_deletions"
+                + " WHERE last_pet_id >= NEW._id ORDER BY last_pet_id LIMIT 1); END;" );
+    }
+    
+    /**
+     * Version 12 keeps the weight rollups up to date when a measurement is updated, including
+     * when it's moved to another time or pet. The rollups are already up to date.
+     *
+     * @param db
+     */
+    private void upgradeToVersion12( SQLiteDatabase db )
+    {
+        String oldDay = "(OLD.measured / 86400000) * 86400000";
+        String oldMonth = "CAST(strftime('%s', OLD.measured / 1000, 'unixepoch', 'start of month') AS INTEGER) * 1000";
+        String oldNextMonth = "CAST(strftime('%s', OLD.measured / 1000, 'unixepoch', 'start of month', '+1 month')"
+                + " AS INTEGER) * 1000";
+        String newDay = "(NEW.measured / 86400000) * 86400000";
+        String newMonth = "CAST(strftime('%s', NEW.measured / 1000, 'unixepoch', 'start of month') AS INTEGER) * 1000";
+        db.execSQL( "CREATE TRIGGER pet_weights_update_rollup AFTER UPDATE OF pet_id, measured, weight ON pet_weights"
+                + " BEGIN "
+                + "DELETE FROM pet_weights_daily WHERE pet_id = OLD.pet_id AND period_start = " + oldDay
+                + " AND measurements = 1; "
+                + "UPDATE pet_weights_daily SET measurements = measurements - 1,"
+                + " total_weight = total_weight - OLD.weight,"
+                + " min_weight = (SELECT MIN(weight) FROM pet_weights WHERE pet_id = OLD.pet_id"
+                + " AND measured >= " + oldDay + " AND measured < " + oldDay + " + 86400000),"
+                + " max_weight = (SELECT MAX(weight) FROM pet_weights WHERE pet_id = OLD.pet_id"
+                + " AND measured >= " + oldDay + " AND measured < " + oldDay + " + 86400000)"
+                + " WHERE pet_id = OLD.pet_id AND period_start = " + oldDay + "; "
+                + "INSERT OR IGNORE INTO pet_weights_daily VALUES (NEW.pet_id, " + newDay + ", 0, 0, NEW.weight, NEW.weight); "
+                + "UPDATE pet_weights_daily SET measurements = measurements + 1,"
+                + " total_weight = total_weight + NEW.weight, min_weight = MIN(min_weight, NEW.weight),"
+                + " max_weight = MAX(max_weight, NEW.weight)"
+                + " WHERE pet_id = NEW.pet_id AND period_start = " + newDay + "; "
+                + "DELETE FROM pet_weights_monthly WHERE pet_id = OLD.pet_id AND period_start = " + oldMonth
+                + " AND measurements = 1; "
+                + "UPDATE pet_weights_monthly SET measurements = measurements - 1,"
+                + " total_weight = total_weight - OLD.weight,"
+                + " min_weight = (SELECT MIN(min_weight) FROM pet_weights_daily WHERE pet_id = OLD.pet_id"
+                + " AND period_start >= " + oldMonth + " AND period_start < " + oldNextMonth + "),"
+                + " max_weight = (SELECT MAX(max_weight) FROM pet_weights_daily WHERE pet_id = OLD.pet_id"
+                + " AND period_start >= " + oldMonth + " AND period_start < " + oldNextMonth + ")"
+                + " WHERE pet_id = OLD.pet_id AND period_start = " + oldMonth + "; "
+                + "INSERT OR IGNORE INTO pet_weights_monthly VALUES (NEW.pet_id, " + newMonth + ", 0, 0, NEW.weight, NEW.weight); "
+                + "UPDATE pet_weights_monthly SET measurements = measurements + 1,"
+                + " total_weight = total_weight + NEW.weight, min_weight = MIN(min_weight, NEW.weight),"
+                + " max_weight = MAX(max_weight, NEW.weight)"
+                + " WHERE pet_id = NEW.pet_id AND period_start = " + newMonth + "; END;" );
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,399 @@
+package com.engineerfadyfawzi.pets.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.CancellationSignal;
+import android.text.TextUtils;
+
+import com.engineerfadyfawzi.pets.data.PetContract.PetEntry;
+import com.engineerfadyfawzi.pets.data.PetContract.ShelterEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Query of the pets of several shelters at once, used by {@link PetProvider} for
+ * {@link ShelterEntry#ALL_PETS_URI}.
+ *
+ * The same query runs against the database of each shelter in parallel, each one sorted by the
+ * database, then the sorted results are merged (a k-way merge, so the rows aren't sorted again)
+ * into one cursor with the {@link ShelterEntry#COLUMN_SHELTER_ID} of each row.
+ */
+final class PetFanOutQuery
+{
+    /**
+     * A column of the sort order, and how it's compared.
+     */
+    private static final class SortKey
+    {
+        final String column;
+        final boolean noCase;
+        final boolean descending;
+        int index;
+        
+        SortKey( String column, boolean noCase, boolean descending )
+        {
+            this.column = column;
+            this.noCase = noCase;
+            this.descending = descending;
+        }
+    }
+    
+    /**
+     * Result of one shelter: its id, and its cursor positioned on its next row to merge.
+     */
+    private static final class ShelterCursor
+    {
+        final String shelterId;
+        final Cursor cursor;
+        
+        ShelterCursor( String shelterId, Cursor cursor )
+        {
+            this.shelterId = shelterId;
+            this.cursor = cursor;
+        }
+    }
+    
+    private final String[] mProjection;
+    
+    /**
+     * Number of columns asked for, before the sort columns added to {@link #mProjection},
+     * or -1 if all the columns were asked for
+     */
+    private final int mAskedColumnCount;
+    private final String mSelection;
+    private final String[] mSelectionArgs;
+    private final String mSortOrder;
+    private final SortKey[] mSortKeys;
+    
+    /**
+     * Constructs a new {@link PetFanOutQuery}
+     *
+     * @param projection    columns of the pets view, or null for all of them.
+     * @param selection     on the pets view.
+     * @param selectionArgs of the selection.
+     * @param sortOrder     column names, each optionally followed by COLLATE NOCASE and ASC or
+     *                      DESC, or null to sort by id.
+     *
+     * @throws IllegalArgumentException if the sort order can't be merged.
+     */
+    PetFanOutQuery( String[] projection, String selection, String[] selectionArgs, String sortOrder )
+    {
+        mSortOrder = TextUtils.isEmpty( sortOrder ) ? PetEntry._ID : sortOrder;
+        mSortKeys = parseSortOrder( mSortOrder );
+        mSelection = selection;
+        mSelectionArgs = selectionArgs;
+        
+        // The sort columns are needed to merge the rows, even if they aren't asked for.
+        if ( projection == null )
+        {
+            mProjection = null;
+            mAskedColumnCount = -1;
+        }
+        else
+        {
+            List< String > columns = new ArrayList<>( Arrays.asList( projection ) );
+            for ( SortKey sortKey : mSortKeys )
+                if ( !columns.contains( sortKey.column ) )
+                    columns.add( sortKey.column );
+            mProjection = columns.toArray( new String[ columns.size() ] );
+            mAskedColumnCount = projection.length;
+        }
+    }
+    
+    /**
+     * Run the query against each database in parallel, and merge the results.
+     *
+     * @param shelterIds         of the databases, in the same order.
+     * @param databases          to query.
+     * @param executor           to run the queries on.
+     * @param cancellationSignal to cancel the queries with, or null if none.
+     *
+     * @return the merged rows, with the projection columns (or all the columns) followed by
+     * {@link ShelterEntry#COLUMN_SHELTER_ID}.
+     */
+    Cursor query( List< String > shelterIds, List< SQLiteDatabase > databases, ExecutorService executor,
+            final CancellationSignal cancellationSignal )
+    {
+        // A cancellation signal only has one listener, so each query gets its own signal,
+        // all cancelled by the given one.
+        final List< CancellationSignal > signals = new ArrayList<>();
+        for ( int i = 0; i < databases.size(); i++ )
+            signals.add( new CancellationSignal() );
+        if ( cancellationSignal != null )
+        {
+            cancellationSignal.setOnCancelListener( new CancellationSignal.OnCancelListener()
+            {
+                @Override
+                public void onCancel()
+                {
+                    for ( CancellationSignal signal : signals )
+                        signal.cancel();
+                }
+            } );
+        }
+        
+        List< Future< Cursor > > futures = new ArrayList<>();
+        for ( int i = 0; i < databases.size(); i++ )
+        {
+            final SQLiteDatabase database = databases.get( i );
+            final CancellationSignal signal = signals.get( i );
+            futures.add( executor.submit( new Callable< Cursor >()
+            {
+                @Override
+                public Cursor call()
+                {
+                    Cursor cursor = database.query( false, PetEntry.VIEW_NAME, mProjection, mSelection,
+                            mSelectionArgs, null, null, mSortOrder, null, signal );
+                    
+                    // Counting fills the cursor window, so the rows are read on this thread.
+                    cursor.getCount();
+                    return cursor;
+                }
+            } ) );
+        }
+        
+        List< ShelterCursor > results = new ArrayList<>();
+        try
+        {
+            for ( int i = 0; i < futures.size(); i++ )
+                results.add( new ShelterCursor( shelterIds.get( i ), futures.get( i ).get() ) );
+            
+            return merge( results );
+        }
+        catch ( InterruptedException interruptedException )
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException( "Interrupted while querying the shelters", interruptedException );
+        }
+        catch ( ExecutionException executionException )
+        {
+            Throwable cause = executionException.getCause();
+            if ( cause instanceof RuntimeException )
+                throw ( RuntimeException ) cause;
+            throw new IllegalStateException( "Failed to query the shelters", cause );
+        }
+        finally
+        {
+            if ( cancellationSignal != null )
+                cancellationSignal.setOnCancelListener( null );
+            
+            // If one of the queries failed, the queries after it are cancelled if they're still
+            // waiting, or their cursors are closed.
+            for ( int i = results.size(); i < futures.size(); i++ )
+                if ( !futures.get( i ).cancel( false ) )
+                    closeResult( futures.get( i ) );
+            for ( ShelterCursor result : results )
+                result.cursor.close();
+        }
+    }
+    
+    private static void closeResult( Future< Cursor > future )
+    {
+        try
+        {
+            future.get().close();
+        }
+        catch ( InterruptedException | ExecutionException ignored )
+        {
+            // There is no cursor to close.
+        }
+    }
+    
+    /**
+     * Merge the sorted results of the shelters into one sorted cursor.
+     *
+     * @param results
+     *
+     * @return
+     */
+    private Cursor merge( List< ShelterCursor > results )
+    {
+        // There is always at least the default shelter.
+        int total = 0;
+        for ( ShelterCursor result : results )
+            total += result.cursor.getCount();
+        
+        // The asked columns (every column if none were asked), then the shelter id.
+        String[] columnNames = results.get( 0 ).cursor.getColumnNames();
+        int outputCount = mAskedColumnCount == -1 ? columnNames.length : mAskedColumnCount;
+        String[] outputColumns = new String[ outputCount + 1 ];
+        System.arraycopy( columnNames, 0, outputColumns, 0, outputCount );
+        outputColumns[ outputCount ] = ShelterEntry.COLUMN_SHELTER_ID;
+        
+        MatrixCursor merged = new MatrixCursor( outputColumns, total );
+        for ( SortKey sortKey : mSortKeys )
+            sortKey.index = results.get( 0 ).cursor.getColumnIndexOrThrow( sortKey.column );
+        
+        PriorityQueue< ShelterCursor > heads = new PriorityQueue<>( results.size(), new Comparator< ShelterCursor >()
+        {
+            @Override
+            public int compare( ShelterCursor first, ShelterCursor second )
+            {
+                return compareRows( first.cursor, second.cursor );
+            }
+        } );
+        for ( ShelterCursor result : results )
+            if ( result.cursor.moveToFirst() )
+                heads.add( result );
+        
+        Object[] row = new Object[ outputColumns.length ];
+        while ( !heads.isEmpty() )
+        {
+            ShelterCursor head = heads.poll();
+            Cursor cursor = head.cursor;
+            for ( int column = 0; column < outputCount; column++ )
+                row[ column ] = getValue( cursor, column );
+            row[ outputCount ] = head.shelterId;
+            merged.addRow( row );
+            
+            if ( cursor.moveToNext() )
+                heads.add( head );
+        }
+        
+        return merged;
+    }
+    
+    /**
+     * Compare the current rows of two cursors by the sort order, the way SQLite does: nulls first,
+     * then numbers, then text.
+     *
+     * @param first
+     * @param second
+     *
+     * @return
+     */
+    private int compareRows( Cursor first, Cursor second )
+    {
+        for ( SortKey sortKey : mSortKeys )
+        {
+            int result = compareValues( first, second, sortKey );
+            if ( result != 0 )
+                return sortKey.descending ? -result : result;
+        }
+        
+        return 0;
+    }
+    
+    private static int compareValues( Cursor first, Cursor second, SortKey sortKey )
+    {
+        int index = sortKey.index;
+        int firstRank = rankOf( first.getType( index ) );
+        int secondRank = rankOf( second.getType( index ) );
+        if ( firstRank != secondRank )
+            return firstRank < secondRank ? -1 : 1;
+        
+        switch ( first.getType( index ) )
+        {
+            case Cursor.FIELD_TYPE_NULL:
+                return 0;
+            
+            case Cursor.FIELD_TYPE_INTEGER:
+            case Cursor.FIELD_TYPE_FLOAT:
+                if ( first.getType( index ) == Cursor.FIELD_TYPE_INTEGER
+                        && second.getType( index ) == Cursor.FIELD_TYPE_INTEGER )
+                {
+                    long firstLong = first.getLong( index );
+                    long secondLong = second.getLong( index );
+                    return firstLong < secondLong ? -1 : ( firstLong == secondLong ? 0 : 1 );
+                }
+                return Double.compare( first.getDouble( index ), second.getDouble( index ) );
+            
+            case Cursor.FIELD_TYPE_STRING:
+                return sortKey.noCase
+                        ? first.getString( index ).compareToIgnoreCase( second.getString( index ) )
+                        : first.getString( index ).compareTo( second.getString( index ) );
+            
+            default:
+                // Pets have no blob columns, so blobs are only kept in their shelter's order.
+                return 0;
+        }
+    }
+    
+    private static int rankOf( int type )
+    {
+        switch ( type )
+        {
+            case Cursor.FIELD_TYPE_NULL:
+                return 0;
+            case Cursor.FIELD_TYPE_INTEGER:
+            case Cursor.FIELD_TYPE_FLOAT:
+                return 1;
+            case Cursor.FIELD_TYPE_STRING:
+                return 2;
+            default:
+                return 3;
+        }
+    }
+    
+    private static Object getValue( Cursor cursor, int column )
+    {
+        switch ( cursor.getType( column ) )
+        {
+            case Cursor.FIELD_TYPE_NULL:
+                return null;
+            case Cursor.FIELD_TYPE_INTEGER:
+                return cursor.getLong( column );
+            case Cursor.FIELD_TYPE_FLOAT:
+                return cursor.getDouble( column );
+            case Cursor.FIELD_TYPE_BLOB:
+                return cursor.getBlob( column );
+            default:
+                return cursor.getString( column );
+        }
+    }
+    
+    /**
+     * Parse a sort order made of column names, each optionally followed by COLLATE NOCASE and
+     * ASC or DESC.
+     *
+     * @param sortOrder
+     *
+     * @return
+     */
+    private static SortKey[] parseSortOrder( String sortOrder )
+    {
+        String[] terms = sortOrder.split( "," );
+        SortKey[] sortKeys = new SortKey[ terms.length ];
+        for ( int i = 0; i < terms.length; i++ )
+        {
+            String[] words = terms[ i ].trim().split( "\\s+" );
+            int word = 1;
+            boolean noCase = false;
+            boolean descending = false;
+            if ( words.length >= 3 && words[ 1 ].equalsIgnoreCase( "COLLATE" )
+                    && words[ 2 ].equalsIgnoreCase( "NOCASE" ) )
+            {
+                noCase = true;
+                word = 3;
+            }
+            if ( word < words.length )
+            {
+                String direction = words[ word ].toUpperCase( Locale.ROOT );
+                if ( !direction.equals( "ASC" ) && !direction.equals( "DESC" ) )
+                    throw new IllegalArgumentException( "Cannot merge sort order " + sortOrder );
+                descending = direction.equals( "DESC" );
+                word++;
+            }
+            if ( word != words.length || !words[ 0 ].matches( "[A-Za-z_][A-Za-z0-9_]*" ) )
+                throw new IllegalArgumentException( "Cannot merge sort order " + sortOrder );
+            
+            // The breed names are declared COLLATE NOCASE, so the databases sort them ignoring case.
+            if ( words[ 0 ].equals( PetEntry.COLUMN_PET_BREED ) )
+                noCase = true;
+            
+            sortKeys[ i ] = new SortKey( words[ 0 ], noCase, descending );
+        }
+        
+        return sortKeys;
+    }
+}
@@ -0,0 +1,112 @@
+package com.engineerfadyfawzi.pets.data;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.UUID;
+
+/**
+ * Storage of the pet photos. Each photo is copied into its own file in the app's private storage,
+ * and the pets table only stores the path of that file in {@link PetContract.PetEntry#COLUMN_PET_PHOTO}.
+ *
+ * The methods read and write files, so they must not be called on the main thread.
+ */
+public final class PetPhotoStore
+{
+    /**
+     * Tag for the log messages
+     */
+    public static final String LOG_TAG = PetPhotoStore.class.getSimpleName();
+    
+    /**
+     * Name of the directory (in the app's files directory) holding the photos
+     */
+    private static final String PHOTOS_DIRECTORY = "photos";
+    
+    // Only static helpers, so there's no reason to instantiate it.
+    private PetPhotoStore()
+    {
+    
+    }
+    
+    /**
+     * Copy the photo at the given content URI (for instance picked from the gallery) into the
+     * app's private storage, and return the path of the copy, or null if it couldn't be copied.
+     *
+     * @param context
+     * @param photoUri
+     *
+     * @return
+     */
+    public static String importPhoto( Context context, Uri photoUri )
+    {
+        File directory = new File( context.getFilesDir(), PHOTOS_DIRECTORY );
+        if ( !directory.isDirectory() && !directory.mkdirs() )
+        {
+            Log.e( LOG_TAG, "Failed to create " + directory );
+            return null;
+        }
+        
+        File photoFile = new File( directory, UUID.randomUUID() + ".jpg" );
+        InputStream input = null;
+        OutputStream output = null;
+        try
+        {
+            input = context.getContentResolver().openInputStream( photoUri );
+            if ( input == null )
+                return null;
+            
+            output = new FileOutputStream( photoFile );
+            byte[] buffer = new byte[ 8192 ];
+            int read;
+            while ( ( read = input.read( buffer ) ) != -1 )
+                output.write( buffer, 0, read );
+            
+            return photoFile.getAbsolutePath();
+        }
+        catch ( IOException ioException )
+        {
+            Log.e( LOG_TAG, "Failed to import photo " + photoUri, ioException );
+            photoFile.delete();
+            return null;
+        }
+        finally
+        {
+            closeQuietly( input );
+            closeQuietly( output );
+        }
+    }
+    
+    /**
+     * Delete a photo previously returned by {@link #importPhoto}. Does nothing for a null path.
+     *
+     * @param photoPath
+     */
+    public static void deletePhoto( String photoPath )
+    {
+        if ( photoPath != null && !new File( photoPath ).delete() )
+            Log.w( LOG_TAG, "Failed to delete photo " + photoPath );
+    }
+    
+    private static void closeQuietly( Closeable closeable )
+    {
+        if ( closeable == null )
+            return;
+        
+        try
+        {
+            closeable.close();
+        }
+        catch ( IOException ignored )
+        {
+            // Nothing left to do with a stream that can't be closed.
+        }
+    }
+}
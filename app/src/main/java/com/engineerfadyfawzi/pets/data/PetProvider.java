@@ -1,16 +1,52 @@
 package com.engineerfadyfawzi.pets.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.engineerfadyfawzi.pets.data.PetContract.BreedEntry;
+import com.engineerfadyfawzi.pets.data.PetContract.ChangeEntry;
+import com.engineerfadyfawzi.pets.data.PetContract.DraftEntry;
 import com.engineerfadyfawzi.pets.data.PetContract.PetEntry;
+import com.engineerfadyfawzi.pets.data.PetContract.RecordEntry;
+import com.engineerfadyfawzi.pets.data.PetContract.ShelterEntry;
+import com.engineerfadyfawzi.pets.data.PetContract.TagEntry;
+import com.engineerfadyfawzi.pets.data.PetContract.WeightEntry;
 
 /**
  * {@link ContentProvider} for Pets app.
@@ -27,6 +63,70 @@ public class PetProvider extends ContentProvider
      */
     private static final int PET_ID = 101;
     
+    /**
+     * URI matcher codes for the content URIs for the archived pets, and all the pets (in care and
+     * archived)
+     */
+    private static final int PET_ARCHIVE = 102;
+    private static final int PET_HISTORY = 103;
+    
+    /**
+     * URI matcher code for the content URI for the breeds table
+     */
+    private static final int BREEDS = 200;
+    
+    /**
+     * URI matcher code for the content URI for the change log of the pets table
+     */
+    private static final int PET_CHANGES = 300;
+    
+    /**
+     * URI matcher code for the content URI for the shelters
+     */
+    private static final int SHELTERS = 400;
+    
+    /**
+     * URI matcher codes for the content URIs for the pets, and a single pet, of one shelter
+     */
+    private static final int SHELTER_PETS = 401;
+    private static final int SHELTER_PET_ID = 402;
+    
+    /**
+     * URI matcher code for the content URI for the pets of all the shelters
+     */
+    private static final int ALL_SHELTERS_PETS = 403;
+    
+    /**
+     * URI matcher codes for the content URIs for the drafts, and the draft of a single pet
+     */
+    private static final int DRAFTS = 500;
+    private static final int DRAFT_ID = 501;
+    
+    /**
+     * URI matcher codes for the content URIs for the weight measurements of a pet, a single
+     * measurement, and the daily and monthly rollups of the measurements of a pet
+     */
+    private static final int WEIGHTS = 600;
+    private static final int WEIGHT_ID = 601;
+    private static final int WEIGHTS_DAILY = 602;
+    private static final int WEIGHTS_MONTHLY = 603;
+    
+    /**
+     * URI matcher codes for the content URIs for the medical records of a pet, a single record,
+     * and the pets with their last vaccination
+     */
+    private static final int PET_RECORDS = 700;
+    private static final int PET_RECORD_ID = 701;
+    private static final int PETS_WITH_LAST_VACCINATION = 702;
+    
+    /**
+     * URI matcher codes for the content URIs for the tags, the tags of a pet, and a single tag
+     * of a pet
+     */
+    private static final int TAGS = 800;
+    private static final int PET_TAGS = 801;
+    private static final int PET_TAG = 802;
+    
     /**
      * UriMatcher object to match a content URI to a corresponding code.
      * The input passed into the constructor represents the code to return for the root URI.
@@ -54,17 +154,263 @@ public class PetProvider extends ContentProvider
         // For example, "content://com.engineerfadyfawzi.pets/pets/3" matches, but
         // "content://com.engineerfadyfawzi.pets/pets" (without a number at the end) doesn't match.
         sUriMatcher.addURI( PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS + "/#", PET_ID );
+        
+        // The content URI of the form "content://com.engineerfadyfawzi.pets/breeds" will map to
+        // the integer code {@link #BREEDS}. This URI is used to read all the breeds (read only).
+        sUriMatcher.addURI( PetContract.CONTENT_AUTHORITY, PetContract.PATH_BREEDS, BREEDS );
+        
+        // The content URI of the form "content://com.engineerfadyfawzi.pets/pets/changes" will
+        // map to the integer code {@link #PET_CHANGES}. This URI is used to read the change log.
+        // ("changes" isn't a number, so it doesn't match the "pets/#" pattern above.)
+        sUriMatcher.addURI( PetContract.CONTENT_AUTHORITY, PetContract.PATH_PET_CHANGES, PET_CHANGES );
+        
+        // The content URIs of the form "content://com.engineerfadyfawzi.pets/pets/archive" and
+        // "content://com.engineerfadyfawzi.pets/pets/history" will map to the integer codes
+        // {@link #PET_ARCHIVE} and {@link #PET_HISTORY}. They're used to read the archived pets,
+        // and all the pets (read only).
+        sUriMatcher.addURI( PetContract.CONTENT_AUTHORITY, PetContract.PATH_PET_ARCHIVE, PET_ARCHIVE );
+        sUriMatcher.addURI( PetContract.CONTENT_AUTHORITY, PetContract.PATH_PET_HISTORY, PET_HISTORY );
+        
+        // The content URIs of the form "content://com.engineerfadyfawzi.pets/shelters/*/pets" and
+        // "content://com.engineerfadyfawzi.pets/shelters/*/pets/#" will map to the integer codes
+        // {@link #SHELTER_PETS} and {@link #SHELTER_PET_ID}, where "*" is the id of the shelter.
+        // They work like the pets URIs above, on the database of that shelter.
+        sUriMatcher.addURI( PetContract.CONTENT_AUTHORITY, PetContract.PATH_SHELTERS, SHELTERS );
+        sUriMatcher.addURI( PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_SHELTERS + "/*/" + PetContract.PATH_PETS, SHELTER_PETS );
+        sUriMatcher.addURI( PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_SHELTERS + "/*/" + PetContract.PATH_PETS + "/#", SHELTER_PET_ID );
+        
+        // The content URI of the form "content://com.engineerfadyfawzi.pets/shelters/pets" will map
+        // to the integer code {@link #ALL_SHELTERS_PETS}. This URI is used to query the pets of all
+        // the shelters at once (read only).
+        sUriMatcher.addURI( PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_SHELTERS + "/" + PetContract.PATH_PETS, ALL_SHELTERS_PETS );
+        
+        // The content URIs of the form "content://com.engineerfadyfawzi.pets/drafts" and
+        // "content://com.engineerfadyfawzi.pets/drafts/#" will map to the integer codes
+        // {@link #DRAFTS} and {@link #DRAFT_ID}, where "#" is the id of the edited pet.
+        sUriMatcher.addURI( PetContract.CONTENT_AUTHORITY, PetContract.PATH_DRAFTS, DRAFTS );
+        sUriMatcher.addURI( PetContract.CONTENT_AUTHORITY, PetContract.PATH_DRAFTS + "/#", DRAFT_ID );
+        
+        // The content URIs of the form "content://com.engineerfadyfawzi.pets/weights/#",
+        // ".../weights/#/#", ".../weights/#/daily" and ".../weights/#/monthly" will map to the
+        // integer codes {@link #WEIGHTS}, {@link #WEIGHT_ID}, {@link #WEIGHTS_DAILY} and
+        // {@link #WEIGHTS_MONTHLY}, where the first "#" is the id of the pet.
+        sUriMatcher.addURI( PetContract.CONTENT_AUTHORITY, PetContract.PATH_WEIGHTS + "/#", WEIGHTS );
+        sUriMatcher.addURI( PetContract.CONTENT_AUTHORITY, PetContract.PATH_WEIGHTS + "/#/#", WEIGHT_ID );
+        sUriMatcher.addURI( PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_WEIGHTS + "/#/" + WeightEntry.PATH_DAILY, WEIGHTS_DAILY );
+        sUriMatcher.addURI( PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_WEIGHTS + "/#/" + WeightEntry.PATH_MONTHLY, WEIGHTS_MONTHLY );
+        
+        // The content URIs of the form "content://com.engineerfadyfawzi.pets/pets/#/records" and
+        // ".../pets/#/records/#" will map to the integer codes {@link #PET_RECORDS} and
+        // {@link #PET_RECORD_ID}, where the first "#" is the id of the pet. The content URI of
+        // the form ".../pets/last_vaccination" will map to {@link #PETS_WITH_LAST_VACCINATION}.
+        sUriMatcher.addURI( PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/#/" + PetContract.PATH_RECORDS, PET_RECORDS );
+        sUriMatcher.addURI( PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/#/" + PetContract.PATH_RECORDS + "/#", PET_RECORD_ID );
+        sUriMatcher.addURI( PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS_WITH_LAST_VACCINATION, PETS_WITH_LAST_VACCINATION );
+        
+        // The content URIs of the form "content://com.engineerfadyfawzi.pets/tags",
+        // ".../pets/#/tags" and ".../pets/#/tags/*" will map to the integer codes {@link #TAGS},
+        // {@link #PET_TAGS} and {@link #PET_TAG}, where "#" is the id of the pet and "*" the
+        // name of the tag.
+        sUriMatcher.addURI( PetContract.CONTENT_AUTHORITY, PetContract.PATH_TAGS, TAGS );
+        sUriMatcher.addURI( PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/#/" + PetContract.PATH_TAGS, PET_TAGS );
+        sUriMatcher.addURI( PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/#/" + PetContract.PATH_TAGS + "/*", PET_TAG );
+    }
+    
+    /**
+     * Projection map for the {@link #BREEDS} query, from the contract column names to the
+     * (unambiguous) columns of its tables, {@link PetSchema.Breeds#PETS_TABLES}.
+     */
+    private static final HashMap< String, String > sBreedsProjectionMap = new HashMap<>();
+    
+    static
+    {
+        sBreedsProjectionMap.put( BreedEntry._ID,
+                PetSchema.Breeds.QUALIFIED_ID + " AS " + BreedEntry._ID );
+        sBreedsProjectionMap.put( BreedEntry.COLUMN_BREED_NAME,
+                PetSchema.Breeds.QUALIFIED_NAME + " AS " + BreedEntry.COLUMN_BREED_NAME );
+        sBreedsProjectionMap.put( BreedEntry.COLUMN_BREED_PET_COUNT,
+                PetSchema.Breeds.PET_COUNT + " AS " + BreedEntry.COLUMN_BREED_PET_COUNT );
+    }
+    
+    /**
+     * Tables for the {@link #PETS_WITH_LAST_VACCINATION} query: each pet joined with its last
+     * vaccination, found through the records index, so a list of pets with their last
+     * vaccination is a single query instead of one query of the records per pet.
+     */
+    private static final String PETS_WITH_LAST_VACCINATION_TABLES = PetEntry.VIEW_NAME + " LEFT OUTER JOIN "
+            + RecordEntry.TABLE_NAME + " ON " + RecordEntry.TABLE_NAME + "." + RecordEntry._ID
+            + " = (SELECT " + RecordEntry._ID + " FROM " + RecordEntry.TABLE_NAME
+            + " WHERE " + RecordEntry.COLUMN_RECORD_PET_ID + " = " + PetEntry.VIEW_NAME + "." + PetEntry._ID
+            + " AND " + RecordEntry.COLUMN_RECORD_TYPE + " = " + RecordEntry.TYPE_VACCINATION
+            + " ORDER BY " + RecordEntry.COLUMN_RECORD_PERFORMED + " DESC LIMIT 1)";
+    
+    /**
+     * Projection map for the {@link #PETS_WITH_LAST_VACCINATION} query, from the contract column
+     * names to the (unambiguous) columns of {@link #PETS_WITH_LAST_VACCINATION_TABLES}.
+     */
+    private static final HashMap< String, String > sPetsWithLastVaccinationProjectionMap = new HashMap<>();
+    
+    static
+    {
+        for ( String column : new String[]{ PetEntry._ID, PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED_ID,
+                PetEntry.COLUMN_PET_BREED, PetEntry.COLUMN_PET_GENDER, PetEntry.COLUMN_PET_WEIGHT, PetEntry.COLUMN_PET_PHOTO,
+                PetEntry.COLUMN_PET_SYNC_ID, PetEntry.COLUMN_PET_VERSION, PetEntry.COLUMN_PET_STATUS } )
+            sPetsWithLastVaccinationProjectionMap.put( column,
+                    PetEntry.VIEW_NAME + "." + column + " AS " + column );
+        sPetsWithLastVaccinationProjectionMap.put( RecordEntry.COLUMN_LAST_VACCINATION,
+                RecordEntry.TABLE_NAME + "." + RecordEntry.COLUMN_RECORD_PERFORMED
+                        + " AS " + RecordEntry.COLUMN_LAST_VACCINATION );
+        sPetsWithLastVaccinationProjectionMap.put( RecordEntry.COLUMN_LAST_VACCINATION_DESCRIPTION,
+                RecordEntry.TABLE_NAME + "." + RecordEntry.COLUMN_RECORD_DESCRIPTION
+                        + " AS " + RecordEntry.COLUMN_LAST_VACCINATION_DESCRIPTION );
+    }
+    
+    /**
+     * Tables for the {@link #TAGS} query: each tag joined with its pets (but the deleted ones), so
+     * they can be counted, and for the {@link #PET_TAGS} query: the tags of the pets.
+     */
+    private static final String TAGS_TABLES = TagEntry.TABLE_NAME + " LEFT OUTER JOIN "
+            + TagEntry.PET_TAGS_TABLE_NAME + " ON " + TagEntry.PET_TAGS_TABLE_NAME + "." + TagEntry.COLUMN_TAG_ID
+            + " = " + TagEntry.TABLE_NAME + "." + TagEntry._ID
+            + " AND " + TagEntry.PET_TAGS_TABLE_NAME + "." + TagEntry.COLUMN_PET_ID + " NOT IN (SELECT "
+            + PetEntry._ID + " FROM " + PetEntry.TABLE_NAME
+            + " WHERE NOT (" + PetSchema.getNotDeletedCondition( PetEntry.TABLE_NAME ) + "))";
+    private static final String PET_TAGS_TABLES = TagEntry.PET_TAGS_TABLE_NAME + " JOIN "
+            + TagEntry.TABLE_NAME + " ON " + TagEntry.TABLE_NAME + "." + TagEntry._ID
+            + " = " + TagEntry.PET_TAGS_TABLE_NAME + "." + TagEntry.COLUMN_TAG_ID;
+    
+    /**
+     * Projection maps for the {@link #TAGS} and {@link #PET_TAGS} queries, from the contract
+     * column names to the (unambiguous) columns of their tables.
+     */
+    private static final HashMap< String, String > sTagsProjectionMap = new HashMap<>();
+    private static final HashMap< String, String > sPetTagsProjectionMap = new HashMap<>();
+    
+    static
+    {
+        sPetTagsProjectionMap.put( TagEntry._ID,
+                TagEntry.TABLE_NAME + "." + TagEntry._ID + " AS " + TagEntry._ID );
+        sPetTagsProjectionMap.put( TagEntry.COLUMN_TAG_NAME,
+                TagEntry.TABLE_NAME + "." + TagEntry.COLUMN_TAG_NAME + " AS " + TagEntry.COLUMN_TAG_NAME );
+        sTagsProjectionMap.putAll( sPetTagsProjectionMap );
+        sTagsProjectionMap.put( TagEntry.COLUMN_TAG_PET_COUNT,
+                "COUNT(" + TagEntry.PET_TAGS_TABLE_NAME + "." + TagEntry.COLUMN_PET_ID + ") AS "
+                        + TagEntry.COLUMN_TAG_PET_COUNT );
     }
     
+    /**
+     * Largest number of pets matching a tag filter that are selected by id. Above it, the
+     * selection string would get too long, so the pets are selected with the pet tags table.
+     */
+    private static final int MAX_TAG_FILTER_IDS = 10000;
+    
     /**
      * Tag for the log messages
      */
     public static final String LOG_TAG = PetProvider.class.getSimpleName();
     
     /**
-     * Database helper object
+     * Database helper object of the default shelter. It's replaced when a backup is restored.
+     */
+    private volatile PetDbHelper mDbHelper;
+    
+    /**
+     * Database helper objects of the other shelters, by shelter id, created when first used, and
+     * replaced when a backup is restored
+     */
+    private final HashMap< String, PetDbHelper > mShelterDbHelpers = new HashMap<>();
+    
+    /**
+     * Lock held for reading by every request and by each batch of the background work, and for
+     * writing by a restore, so the helper it replaces is only closed once nothing uses it.
+     */
+    private final ReentrantReadWriteLock mRestoreLock = new ReentrantReadWriteLock();
+    
+    /**
+     * Executor running the query of each shelter of a {@link #ALL_SHELTERS_PETS} query in parallel,
+     * created when first used. Its threads stop when they're idle.
+     */
+    private ThreadPoolExecutor mFanOutExecutor;
+    
+    /**
+     * URIs changed by the group of operations applied by the current thread, notified once the
+     * group is committed, or null outside of a group.
+     */
+    private static final ThreadLocal< Set< Uri > > sGroupChangedUris = new ThreadLocal<>();
+    
+    /**
+     * Number of logged changes after which the change log is compacted automatically
+     */
+    private static final int CHANGES_COMPACTION_THRESHOLD = 5000;
+    
+    /**
+     * Number of pets changed since the change log was last compacted, by database helper
+     */
+    private final HashMap< PetDbHelper, Integer > mChangesSinceCompaction = new HashMap<>();
+    
+    /**
+     * Maximum number of closed records moved to the archive in one transaction, so writers
+     * aren't blocked for long while a large backlog is archived.
+     */
+    private static final int ARCHIVE_BATCH_SIZE = 100;
+    
+    /**
+     * Columns copied from the pets table to the archive table
+     */
+    private static final String ARCHIVED_COLUMNS = PetEntry._ID + ", "
+            + PetEntry.COLUMN_PET_NAME + ", "
+            + PetEntry.COLUMN_PET_BREED_ID + ", "
+            + PetEntry.COLUMN_PET_GENDER + ", "
+            + PetEntry.COLUMN_PET_WEIGHT + ", "
+            + PetEntry.COLUMN_PET_PHOTO + ", "
+            + PetEntry.COLUMN_PET_VERSION + ", "
+            + PetEntry.COLUMN_PET_SYNC_ID + ", "
+            + PetEntry.COLUMN_PET_STATUS;
+    
+    /**
+     * Database helpers whose closed records are being archived, mapped to whether more records
+     * were closed since the archiving started
+     */
+    private final HashMap< PetDbHelper, Boolean > mArchiving = new HashMap<>();
+    
+    /**
+     * Maximum number of deleted pets purged in one transaction, so writers aren't blocked for
+     * long while a large delete is purged.
+     */
+    private static final int PURGE_BATCH_SIZE = 100;
+    
+    /**
+     * Handler scheduling the purges of the deleted pets, with the database helper as token, and
+     * the uptime each purge is scheduled at, by database helper. Guarded by mPurgeTimes.
+     */
+    private final Handler mPurgeHandler = new Handler( Looper.getMainLooper() );
+    private final HashMap< PetDbHelper, Long > mPurgeTimes = new HashMap<>();
+    
+    /**
+     * Index of the pets of each tag of the default shelter, built the first time the pets are
+     * filtered by tags, or null. The pets deleted by themselves are marked deleted in it until
+     * they're purged. It's dropped when it can't be updated (after a restore, or a delete of all
+     * the pets or its undo), and built again when needed. Guarded by mTagIndexLock when it's
+     * built.
+     */
+    private volatile TagIndex mTagIndex;
+    private final Object mTagIndexLock = new Object();
+    
+    /**
+     * Recorder of the calls, while they're recorded (see {@link PetContract#METHOD_START_RECORDING}),
+     * or null. Guarded by this when it's replaced.
      */
-    private PetDbHelper mDbHelper;
+    private volatile PetCallRecorder mRecorder;
     
     /**
      * Initialize the provider and the database helper object.
@@ -74,11 +420,72 @@ public class PetProvider extends ContentProvider
     @Override
     public boolean onCreate()
     {
+        // Trace the sections of the app in systrace, unless they're already traced elsewhere
+        // (such as to a TraceBuffer by a test).
+        if ( Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2 && PetTracer.getSink() == null )
+            PetTracer.setSink( new SystraceSink() );
+        
         mDbHelper = new PetDbHelper( getContext() );
         
+        // The provider is created when the process starts, before any activity, so this is the
+        // earliest point to open the database in the background. Nothing else is done here, so
+        // the process start isn't delayed.
+        final PetDbHelper dbHelper = mDbHelper;
+        AsyncTask.THREAD_POOL_EXECUTOR.execute( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if ( !lockDatabase( dbHelper ) )
+                    return;
+                
+                try
+                {
+                    prewarm( dbHelper );
+                }
+                finally
+                {
+                    unlockDatabase();
+                }
+            }
+        } );
+        
+        // Archive the records that were closed but not archived yet when the process stopped,
+        // and purge the pets which were deleted.
+        archiveClosedPets( dbHelper, PetEntry.CONTENT_URI );
+        purgeDeletedPets( dbHelper, 0 );
+        
         return true;
     }
     
+    /**
+     * Open the database, which creates or upgrades it if needed, and prepare the statements used
+     * first (the catalog query, and the breed lookup of a save), so they are cached by the
+     * connection when they're needed. Opening is synchronized by the helper, so a query arriving
+     * meanwhile waits for this open instead of opening the database again.
+     *
+     * @param dbHelper
+     */
+    private static void prewarm( PetDbHelper dbHelper )
+    {
+        try
+        {
+            SQLiteDatabase database = dbHelper.getWritableDatabase();
+            
+            // Creating the cursors prepares their statements, and no row is read until they're
+            // used. They must be built exactly like the real queries to share the cached statements.
+            database.query( false, PetEntry.VIEW_NAME, LivePetQuery.PROJECTION, null, null, null,
+                    null, null, null, null ).close();
+            database.query( BreedEntry.TABLE_NAME, new String[]{ BreedEntry._ID },
+                    BreedEntry.COLUMN_BREED_NAME + "=?", new String[]{ "" }, null, null, null ).close();
+        }
+        catch ( RuntimeException exception )
+        {
+            // The first real query reports the error.
+            Log.w( LOG_TAG, "Failed to prewarm the database", exception );
+        }
+    }
+    
     /**
      * Perform the query for the given URI.
      * Use the given projection, selection, selection arguments, and sort order
@@ -95,26 +502,101 @@ public class PetProvider extends ContentProvider
     public Cursor query( Uri uri, String[] projection, String selection, String[] selectionArgs,
             String sortOrder )
     {
+        return query( uri, projection, selection, selectionArgs, sortOrder, null );
+    }
+    
+    /**
+     * Perform the query for the given URI, the same as the overload above, but the query can be
+     * cancelled while it's running (for example when a CursorLoader is restarted or abandoned),
+     * so that stale queries don't keep holding a database connection until they finish.
+     *
+     * @param uri
+     * @param projection
+     * @param selection
+     * @param selectionArgs
+     * @param sortOrder
+     * @param cancellationSignal the signal to cancel the query with, or null if none.
+     *
+     * @return
+     */
+    @Override
+    public Cursor query( Uri uri, String[] projection, String selection, String[] selectionArgs,
+            String sortOrder, CancellationSignal cancellationSignal )
+    {
+        mRestoreLock.readLock().lock();
+        try
+        {
+            return recordQuery( uri, projection, selection, selectionArgs, sortOrder, cancellationSignal );
+        }
+        finally
+        {
+            mRestoreLock.readLock().unlock();
+        }
+    }
+    
+    private Cursor recordQuery( Uri uri, String[] projection, String selection, String[] selectionArgs,
+            String sortOrder, CancellationSignal cancellationSignal )
+    {
+        PetCallRecorder recorder = mRecorder;
+        if ( recorder == null )
+            return performQuery( uri, projection, selection, selectionArgs, sortOrder, cancellationSignal );
+        
+        PetCallRecorder.Timing timing = recorder.startQuery( uri, projection, selection, selectionArgs, sortOrder );
+        int resultCount = -1;
+        try
+        {
+            // Counting the rows runs the query, which the caller waits for anyway.
+            Cursor cursor = performQuery( uri, projection, selection, selectionArgs, sortOrder, cancellationSignal );
+            resultCount = cursor == null ? 0 : cursor.getCount();
+            return cursor;
+        }
+        finally
+        {
+            recorder.finish( timing, resultCount );
+        }
+    }
+    
+    private Cursor performQuery( Uri uri, String[] projection, String selection, String[] selectionArgs,
+            String sortOrder, CancellationSignal cancellationSignal )
+    {
+        // Figure out if the URI matcher can match the URI to a specific code
+        int match = sUriMatcher.match( uri );
+        
+        // The shelters aren't in a database, and the pets of all the shelters are in all of them.
+        if ( match == SHELTERS || match == ALL_SHELTERS_PETS )
+            return queryShelters( match, projection, selection, selectionArgs, sortOrder,
+                    cancellationSignal );
+        
         // Get readable database
-        SQLiteDatabase database = mDbHelper.getReadableDatabase();
+        SQLiteDatabase database = getDbHelper( uri, match ).getReadableDatabase();
         
         // This cursor will hold the result of the query
         Cursor cursor;
         
-        // Figure out if the URI matcher can match the URI to a specific code
-        int match = sUriMatcher.match( uri );
+        // The content URI whose changes make the cursor stale, which is the queried URI itself
+        // unless it depends on other data.
+        Uri notificationUri = uri;
         
         switch ( match )
         {
             case PETS:
-                // For the PETS code, query the pets table directly with the given
-                // projection, selection, selection arguments, and sort order.
-                // The cursor could contain multiple rows of the pets table.
-                cursor = database.query( PetEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder );
+            case SHELTER_PETS:
+                // For the PETS code, query the pets view (the pets table joined with the breeds
+                // table) with the given projection, selection, selection arguments, and sort order.
+                // The cursor could contain multiple rows of the pets table. The pets of the
+                // default shelter can be filtered by tags too.
+                if ( match == PETS )
+                {
+                    String tagSelection = getTagSelection( database, uri );
+                    if ( tagSelection != null )
+                        selection = appendSelection( tagSelection, selection );
+                }
+                cursor = database.query( false, PetEntry.VIEW_NAME, projection, selection,
+                        selectionArgs, null, null, sortOrder, null, cancellationSignal );
                 break;
             
             case PET_ID:
+            case SHELTER_PET_ID:
                 // For the PET_ID code, extract out the ID form the URI.
                 // For an example URI such as "content://com.engineerfadyfawzi.pets/pets/3",
                 // the selection will be "_id=?" and the selection arguments will be a
@@ -128,8 +610,146 @@ public class PetProvider extends ContentProvider
                 
                 // This will perform a query on the pets table where the _id equals 3 to return a
                 // Cursor containing that row of the table.
-                cursor = database.query( PetEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder );
+                cursor = database.query( false, PetEntry.VIEW_NAME, projection, selection,
+                        selectionArgs, null, null, sortOrder, null, cancellationSignal );
+                break;
+            
+            case PET_ARCHIVE:
+            case PET_HISTORY:
+                // For the PET_ARCHIVE and PET_HISTORY codes, query the archived pets, or all the
+                // pets, joined with their breed like the pets view. Archiving notifies the pets
+                // URI, whose descendants these URIs are.
+                cursor = database.query( false,
+                        match == PET_ARCHIVE ? PetEntry.ARCHIVE_VIEW_NAME : PetEntry.HISTORY_VIEW_NAME,
+                        projection, selection, selectionArgs, null, null, sortOrder, null, cancellationSignal );
+                break;
+            
+            case BREEDS:
+                // For the BREEDS code, query each breed with the number of pets of that breed.
+                SQLiteQueryBuilder queryBuilder = new SQLiteQueryBuilder();
+                queryBuilder.setTables( PetSchema.Breeds.PETS_TABLES );
+                queryBuilder.setProjectionMap( sBreedsProjectionMap );
+                cursor = queryBuilder.query( database, projection, selection, selectionArgs,
+                        PetSchema.Breeds.QUALIFIED_ID, null, sortOrder, null, cancellationSignal );
+                
+                // Breeds are only added or counted differently when pets are saved or deleted.
+                notificationUri = PetEntry.CONTENT_URI;
+                break;
+            
+            case PETS_WITH_LAST_VACCINATION:
+                // For the PETS_WITH_LAST_VACCINATION code, query the pets joined with their last
+                // vaccination. It's notified as a descendant of the pets URI when pets change,
+                // and on its own when records change.
+                SQLiteQueryBuilder vaccinationQueryBuilder = new SQLiteQueryBuilder();
+                vaccinationQueryBuilder.setTables( PETS_WITH_LAST_VACCINATION_TABLES );
+                vaccinationQueryBuilder.setProjectionMap( sPetsWithLastVaccinationProjectionMap );
+                cursor = vaccinationQueryBuilder.query( database, projection, selection, selectionArgs,
+                        null, null, sortOrder, null, cancellationSignal );
+                break;
+            
+            case TAGS:
+                // For the TAGS code, query each tag with the number of its pets. The tags of the
+                // pets are notified as descendants of the pets URI.
+                SQLiteQueryBuilder tagsQueryBuilder = new SQLiteQueryBuilder();
+                tagsQueryBuilder.setTables( TAGS_TABLES );
+                tagsQueryBuilder.setProjectionMap( sTagsProjectionMap );
+                cursor = tagsQueryBuilder.query( database, projection, selection, selectionArgs,
+                        TagEntry.TABLE_NAME + "." + TagEntry._ID, null,
+                        sortOrder == null ? TagEntry.COLUMN_TAG_NAME : sortOrder, null, cancellationSignal );
+                notificationUri = PetEntry.CONTENT_URI;
+                break;
+            
+            case PET_TAGS:
+            case PET_TAG:
+                // For the PET_TAGS code, query the tags of the pet, by name. For PET_TAG, only
+                // the tag with the last name.
+                selection = appendSelection( TagEntry.PET_TAGS_TABLE_NAME + "." + TagEntry.COLUMN_PET_ID + "=?",
+                        selection );
+                selectionArgs = prependSelectionArg( getTagsPetId( uri ), selectionArgs );
+                if ( match == PET_TAG )
+                {
+                    selection = TagEntry.TABLE_NAME + "." + TagEntry.COLUMN_TAG_NAME + "=? AND " + selection;
+                    selectionArgs = prependSelectionArg( uri.getLastPathSegment(), selectionArgs );
+                }
+                SQLiteQueryBuilder petTagsQueryBuilder = new SQLiteQueryBuilder();
+                petTagsQueryBuilder.setTables( PET_TAGS_TABLES );
+                petTagsQueryBuilder.setProjectionMap( sPetTagsProjectionMap );
+                cursor = petTagsQueryBuilder.query( database, projection, selection, selectionArgs, null, null,
+                        sortOrder == null ? TagEntry.COLUMN_TAG_NAME : sortOrder, null, cancellationSignal );
+                break;
+            
+            case PET_RECORDS:
+            case PET_RECORD_ID:
+                // For the PET_RECORDS code, query the records of the pet, most recent first unless
+                // another order is given. For PET_RECORD_ID, only the record with the last id.
+                selection = appendSelection( RecordEntry.COLUMN_RECORD_PET_ID + "=?", selection );
+                selectionArgs = prependSelectionArg( getRecordsPetId( uri ), selectionArgs );
+                if ( match == PET_RECORD_ID )
+                {
+                    selection = RecordEntry._ID + "=? AND " + selection;
+                    selectionArgs = prependSelectionArg( uri.getLastPathSegment(), selectionArgs );
+                }
+                cursor = database.query( false, RecordEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder == null ? RecordEntry.COLUMN_RECORD_PERFORMED + " DESC" : sortOrder,
+                        null, cancellationSignal );
+                break;
+            
+            case DRAFT_ID:
+                // For the DRAFT_ID code, query the draft of the pet with the id in the URI.
+                selection = DraftEntry.COLUMN_DRAFT_PET_ID + "=?";
+                selectionArgs = new String[]{ String.valueOf( ContentUris.parseId( uri ) ) };
+                cursor = database.query( false, DraftEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, null, null, sortOrder, null, cancellationSignal );
+                break;
+            
+            case WEIGHTS:
+            case WEIGHT_ID:
+                // For the WEIGHTS code, query the measurements of the pet, oldest first unless
+                // another order is given. For WEIGHT_ID, only the measurement with the last id.
+                selection = appendSelection( WeightEntry.COLUMN_PET_ID + "=?", selection );
+                selectionArgs = prependSelectionArg( getWeightsPetId( uri ), selectionArgs );
+                if ( match == WEIGHT_ID )
+                {
+                    selection = WeightEntry._ID + "=? AND " + selection;
+                    selectionArgs = prependSelectionArg( uri.getLastPathSegment(), selectionArgs );
+                }
+                cursor = database.query( false, WeightEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder == null ? WeightEntry.COLUMN_MEASURED : sortOrder, null,
+                        cancellationSignal );
+                break;
+            
+            case WEIGHTS_DAILY:
+            case WEIGHTS_MONTHLY:
+                // For the rollup codes, query the rollups of the pet, oldest period first unless
+                // another order is given. Changes of the measurements are notified on the
+                // measurements URI of the pet, the parent of the rollup URIs.
+                selection = appendSelection( WeightEntry.COLUMN_PET_ID + "=?", selection );
+                selectionArgs = prependSelectionArg( getWeightsPetId( uri ), selectionArgs );
+                cursor = database.query( false,
+                        match == WEIGHTS_DAILY ? WeightEntry.DAILY_TABLE_NAME : WeightEntry.MONTHLY_TABLE_NAME,
+                        projection, selection, selectionArgs, null, null,
+                        sortOrder == null ? WeightEntry.COLUMN_PERIOD_START : sortOrder, null, cancellationSignal );
+                break;
+            
+            case PET_CHANGES:
+                // For the PET_CHANGES code, query the log entries after the "since" sequence
+                // number (if any), at most "limit" of them, always in the order they were logged.
+                String since = uri.getQueryParameter( ChangeEntry.QUERY_PARAMETER_SINCE );
+                if ( since != null )
+                {
+                    selection = TextUtils.isEmpty( selection )
+                            ? ChangeEntry.COLUMN_SEQ + ">?"
+                            : ChangeEntry.COLUMN_SEQ + ">? AND (" + selection + ")";
+                    selectionArgs = prependSelectionArg( since, selectionArgs );
+                }
+                String limit = uri.getQueryParameter( ChangeEntry.QUERY_PARAMETER_LIMIT );
+                if ( limit != null && !TextUtils.isDigitsOnly( limit ) )
+                    throw new IllegalArgumentException( "Change log requires a valid limit" );
+                cursor = database.query( false, ChangeEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, null, null, ChangeEntry.COLUMN_SEQ, limit, cancellationSignal );
+                
+                // The log only grows when pets are saved or deleted.
+                notificationUri = PetEntry.CONTENT_URI;
                 break;
             
             default:
@@ -139,7 +759,7 @@ public class PetProvider extends ContentProvider
         // Set notification URI on the Cursor,
         // so we know what content URI the Cursor was created for.
         // If the data at this URI changes, then we know we need to update the Cursor.
-        cursor.setNotificationUri( getContext().getContentResolver(), uri );
+        cursor.setNotificationUri( getContext().getContentResolver(), notificationUri );
         
         // Return the cursor.
         return cursor;
@@ -155,13 +775,63 @@ public class PetProvider extends ContentProvider
      */
     @Override
     public Uri insert( Uri uri, ContentValues contentValues )
+    {
+        mRestoreLock.readLock().lock();
+        try
+        {
+            return recordInsert( uri, contentValues );
+        }
+        finally
+        {
+            mRestoreLock.readLock().unlock();
+        }
+    }
+    
+    private Uri recordInsert( Uri uri, ContentValues contentValues )
+    {
+        PetCallRecorder recorder = mRecorder;
+        if ( recorder == null )
+            return performInsert( uri, contentValues );
+        
+        PetCallRecorder.Timing timing = recorder.startInsert( uri, contentValues );
+        int resultCount = -1;
+        try
+        {
+            Uri newUri = performInsert( uri, contentValues );
+            resultCount = newUri == null ? 0 : 1;
+            return newUri;
+        }
+        finally
+        {
+            recorder.finish( timing, resultCount );
+        }
+    }
+    
+    private Uri performInsert( Uri uri, ContentValues contentValues )
     {
         int match = sUriMatcher.match( uri );
         
         switch ( match )
         {
             case PETS:
-                return insertPet( uri, contentValues );
+            case SHELTER_PETS:
+                PetTracer.beginSection( "PetProvider.insertPet" );
+                try
+                {
+                    return insertPet( getDbHelper( uri, match ), uri, contentValues );
+                }
+                finally
+                {
+                    PetTracer.endSection();
+                }
+            case DRAFTS:
+                return insertDraft( contentValues );
+            case WEIGHTS:
+                return insertWeight( uri, contentValues );
+            case PET_RECORDS:
+                return insertRecord( uri, contentValues );
+            case PET_TAGS:
+                return insertPetTag( uri, contentValues );
             default:
                 throw new IllegalArgumentException( "Insertion is not supported for " + uri );
         }
@@ -171,21 +841,52 @@ public class PetProvider extends ContentProvider
      * Insert a pet into the database with the given content values.
      * Return the new content URI for that specific row in the database.
      *
+     * @param dbHelper of the shelter of the pet
      * @param uri
      * @param contentValues
      *
      * @return
      */
-    private Uri insertPet( Uri uri, ContentValues contentValues )
+    private Uri insertPet( PetDbHelper dbHelper, Uri uri, ContentValues contentValues )
     {
         // Validates the pet values before insert data into database.
         validatePetContentValues( contentValues );
         
         // Get writable database
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
         
-        // Insert a new pet with the given values in the database, returning the ID of that new row.
-        long newRowId = database.insert( PetEntry.TABLE_NAME, null, contentValues );
+        // Looking up (or adding) the breed and inserting the pet are done in one transaction,
+        // so a failed insert doesn't leave a new breed behind.
+        long newRowId;
+        PetTracer.beginSection( "SQLite insert pet" );
+        database.beginTransaction();
+        try
+        {
+            ContentValues petValues = toPetsTableValues( database, contentValues );
+            
+            // Every pet needs a globally unique sync id, generate one if it wasn't given
+            // (it's only given by a sync, for pets coming from the registry).
+            String syncId = petValues.getAsString( PetEntry.COLUMN_PET_SYNC_ID );
+            if ( syncId == null )
+                petValues.put( PetEntry.COLUMN_PET_SYNC_ID, UUID.randomUUID().toString() );
+            else
+            {
+                // A deleted pet keeps its sync id until it's purged, which logs the delete for the
+                // registry. Until then the delete wins, and the registry doesn't bring it back.
+                long deletedPetId = findDeletedPet( database, syncId );
+                if ( deletedPetId != -1 )
+                    return ContentUris.withAppendedId( uri, deletedPetId );
+            }
+            
+            // Insert a new pet with the given values in the database, returning the ID of that new row.
+            newRowId = database.insert( PetEntry.TABLE_NAME, null, petValues );
+            database.setTransactionSuccessful();
+        }
+        finally
+        {
+            database.endTransaction();
+            PetTracer.endSection();
+        }
         
         // If the ID is -1, then the insertion failed. Log an error and return null.
         if ( newRowId == -1 )
@@ -194,199 +895,2192 @@ public class PetProvider extends ContentProvider
             return null;
         }
         
-        // Notify all listeners that the data has changed for the pet content URI
-        // uri: content://com.engineerfadyfawzi.pets/pets
-        getContext().getContentResolver().notifyChange( uri, null );
-        
         // Once we know the ID of the new row in the table,
-        // return the new URI with the ID (of the newly inserted row) appended to the end of it.
-        return ContentUris.withAppendedId( uri, newRowId );
+        // build the new URI with the ID (of the newly inserted row) appended to the end of it.
+        Uri newPetUri = ContentUris.withAppendedId( uri, newRowId );
+        
+        // Notify all listeners that the data has changed for the new pet content URI
+        // uri: content://com.engineerfadyfawzi.pets/pets/#
+        // Listeners of the pets content URI are notified too, as it's the parent URI, and
+        // listeners that track single pets (like {@link LivePetQuery}) know which pet changed.
+        notifyPetsChanged( newPetUri );
+        onPetsChanged( dbHelper, 1 );
+        if ( isClosed( contentValues ) )
+            archiveClosedPets( dbHelper, uri );
+        if ( dbHelper == mDbHelper && contentValues.containsKey( PetEntry.COLUMN_PET_WEIGHT ) )
+            notifyChange( WeightEntry.buildWeightsUri( newRowId ) );
+        
+        // Return the new URI of the inserted pet.
+        return newPetUri;
     }
     
     /**
-     * This is insert's validation method.
-     *
-     * Validate the pet values before insert data into database.
+     * Save a draft, replacing the previous draft of the same pet.
+     * Return the content URI of the draft.
      *
      * @param contentValues
+     *
+     * @return
      */
-    private void validatePetContentValues( ContentValues contentValues )
+    private Uri insertDraft( ContentValues contentValues )
     {
-        // We call the update's validation method with argument isInsertMethod = true,
-        // to skip the checking of each attribute is presented or not,
-        // reverses what we do in update's validation method which check each attribute is present
-        // or not before checking if it's valid or not.
-        validatePetContentValues( contentValues, true );
+        Long petId = contentValues.getAsLong( DraftEntry.COLUMN_DRAFT_PET_ID );
+        if ( petId == null || petId < 0 )
+            throw new IllegalArgumentException( "Draft requires a valid pet id" );
+        
+        ContentValues draftValues = new ContentValues( contentValues );
+        if ( !draftValues.containsKey( DraftEntry.COLUMN_DRAFT_UPDATED ) )
+            draftValues.put( DraftEntry.COLUMN_DRAFT_UPDATED, System.currentTimeMillis() );
+        
+        // Drafts are saved while the user types, so a failed save is logged but not notified:
+        // nothing observes the drafts.
+        long rowId = mDbHelper.getWritableDatabase().insertWithOnConflict( DraftEntry.TABLE_NAME,
+                null, draftValues, SQLiteDatabase.CONFLICT_REPLACE );
+        if ( rowId == -1 )
+        {
+            Log.e( LOG_TAG, "Failed to save draft of pet " + petId );
+            return null;
+        }
+        
+        return DraftEntry.buildDraftUri( petId );
     }
     
     /**
-     * This is update's validation method.
-     *
-     * Validate the pet values before "insertion" (insert's validation method will call this
-     * method with isInsertMethod = false) or update (update's validation method) data in database.
+     * Insert a weight measurement of the pet of the given weights URI. It's rolled up by the
+     * triggers in the same statement. Return the content URI of the measurement.
      *
+     * @param uri
      * @param contentValues
-     * @param isInsertMethod
+     *
+     * @return
      */
-    private void validatePetContentValues( ContentValues contentValues, boolean isInsertMethod )
+    private Uri insertWeight( Uri uri, ContentValues contentValues )
     {
-        // to check if each attribute is present or not before checking if it's valid or not.
-        // If the key is present, then we can proceed with extracting the value from it,
-        // and then checking if it's valid.
-        
-        // For update's validation method version (when isInsertMethod == false ).
-        // If the {@link PetEntry#COLUMN_PET_NAME} key is present,
-        // check that the name value is not null or empty.
-        if ( isInsertMethod || contentValues.containsKey( PetEntry.COLUMN_PET_NAME ) )
-        {
-            // Check that the name is not null or empty
-            String petName = contentValues.getAsString( PetEntry.COLUMN_PET_NAME );
-            if ( TextUtils.isEmpty( petName ) )
-                throw new IllegalArgumentException( "Pet requires a name" );
-        }
+        Integer weight = contentValues.getAsInteger( WeightEntry.COLUMN_WEIGHT );
+        if ( weight == null || weight < 0 )
+            throw new IllegalArgumentException( "Measurement requires valid weight" );
         
-        // For update's validation method version (when isInsertMethod == false ).
-        // If the {@link PetEntry#COLUMN_PET_GENDER} key is present,
-        // check that the gender value is valid.
-        if ( isInsertMethod || contentValues.containsKey( PetEntry.COLUMN_PET_GENDER ) )
-        {
-            // Check that the gender is valid
-            Integer petGender = contentValues.getAsInteger( PetEntry.COLUMN_PET_GENDER );
-            if ( petGender == null || !PetEntry.isValidGender( petGender ) )
-                throw new IllegalArgumentException( "Pet requires valid gender" );
-        }
+        ContentValues weightValues = new ContentValues();
+        weightValues.put( WeightEntry.COLUMN_PET_ID, Long.parseLong( getWeightsPetId( uri ) ) );
+        weightValues.put( WeightEntry.COLUMN_WEIGHT, weight );
+        Long measured = contentValues.getAsLong( WeightEntry.COLUMN_MEASURED );
+        weightValues.put( WeightEntry.COLUMN_MEASURED, measured == null ? System.currentTimeMillis() : measured );
         
-        // For update's validation method version (when isInsetrMethod == false ).
-        // If the {@link PetEntry#COLUMN_PET_WEIGHT} key is present,
-        // check that the weight value is valid.
-        if ( contentValues.containsKey( PetEntry.COLUMN_PET_WEIGHT ) )
+        long newRowId = mDbHelper.getWritableDatabase().insert( WeightEntry.TABLE_NAME, null, weightValues );
+        if ( newRowId == -1 )
         {
-            // If the weight is provided, check that it's greater than or equal to 0 kg
-            Integer petWeight = contentValues.getAsInteger( PetEntry.COLUMN_PET_WEIGHT );
-            if ( petWeight != null && petWeight < 0 )
-                throw new IllegalArgumentException( "Pet requires valid weight" );
+            Log.e( LOG_TAG, "Failed to insert row for " + uri );
+            return null;
         }
         
-        // No need to check the breed, any value is valid (including null).
+        notifyChange( uri );
+        return ContentUris.withAppendedId( uri, newRowId );
     }
     
     /**
-     * Updates the data at the given selection and selection arguments, with the new ContentValues.
+     * Delete the weight measurements at the given weights URI (of a pet, or a single measurement),
+     * matching the selection. Their rollups are updated by the triggers in the same statement.
      *
      * @param uri
-     * @param contentValues
+     * @param match
      * @param selection
      * @param selectionArgs
      *
      * @return
      */
-    @Override
-    public int update( Uri uri, ContentValues contentValues, String selection, String[] selectionArgs )
+    private int deleteWeights( Uri uri, int match, String selection, String[] selectionArgs )
     {
-        int match = sUriMatcher.match( uri );
-        
-        switch ( match )
+        selection = appendSelection( WeightEntry.COLUMN_PET_ID + "=?", selection );
+        selectionArgs = prependSelectionArg( getWeightsPetId( uri ), selectionArgs );
+        if ( match == WEIGHT_ID )
         {
-            case PETS:
-                return updatePet( uri, contentValues, selection, selectionArgs );
-            case PET_ID:
-                // For teh PET_ID code, extract out the ID from the URI,
-                // so we know which row to update. Selection will be "_id=?" and selection
-                // arguments will be a String array containing the actual ID.
+            selection = WeightEntry._ID + "=? AND " + selection;
+            selectionArgs = prependSelectionArg( uri.getLastPathSegment(), selectionArgs );
+        }
+        
+        int rowsDeleted = mDbHelper.getWritableDatabase().delete( WeightEntry.TABLE_NAME, selection,
+                selectionArgs );
+        if ( rowsDeleted > 0 )
+            notifyChange( WeightEntry.buildWeightsUri( Long.parseLong( getWeightsPetId( uri ) ) ) );
+        
+        return rowsDeleted;
+    }
+    
+    /**
+     * Insert a medical record of the pet of the given records URI. The pet must exist, since the
+     * reference to it isn't enforced by the database. Return the content URI of the record.
+     *
+     * @param uri
+     * @param contentValues
+     *
+     * @return
+     */
+    private Uri insertRecord( Uri uri, ContentValues contentValues )
+    {
+        validateRecordContentValues( contentValues, true );
+        
+        String petId = getRecordsPetId( uri );
+        ContentValues recordValues = new ContentValues( contentValues );
+        recordValues.put( RecordEntry.COLUMN_RECORD_PET_ID, Long.parseLong( petId ) );
+        if ( recordValues.getAsLong( RecordEntry.COLUMN_RECORD_PERFORMED ) == null )
+            recordValues.put( RecordEntry.COLUMN_RECORD_PERFORMED, System.currentTimeMillis() );
+        
+        // The pet is looked up in the same transaction as the insert, so it can't be deleted
+        // in between.
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        long newRowId;
+        database.beginTransaction();
+        try
+        {
+            if ( DatabaseUtils.queryNumEntries( database, PetEntry.VIEW_NAME, PetEntry._ID + "=?",
+                    new String[]{ petId } ) == 0 )
+                throw new IllegalArgumentException( "Record requires an existing pet " + uri );
+            
+            newRowId = database.insert( RecordEntry.TABLE_NAME, null, recordValues );
+            database.setTransactionSuccessful();
+        }
+        finally
+        {
+            database.endTransaction();
+        }
+        
+        if ( newRowId == -1 )
+        {
+            Log.e( LOG_TAG, "Failed to insert row for " + uri );
+            return null;
+        }
+        
+        notifyRecordsChanged( uri );
+        return ContentUris.withAppendedId( uri, newRowId );
+    }
+    
+    /**
+     * Update the medical record at the given record URI. Return the number of updated rows.
+     *
+     * @param uri
+     * @param contentValues
+     * @param selection
+     * @param selectionArgs
+     *
+     * @return
+     */
+    private int updateRecord( Uri uri, ContentValues contentValues, String selection, String[] selectionArgs )
+    {
+        if ( contentValues.size() == 0 )
+            return 0;
+        
+        // A record can't be moved to another pet.
+        if ( contentValues.containsKey( RecordEntry.COLUMN_RECORD_PET_ID ) )
+            throw new IllegalArgumentException( "Record pet id cannot be updated" );
+        validateRecordContentValues( contentValues, false );
+        
+        selection = appendSelection( RecordEntry._ID + "=? AND " + RecordEntry.COLUMN_RECORD_PET_ID + "=?",
+                selection );
+        selectionArgs = prependSelectionArg( getRecordsPetId( uri ), selectionArgs );
+        selectionArgs = prependSelectionArg( uri.getLastPathSegment(), selectionArgs );
+        
+        int rowsUpdated = mDbHelper.getWritableDatabase().update( RecordEntry.TABLE_NAME, contentValues,
+                selection, selectionArgs );
+        if ( rowsUpdated > 0 )
+            notifyRecordsChanged( uri );
+        
+        return rowsUpdated;
+    }
+    
+    /**
+     * Delete the medical records at the given records URI (of a pet, or a single record),
+     * matching the selection.
+     *
+     * @param uri
+     * @param match
+     * @param selection
+     * @param selectionArgs
+     *
+     * @return
+     */
+    private int deleteRecords( Uri uri, int match, String selection, String[] selectionArgs )
+    {
+        selection = appendSelection( RecordEntry.COLUMN_RECORD_PET_ID + "=?", selection );
+        selectionArgs = prependSelectionArg( getRecordsPetId( uri ), selectionArgs );
+        if ( match == PET_RECORD_ID )
+        {
+            selection = RecordEntry._ID + "=? AND " + selection;
+            selectionArgs = prependSelectionArg( uri.getLastPathSegment(), selectionArgs );
+        }
+        
+        int rowsDeleted = mDbHelper.getWritableDatabase().delete( RecordEntry.TABLE_NAME, selection,
+                selectionArgs );
+        if ( rowsDeleted > 0 )
+            notifyRecordsChanged( uri );
+        
+        return rowsDeleted;
+    }
+    
+    /**
+     * Validate the values of a medical record. For an update, only the given values are checked.
+     *
+     * @param contentValues
+     * @param isInsertMethod
+     */
+    private static void validateRecordContentValues( ContentValues contentValues, boolean isInsertMethod )
+    {
+        if ( isInsertMethod || contentValues.containsKey( RecordEntry.COLUMN_RECORD_TYPE ) )
+        {
+            Integer type = contentValues.getAsInteger( RecordEntry.COLUMN_RECORD_TYPE );
+            if ( type == null || !PetValidation.isValidRecordType( type ) )
+                throw new IllegalArgumentException( "Record requires valid type" );
+        }
+        
+        if ( isInsertMethod || contentValues.containsKey( RecordEntry.COLUMN_RECORD_DESCRIPTION ) )
+        {
+            String description = contentValues.getAsString( RecordEntry.COLUMN_RECORD_DESCRIPTION );
+            if ( !PetValidation.isValidRecordDescription( description ) )
+                throw new IllegalArgumentException( "Record requires a description" );
+        }
+        
+        if ( !isInsertMethod && contentValues.containsKey( RecordEntry.COLUMN_RECORD_PERFORMED )
+                && contentValues.getAsLong( RecordEntry.COLUMN_RECORD_PERFORMED ) == null )
+            throw new IllegalArgumentException( "Record requires valid time" );
+    }
+    
+    /**
+     * Give the tag with the {@link TagEntry#COLUMN_TAG_NAME} of the values to the pet of the
+     * given pet tags URI, adding the tag if it's new. Giving a tag the pet already has does
+     * nothing. Return the content URI of the tag of the pet.
+     *
+     * @param uri
+     * @param contentValues
+     *
+     * @return
+     */
+    private Uri insertPetTag( Uri uri, ContentValues contentValues )
+    {
+        String name = contentValues.getAsString( TagEntry.COLUMN_TAG_NAME );
+        name = name == null ? null : name.trim();
+        if ( TextUtils.isEmpty( name ) )
+            throw new IllegalArgumentException( "Tag requires a name" );
+        
+        String petId = getTagsPetId( uri );
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        long tagId;
+        database.beginTransaction();
+        try
+        {
+            if ( DatabaseUtils.queryNumEntries( database, PetEntry.VIEW_NAME, PetEntry._ID + "=?",
+                    new String[]{ petId } ) == 0 )
+                throw new IllegalArgumentException( "Tag requires an existing pet " + uri );
+            
+            tagId = findTag( database, name );
+            if ( tagId == -1 )
+            {
+                ContentValues tagValues = new ContentValues();
+                tagValues.put( TagEntry.COLUMN_TAG_NAME, name );
+                tagId = database.insert( TagEntry.TABLE_NAME, null, tagValues );
+                if ( tagId == -1 )
+                    throw new IllegalStateException( "Failed to insert tag " + name );
+            }
+            
+            ContentValues petTagValues = new ContentValues();
+            petTagValues.put( TagEntry.COLUMN_PET_ID, Long.parseLong( petId ) );
+            petTagValues.put( TagEntry.COLUMN_TAG_ID, tagId );
+            database.insertWithOnConflict( TagEntry.PET_TAGS_TABLE_NAME, null, petTagValues,
+                    SQLiteDatabase.CONFLICT_IGNORE );
+            database.setTransactionSuccessful();
+        }
+        finally
+        {
+            database.endTransaction();
+        }
+        
+        // The index is updated after the commit, see getTagIndex().
+        TagIndex tagIndex = mTagIndex;
+        if ( tagIndex != null )
+            tagIndex.add( tagId, Long.parseLong( petId ) );
+        
+        notifyChange( TagEntry.buildPetTagsUri( Long.parseLong( petId ) ) );
+        return TagEntry.buildPetTagUri( Long.parseLong( petId ), name );
+    }
+    
+    /**
+     * Take back a tag, or all the tags, of the pet of the given pet tags URI. A selection isn't
+     * supported. Return the number of tags taken back.
+     *
+     * @param uri
+     * @param match
+     * @param selection
+     *
+     * @return
+     */
+    private int deletePetTags( Uri uri, int match, String selection )
+    {
+        if ( !TextUtils.isEmpty( selection ) )
+            throw new IllegalArgumentException( "Deletion with a selection is not supported for " + uri );
+        
+        long petId = Long.parseLong( getTagsPetId( uri ) );
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        List< Long > tagIds = new ArrayList<>();
+        database.beginTransaction();
+        try
+        {
+            if ( match == PET_TAG )
+            {
+                long tagId = findTag( database, uri.getLastPathSegment() );
+                if ( tagId != -1 )
+                    tagIds.add( tagId );
+            }
+            else
+            {
+                Cursor cursor = database.query( TagEntry.PET_TAGS_TABLE_NAME, new String[]{ TagEntry.COLUMN_TAG_ID },
+                        TagEntry.COLUMN_PET_ID + "=?", new String[]{ String.valueOf( petId ) }, null, null, null );
+                try
+                {
+                    while ( cursor.moveToNext() )
+                        tagIds.add( cursor.getLong( 0 ) );
+                }
+                finally
+                {
+                    cursor.close();
+                }
+            }
+            
+            for ( Iterator< Long > iterator = tagIds.iterator(); iterator.hasNext(); )
+                if ( database.delete( TagEntry.PET_TAGS_TABLE_NAME,
+                        TagEntry.COLUMN_PET_ID + "=? AND " + TagEntry.COLUMN_TAG_ID + "=?",
+                        new String[]{ String.valueOf( petId ), String.valueOf( iterator.next() ) } ) == 0 )
+                    iterator.remove();
+            database.setTransactionSuccessful();
+        }
+        finally
+        {
+            database.endTransaction();
+        }
+        
+        if ( tagIds.isEmpty() )
+            return 0;
+        
+        TagIndex tagIndex = mTagIndex;
+        if ( tagIndex != null )
+            for ( long tagId : tagIds )
+                tagIndex.remove( tagId, petId );
+        
+        notifyChange( TagEntry.buildPetTagsUri( petId ) );
+        return tagIds.size();
+    }
+    
+    /**
+     * Return the id of the tag with the given name (ignoring case), or -1 if there is none.
+     *
+     * @param database
+     * @param name
+     *
+     * @return
+     */
+    private static long findTag( SQLiteDatabase database, String name )
+    {
+        Cursor cursor = database.query( TagEntry.TABLE_NAME, new String[]{ TagEntry._ID },
+                TagEntry.COLUMN_TAG_NAME + "=?", new String[]{ name }, null, null, null );
+        try
+        {
+            return cursor.moveToFirst() ? cursor.getLong( 0 ) : -1;
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+    
+    /**
+     * Return the selection of the pets matching the tag filter of the given pets URI (see
+     * {@link TagEntry#QUERY_PARAMETER_ALL_TAGS}), or null if it isn't filtered by tags.
+     *
+     * The pets are found with the tag index, and selected by id, so the query only reads the
+     * matching pets. When too many pets match, they're selected with the pet tags table instead.
+     *
+     * @param database
+     * @param uri
+     *
+     * @return
+     */
+    private String getTagSelection( SQLiteDatabase database, Uri uri )
+    {
+        List< String > allTags = uri.getQueryParameters( TagEntry.QUERY_PARAMETER_ALL_TAGS );
+        List< String > anyTags = uri.getQueryParameters( TagEntry.QUERY_PARAMETER_ANY_TAGS );
+        if ( allTags.isEmpty() && anyTags.isEmpty() )
+            return null;
+        
+        long[] allTagIds = new long[ allTags.size() ];
+        for ( int i = 0; i < allTagIds.length; i++ )
+        {
+            allTagIds[ i ] = findTag( database, allTags.get( i ) );
+            
+            // No pet has a tag that doesn't exist.
+            if ( allTagIds[ i ] == -1 )
+                return "0";
+        }
+        
+        List< Long > anyTagIdList = new ArrayList<>();
+        for ( String tag : anyTags )
+        {
+            long tagId = findTag( database, tag );
+            if ( tagId != -1 )
+                anyTagIdList.add( tagId );
+        }
+        if ( !anyTags.isEmpty() && anyTagIdList.isEmpty() )
+            return "0";
+        
+        long[] anyTagIds = new long[ anyTagIdList.size() ];
+        for ( int i = 0; i < anyTagIds.length; i++ )
+            anyTagIds[ i ] = anyTagIdList.get( i );
+        
+        return getTagIndex().getSelection( allTagIds, anyTagIds, MAX_TAG_FILTER_IDS );
+    }
+    
+    /**
+     * Return the tag index of the default shelter, building it if needed.
+     *
+     * It's built in a transaction, so no change of the tags commits while it's read. A change
+     * committed before is read, and a change committed after is applied to the index by the
+     * provider, which is done after the commit (applying it twice does nothing).
+     *
+     * @return
+     */
+    private TagIndex getTagIndex()
+    {
+        TagIndex tagIndex = mTagIndex;
+        if ( tagIndex != null )
+            return tagIndex;
+        
+        synchronized ( mTagIndexLock )
+        {
+            if ( mTagIndex != null )
+                return mTagIndex;
+            
+            long start = SystemClock.elapsedRealtime();
+            SQLiteDatabase database = mDbHelper.getWritableDatabase();
+            database.beginTransaction();
+            try
+            {
+                tagIndex = buildTagIndex( database );
+                mTagIndex = tagIndex;
+                database.setTransactionSuccessful();
+            }
+            finally
+            {
+                database.endTransaction();
+            }
+            
+            Log.d( LOG_TAG, "Built tag index in " + ( SystemClock.elapsedRealtime() - start ) + " ms" );
+            return tagIndex;
+        }
+    }
+    
+    /**
+     * Build a tag index from the pet tags table. The rows are read in the order of the tag index,
+     * so the ids of each tag are added in increasing order.
+     *
+     * The pets deleted by a delete of all the pets are left out, since the index is dropped
+     * when that delete is undone. The pets deleted by themselves are marked deleted, so an undo
+     * only unmarks them.
+     *
+     * @param database
+     *
+     * @return
+     */
+    private static TagIndex buildTagIndex( SQLiteDatabase database )
+    {
+        TagIndex tagIndex = new TagIndex();
+        Cursor cursor = database.query( TagEntry.PET_TAGS_TABLE_NAME,
+                new String[]{ TagEntry.COLUMN_TAG_ID, TagEntry.COLUMN_PET_ID },
+                TagEntry.COLUMN_PET_ID + " > (SELECT IFNULL(MAX(" + PetDbHelper.COLUMN_DELETION_LAST_PET_ID
+                        + "), 0) FROM " + PetDbHelper.DELETIONS_TABLE_NAME + ")", null, null, null,
+                TagEntry.COLUMN_TAG_ID + ", " + TagEntry.COLUMN_PET_ID );
+        try
+        {
+            while ( cursor.moveToNext() )
+                tagIndex.add( cursor.getLong( 0 ), cursor.getLong( 1 ) );
+        }
+        finally
+        {
+            cursor.close();
+        }
+        
+        for ( long petId : queryPetIds( database, PetDbHelper.COLUMN_PET_DELETION_ID + "<>0", null ) )
+            tagIndex.markDeleted( petId );
+        
+        return tagIndex;
+    }
+    
+    /**
+     * Return the ids of the pets of the selection of the pets table, deleted or not.
+     *
+     * @param database
+     * @param selection
+     * @param selectionArgs
+     *
+     * @return
+     */
+    private static List< Long > queryPetIds( SQLiteDatabase database, String selection, String[] selectionArgs )
+    {
+        List< Long > ids = new ArrayList<>();
+        Cursor cursor = database.query( PetEntry.TABLE_NAME, new String[]{ PetEntry._ID }, selection, selectionArgs,
+                null, null, null );
+        try
+        {
+            while ( cursor.moveToNext() )
+                ids.add( cursor.getLong( 0 ) );
+        }
+        finally
+        {
+            cursor.close();
+        }
+        return ids;
+    }
+    
+    /**
+     * Return the pet id of a pet tags URI, such as "5" for
+     * "content://com.engineerfadyfawzi.pets/pets/5/tags".
+     *
+     * @param uri
+     *
+     * @return
+     */
+    private static String getTagsPetId( Uri uri )
+    {
+        return uri.getPathSegments().get( 1 );
+    }
+    
+    /**
+     * Return the pet id of a records URI, such as "5" for
+     * "content://com.engineerfadyfawzi.pets/pets/5/records/2".
+     *
+     * @param uri
+     *
+     * @return
+     */
+    private static String getRecordsPetId( Uri uri )
+    {
+        return uri.getPathSegments().get( 1 );
+    }
+    
+    /**
+     * Return the pet id of a weights URI, such as "5" for
+     * "content://com.engineerfadyfawzi.pets/weights/5/daily".
+     *
+     * @param uri
+     *
+     * @return
+     */
+    private static String getWeightsPetId( Uri uri )
+    {
+        return uri.getPathSegments().get( 1 );
+    }
+    
+    /**
+     * This is insert's validation method.
+     *
+     * Validate the pet values before insert data into database.
+     *
+     * @param contentValues
+     */
+    private void validatePetContentValues( ContentValues contentValues )
+    {
+        // We call the update's validation method with argument isInsertMethod = true,
+        // to skip the checking of each attribute is presented or not,
+        // reverses what we do in update's validation method which check each attribute is present
+        // or not before checking if it's valid or not.
+        validatePetContentValues( contentValues, true );
+    }
+    
+    /**
+     * This is update's validation method.
+     *
+     * Validate the pet values before "insertion" (insert's validation method will call this
+     * method with isInsertMethod = false) or update (update's validation method) data in database.
+     *
+     * The rules are the ones of the {@link Column} definitions of {@link PetEntry}, checked by the
+     * generated {@link PetValidator}: for an update only the given values are checked, and the
+     * breed can be any value (including null).
+     *
+     * @param contentValues
+     * @param isInsertMethod
+     */
+    private void validatePetContentValues( ContentValues contentValues, boolean isInsertMethod )
+    {
+        PetTracer.beginSection( "PetProvider.validatePetContentValues" );
+        try
+        {
+            PetValidator.validate( contentValues, isInsertMethod );
+        }
+        finally
+        {
+            PetTracer.endSection();
+        }
+    }
+    
+    /**
+     * Return a copy of the given pet values that can be written to the pets table, where the
+     * {@link PetEntry#COLUMN_PET_BREED} text is replaced with the {@link PetEntry#COLUMN_PET_BREED_ID}
+     * of that breed. Breeds that aren't in the breeds table yet are added to it.
+     *
+     * Must be called inside a transaction on the given database.
+     *
+     * @param database
+     * @param contentValues
+     *
+     * @return
+     */
+    private ContentValues toPetsTableValues( SQLiteDatabase database, ContentValues contentValues )
+    {
+        // Leave the caller's ContentValues untouched.
+        ContentValues petValues = new ContentValues( contentValues );
+        
+        if ( !petValues.containsKey( PetEntry.COLUMN_PET_BREED ) )
+            return petValues;
+        
+        String petBreed = petValues.getAsString( PetEntry.COLUMN_PET_BREED );
+        petValues.remove( PetEntry.COLUMN_PET_BREED );
+        
+        // An empty (or white space only) breed is an unknown breed.
+        if ( petBreed == null || TextUtils.isEmpty( petBreed.trim() ) )
+            petValues.putNull( PetEntry.COLUMN_PET_BREED_ID );
+        else
+            petValues.put( PetEntry.COLUMN_PET_BREED_ID, findOrInsertBreed( database, petBreed.trim() ) );
+        
+        return petValues;
+    }
+    
+    /**
+     * Return the id of the given breed (compared ignoring case), adding it to the breeds table
+     * if it isn't there yet.
+     *
+     * @param database
+     * @param breed
+     *
+     * @return
+     */
+    private long findOrInsertBreed( SQLiteDatabase database, String breed )
+    {
+        Cursor cursor = database.query( BreedEntry.TABLE_NAME, new String[]{ BreedEntry._ID },
+                BreedEntry.COLUMN_BREED_NAME + "=?", new String[]{ breed }, null, null, null );
+        try
+        {
+            if ( cursor.moveToFirst() )
+                return cursor.getLong( 0 );
+        }
+        finally
+        {
+            cursor.close();
+        }
+        
+        ContentValues breedValues = new ContentValues();
+        breedValues.put( BreedEntry.COLUMN_BREED_NAME, breed );
+        long breedId = database.insert( BreedEntry.TABLE_NAME, null, breedValues );
+        if ( breedId == -1 )
+            throw new IllegalStateException( "Failed to insert breed " + breed );
+        
+        return breedId;
+    }
+    
+    /**
+     * Return the (non null) photos of the pets in the pets table matching the given selection.
+     *
+     * @param database
+     * @param selection
+     * @param selectionArgs
+     *
+     * @return
+     */
+    private List< String > queryPhotos( SQLiteDatabase database, String selection, String[] selectionArgs )
+    {
+        String photoSelection = PetEntry.COLUMN_PET_PHOTO + " IS NOT NULL";
+        if ( !TextUtils.isEmpty( selection ) )
+            photoSelection = photoSelection + " AND (" + selection + ")";
+        
+        List< String > photos = new ArrayList<>();
+        Cursor cursor = database.query( PetEntry.TABLE_NAME, new String[]{ PetEntry.COLUMN_PET_PHOTO },
+                photoSelection, selectionArgs, null, null, null );
+        try
+        {
+            while ( cursor.moveToNext() )
+                photos.add( cursor.getString( 0 ) );
+        }
+        finally
+        {
+            cursor.close();
+        }
+        
+        return photos;
+    }
+    
+    /**
+     * Updates the data at the given selection and selection arguments, with the new ContentValues.
+     *
+     * @param uri
+     * @param contentValues
+     * @param selection
+     * @param selectionArgs
+     *
+     * @return
+     */
+    @Override
+    public int update( Uri uri, ContentValues contentValues, String selection, String[] selectionArgs )
+    {
+        mRestoreLock.readLock().lock();
+        try
+        {
+            return recordUpdate( uri, contentValues, selection, selectionArgs );
+        }
+        finally
+        {
+            mRestoreLock.readLock().unlock();
+        }
+    }
+    
+    private int recordUpdate( Uri uri, ContentValues contentValues, String selection, String[] selectionArgs )
+    {
+        PetCallRecorder recorder = mRecorder;
+        if ( recorder == null )
+            return performUpdate( uri, contentValues, selection, selectionArgs );
+        
+        PetCallRecorder.Timing timing = recorder.startUpdate( uri, contentValues, selection, selectionArgs );
+        int resultCount = -1;
+        try
+        {
+            resultCount = performUpdate( uri, contentValues, selection, selectionArgs );
+            return resultCount;
+        }
+        finally
+        {
+            recorder.finish( timing, resultCount );
+        }
+    }
+    
+    private int performUpdate( Uri uri, ContentValues contentValues, String selection, String[] selectionArgs )
+    {
+        int match = sUriMatcher.match( uri );
+        
+        switch ( match )
+        {
+            case PETS:
+            case SHELTER_PETS:
+            case PET_ID:
+            case SHELTER_PET_ID:
+                if ( match == PET_ID || match == SHELTER_PET_ID )
+                {
+                    // For teh PET_ID code, extract out the ID from the URI,
+                    // so we know which row to update. Selection will be "_id=?" and selection
+                    // arguments will be a String array containing the actual ID.
+                    selection = PetEntry._ID + "=?";
+                    selectionArgs = new String[]{ String.valueOf( ContentUris.parseId( uri ) ) };
+                }
+                
+                PetTracer.beginSection( "PetProvider.updatePet" );
+                try
+                {
+                    return updatePet( getDbHelper( uri, match ), uri, contentValues, selection, selectionArgs );
+                }
+                finally
+                {
+                    PetTracer.endSection();
+                }
+            case PET_RECORD_ID:
+                return updateRecord( uri, contentValues, selection, selectionArgs );
+            default:
+                throw new IllegalArgumentException( "Update is not supported for " + uri );
+        }
+    }
+    
+    /**
+     * Update pets in the database with the given content values. Apply the changes to the rows
+     * specified in the selection and selection arguments (which could be 0 or 1 or more pets).
+     * Return the number of row that were successfully updated.
+     *
+     * @param dbHelper of the shelter of the pets
+     * @param uri
+     * @param contentValues
+     * @param selection
+     * @param selectionArgs
+     *
+     * @return
+     */
+    private int updatePet( PetDbHelper dbHelper, Uri uri, ContentValues contentValues, String selection,
+            String[] selectionArgs )
+    {
+        // If there are no values to update, then don't try to update the database
+        if ( contentValues.size() == 0 )
+            return 0;
+        
+        // Validates the pet values before update data in database.
+        validatePetContentValues( contentValues, false );
+        
+        // Otherwise, get writable database to update the data
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+        
+        // Perform the update on the database and get the number of rows affected.
+        int rowsUpdated;
+        List< String > replacedPhotos = new ArrayList<>();
+        // Deleted pets can't be updated, even by id.
+        selection = appendSelection( PetSchema.getNotDeletedCondition( PetEntry.TABLE_NAME ),
+                PetSchema.toPetsTableSelection( selection ) );
+        PetTracer.beginSection( "SQLite update pet" );
+        database.beginTransaction();
+        try
+        {
+            // If the photo changes, the photo files that are replaced can be deleted afterwards.
+            if ( contentValues.containsKey( PetEntry.COLUMN_PET_PHOTO ) )
+            {
+                String newPhoto = contentValues.getAsString( PetEntry.COLUMN_PET_PHOTO );
+                for ( String photo : queryPhotos( database, selection, selectionArgs ) )
+                    if ( !photo.equals( newPhoto ) )
+                        replacedPhotos.add( photo );
+            }
+            
+            ContentValues petValues = toPetsTableValues( database, contentValues );
+            rowsUpdated = database.update( PetEntry.TABLE_NAME, petValues, selection, selectionArgs );
+            database.setTransactionSuccessful();
+        }
+        finally
+        {
+            database.endTransaction();
+            PetTracer.endSection();
+        }
+        
+        for ( String photo : replacedPhotos )
+            PetPhotoStore.deletePhoto( photo );
+        
+        // if 1 or more rows were updated, then notify all listeners that
+        // the data at the given URI has changed
+        if ( rowsUpdated > 0 )
+        {
+            // Notify all listeners that the data has changed for the pet content URI
+            notifyPetsChanged( uri );
+            onPetsChanged( dbHelper, rowsUpdated );
+            if ( isClosed( contentValues ) )
+                archiveClosedPets( dbHelper, getPetsUri( uri ) );
+            
+            // A new weight is recorded in the weight history by the triggers.
+            if ( dbHelper == mDbHelper && contentValues.containsKey( PetEntry.COLUMN_PET_WEIGHT ) )
+                notifyChange( WeightEntry.CONTENT_URI );
+        }
+        
+        // Returns the number of rows updated.
+        return rowsUpdated;
+    }
+    
+    /**
+     * Delete the data at the given selection and selection arguments.
+     *
+     * @param uri
+     * @param selection
+     * @param selectionArgs
+     *
+     * @return
+     */
+    @Override
+    public int delete( Uri uri, String selection, String[] selectionArgs )
+    {
+        mRestoreLock.readLock().lock();
+        try
+        {
+            return recordDelete( uri, selection, selectionArgs );
+        }
+        finally
+        {
+            mRestoreLock.readLock().unlock();
+        }
+    }
+    
+    private int recordDelete( Uri uri, String selection, String[] selectionArgs )
+    {
+        PetCallRecorder recorder = mRecorder;
+        if ( recorder == null )
+            return performDelete( uri, selection, selectionArgs );
+        
+        PetCallRecorder.Timing timing = recorder.startDelete( uri, selection, selectionArgs );
+        int resultCount = -1;
+        try
+        {
+            resultCount = performDelete( uri, selection, selectionArgs );
+            return resultCount;
+        }
+        finally
+        {
+            recorder.finish( timing, resultCount );
+        }
+    }
+    
+    private int performDelete( Uri uri, String selection, String[] selectionArgs )
+    {
+        // Figure out if the URI matcher can match the URI to a specific code
+        int match = sUriMatcher.match( uri );
+        
+        if ( match == WEIGHTS || match == WEIGHT_ID )
+            return deleteWeights( uri, match, selection, selectionArgs );
+        
+        if ( match == PET_RECORDS || match == PET_RECORD_ID )
+            return deleteRecords( uri, match, selection, selectionArgs );
+        
+        if ( match == PET_TAGS || match == PET_TAG )
+            return deletePetTags( uri, match, selection );
+        
+        // Drafts have no photos or change log, and their deletes aren't notified.
+        if ( match == DRAFT_ID )
+            return mDbHelper.getWritableDatabase().delete( DraftEntry.TABLE_NAME,
+                    DraftEntry.COLUMN_DRAFT_PET_ID + "=?",
+                    new String[]{ String.valueOf( ContentUris.parseId( uri ) ) } );
+        
+        return deletePets( uri, match, selection, selectionArgs ).getInt( PetContract.EXTRA_DELETED_PETS );
+    }
+    
+    /**
+     * Delete the pets of the given pets URI and selection, or the single pet of the given pet
+     * URI, and return the result of {@link PetContract#METHOD_DELETE}.
+     *
+     * @param uri
+     * @param match
+     * @param selection
+     * @param selectionArgs
+     *
+     * @return
+     */
+    private Bundle deletePets( Uri uri, int match, String selection, String[] selectionArgs )
+    {
+        switch ( match )
+        {
+            case PETS:
+            case SHELTER_PETS:
+                // For case PETS:
+                // Delete all rows that match the selection and selection args
+                selection = PetSchema.toPetsTableSelection( selection );
+                break;
+            
+            case PET_ID:
+            case SHELTER_PET_ID:
+                // For case PET_ID:
+                // Delete a single row given by the ID in the URI
                 selection = PetEntry._ID + "=?";
                 selectionArgs = new String[]{ String.valueOf( ContentUris.parseId( uri ) ) };
-                return updatePet( uri, contentValues, selection, selectionArgs );
+                break;
+            
             default:
-                throw new IllegalArgumentException( "Update is not supported for " + uri );
+                throw new IllegalArgumentException( "Deletion is not supported for " + uri );
+        }
+        
+        // The pets are only marked as deleted, so the delete can be undone (see
+        // PetContract#METHOD_UNDO_DELETE). They're purged in the background once that's no longer
+        // possible, with their photos, records and tags.
+        PetDbHelper dbHelper = getDbHelper( uri, match );
+        Bundle result = markPetsDeleted( dbHelper, selection, selectionArgs );
+        
+        // If 1 or more rows were deleted, then notify all listeners that
+        // the data at the given URI has changed
+        if ( result.getInt( PetContract.EXTRA_DELETED_PETS ) > 0 )
+        {
+            // Notify all listeners that the data has changed for the pet content URI. The
+            // records URIs of the deleted pets are its descendants, so they're notified too.
+            notifyPetsChanged( uri );
+            purgeDeletedPets( dbHelper, PetContract.UNDO_DELETE_MILLIS );
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Mark the pets of the selection as deleted, in a new delete, unless there are none.
+     * Marking all the pets is a single insert of the delete, whatever their number, and so is
+     * counting them (see {@link PetDbHelper#COUNTS_TABLE_NAME}).
+     *
+     * @param dbHelper
+     * @param selection     of the pets table, or null for all the pets.
+     * @param selectionArgs
+     *
+     * @return the result of {@link PetContract#METHOD_DELETE}.
+     */
+    private Bundle markPetsDeleted( PetDbHelper dbHelper, String selection, String[] selectionArgs )
+    {
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+        TagIndex tagIndex = dbHelper == mDbHelper ? mTagIndex : null;
+        List< Long > deletedIds = null;
+        int rowsDeleted;
+        long deletionId = -1;
+        database.beginTransaction();
+        try
+        {
+            ContentValues deletionValues = new ContentValues();
+            deletionValues.put( PetDbHelper.COLUMN_DELETION_TIME, System.currentTimeMillis() );
+            
+            if ( TextUtils.isEmpty( selection ) )
+            {
+                rowsDeleted = ( int ) DatabaseUtils.longForQuery( database,
+                        "SELECT " + PetDbHelper.COLUMN_LIVE_PETS + " FROM " + PetDbHelper.COUNTS_TABLE_NAME, null );
+                if ( rowsDeleted > 0 )
+                {
+                    deletionValues.put( PetDbHelper.COLUMN_DELETION_LAST_PET_ID, DatabaseUtils.longForQuery( database,
+                            "SELECT IFNULL(MAX(" + PetEntry._ID + "), 0) FROM " + PetEntry.TABLE_NAME, null ) );
+                    deletionValues.put( PetDbHelper.COLUMN_DELETION_PET_COUNT, rowsDeleted );
+                    deletionId = database.insert( PetDbHelper.DELETIONS_TABLE_NAME, null, deletionValues );
+                    setLivePets( database, 0 );
+                }
+            }
+            else
+            {
+                deletionId = database.insert( PetDbHelper.DELETIONS_TABLE_NAME, null, deletionValues );
+                String[] deletionArgs = { String.valueOf( deletionId ) };
+                ContentValues petValues = new ContentValues();
+                petValues.put( PetDbHelper.COLUMN_PET_DELETION_ID, deletionId );
+                rowsDeleted = database.update( PetEntry.TABLE_NAME, petValues,
+                        appendSelection( PetSchema.getNotDeletedCondition( PetEntry.TABLE_NAME ), selection ),
+                        selectionArgs );
+                if ( rowsDeleted == 0 )
+                {
+                    database.delete( PetDbHelper.DELETIONS_TABLE_NAME, PetDbHelper.COLUMN_DELETION_ID + "=?",
+                            deletionArgs );
+                    deletionId = -1;
+                }
+                else if ( tagIndex != null )
+                    deletedIds = queryPetIds( database, PetDbHelper.COLUMN_PET_DELETION_ID + "=?", deletionArgs );
+            }
+            
+            database.setTransactionSuccessful();
+        }
+        finally
+        {
+            database.endTransaction();
+        }
+        
+        // Like the changes of the tags, the index is updated after the commit. The pets of a
+        // delete of all the pets aren't listed, so the index is built again without them.
+        if ( dbHelper == mDbHelper && rowsDeleted > 0 && TextUtils.isEmpty( selection ) )
+            mTagIndex = null;
+        else if ( deletedIds != null )
+            for ( long id : deletedIds )
+                tagIndex.markDeleted( id );
+        
+        Bundle result = new Bundle();
+        result.putInt( PetContract.EXTRA_DELETED_PETS, rowsDeleted );
+        result.putLong( PetContract.EXTRA_DELETION_ID, deletionId );
+        return result;
+    }
+    
+    /**
+     * Set the number of pets which aren't deleted, see {@link PetDbHelper#COUNTS_TABLE_NAME}.
+     *
+     * @param database
+     * @param livePets
+     */
+    private static void setLivePets( SQLiteDatabase database, long livePets )
+    {
+        ContentValues countValues = new ContentValues();
+        countValues.put( PetDbHelper.COLUMN_LIVE_PETS, livePets );
+        database.update( PetDbHelper.COUNTS_TABLE_NAME, countValues, null, null );
+    }
+    
+    /**
+     * Return the id of the deleted pet with the given sync id, or -1 if there is none.
+     *
+     * @param database
+     * @param syncId
+     *
+     * @return
+     */
+    private static long findDeletedPet( SQLiteDatabase database, String syncId )
+    {
+        Cursor cursor = database.query( PetEntry.TABLE_NAME, new String[]{ PetEntry._ID },
+                PetEntry.COLUMN_PET_SYNC_ID + "=? AND NOT (" + PetSchema.getNotDeletedCondition( PetEntry.TABLE_NAME ) + ")",
+                new String[]{ syncId }, null, null, null );
+        try
+        {
+            return cursor.moveToFirst() ? cursor.getLong( 0 ) : -1;
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+    
+    /**
+     * Apply the batch of operations in a single transaction, so either all of them are applied
+     * or none of them, and the database only commits once for the whole batch. The listeners
+     * are notified once, after the commit. See {@link #applyGroup(ArrayList, boolean)} for the
+     * operations on other shelters.
+     *
+     * @param operations
+     *
+     * @return
+     *
+     * @throws OperationApplicationException
+     */
+    @Override
+    public ContentProviderResult[] applyBatch( ArrayList< ContentProviderOperation > operations )
+            throws OperationApplicationException
+    {
+        mRestoreLock.readLock().lock();
+        try
+        {
+            return recordBatch( operations );
+        }
+        finally
+        {
+            mRestoreLock.readLock().unlock();
+        }
+    }
+    
+    private ContentProviderResult[] recordBatch( ArrayList< ContentProviderOperation > operations )
+            throws OperationApplicationException
+    {
+        PetCallRecorder recorder = mRecorder;
+        if ( recorder == null )
+            return applyGroup( operations, false );
+        
+        // The operations are recorded as the calls they make, in the call of the batch.
+        PetCallRecorder.Timing timing = recorder.startBatch();
+        int resultCount = -1;
+        try
+        {
+            ContentProviderResult[] results = applyGroup( operations, false );
+            resultCount = results.length;
+            return results;
+        }
+        finally
+        {
+            recorder.finish( timing, resultCount );
+        }
+    }
+    
+    /**
+     * Apply the operations in a single transaction of each database they change, and notify the
+     * listeners once, after the commits: of the changed URI if there is only one, otherwise of
+     * the pets URI of each changed shelter.
+     *
+     * The shelters have a database each, and SQLite only commits separate databases atomically
+     * when they're attached to one connection, which the helpers don't share. So the group is
+     * all or nothing for each shelter, and for all of them unless a commit itself fails: the
+     * transactions are only committed once every operation is applied, in the order their
+     * shelters first appear, and a failed commit leaves the ones before it committed.
+     *
+     * @param operations
+     * @param relaxed    whether the transaction is committed without syncing to disk
+     *                   (see {@link PetContract#DURABILITY_RELAXED}).
+     *
+     * @return
+     *
+     * @throws OperationApplicationException
+     */
+    private ContentProviderResult[] applyGroup( ArrayList< ContentProviderOperation > operations,
+            boolean relaxed ) throws OperationApplicationException
+    {
+        LinkedHashSet< PetDbHelper > dbHelpers = new LinkedHashSet<>();
+        for ( ContentProviderOperation operation : operations )
+        {
+            Uri uri = operation.getUri();
+            dbHelpers.add( getDbHelper( uri, sUriMatcher.match( uri ) ) );
+        }
+        
+        LinkedHashSet< Uri > changedUris = new LinkedHashSet<>();
+        sGroupChangedUris.set( changedUris );
+        
+        ContentProviderResult[] results;
+        List< SQLiteDatabase > databases = new ArrayList<>( dbHelpers.size() );
+        
+        // The safety level can't change inside a transaction, and it's a setting of the
+        // connection, so groups with a relaxed durability run one at a time. Groups also begin
+        // the transactions of several databases, which one at a time can't deadlock.
+        synchronized ( sGroupChangedUris )
+        {
+            try
+            {
+                for ( PetDbHelper dbHelper : dbHelpers )
+                {
+                    if ( relaxed )
+                        dbHelper.setRelaxedDurability( true );
+                    SQLiteDatabase database = dbHelper.getWritableDatabase();
+                    database.beginTransaction();
+                    databases.add( database );
+                }
+                
+                results = super.applyBatch( operations );
+                for ( SQLiteDatabase database : databases )
+                    database.setTransactionSuccessful();
+            }
+            finally
+            {
+                for ( SQLiteDatabase database : databases )
+                    database.endTransaction();
+                
+                sGroupChangedUris.remove();
+                if ( relaxed )
+                    for ( PetDbHelper dbHelper : dbHelpers )
+                        dbHelper.setRelaxedDurability( false );
+            }
+        }
+        
+        // The weight history and the records aren't pets, their URIs are notified on their own.
+        LinkedHashSet< Uri > otherUris = new LinkedHashSet<>();
+        for ( Uri uri : changedUris )
+        {
+            int match = sUriMatcher.match( uri );
+            if ( match != PETS && match != PET_ID && match != SHELTER_PETS && match != SHELTER_PET_ID )
+                otherUris.add( uri );
+        }
+        changedUris.removeAll( otherUris );
+        for ( Uri uri : otherUris )
+            getContext().getContentResolver().notifyChange( uri, null );
+        
+        if ( changedUris.isEmpty() )
+            return results;
+        
+        if ( changedUris.size() == 1 )
+        {
+            notifyPetsChanged( changedUris.iterator().next() );
+            return results;
+        }
+        
+        // The pets URI of each shelter is the changed URI without the pet id, if any.
+        LinkedHashSet< Uri > petsUris = new LinkedHashSet<>();
+        for ( Uri uri : changedUris )
+            petsUris.add( getPetsUri( uri ) );
+        for ( Uri uri : petsUris )
+            notifyPetsChanged( uri );
+        
+        return results;
+    }
+    
+    /**
+     * Call a provider-defined method. The supported methods are:
+     * <ul>
+     * <li>{@link PetContract#METHOD_BULK_READ} and {@link PetContract#METHOD_COMPACT_CHANGES}</li>
+     * <li>{@link PetContract#METHOD_APPLY_GROUP}, a group of writes in one transaction per shelter</li>
+     * <li>{@link PetContract#METHOD_BACKUP} and {@link PetContract#METHOD_RESTORE} of a shelter</li>
+     * <li>{@link PetContract#METHOD_SET_STORAGE_PROFILE}</li>
+     * <li>{@link PetContract#METHOD_START_RECORDING} and {@link PetContract#METHOD_STOP_RECORDING}
+     * of the provider calls</li>
+     * <li>{@link PetContract#METHOD_DELETE} and {@link PetContract#METHOD_UNDO_DELETE} of the pets</li>
+     * </ul>
+     *
+     * @param method
+     * @param arg
+     * @param extras
+     *
+     * @return
+     */
+    @Override
+    public Bundle call( String method, String arg, Bundle extras )
+    {
+        // Recording doesn't record itself, and backups and restores pass files, which can't be
+        // replayed.
+        if ( PetContract.METHOD_START_RECORDING.equals( method ) )
+            return startRecording( getFileDescriptor( extras ) );
+        
+        if ( PetContract.METHOD_STOP_RECORDING.equals( method ) )
+            return stopRecording();
+        
+        // A restore takes the lock for writing, which can't be done while holding it for reading.
+        if ( PetContract.METHOD_RESTORE.equals( method ) )
+            return restore( getShelterId( arg ), getFileDescriptor( extras ) );
+        
+        mRestoreLock.readLock().lock();
+        try
+        {
+            return recordCall( method, arg, extras );
+        }
+        finally
+        {
+            mRestoreLock.readLock().unlock();
+        }
+    }
+    
+    private Bundle recordCall( String method, String arg, Bundle extras )
+    {
+        PetCallRecorder recorder = mRecorder;
+        if ( recorder == null || PetContract.METHOD_BACKUP.equals( method ) )
+            return performCall( method, arg, extras );
+        
+        PetCallRecorder.Timing timing = recorder.startCall( method, arg, extras );
+        int resultCount = -1;
+        try
+        {
+            Bundle result = performCall( method, arg, extras );
+            resultCount = result == null ? 0 : result.size();
+            return result;
+        }
+        finally
+        {
+            recorder.finish( timing, resultCount );
+        }
+    }
+    
+    private Bundle performCall( String method, String arg, Bundle extras )
+    {
+        if ( PetContract.METHOD_BULK_READ.equals( method ) )
+            return bulkReadPets( extras );
+        
+        if ( PetContract.METHOD_COMPACT_CHANGES.equals( method ) )
+        {
+            long beforeSeq = extras == null ? -1 : extras.getLong( PetContract.EXTRA_BEFORE_SEQ, -1 );
+            compactChanges( mDbHelper, beforeSeq );
+            return null;
+        }
+        
+        if ( PetContract.METHOD_APPLY_GROUP.equals( method ) )
+            return applyGroup( extras );
+        
+        if ( PetContract.METHOD_BACKUP.equals( method ) )
+            return backup( getShelterId( arg ), getFileDescriptor( extras ) );
+        
+        if ( PetContract.METHOD_SET_STORAGE_PROFILE.equals( method ) )
+            return setStorageProfile( PetStorageProfile.forName( arg ) );
+        
+        if ( PetContract.METHOD_DELETE.equals( method ) )
+        {
+            Uri uri = Uri.parse( arg );
+            return deletePets( uri, sUriMatcher.match( uri ), null, null );
+        }
+        
+        if ( PetContract.METHOD_UNDO_DELETE.equals( method ) )
+        {
+            if ( extras == null || !extras.containsKey( PetContract.EXTRA_DELETION_ID ) )
+                throw new IllegalArgumentException( "Undo requires a deletion id" );
+            return undoDelete( getShelterId( arg ), extras.getLong( PetContract.EXTRA_DELETION_ID ) );
+        }
+        
+        return super.call( method, arg, extras );
+    }
+    
+    /**
+     * Read the next chunk of pets (ordered by id, after the keyset cursor in the extras) and
+     * return them as column arrays, so that callers don't pay for a CursorWindow and a
+     * getString() / getInt() call per cell.
+     *
+     * @param extras
+     *
+     * @return
+     */
+    private Bundle bulkReadPets( Bundle extras )
+    {
+        long afterId = 0;
+        int limit = PetContract.BULK_READ_DEFAULT_LIMIT;
+        if ( extras != null )
+        {
+            afterId = extras.getLong( PetContract.EXTRA_AFTER_ID, 0 );
+            limit = extras.getInt( PetContract.EXTRA_LIMIT, PetContract.BULK_READ_DEFAULT_LIMIT );
+        }
+        
+        if ( limit <= 0 || limit > PetContract.BULK_READ_DEFAULT_LIMIT )
+            throw new IllegalArgumentException( "Bulk read requires a limit between 1 and "
+                    + PetContract.BULK_READ_DEFAULT_LIMIT );
+        
+        // Get readable database
+        SQLiteDatabase database = mDbHelper.getReadableDatabase();
+        
+        String[] selectionArgs = new String[]{ String.valueOf( afterId ) };
+        Cursor cursor = database.query( PetEntry.VIEW_NAME, PetBulkChunk.COLUMNS, PetBulkChunk.SELECTION,
+                selectionArgs, null, null, PetBulkChunk.ORDER_BY, String.valueOf( limit ) );
+        
+        try
+        {
+            // The column order is fixed by PetBulkChunk.COLUMNS, so no lookups are needed.
+            PetBulkChunk chunk = new PetBulkChunk( cursor.getCount(), limit );
+            while ( cursor.moveToNext() )
+                chunk.addRow( cursor.getLong( 0 ), cursor.getString( 1 ), cursor.getString( 2 ),
+                        cursor.getInt( 3 ), cursor.getInt( 4 ) );
+            
+            Bundle result = new Bundle();
+            result.putLongArray( PetContract.EXTRA_IDS, chunk.getIds() );
+            result.putIntArray( PetContract.EXTRA_GENDERS, chunk.getGenders() );
+            result.putIntArray( PetContract.EXTRA_WEIGHTS, chunk.getWeights() );
+            result.putString( PetContract.EXTRA_NAMES, chunk.getNames() );
+            result.putIntArray( PetContract.EXTRA_NAME_ENDS, chunk.getNameEnds() );
+            result.putString( PetContract.EXTRA_BREEDS, chunk.getBreeds() );
+            result.putIntArray( PetContract.EXTRA_BREED_ENDS, chunk.getBreedEnds() );
+            result.putLong( PetContract.EXTRA_NEXT_AFTER_ID, chunk.getNextAfterId() );
+            return result;
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+    
+    /**
+     * Count the changes logged by the triggers, and compact the change log in the background
+     * once enough changes have been logged since the last compaction.
+     *
+     * @param dbHelper    of the shelter of the pets.
+     * @param changedPets number of pets that were inserted, updated or deleted.
+     */
+    private void onPetsChanged( final PetDbHelper dbHelper, int changedPets )
+    {
+        synchronized ( this )
+        {
+            Integer changes = mChangesSinceCompaction.get( dbHelper );
+            changedPets += changes == null ? 0 : changes;
+            if ( changedPets < CHANGES_COMPACTION_THRESHOLD )
+            {
+                mChangesSinceCompaction.put( dbHelper, changedPets );
+                return;
+            }
+            
+            mChangesSinceCompaction.remove( dbHelper );
+        }
+        
+        AsyncTask.THREAD_POOL_EXECUTOR.execute( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if ( !lockDatabase( dbHelper ) )
+                    return;
+                
+                try
+                {
+                    compactChanges( dbHelper, -1 );
+                }
+                finally
+                {
+                    unlockDatabase();
+                }
+            }
+        } );
+    }
+    
+    /**
+     * Return whether the pet values close the record of the pet (it was adopted or transferred).
+     *
+     * @param contentValues
+     *
+     * @return
+     */
+    private static boolean isClosed( ContentValues contentValues )
+    {
+        Integer petStatus = contentValues.getAsInteger( PetEntry.COLUMN_PET_STATUS );
+        return petStatus != null && petStatus != PetEntry.STATUS_IN_CARE;
+    }
+    
+    /**
+     * Move the closed records of the pets to the archive in the background, in batches of
+     * {@link #ARCHIVE_BATCH_SIZE}, each in its own transaction. Listeners of the pets are notified
+     * after each batch. If the pets of the database are already being archived, they're checked
+     * once more when that's done.
+     *
+     * @param dbHelper of the shelter of the pets.
+     * @param petsUri  pets URI of the shelter.
+     */
+    private void archiveClosedPets( final PetDbHelper dbHelper, final Uri petsUri )
+    {
+        synchronized ( mArchiving )
+        {
+            if ( mArchiving.containsKey( dbHelper ) )
+            {
+                mArchiving.put( dbHelper, true );
+                return;
+            }
+            
+            mArchiving.put( dbHelper, false );
+        }
+        
+        AsyncTask.THREAD_POOL_EXECUTOR.execute( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                while ( true )
+                {
+                    try
+                    {
+                        // Each batch stops a restore of the database until it's committed, and
+                        // the archiving stops once the database is replaced.
+                        while ( lockDatabase( dbHelper ) )
+                        {
+                            int archived;
+                            try
+                            {
+                                archived = archiveBatch( dbHelper );
+                            }
+                            finally
+                            {
+                                unlockDatabase();
+                            }
+                            
+                            if ( archived == 0 )
+                                break;
+                            notifyPetsChanged( petsUri );
+                            if ( archived < ARCHIVE_BATCH_SIZE )
+                                break;
+                        }
+                    }
+                    catch ( RuntimeException exception )
+                    {
+                        // The records are archived the next time the provider starts.
+                        Log.w( LOG_TAG, "Failed to archive closed pets", exception );
+                    }
+                    
+                    synchronized ( mArchiving )
+                    {
+                        if ( !mArchiving.get( dbHelper ) )
+                        {
+                            mArchiving.remove( dbHelper );
+                            return;
+                        }
+                        
+                        mArchiving.put( dbHelper, false );
+                    }
+                }
+            }
+        } );
+    }
+    
+    /**
+     * Move a batch of closed records from the pets table to the archive table, in one transaction.
+     * The archived copy is inserted first, so the delete triggers of the pets table know the pet
+     * is archived, not deleted: its change log and weight history are kept.
+     *
+     * @param dbHelper
+     *
+     * @return the number of archived pets.
+     */
+    private static int archiveBatch( PetDbHelper dbHelper )
+    {
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+        database.beginTransaction();
+        try
+        {
+            // Deleted pets are purged rather than archived.
+            Cursor cursor = database.query( PetEntry.TABLE_NAME, new String[]{ PetEntry._ID },
+                    PetEntry.COLUMN_PET_STATUS + "<>" + PetEntry.STATUS_IN_CARE + " AND "
+                            + PetSchema.getNotDeletedCondition( PetEntry.TABLE_NAME ), null, null, null,
+                    PetEntry._ID, String.valueOf( ARCHIVE_BATCH_SIZE ) );
+            StringBuilder ids = new StringBuilder();
+            int count = 0;
+            try
+            {
+                while ( cursor.moveToNext() )
+                {
+                    if ( count++ > 0 )
+                        ids.append( ',' );
+                    ids.append( cursor.getLong( 0 ) );
+                }
+            }
+            finally
+            {
+                cursor.close();
+            }
+            
+            if ( count > 0 )
+            {
+                String selection = PetEntry._ID + " IN (" + ids + ")";
+                database.execSQL( "INSERT INTO " + PetEntry.ARCHIVE_TABLE_NAME
+                        + " (" + ARCHIVED_COLUMNS + ", " + PetEntry.COLUMN_PET_ARCHIVED + ")"
+                        + " SELECT " + ARCHIVED_COLUMNS + ", ? FROM " + PetEntry.TABLE_NAME
+                        + " WHERE " + selection, new Object[]{ System.currentTimeMillis() } );
+                database.delete( PetEntry.TABLE_NAME, selection, null );
+            }
+            
+            database.setTransactionSuccessful();
+            return count;
+        }
+        finally
+        {
+            database.endTransaction();
+        }
+    }
+    
+    /**
+     * Purge the pets whose delete can't be undone anymore in the background, after the given
+     * delay, in batches of {@link #PURGE_BATCH_SIZE} pets, each in its own transaction: their
+     * photos, records and tags are deleted with them, and their delete is logged for the sync.
+     * The pets whose delete can still be undone then are purged once it can't.
+     *
+     * A purge of the database scheduled later is moved to the new time, one scheduled earlier
+     * is kept.
+     *
+     * @param dbHelper    of the shelter of the pets.
+     * @param delayMillis
+     */
+    private void purgeDeletedPets( final PetDbHelper dbHelper, long delayMillis )
+    {
+        long uptime = SystemClock.uptimeMillis() + delayMillis;
+        synchronized ( mPurgeTimes )
+        {
+            Long scheduledUptime = mPurgeTimes.get( dbHelper );
+            if ( scheduledUptime != null && scheduledUptime <= uptime )
+                return;
+            
+            mPurgeTimes.put( dbHelper, uptime );
+        }
+        
+        mPurgeHandler.removeCallbacksAndMessages( dbHelper );
+        mPurgeHandler.postAtTime( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                synchronized ( mPurgeTimes )
+                {
+                    mPurgeTimes.remove( dbHelper );
+                }
+                
+                AsyncTask.THREAD_POOL_EXECUTOR.execute( new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            // Like the archiving, each batch stops a restore of the database, and
+                            // the purge stops once the database is replaced (which purges the new
+                            // one itself).
+                            long nextDeletion = -1;
+                            while ( lockDatabase( dbHelper ) )
+                            {
+                                int purged;
+                                try
+                                {
+                                    purged = purgeBatch( dbHelper );
+                                    if ( purged == -1 )
+                                        nextDeletion = DatabaseUtils.longForQuery( dbHelper.getReadableDatabase(),
+                                                "SELECT IFNULL(MIN(" + PetDbHelper.COLUMN_DELETION_TIME + "), -1) FROM "
+                                                        + PetDbHelper.DELETIONS_TABLE_NAME, null );
+                                }
+                                finally
+                                {
+                                    unlockDatabase();
+                                }
+                                
+                                if ( purged == -1 )
+                                    break;
+                                if ( purged > 0 )
+                                    onPetsChanged( dbHelper, purged );
+                            }
+                            
+                            if ( nextDeletion != -1 )
+                                purgeDeletedPets( dbHelper, Math.max( 0, nextDeletion
+                                        + PetContract.UNDO_DELETE_MILLIS - System.currentTimeMillis() ) );
+                        }
+                        catch ( RuntimeException exception )
+                        {
+                            // The pets are purged the next time the provider starts.
+                            Log.w( LOG_TAG, "Failed to purge deleted pets", exception );
+                        }
+                    }
+                } );
+            }
+        }, dbHelper, uptime );
+    }
+    
+    /**
+     * Purge a batch of the pets of the oldest delete which can't be undone anymore, in one
+     * transaction. The delete itself is removed once it has no pets left.
+     *
+     * @param dbHelper
+     *
+     * @return the number of purged pets, or -1 if there's no delete to purge.
+     */
+    private int purgeBatch( PetDbHelper dbHelper )
+    {
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+        List< Long > ids = new ArrayList<>();
+        List< String > photos = new ArrayList<>();
+        database.beginTransaction();
+        try
+        {
+            long deletionId;
+            long lastPetId;
+            Cursor deletion = database.query( PetDbHelper.DELETIONS_TABLE_NAME,
+                    new String[]{ PetDbHelper.COLUMN_DELETION_ID, PetDbHelper.COLUMN_DELETION_LAST_PET_ID },
+                    PetDbHelper.COLUMN_DELETION_TIME + "<=?",
+                    new String[]{ String.valueOf( System.currentTimeMillis() - PetContract.UNDO_DELETE_MILLIS ) },
+                    null, null, PetDbHelper.COLUMN_DELETION_ID, "1" );
+            try
+            {
+                if ( !deletion.moveToFirst() )
+                    return -1;
+                
+                deletionId = deletion.getLong( 0 );
+                lastPetId = deletion.getLong( 1 );
+            }
+            finally
+            {
+                deletion.close();
+            }
+            
+            // The pets of a delete of all the pets are the ones up to its last pet which aren't
+            // deleted by another delete.
+            String deletedSelection = lastPetId == 0
+                    ? PetDbHelper.COLUMN_PET_DELETION_ID + "=" + deletionId
+                    : PetDbHelper.COLUMN_PET_DELETION_ID + "=0 AND " + PetEntry._ID + "<=" + lastPetId;
+            Cursor cursor = database.query( PetEntry.TABLE_NAME, new String[]{ PetEntry._ID },
+                    deletedSelection, null, null, null, PetEntry._ID, String.valueOf( PURGE_BATCH_SIZE ) );
+            StringBuilder idList = new StringBuilder();
+            try
+            {
+                while ( cursor.moveToNext() )
+                {
+                    if ( !ids.isEmpty() )
+                        idList.append( ',' );
+                    ids.add( cursor.getLong( 0 ) );
+                    idList.append( cursor.getLong( 0 ) );
+                }
+            }
+            finally
+            {
+                cursor.close();
+            }
+            
+            if ( ids.isEmpty() )
+                database.delete( PetDbHelper.DELETIONS_TABLE_NAME, PetDbHelper.COLUMN_DELETION_ID + "=" + deletionId,
+                        null );
+            else
+            {
+                String selection = PetEntry._ID + " IN (" + idList + ")";
+                photos = queryPhotos( database, selection, null );
+                database.delete( RecordEntry.TABLE_NAME, RecordEntry.COLUMN_RECORD_PET_ID + " IN (" + idList + ")", null );
+                database.delete( TagEntry.PET_TAGS_TABLE_NAME, TagEntry.COLUMN_PET_ID + " IN (" + idList + ")", null );
+                database.delete( PetEntry.TABLE_NAME, selection, null );
+            }
+            
+            database.setTransactionSuccessful();
+        }
+        finally
+        {
+            database.endTransaction();
+        }
+        
+        for ( String photo : photos )
+            PetPhotoStore.deletePhoto( photo );
+        
+        // The tag index keeps the pets deleted by themselves, marked deleted, until they're
+        // purged, so an undone delete only unmarks them.
+        TagIndex tagIndex = mTagIndex;
+        if ( dbHelper == mDbHelper && tagIndex != null )
+            for ( long id : ids )
+                tagIndex.removePet( id );
+        
+        return ids.size();
+    }
+    
+    /**
+     * Undo the given delete of pets of the shelter, unless it can't be undone anymore.
+     *
+     * Undoing a delete of all the pets brings back its pets, unless a later delete of all the
+     * pets deletes them too: they're then brought back with that one, so its count takes them.
+     *
+     * @param shelterId
+     * @param deletionId see {@link PetContract#EXTRA_DELETION_ID}.
+     *
+     * @return
+     */
+    private Bundle undoDelete( String shelterId, long deletionId )
+    {
+        PetDbHelper dbHelper = getShelterDbHelper( shelterId );
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+        TagIndex tagIndex = dbHelper == mDbHelper ? mTagIndex : null;
+        List< Long > undeletedIds = null;
+        boolean deletedAll = false;
+        int undeleted = 0;
+        database.beginTransaction();
+        try
+        {
+            // The purge only removes the deletes older than the undo time, in a transaction too,
+            // so a delete found here has all its pets.
+            String[] deletionArgs = { String.valueOf( deletionId ) };
+            Cursor deletion = database.query( PetDbHelper.DELETIONS_TABLE_NAME,
+                    new String[]{ PetDbHelper.COLUMN_DELETION_LAST_PET_ID, PetDbHelper.COLUMN_DELETION_PET_COUNT },
+                    PetDbHelper.COLUMN_DELETION_ID + "=? AND " + PetDbHelper.COLUMN_DELETION_TIME + ">?",
+                    new String[]{ deletionArgs[ 0 ],
+                            String.valueOf( System.currentTimeMillis() - PetContract.UNDO_DELETE_MILLIS ) },
+                    null, null, null );
+            try
+            {
+                if ( deletion.moveToFirst() )
+                {
+                    long lastPetId = deletion.getLong( 0 );
+                    int petCount = deletion.getInt( 1 );
+                    database.delete( PetDbHelper.DELETIONS_TABLE_NAME, PetDbHelper.COLUMN_DELETION_ID + "=?",
+                            deletionArgs );
+                    
+                    if ( lastPetId == 0 )
+                    {
+                        if ( tagIndex != null )
+                            undeletedIds = queryPetIds( database, PetDbHelper.COLUMN_PET_DELETION_ID + "=?",
+                                    deletionArgs );
+                        
+                        ContentValues petValues = new ContentValues();
+                        petValues.put( PetDbHelper.COLUMN_PET_DELETION_ID, 0 );
+                        undeleted = database.update( PetEntry.TABLE_NAME, petValues,
+                                PetDbHelper.COLUMN_PET_DELETION_ID + "=?", deletionArgs );
+                    }
+                    else
+                    {
+                        deletedAll = true;
+                        long laterDeletionId = DatabaseUtils.longForQuery( database, "SELECT IFNULL(MIN("
+                                + PetDbHelper.COLUMN_DELETION_ID + "), -1) FROM " + PetDbHelper.DELETIONS_TABLE_NAME
+                                + " WHERE " + PetDbHelper.COLUMN_DELETION_LAST_PET_ID + ">" + lastPetId, null );
+                        if ( laterDeletionId != -1 )
+                            database.execSQL( "UPDATE " + PetDbHelper.DELETIONS_TABLE_NAME
+                                    + " SET " + PetDbHelper.COLUMN_DELETION_PET_COUNT + " = "
+                                    + PetDbHelper.COLUMN_DELETION_PET_COUNT + " + " + petCount
+                                    + " WHERE " + PetDbHelper.COLUMN_DELETION_ID + "=" + laterDeletionId );
+                        else
+                        {
+                            // Without the delete, its pets are the ones which aren't deleted anymore.
+                            undeleted = petCount;
+                            setLivePets( database, DatabaseUtils.longForQuery( database, "SELECT "
+                                    + PetDbHelper.COLUMN_LIVE_PETS + " FROM " + PetDbHelper.COUNTS_TABLE_NAME, null )
+                                    + petCount );
+                        }
+                    }
+                }
+            }
+            finally
+            {
+                deletion.close();
+            }
+            
+            database.setTransactionSuccessful();
+        }
+        finally
+        {
+            database.endTransaction();
+        }
+        
+        // Like after a delete, the index is updated after the commit.
+        if ( dbHelper == mDbHelper && deletedAll )
+            mTagIndex = null;
+        else if ( undeletedIds != null )
+            for ( long id : undeletedIds )
+                tagIndex.unmarkDeleted( id );
+        
+        if ( undeleted > 0 )
+            notifyPetsChanged( dbHelper == mDbHelper ? PetEntry.CONTENT_URI : ShelterEntry.buildPetsUri( shelterId ) );
+        
+        Bundle result = new Bundle();
+        result.putInt( PetContract.EXTRA_UNDELETED_PETS, undeleted );
+        return result;
+    }
+    
+    /**
+     * Return the pets URI of a pets URI or of a single pet URI, such as
+     * "content://com.engineerfadyfawzi.pets/pets" for "content://com.engineerfadyfawzi.pets/pets/3".
+     *
+     * @param uri
+     *
+     * @return
+     */
+    private static Uri getPetsUri( Uri uri )
+    {
+        int match = sUriMatcher.match( uri );
+        if ( match != PET_ID && match != SHELTER_PET_ID )
+            return uri;
+        
+        String path = uri.getPath();
+        return uri.buildUpon().path( path.substring( 0, path.lastIndexOf( '/' ) ) ).build();
+    }
+    
+    /**
+     * Compact the change log: keep only the last entry of each pet, which is all a consumer needs
+     * to know which pets to read again. Then, if beforeSeq isn't -1, also drop the entries of
+     * deleted pets up to beforeSeq, which every consumer has already seen.
+     *
+     * The sequence is AUTOINCREMENT, so removed sequence numbers are never used again.
+     *
+     * @param dbHelper  of the shelter of the change log.
+     * @param beforeSeq
+     */
+    private void compactChanges( PetDbHelper dbHelper, long beforeSeq )
+    {
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+        database.beginTransaction();
+        try
+        {
+            database.execSQL( "DELETE FROM " + ChangeEntry.TABLE_NAME
+                    + " WHERE " + ChangeEntry.COLUMN_SEQ + " NOT IN"
+                    + " (SELECT MAX(" + ChangeEntry.COLUMN_SEQ + ") FROM " + ChangeEntry.TABLE_NAME
+                    + " GROUP BY " + ChangeEntry.COLUMN_PET_ID + ")" );
+            
+            if ( beforeSeq != -1 )
+                database.execSQL( "DELETE FROM " + ChangeEntry.TABLE_NAME
+                        + " WHERE " + ChangeEntry.COLUMN_OP + "=" + ChangeEntry.OP_DELETE
+                        + " AND " + ChangeEntry.COLUMN_SEQ + "<=?", new Object[]{ beforeSeq } );
+            
+            database.setTransactionSuccessful();
+        }
+        finally
+        {
+            database.endTransaction();
+        }
+    }
+    
+    /**
+     * Return the database helper of the shelter of a pets URI: the shelter in the URI for the
+     * {@link #SHELTER_PETS} and {@link #SHELTER_PET_ID} codes, the default shelter otherwise.
+     *
+     * @param uri
+     * @param match code of the URI.
+     *
+     * @return
+     */
+    private PetDbHelper getDbHelper( Uri uri, int match )
+    {
+        if ( match != SHELTER_PETS && match != SHELTER_PET_ID )
+            return mDbHelper;
+        
+        // For an example URI such as "content://com.engineerfadyfawzi.pets/shelters/north/pets",
+        // the shelter id is the second path segment: "north".
+        String shelterId = uri.getPathSegments().get( 1 );
+        if ( !ShelterEntry.isValidShelterId( shelterId ) )
+            throw new IllegalArgumentException( "Shelter requires a valid id " + uri );
+        
+        return getShelterDbHelper( shelterId );
+    }
+    
+    /**
+     * Return the database helper of a shelter, by id.
+     *
+     * @param shelterId
+     *
+     * @return
+     */
+    private PetDbHelper getShelterDbHelper( String shelterId )
+    {
+        if ( !ShelterEntry.isValidShelterId( shelterId ) )
+            throw new IllegalArgumentException( "Shelter requires a valid id " + shelterId );
+        
+        if ( ShelterEntry.DEFAULT_SHELTER_ID.equals( shelterId ) )
+            return mDbHelper;
+        
+        synchronized ( mShelterDbHelpers )
+        {
+            PetDbHelper dbHelper = mShelterDbHelpers.get( shelterId );
+            if ( dbHelper == null )
+            {
+                dbHelper = new PetDbHelper( getContext(), shelterId );
+                mShelterDbHelpers.put( shelterId, dbHelper );
+            }
+            
+            return dbHelper;
         }
     }
     
     /**
-     * Update pets in the database with the given content values. Apply the changes to the rows
-     * specified in the selection and selection arguments (which could be 0 or 1 or more pets).
-     * Return the number of row that were successfully updated.
+     * Return the shelter id of the argument of a call: the default shelter if it's null.
      *
-     * @param uri
-     * @param contentValues
-     * @param selection
-     * @param selectionArgs
+     * @param arg
      *
      * @return
      */
-    private int updatePet( Uri uri, ContentValues contentValues, String selection, String[] selectionArgs )
+    private static String getShelterId( String arg )
     {
-        // If there are no values to update, then don't try to update the database
-        if ( contentValues.size() == 0 )
-            return 0;
-        
-        // Validates the pet values before update data in database.
-        validatePetContentValues( contentValues, false );
-        
-        // Otherwise, get writable database to update the data
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        return arg == null ? ShelterEntry.DEFAULT_SHELTER_ID : arg;
+    }
+    
+    /**
+     * Lock the databases for the background work on one of them, unless a restore replaced it
+     * meanwhile: its helper is then closed and mustn't be used anymore.
+     *
+     * @param dbHelper the work uses.
+     *
+     * @return whether it's locked, to unlock with {@link #unlockDatabase()}.
+     */
+    private boolean lockDatabase( PetDbHelper dbHelper )
+    {
+        mRestoreLock.readLock().lock();
+        if ( dbHelper == mDbHelper )
+            return true;
         
-        // Perform the update on the database and get the number of rows affected.
-        int rowsUpdated = database.update( PetEntry.TABLE_NAME, contentValues, selection, selectionArgs );
+        synchronized ( mShelterDbHelpers )
+        {
+            if ( mShelterDbHelpers.containsValue( dbHelper ) )
+                return true;
+        }
         
-        // if 1 or more rows were updated, then notify all listeners that
-        // the data at the given URI has changed
-        if ( rowsUpdated > 0 )
-            // Notify all listeners that the data has changed for the pet content URI
-            getContext().getContentResolver().notifyChange( uri, null );
+        mRestoreLock.readLock().unlock();
+        return false;
+    }
+    
+    private void unlockDatabase()
+    {
+        mRestoreLock.readLock().unlock();
+    }
+    
+    /**
+     * Return the ids of all the shelters: the default shelter, then the shelters with a database
+     * file, sorted.
+     *
+     * @return
+     */
+    private List< String > getShelterIds()
+    {
+        List< String > shelterIds = new ArrayList<>();
+        for ( String databaseName : getContext().databaseList() )
+        {
+            if ( !databaseName.startsWith( PetDbHelper.SHELTER_DATABASE_PREFIX )
+                    || !databaseName.endsWith( PetDbHelper.SHELTER_DATABASE_SUFFIX ) )
+                continue;
+            
+            String shelterId = databaseName.substring( PetDbHelper.SHELTER_DATABASE_PREFIX.length(),
+                    databaseName.length() - PetDbHelper.SHELTER_DATABASE_SUFFIX.length() );
+            if ( ShelterEntry.isValidShelterId( shelterId ) )
+                shelterIds.add( shelterId );
+        }
         
-        // Returns the number of rows updated.
-        return rowsUpdated;
+        Collections.sort( shelterIds );
+        shelterIds.add( 0, ShelterEntry.DEFAULT_SHELTER_ID );
+        return shelterIds;
     }
     
     /**
-     * Delete the data at the given selection and selection arguments.
+     * Query the shelters ({@link #SHELTERS} code), or the pets of all the shelters
+     * ({@link #ALL_SHELTERS_PETS} code) with a {@link PetFanOutQuery}.
      *
-     * @param uri
+     * @param match
+     * @param projection
      * @param selection
      * @param selectionArgs
+     * @param sortOrder
+     * @param cancellationSignal
      *
      * @return
      */
-    @Override
-    public int delete( Uri uri, String selection, String[] selectionArgs )
+    private Cursor queryShelters( int match, String[] projection, String selection, String[] selectionArgs,
+            String sortOrder, CancellationSignal cancellationSignal )
     {
-        // Track the number of rows that were deleted
-        int rowsDeleted;
+        List< String > shelterIds = getShelterIds();
+        Cursor cursor;
         
-        // Get writable database
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        if ( match == SHELTERS )
+        {
+            MatrixCursor shelters = new MatrixCursor( new String[]{ ShelterEntry.COLUMN_SHELTER_ID } );
+            for ( String shelterId : shelterIds )
+                shelters.addRow( new Object[]{ shelterId } );
+            cursor = shelters;
+        }
+        else
+        {
+            List< SQLiteDatabase > databases = new ArrayList<>();
+            for ( String shelterId : shelterIds )
+                databases.add( getDbHelper( ShelterEntry.buildPetsUri( shelterId ), SHELTER_PETS )
+                        .getReadableDatabase() );
+            
+            cursor = new PetFanOutQuery( projection, selection, selectionArgs, sortOrder )
+                    .query( shelterIds, databases, getFanOutExecutor(), cancellationSignal );
+        }
         
-        // Figure out if the URI matcher can match the URI to a specific code
-        int match = sUriMatcher.match( uri );
+        // Every change of the pets of any shelter is also notified on the all shelters URI,
+        // which is a descendant of the shelters URI.
+        cursor.setNotificationUri( getContext().getContentResolver(), ShelterEntry.ALL_PETS_URI );
+        return cursor;
+    }
+    
+    /**
+     * Return the executor of the {@link #ALL_SHELTERS_PETS} queries, creating it if needed.
+     *
+     * @return
+     */
+    private synchronized ThreadPoolExecutor getFanOutExecutor()
+    {
+        if ( mFanOutExecutor == null )
+        {
+            int threads = Runtime.getRuntime().availableProcessors();
+            mFanOutExecutor = new ThreadPoolExecutor( threads, threads, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue< Runnable >() );
+            mFanOutExecutor.allowCoreThreadTimeOut( true );
+        }
         
-        switch ( match )
+        return mFanOutExecutor;
+    }
+    
+    /**
+     * Notify all listeners that the pets changed at the given pets URI, and that the pets of all
+     * the shelters changed.
+     *
+     * @param uri
+     */
+    private void notifyPetsChanged( Uri uri )
+    {
+        // Within a group, the listeners are only notified once the group is committed.
+        Set< Uri > groupChangedUris = sGroupChangedUris.get();
+        if ( groupChangedUris != null )
         {
-            case PETS:
-                // For case PETS:
-                // Delete all rows that match the selection and selection args
-                rowsDeleted = database.delete( PetEntry.TABLE_NAME, selection, selectionArgs );
-                break;
-            
-            case PET_ID:
-                // For case PET_ID:
-                // Delete a single row given by the ID in the URI
-                selection = PetEntry._ID + "=?";
-                selectionArgs = new String[]{ String.valueOf( ContentUris.parseId( uri ) ) };
-                rowsDeleted = database.delete( PetEntry.TABLE_NAME, selection, selectionArgs );
-                break;
-            
-            default:
-                throw new IllegalArgumentException( "Deletion is not supported for " + uri );
+            groupChangedUris.add( uri );
+            return;
         }
         
-        // If 1 or more rows were deleted, then notify all listeners that
-        // the data at the given URI has changed
-        if ( rowsDeleted > 0 )
-            // Notify all listeners that the data has changed for the pet content URI
+        // The observers in this process are called on their handlers, later, so this only
+        // measures the dispatch to them.
+        PetTracer.beginSection( "PetProvider.notifyPetsChanged" );
+        try
+        {
             getContext().getContentResolver().notifyChange( uri, null );
+            getContext().getContentResolver().notifyChange( ShelterEntry.ALL_PETS_URI, null );
+        }
+        finally
+        {
+            PetTracer.endSection();
+        }
+    }
+    
+    /**
+     * Notify all listeners that the data changed at the given URI, such as a weights URI, which
+     * isn't a pets URI.
+     *
+     * @param uri
+     */
+    private void notifyChange( Uri uri )
+    {
+        // Within a group, the listeners are only notified once the group is committed.
+        Set< Uri > groupChangedUris = sGroupChangedUris.get();
+        if ( groupChangedUris != null )
+        {
+            groupChangedUris.add( uri );
+            return;
+        }
         
-        // Return the numbers of rows deleted.
-        return rowsDeleted;
+        getContext().getContentResolver().notifyChange( uri, null );
+    }
+    
+    /**
+     * Notify all listeners that the medical records changed at the given records URI, and that
+     * the last vaccination of the pet may have changed.
+     *
+     * @param uri
+     */
+    private void notifyRecordsChanged( Uri uri )
+    {
+        Uri recordsUri = RecordEntry.buildRecordsUri( Long.parseLong( getRecordsPetId( uri ) ) );
+        notifyChange( recordsUri );
+        notifyChange( RecordEntry.PETS_WITH_LAST_VACCINATION_URI );
+    }
+    
+    /**
+     * Return the given required selection, combined with the optional selection of the caller.
+     *
+     * @param required
+     * @param selection
+     *
+     * @return
+     */
+    private static String appendSelection( String required, String selection )
+    {
+        return TextUtils.isEmpty( selection ) ? required : required + " AND (" + selection + ")";
+    }
+    
+    /**
+     * Return the selection arguments with the given argument added in front of them.
+     *
+     * @param arg
+     * @param selectionArgs
+     *
+     * @return
+     */
+    private static String[] prependSelectionArg( String arg, String[] selectionArgs )
+    {
+        if ( selectionArgs == null )
+            return new String[]{ arg };
+        
+        String[] args = new String[ selectionArgs.length + 1 ];
+        args[ 0 ] = arg;
+        System.arraycopy( selectionArgs, 0, args, 1, selectionArgs.length );
+        return args;
     }
     
     /**
@@ -400,19 +3094,320 @@ public class PetProvider extends ContentProvider
     public String getType( Uri uri )
     {
         // Figure out if the URI matcher can match the URI to a specific code
-        // (100 for pets table and 101 for a single pet)
+        // (100 for pets table, 101 for a single pet, 200 for breeds table, 300 for change log,
+        // 400s for the shelters, 500s for the drafts, 600s for the weight history, 700s for
+        // the medical records and 800s for the tags)
         final int match = sUriMatcher.match( uri );
         
         switch ( match )
         {
             case PETS:
+            case SHELTER_PETS:
+            case ALL_SHELTERS_PETS:
                 return PetEntry.CONTENT_LIST_TYPE;
             
             case PET_ID:
+            case SHELTER_PET_ID:
                 return PetEntry.CONTENT_ITEM_TYPE;
             
+            case PET_ARCHIVE:
+            case PET_HISTORY:
+                return PetEntry.CONTENT_LIST_TYPE;
+            
+            case BREEDS:
+                return BreedEntry.CONTENT_LIST_TYPE;
+            
+            case PET_CHANGES:
+                return ChangeEntry.CONTENT_LIST_TYPE;
+            
+            case SHELTERS:
+                return ShelterEntry.CONTENT_LIST_TYPE;
+            
+            case DRAFT_ID:
+                return DraftEntry.CONTENT_ITEM_TYPE;
+            
+            case WEIGHTS:
+                return WeightEntry.CONTENT_LIST_TYPE;
+            
+            case WEIGHT_ID:
+                return WeightEntry.CONTENT_ITEM_TYPE;
+            
+            case WEIGHTS_DAILY:
+            case WEIGHTS_MONTHLY:
+                return WeightEntry.ROLLUP_LIST_TYPE;
+            
+            case PET_RECORDS:
+                return RecordEntry.CONTENT_LIST_TYPE;
+            
+            case PET_RECORD_ID:
+                return RecordEntry.CONTENT_ITEM_TYPE;
+            
+            case PETS_WITH_LAST_VACCINATION:
+                return PetEntry.CONTENT_LIST_TYPE;
+            
+            case TAGS:
+            case PET_TAGS:
+                return TagEntry.CONTENT_LIST_TYPE;
+            
+            case PET_TAG:
+                return TagEntry.CONTENT_ITEM_TYPE;
+            
             default:
                 throw new IllegalStateException( "Unknown URI " + uri + " with match " + match );
         }
     }
+    
+    /**
+     * Apply the {@link PetContract#EXTRA_OPERATIONS} of the extras of a call as one group,
+     * with the {@link PetContract#EXTRA_DURABILITY} of the extras.
+     *
+     * @param extras
+     *
+     * @return the results, in {@link PetContract#EXTRA_RESULTS}.
+     */
+    private Bundle applyGroup( Bundle extras )
+    {
+        ArrayList< ContentProviderOperation > operations = extras == null ? null
+                : extras.< ContentProviderOperation >getParcelableArrayList( PetContract.EXTRA_OPERATIONS );
+        if ( operations == null )
+            throw new IllegalArgumentException( "Group requires operations" );
+        
+        String durability = extras.getString( PetContract.EXTRA_DURABILITY, PetContract.DURABILITY_FULL );
+        if ( !PetContract.DURABILITY_FULL.equals( durability )
+                && !PetContract.DURABILITY_RELAXED.equals( durability ) )
+            throw new IllegalArgumentException( "Group requires valid durability" );
+        
+        Bundle result = new Bundle();
+        try
+        {
+            result.putParcelableArray( PetContract.EXTRA_RESULTS,
+                    applyGroup( operations, PetContract.DURABILITY_RELAXED.equals( durability ) ) );
+        }
+        catch ( OperationApplicationException operationApplicationException )
+        {
+            throw new IllegalArgumentException( "Failed to apply group", operationApplicationException );
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Return the {@link PetContract#EXTRA_FILE_DESCRIPTOR} of the extras of a call.
+     *
+     * @param extras
+     *
+     * @return
+     */
+    private static ParcelFileDescriptor getFileDescriptor( Bundle extras )
+    {
+        ParcelFileDescriptor fileDescriptor = extras == null ? null
+                : ( ParcelFileDescriptor ) extras.getParcelable( PetContract.EXTRA_FILE_DESCRIPTOR );
+        if ( fileDescriptor == null )
+            throw new IllegalArgumentException( "Method requires a file descriptor" );
+        
+        return fileDescriptor;
+    }
+    
+    /**
+     * Write a compressed backup of the database of a shelter to the file (see {@link PetBackup}).
+     *
+     * @param shelterId
+     * @param fileDescriptor to write the backup to, closed when done.
+     *
+     * @return the size and duration of the backup.
+     */
+    private Bundle backup( String shelterId, ParcelFileDescriptor fileDescriptor )
+    {
+        long start = SystemClock.elapsedRealtime();
+        long bytes;
+        try
+        {
+            bytes = PetBackup.backup( getShelterDbHelper( shelterId ).getWritableDatabase(),
+                    new ParcelFileDescriptor.AutoCloseOutputStream( fileDescriptor ) );
+        }
+        catch ( IOException ioException )
+        {
+            throw new IllegalStateException( "Failed to back up the database", ioException );
+        }
+        
+        return backupResult( "Backed up", bytes, SystemClock.elapsedRealtime() - start );
+    }
+    
+    /**
+     * Replace the database of a shelter with the backup in the file (see {@link PetBackup}), then
+     * notify all the listeners of its pets, since every pet may have changed.
+     *
+     * The backup is checked before anything is locked. Then the restore waits for the requests
+     * and the background batches in progress, and blocks new ones, until the file is replaced:
+     * only then is the old helper closed, and the ones waiting use the new helper, which opens
+     * (and upgrades, for an older backup) the restored file. Cursors still open on the old file
+     * can't read more rows, their listeners are notified to query again.
+     *
+     * @param shelterId
+     * @param fileDescriptor to read the backup from, closed when done.
+     *
+     * @return the size and duration of the restore.
+     */
+    private Bundle restore( String shelterId, ParcelFileDescriptor fileDescriptor )
+    {
+        long start = SystemClock.elapsedRealtime();
+        long bytes = fileDescriptor.getStatSize();
+        if ( !ShelterEntry.isValidShelterId( shelterId ) )
+            throw new IllegalArgumentException( "Shelter requires a valid id " + shelterId );
+        File databaseFile = getContext().getDatabasePath( PetDbHelper.getShelterDatabaseName( shelterId ) );
+        
+        File restored;
+        try
+        {
+            restored = PetBackup.decompress( databaseFile,
+                    new ParcelFileDescriptor.AutoCloseInputStream( fileDescriptor ) );
+        }
+        catch ( IOException ioException )
+        {
+            throw new IllegalArgumentException( "Invalid backup", ioException );
+        }
+        
+        PetDbHelper oldDbHelper;
+        PetDbHelper newDbHelper;
+        mRestoreLock.writeLock().lock();
+        try
+        {
+            oldDbHelper = getShelterDbHelper( shelterId );
+            oldDbHelper.close();
+            try
+            {
+                PetBackup.replace( databaseFile, restored );
+            }
+            catch ( IOException ioException )
+            {
+                throw new IllegalStateException( "Failed to restore the database", ioException );
+            }
+            finally
+            {
+                // Even if the file wasn't replaced, the closed helper can't be used anymore.
+                newDbHelper = new PetDbHelper( getContext(), shelterId );
+                if ( oldDbHelper == mDbHelper )
+                {
+                    mDbHelper = newDbHelper;
+                    mTagIndex = null;
+                }
+                else
+                {
+                    synchronized ( mShelterDbHelpers )
+                    {
+                        mShelterDbHelpers.put( shelterId, newDbHelper );
+                    }
+                }
+            }
+        }
+        finally
+        {
+            mRestoreLock.writeLock().unlock();
+        }
+        
+        // The work scheduled on the old database is done on the new one instead.
+        synchronized ( this )
+        {
+            mChangesSinceCompaction.remove( oldDbHelper );
+        }
+        synchronized ( mPurgeTimes )
+        {
+            mPurgeTimes.remove( oldDbHelper );
+        }
+        mPurgeHandler.removeCallbacksAndMessages( oldDbHelper );
+        
+        // The backup may have pets which were deleted when it was made.
+        purgeDeletedPets( newDbHelper, 0 );
+        
+        if ( newDbHelper == mDbHelper )
+        {
+            notifyPetsChanged( PetEntry.CONTENT_URI );
+            notifyChange( WeightEntry.CONTENT_URI );
+        }
+        else
+            notifyPetsChanged( ShelterEntry.buildPetsUri( shelterId ) );
+        return backupResult( "Restored", bytes, SystemClock.elapsedRealtime() - start );
+    }
+    
+    /**
+     * Select the storage profile of the databases, and apply it to the ones which are open. The
+     * others get it when they're opened.
+     *
+     * @param profile
+     *
+     * @return
+     */
+    private synchronized Bundle setStorageProfile( PetStorageProfile profile )
+    {
+        long start = SystemClock.elapsedRealtime();
+        PetDbHelper.setStorageProfile( getContext(), profile );
+        
+        List< PetDbHelper > dbHelpers = new ArrayList<>();
+        dbHelpers.add( mDbHelper );
+        synchronized ( mShelterDbHelpers )
+        {
+            dbHelpers.addAll( mShelterDbHelpers.values() );
+        }
+        for ( PetDbHelper dbHelper : dbHelpers )
+            dbHelper.applyStorageProfile( profile );
+        
+        Log.i( LOG_TAG, "Storage profile " + profile + " applied in "
+                + ( SystemClock.elapsedRealtime() - start ) + " ms" );
+        return null;
+    }
+    
+    /**
+     * Start recording the calls to the file, replacing the recording in progress, if any.
+     *
+     * @param fileDescriptor to write the trace to, closed when the recording stops.
+     *
+     * @return
+     */
+    private synchronized Bundle startRecording( ParcelFileDescriptor fileDescriptor )
+    {
+        stopRecording();
+        try
+        {
+            mRecorder = new PetCallRecorder( new ParcelFileDescriptor.AutoCloseOutputStream( fileDescriptor ) );
+        }
+        catch ( IOException ioException )
+        {
+            throw new IllegalStateException( "Failed to start recording", ioException );
+        }
+        
+        Log.i( LOG_TAG, "Recording calls" );
+        return null;
+    }
+    
+    /**
+     * Stop recording the calls, if they're recorded. The calls in progress are still recorded
+     * if they finish before the trace is closed.
+     *
+     * @return the number of recorded calls in {@link PetContract#EXTRA_RECORDED_CALLS}.
+     */
+    private synchronized Bundle stopRecording()
+    {
+        PetCallRecorder recorder = mRecorder;
+        mRecorder = null;
+        
+        Bundle result = new Bundle();
+        if ( recorder != null )
+        {
+            int recordedCalls = recorder.close();
+            Log.i( LOG_TAG, "Recorded " + recordedCalls + " calls" );
+            result.putInt( PetContract.EXTRA_RECORDED_CALLS, recordedCalls );
+        }
+        return result;
+    }
+    
+    private static Bundle backupResult( String action, long bytes, long millis )
+    {
+        Log.i( LOG_TAG, action + " " + bytes + " bytes in " + millis + " ms" );
+        
+        Bundle result = new Bundle();
+        result.putLong( PetContract.EXTRA_BACKUP_BYTES, bytes );
+        result.putLong( PetContract.EXTRA_BACKUP_MILLIS, millis );
+        return result;
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,540 @@
+package com.engineerfadyfawzi.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.RemoteException;
+import android.text.TextUtils;
+
+import com.engineerfadyfawzi.pets.data.PetContract.ChangeEntry;
+import com.engineerfadyfawzi.pets.data.PetContract.PetEntry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Synchronizes the pets with a central registry, sending and receiving only the pets changed since
+ * the last sync.
+ *
+ * Pets are identified across devices by {@link PetEntry#COLUMN_PET_SYNC_ID}, and each change of a
+ * pet increases its {@link PetEntry#COLUMN_PET_VERSION}. A sync has two steps:
+ * <ol>
+ * <li>Push: the local changes are read from the change log ({@link ChangeEntry}) after the last
+ * pushed sequence number, in batches, and each batch is sent in a single gzip compressed request
+ * (POST push). The registry keeps the pets with a greater version than its own, and answers with
+ * its own copy of the pets it didn't keep (the conflicts).</li>
+ * <li>Pull: the pets changed in the registry after the last pulled registry sequence number are
+ * received in pages (GET pull?since=&amp;limit=), and each page is applied with a single
+ * {@link ContentResolver#applyBatch} (one transaction).</li>
+ * </ol>
+ * A received pet only replaces the local one if its version is at least the local version (the
+ * registry wins ties), and a deleted pet stays deleted: deletes always win.
+ *
+ * The registry messages are JSON objects: {"pets": [pet, ...]} for a push, {"conflicts": [pet, ...]}
+ * for its answer, and {"pets": [pet, ...], "next": seq, "more": boolean} for a pull page, where a
+ * pet is {"sync_id", "version", "deleted", "name", "breed", "gender", "weight"}.
+ * Photos are kept on the device and aren't synchronized.
+ *
+ * {@link #sync()} does network and database work, so it must not be called on the main thread.
+ */
+public class PetSyncEngine
+{
+    /**
+     * Name of the shared preferences holding the sync state
+     */
+    private static final String PREFERENCES_NAME = "pet_sync";
+    
+    /**
+     * Keys of the sync state: the last pushed change log sequence number, and the last pulled
+     * registry sequence number.
+     */
+    private static final String KEY_LAST_PUSHED_SEQ = "last_pushed_seq";
+    private static final String KEY_LAST_PULLED_SEQ = "last_pulled_seq";
+    
+    /**
+     * Maximum number of changes sent in a push request, and of pets asked for in a pull request
+     */
+    private static final int BATCH_SIZE = 500;
+    
+    /**
+     * Timeouts of the registry requests in milliseconds
+     */
+    private static final int CONNECT_TIMEOUT_MILLIS = 15000;
+    private static final int READ_TIMEOUT_MILLIS = 30000;
+    
+    /**
+     * Keys of the registry messages
+     */
+    private static final String JSON_PETS = "pets";
+    private static final String JSON_CONFLICTS = "conflicts";
+    private static final String JSON_NEXT = "next";
+    private static final String JSON_MORE = "more";
+    private static final String JSON_SYNC_ID = "sync_id";
+    private static final String JSON_VERSION = "version";
+    private static final String JSON_DELETED = "deleted";
+    private static final String JSON_NAME = "name";
+    private static final String JSON_BREED = "breed";
+    private static final String JSON_GENDER = "gender";
+    private static final String JSON_WEIGHT = "weight";
+    
+    /**
+     * Columns of a pet sent to the registry
+     */
+    private static final String[] PET_PROJECTION = {
+            PetEntry.COLUMN_PET_SYNC_ID,
+            PetEntry.COLUMN_PET_VERSION,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT };
+    
+    /**
+     * Result of a sync: the number of pets sent, and the number of pets received and applied.
+     */
+    public static final class Result
+    {
+        public final int pushed;
+        public final int pulled;
+        
+        Result( int pushed, int pulled )
+        {
+            this.pushed = pushed;
+            this.pulled = pulled;
+        }
+    }
+    
+    private final ContentResolver mContentResolver;
+    private final SharedPreferences mPreferences;
+    private final String mRegistryUrl;
+    
+    /**
+     * Constructs a new {@link PetSyncEngine}
+     *
+     * @param context     the context (of the app)
+     * @param registryUrl base URL of the registry, without trailing slash.
+     */
+    public PetSyncEngine( Context context, String registryUrl )
+    {
+        mContentResolver = context.getContentResolver();
+        mPreferences = context.getSharedPreferences( PREFERENCES_NAME, Context.MODE_PRIVATE );
+        mRegistryUrl = registryUrl;
+    }
+    
+    /**
+     * Push the local changes, then pull the registry changes.
+     *
+     * @return
+     *
+     * @throws IOException if the registry can't be reached or its answer can't be read.
+     *                     What was synchronized before the failure is kept.
+     */
+    public synchronized Result sync() throws IOException
+    {
+        int pushed = push();
+        int pulled = pull();
+        return new Result( pushed, pulled );
+    }
+    
+    /**
+     * Send the changes logged after the last pushed sequence number, a batch at a time.
+     *
+     * @return the number of pets sent.
+     *
+     * @throws IOException
+     */
+    private int push() throws IOException
+    {
+        long lastPushedSeq = mPreferences.getLong( KEY_LAST_PUSHED_SEQ, 0 );
+        int pushed = 0;
+        while ( true )
+        {
+            // The latest change of each pet of the batch, by sync id, in the order of the log.
+            LinkedHashMap< String, Integer > changes = new LinkedHashMap<>();
+            long batchSeq = readChanges( lastPushedSeq, changes );
+            if ( batchSeq == lastPushedSeq )
+                break;
+            
+            JSONArray pets = new JSONArray();
+            List< String > changedSyncIds = new ArrayList<>();
+            try
+            {
+                for ( String syncId : changes.keySet() )
+                {
+                    if ( changes.get( syncId ) == ChangeEntry.OP_DELETE )
+                        pets.put( new JSONObject().put( JSON_SYNC_ID, syncId ).put( JSON_DELETED, true ) );
+                    else
+                        changedSyncIds.add( syncId );
+                }
+                
+                // A pet changed then deleted within the batch is only sent as deleted, and a pet
+                // missing here was deleted after the batch, which a later batch will send.
+                readPets( changedSyncIds, pets );
+                
+                JSONObject request = new JSONObject().put( JSON_PETS, pets );
+                JSONObject response = send( "POST", mRegistryUrl + "/push", request );
+                applyPets( response.optJSONArray( JSON_CONFLICTS ) );
+            }
+            catch ( JSONException jsonException )
+            {
+                throw new IOException( "Invalid registry message", jsonException );
+            }
+            
+            lastPushedSeq = batchSeq;
+            mPreferences.edit().putLong( KEY_LAST_PUSHED_SEQ, lastPushedSeq ).apply();
+            pushed += pets.length();
+        }
+        
+        // The pushed deletes don't need to be kept in the log anymore.
+        Bundle extras = new Bundle();
+        extras.putLong( PetContract.EXTRA_BEFORE_SEQ, lastPushedSeq );
+        mContentResolver.call( PetEntry.CONTENT_URI, PetContract.METHOD_COMPACT_CHANGES, null, extras );
+        
+        return pushed;
+    }
+    
+    /**
+     * Receive the pets changed in the registry after the last pulled registry sequence number,
+     * a page at a time.
+     *
+     * @return the number of pets received.
+     *
+     * @throws IOException
+     */
+    private int pull() throws IOException
+    {
+        long lastPulledSeq = mPreferences.getLong( KEY_LAST_PULLED_SEQ, 0 );
+        int pulled = 0;
+        boolean more = true;
+        while ( more )
+        {
+            try
+            {
+                JSONObject response = send( "GET", mRegistryUrl + "/pull?since=" + lastPulledSeq
+                        + "&limit=" + BATCH_SIZE, null );
+                JSONArray pets = response.optJSONArray( JSON_PETS );
+                applyPets( pets );
+                
+                lastPulledSeq = response.getLong( JSON_NEXT );
+                more = response.optBoolean( JSON_MORE, false );
+                pulled += pets == null ? 0 : pets.length();
+            }
+            catch ( JSONException jsonException )
+            {
+                throw new IOException( "Invalid registry message", jsonException );
+            }
+            
+            mPreferences.edit().putLong( KEY_LAST_PULLED_SEQ, lastPulledSeq ).apply();
+        }
+        
+        return pulled;
+    }
+    
+    /**
+     * Read a batch of the change log after the given sequence number, keeping the latest type of
+     * change of each pet.
+     *
+     * @param afterSeq
+     * @param changes  filled with the type of change of each sync id.
+     *
+     * @return the sequence number of the last entry of the batch, or afterSeq if there is none.
+     */
+    private long readChanges( long afterSeq, LinkedHashMap< String, Integer > changes )
+    {
+        String[] projection = { ChangeEntry.COLUMN_SEQ, ChangeEntry.COLUMN_OP, ChangeEntry.COLUMN_SYNC_ID };
+        Cursor cursor = mContentResolver.query( ChangeEntry.CONTENT_URI.buildUpon()
+                        .appendQueryParameter( ChangeEntry.QUERY_PARAMETER_SINCE, String.valueOf( afterSeq ) )
+                        .appendQueryParameter( ChangeEntry.QUERY_PARAMETER_LIMIT, String.valueOf( BATCH_SIZE ) )
+                        .build(),
+                projection, null, null, null );
+        if ( cursor == null )
+            return afterSeq;
+        
+        long lastSeq = afterSeq;
+        try
+        {
+            while ( cursor.moveToNext() )
+            {
+                lastSeq = cursor.getLong( 0 );
+                String syncId = cursor.getString( 2 );
+                
+                // Deletes win: a pet deleted in this batch stays deleted.
+                Integer previousOp = changes.get( syncId );
+                if ( previousOp == null || previousOp != ChangeEntry.OP_DELETE )
+                    changes.put( syncId, cursor.getInt( 1 ) );
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+        
+        return lastSeq;
+    }
+    
+    /**
+     * Read the current state of the given pets and add them to the array.
+     *
+     * @param syncIds
+     * @param pets
+     *
+     * @throws JSONException
+     */
+    private void readPets( List< String > syncIds, JSONArray pets ) throws JSONException
+    {
+        if ( syncIds.isEmpty() )
+            return;
+        
+        String selection = PetEntry.COLUMN_PET_SYNC_ID + " IN ("
+                + TextUtils.join( ",", Collections.nCopies( syncIds.size(), "?" ) ) + ")";
+        Cursor cursor = mContentResolver.query( PetEntry.CONTENT_URI, PET_PROJECTION, selection,
+                syncIds.toArray( new String[ syncIds.size() ] ), null );
+        if ( cursor == null )
+            return;
+        
+        try
+        {
+            while ( cursor.moveToNext() )
+                pets.put( toJson( cursor ) );
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+    
+    /**
+     * Return the pet of the current row of a cursor of the {@link #PET_PROJECTION}, as a pet of
+     * the registry messages.
+     *
+     * @param cursor
+     *
+     * @return
+     *
+     * @throws JSONException
+     */
+    private static JSONObject toJson( Cursor cursor ) throws JSONException
+    {
+        JSONObject pet = new JSONObject()
+                .put( JSON_SYNC_ID, cursor.getString( 0 ) )
+                .put( JSON_VERSION, cursor.getInt( 1 ) )
+                .put( JSON_DELETED, false )
+                .put( JSON_NAME, cursor.getString( 2 ) )
+                .put( JSON_GENDER, cursor.getInt( 4 ) )
+                .put( JSON_WEIGHT, cursor.getInt( 5 ) );
+        if ( !cursor.isNull( 3 ) )
+            pet.put( JSON_BREED, cursor.getString( 3 ) );
+        return pet;
+    }
+    
+    /**
+     * Return whether a received pet is the same as the local one: the same version and the same
+     * columns. It's then already applied, for instance when it's the registry's copy of a pet
+     * pushed by this device.
+     *
+     * @param pet
+     * @param localPet
+     *
+     * @return
+     *
+     * @throws JSONException
+     */
+    private static boolean isSamePet( JSONObject pet, JSONObject localPet ) throws JSONException
+    {
+        String breed = pet.isNull( JSON_BREED ) ? null : pet.getString( JSON_BREED );
+        String localBreed = localPet.isNull( JSON_BREED ) ? null : localPet.getString( JSON_BREED );
+        return pet.getInt( JSON_VERSION ) == localPet.getInt( JSON_VERSION )
+                && pet.getString( JSON_NAME ).equals( localPet.getString( JSON_NAME ) )
+                && TextUtils.equals( breed, localBreed )
+                && pet.getInt( JSON_GENDER ) == localPet.getInt( JSON_GENDER )
+                && pet.getInt( JSON_WEIGHT ) == localPet.getInt( JSON_WEIGHT );
+    }
+    
+    /**
+     * Apply the pets received from the registry in a single batch: new pets are inserted, newer
+     * versions (or the same version) replace the local pets, and deleted pets are deleted.
+     *
+     * A pet which is the same as the local one isn't applied: applying it would increase its
+     * version and log it as changed, so it would be pushed back, and received back, on every sync.
+     *
+     * @param pets the received pets, or null for none.
+     *
+     * @throws JSONException
+     * @throws IOException   if the batch can't be applied.
+     */
+    private void applyPets( JSONArray pets ) throws JSONException, IOException
+    {
+        if ( pets == null || pets.length() == 0 )
+            return;
+        
+        List< String > syncIds = new ArrayList<>();
+        for ( int i = 0; i < pets.length(); i++ )
+            syncIds.add( pets.getJSONObject( i ).getString( JSON_SYNC_ID ) );
+        HashMap< String, JSONObject > localPets = readLocalPets( syncIds );
+        
+        ArrayList< ContentProviderOperation > operations = new ArrayList<>();
+        for ( int i = 0; i < pets.length(); i++ )
+        {
+            JSONObject pet = pets.getJSONObject( i );
+            String syncId = pet.getString( JSON_SYNC_ID );
+            JSONObject localPet = localPets.get( syncId );
+            String[] selectionArgs = { syncId };
+            
+            if ( pet.optBoolean( JSON_DELETED, false ) )
+            {
+                if ( localPet != null )
+                    operations.add( ContentProviderOperation.newDelete( PetEntry.CONTENT_URI )
+                            .withSelection( PetEntry.COLUMN_PET_SYNC_ID + "=?", selectionArgs )
+                            .build() );
+                continue;
+            }
+            
+            int version = pet.getInt( JSON_VERSION );
+            ContentProviderOperation.Builder builder;
+            if ( localPet == null )
+                builder = ContentProviderOperation.newInsert( PetEntry.CONTENT_URI )
+                        .withValue( PetEntry.COLUMN_PET_SYNC_ID, syncId );
+            else if ( version >= localPet.getInt( JSON_VERSION ) && !isSamePet( pet, localPet ) )
+                builder = ContentProviderOperation.newUpdate( PetEntry.CONTENT_URI )
+                        .withSelection( PetEntry.COLUMN_PET_SYNC_ID + "=?", selectionArgs );
+            else
+                continue;
+            
+            operations.add( builder
+                    .withValue( PetEntry.COLUMN_PET_VERSION, version )
+                    .withValue( PetEntry.COLUMN_PET_NAME, pet.getString( JSON_NAME ) )
+                    .withValue( PetEntry.COLUMN_PET_BREED, pet.isNull( JSON_BREED ) ? null : pet.getString( JSON_BREED ) )
+                    .withValue( PetEntry.COLUMN_PET_GENDER, pet.getInt( JSON_GENDER ) )
+                    .withValue( PetEntry.COLUMN_PET_WEIGHT, pet.getInt( JSON_WEIGHT ) )
+                    .build() );
+        }
+        
+        try
+        {
+            mContentResolver.applyBatch( PetContract.CONTENT_AUTHORITY, operations );
+        }
+        catch ( RemoteException | OperationApplicationException exception )
+        {
+            throw new IOException( "Failed to apply the registry changes", exception );
+        }
+    }
+    
+    /**
+     * Return the local copy of each of the given pets that exists.
+     *
+     * @param syncIds
+     *
+     * @return
+     *
+     * @throws JSONException
+     */
+    private HashMap< String, JSONObject > readLocalPets( List< String > syncIds ) throws JSONException
+    {
+        HashMap< String, JSONObject > localPets = new HashMap<>();
+        String selection = PetEntry.COLUMN_PET_SYNC_ID + " IN ("
+                + TextUtils.join( ",", Collections.nCopies( syncIds.size(), "?" ) ) + ")";
+        // Archived pets are known too, so a registry change to a closed record doesn't bring it
+        // back as a new pet in care (updates and deletes only apply to the pets in care).
+        Cursor cursor = mContentResolver.query( PetEntry.HISTORY_URI, PET_PROJECTION, selection,
+                syncIds.toArray( new String[ syncIds.size() ] ), null );
+        if ( cursor == null )
+            return localPets;
+        
+        try
+        {
+            while ( cursor.moveToNext() )
+                localPets.put( cursor.getString( 0 ), toJson( cursor ) );
+        }
+        finally
+        {
+            cursor.close();
+        }
+        
+        return localPets;
+    }
+    
+    /**
+     * Send a request to the registry and return its JSON answer. The request body (if any) is gzip
+     * compressed, and the answer may be too.
+     *
+     * @param method  HTTP method.
+     * @param url
+     * @param request body of the request, or null for none.
+     *
+     * @return
+     *
+     * @throws IOException
+     * @throws JSONException
+     */
+    private JSONObject send( String method, String url, JSONObject request )
+            throws IOException, JSONException
+    {
+        HttpURLConnection connection = ( HttpURLConnection ) new URL( url ).openConnection();
+        try
+        {
+            connection.setRequestMethod( method );
+            connection.setConnectTimeout( CONNECT_TIMEOUT_MILLIS );
+            connection.setReadTimeout( READ_TIMEOUT_MILLIS );
+            connection.setRequestProperty( "Accept", "application/json" );
+            
+            if ( request != null )
+            {
+                connection.setDoOutput( true );
+                connection.setChunkedStreamingMode( 0 );
+                connection.setRequestProperty( "Content-Type", "application/json; charset=utf-8" );
+                connection.setRequestProperty( "Content-Encoding", "gzip" );
+                OutputStream output = new GZIPOutputStream( connection.getOutputStream() );
+                try
+                {
+                    output.write( request.toString().getBytes( "UTF-8" ) );
+                }
+                finally
+                {
+                    output.close();
+                }
+            }
+            
+            int responseCode = connection.getResponseCode();
+            if ( responseCode != HttpURLConnection.HTTP_OK )
+                throw new IOException( "Registry answered " + responseCode + " to " + method + " " + url );
+            
+            // HttpURLConnection asks for and decompresses gzip answers by itself.
+            InputStream input = connection.getInputStream();
+            try
+            {
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                byte[] buffer = new byte[ 8192 ];
+                int read;
+                while ( ( read = input.read( buffer ) ) != -1 )
+                    body.write( buffer, 0, read );
+                
+                return new JSONObject( body.toString( "UTF-8" ) );
+            }
+            finally
+            {
+                input.close();
+            }
+        }
+        finally
+        {
+            connection.disconnect();
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package com.engineerfadyfawzi.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Parcelable;
+import android.util.Log;
+
+import com.engineerfadyfawzi.pets.data.PetContract.PetEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind queue grouping individual inserts, updates and deletes of pets, for rapid separate
+ * writes such as quick successive saves, imports or scripted edits.
+ *
+ * The writes are collected for up to the given delay, or until the given number of writes is
+ * queued, then the whole group is applied with {@link PetContract#METHOD_APPLY_GROUP}: one
+ * transaction, so one commit, and one notification of the listeners. Each write still gets its
+ * own result through the returned {@link Future}. If a write of the group fails, the whole group
+ * is rolled back, and its writes are applied again one at a time, so only the failing write fails.
+ *
+ * The writes are applied in order on a single background thread, so the queue can be used from
+ * the main thread. Call {@link #close()} when done, so the queued writes are applied.
+ */
+public class PetWriteQueue
+{
+    /**
+     * Tag for the log messages
+     */
+    public static final String LOG_TAG = PetWriteQueue.class.getSimpleName();
+    
+    /**
+     * Durability of the groups, see {@link PetContract#DURABILITY_FULL} and
+     * {@link PetContract#DURABILITY_RELAXED}.
+     */
+    public enum Durability
+    {
+        FULL( PetContract.DURABILITY_FULL ),
+        RELAXED( PetContract.DURABILITY_RELAXED );
+        
+        private final String mValue;
+        
+        Durability( String value )
+        {
+            mValue = value;
+        }
+    }
+    
+    private final ContentResolver mContentResolver;
+    private final long mMaxDelayMillis;
+    private final int mMaxOperations;
+    private final Durability mDurability;
+    
+    /**
+     * Single thread applying the groups in order
+     */
+    private final ScheduledExecutorService mExecutor = Executors.newSingleThreadScheduledExecutor();
+    
+    /**
+     * Writes queued since the last group, and the scheduled flush of them, if any.
+     * Guarded by this.
+     */
+    private List< PendingWrite > mPendingWrites = new ArrayList<>();
+    private ScheduledFuture< ? > mScheduledFlush;
+    private boolean mClosed;
+    
+    private final Runnable mFlush = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            applyPendingWrites();
+        }
+    };
+    
+    /**
+     * @param contentResolver
+     * @param maxDelayMillis  maximum time a write waits for other writes before it's applied.
+     * @param maxOperations   number of queued writes applied right away, without waiting.
+     * @param durability
+     */
+    public PetWriteQueue( ContentResolver contentResolver, long maxDelayMillis, int maxOperations,
+            Durability durability )
+    {
+        if ( maxDelayMillis < 0 || maxOperations < 1 )
+            throw new IllegalArgumentException( "Write queue requires a valid delay and size" );
+        
+        mContentResolver = contentResolver;
+        mMaxDelayMillis = maxDelayMillis;
+        mMaxOperations = maxOperations;
+        mDurability = durability;
+    }
+    
+    /**
+     * Queue the insert of a pet.
+     *
+     * @param values
+     *
+     * @return the future result, with the URI of the new pet.
+     */
+    public Future< ContentProviderResult > insert( ContentValues values )
+    {
+        return enqueue( ContentProviderOperation.newInsert( PetEntry.CONTENT_URI ).withValues( values ).build() );
+    }
+    
+    /**
+     * Queue the update of a pet.
+     *
+     * @param uri    of the pet.
+     * @param values
+     *
+     * @return the future result, with the number of updated rows.
+     */
+    public Future< ContentProviderResult > update( Uri uri, ContentValues values )
+    {
+        return enqueue( ContentProviderOperation.newUpdate( uri ).withValues( values ).build() );
+    }
+    
+    /**
+     * Queue the delete of a pet, or of the pets of a shelter.
+     *
+     * @param uri
+     *
+     * @return the future result, with the number of deleted rows.
+     */
+    public Future< ContentProviderResult > delete( Uri uri )
+    {
+        return enqueue( ContentProviderOperation.newDelete( uri ).build() );
+    }
+    
+    /**
+     * Queue an operation. Back references aren't supported, since the operations of a group
+     * don't know about each other.
+     *
+     * @param operation
+     *
+     * @return the future result.
+     */
+    public synchronized Future< ContentProviderResult > enqueue( ContentProviderOperation operation )
+    {
+        if ( mClosed )
+            throw new IllegalStateException( "Write queue is closed" );
+        
+        PendingWrite write = new PendingWrite( operation );
+        mPendingWrites.add( write );
+        
+        if ( mPendingWrites.size() >= mMaxOperations )
+            flush();
+        else if ( mScheduledFlush == null )
+            mScheduledFlush = mExecutor.schedule( mFlush, mMaxDelayMillis, TimeUnit.MILLISECONDS );
+        
+        return write;
+    }
+    
+    /**
+     * Apply the queued writes now, without waiting for the delay.
+     */
+    public synchronized void flush()
+    {
+        if ( mScheduledFlush != null )
+            mScheduledFlush.cancel( false );
+        mScheduledFlush = null;
+        
+        if ( !mPendingWrites.isEmpty() )
+            mExecutor.execute( mFlush );
+    }
+    
+    /**
+     * Apply the queued writes and stop the queue. The futures of the queued writes still complete.
+     */
+    public synchronized void close()
+    {
+        if ( mClosed )
+            return;
+        
+        flush();
+        mClosed = true;
+        mExecutor.shutdown();
+    }
+    
+    /**
+     * Apply the writes queued so far as one group. Runs on the queue's thread.
+     */
+    private void applyPendingWrites()
+    {
+        List< PendingWrite > writes;
+        synchronized ( this )
+        {
+            writes = mPendingWrites;
+            mPendingWrites = new ArrayList<>();
+            mScheduledFlush = null;
+        }
+        
+        if ( writes.isEmpty() )
+            return;
+        
+        try
+        {
+            Parcelable[] results = applyGroup( writes );
+            for ( int i = 0; i < writes.size(); i++ )
+                writes.get( i ).complete( ( ContentProviderResult ) results[ i ] );
+            return;
+        }
+        catch ( RuntimeException groupException )
+        {
+            if ( writes.size() == 1 )
+            {
+                writes.get( 0 ).fail( groupException );
+                return;
+            }
+            
+            Log.w( LOG_TAG, "Failed to apply group of " + writes.size() + " writes, applying them one at a time",
+                    groupException );
+        }
+        
+        for ( PendingWrite write : writes )
+        {
+            try
+            {
+                write.complete( ( ContentProviderResult ) applyGroup( Collections.singletonList( write ) )[ 0 ] );
+            }
+            catch ( RuntimeException exception )
+            {
+                write.fail( exception );
+            }
+        }
+    }
+    
+    /**
+     * Apply the writes in one transaction.
+     *
+     * @param writes
+     *
+     * @return one result per write.
+     */
+    private Parcelable[] applyGroup( List< PendingWrite > writes )
+    {
+        ArrayList< ContentProviderOperation > operations = new ArrayList<>( writes.size() );
+        for ( PendingWrite write : writes )
+            operations.add( write.mOperation );
+        
+        Bundle extras = new Bundle();
+        extras.putParcelableArrayList( PetContract.EXTRA_OPERATIONS, operations );
+        extras.putString( PetContract.EXTRA_DURABILITY, mDurability.mValue );
+        
+        Bundle result = mContentResolver.call( PetEntry.CONTENT_URI, PetContract.METHOD_APPLY_GROUP, null, extras );
+        Parcelable[] results = result == null ? null : result.getParcelableArray( PetContract.EXTRA_RESULTS );
+        if ( results == null || results.length != writes.size() )
+            throw new IllegalStateException( "Group returned no results" );
+        
+        return results;
+    }
+    
+    /**
+     * A queued write, and its future result. The future is completed by the queue's thread, it's
+     * never run.
+     */
+    private static final class PendingWrite extends FutureTask< ContentProviderResult >
+    {
+        private static final Callable< ContentProviderResult > NOT_RUNNABLE = new Callable< ContentProviderResult >()
+        {
+            @Override
+            public ContentProviderResult call()
+            {
+                throw new IllegalStateException( "Queued writes are applied by the queue" );
+            }
+        };
+        
+        private final ContentProviderOperation mOperation;
+        
+        PendingWrite( ContentProviderOperation operation )
+        {
+            super( NOT_RUNNABLE );
+            mOperation = operation;
+        }
+        
+        void complete( ContentProviderResult result )
+        {
+            set( result );
+        }
+        
+        void fail( Throwable throwable )
+        {
+            setException( throwable );
+        }
+    }
+}
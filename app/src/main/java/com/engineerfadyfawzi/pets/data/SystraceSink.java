@@ -0,0 +1,28 @@
+package com.engineerfadyfawzi.pets.data;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Trace;
+
+/**
+ * Sends the {@link PetTracer} sections to systrace, so they show up in a system trace (Perfetto,
+ * or Android Studio's CPU profiler) next to the framework's own sections. While the system isn't
+ * tracing, a section only costs a check of whether it is.
+ *
+ * Requires API 18, it's only set by {@link PetProvider} on devices that have it.
+ */
+@TargetApi( Build.VERSION_CODES.JELLY_BEAN_MR2 )
+final class SystraceSink implements PetTracer.Sink
+{
+    @Override
+    public void beginSection( String name )
+    {
+        Trace.beginSection( name );
+    }
+    
+    @Override
+    public void endSection()
+    {
+        Trace.endSection();
+    }
+}
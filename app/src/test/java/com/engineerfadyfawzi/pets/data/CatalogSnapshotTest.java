@@ -0,0 +1,225 @@
+package com.engineerfadyfawzi.pets.data;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Writes catalog snapshots and reads them back, then damages them the ways a killed process or
+ * a bad disk would: a snapshot which isn't exactly what was written is ignored and deleted.
+ */
+public class CatalogSnapshotTest
+{
+    /**
+     * Size of the header of the file, the rows start after it
+     */
+    private static final int HEADER_SIZE = 24;
+    
+    private File mFile;
+    
+    @Before
+    public void setUp() throws IOException
+    {
+        mFile = File.createTempFile( "catalog", ".snapshot" );
+        assertTrue( mFile.delete() );
+    }
+    
+    @After
+    public void tearDown()
+    {
+        mFile.delete();
+    }
+    
+    @Test
+    public void writeAndRead_sameRows()
+    {
+        List< PetRow > rows = new ArrayList<>();
+        rows.add( new PetRow( 3, "Bella", "Terrier", "photo.jpg" ) );
+        rows.add( new PetRow( 1, "Mi\u00f1o \ud83d\udc3e", null, null ) );
+        rows.add( new PetRow( Long.MAX_VALUE, "", "", null ) );
+        CatalogSnapshot.write( mFile, rows );
+        
+        List< PetRow > read = CatalogSnapshot.read( mFile );
+        assertEquals( rows.size(), read.size() );
+        for ( int i = 0; i < rows.size(); i++ )
+        {
+            assertEquals( rows.get( i ).id, read.get( i ).id );
+            assertEquals( rows.get( i ).name, read.get( i ).name );
+            assertEquals( rows.get( i ).breed, read.get( i ).breed );
+            
+            // Photos aren't kept.
+            assertNull( read.get( i ).photo );
+        }
+        
+        // A valid snapshot is kept, and the temporary file is gone.
+        assertTrue( mFile.isFile() );
+        assertFalse( new File( mFile.getPath() + ".tmp" ).exists() );
+    }
+    
+    @Test
+    public void write_keepsFirstRows()
+    {
+        List< PetRow > rows = new ArrayList<>();
+        for ( long id = 1; id <= 3 * CatalogSnapshot.MAX_ROWS; id++ )
+            rows.add( new PetRow( id, "Pet " + id, null, null ) );
+        CatalogSnapshot.write( mFile, rows );
+        
+        List< PetRow > read = CatalogSnapshot.read( mFile );
+        assertEquals( CatalogSnapshot.MAX_ROWS, read.size() );
+        assertEquals( CatalogSnapshot.MAX_ROWS, read.get( CatalogSnapshot.MAX_ROWS - 1 ).id );
+    }
+    
+    @Test
+    public void write_cutsLongNames()
+    {
+        StringBuilder name = new StringBuilder();
+        for ( int i = 0; i < 40000; i++ )
+            name.append( 'a' );
+        
+        List< PetRow > rows = new ArrayList<>();
+        rows.add( new PetRow( 1, name.toString(), "Beagle", null ) );
+        CatalogSnapshot.write( mFile, rows );
+        
+        List< PetRow > read = CatalogSnapshot.read( mFile );
+        assertEquals( Short.MAX_VALUE, read.get( 0 ).name.length() );
+        assertEquals( "Beagle", read.get( 0 ).breed );
+    }
+    
+    @Test
+    public void read_withoutFile()
+    {
+        assertNull( CatalogSnapshot.read( mFile ) );
+    }
+    
+    @Test
+    public void read_emptyFile() throws IOException
+    {
+        assertTrue( mFile.createNewFile() );
+        assertInvalid();
+    }
+    
+    @Test
+    public void read_truncatedHeader() throws IOException
+    {
+        writeSnapshot();
+        truncate( HEADER_SIZE - 1 );
+        assertInvalid();
+    }
+    
+    @Test
+    public void read_truncatedRows() throws IOException
+    {
+        writeSnapshot();
+        truncate( mFile.length() - 1 );
+        assertInvalid();
+    }
+    
+    @Test
+    public void read_extraBytes() throws IOException
+    {
+        writeSnapshot();
+        RandomAccessFile file = new RandomAccessFile( mFile, "rw" );
+        try
+        {
+            file.seek( file.length() );
+            file.write( 0 );
+        }
+        finally
+        {
+            file.close();
+        }
+        assertInvalid();
+    }
+    
+    @Test
+    public void read_corruptRows() throws IOException
+    {
+        // Any changed byte of the rows fails the CRC32, even one keeping the rows readable.
+        writeSnapshot();
+        long length = mFile.length();
+        for ( long position = HEADER_SIZE; position < length; position++ )
+        {
+            writeSnapshot();
+            flipByte( position );
+            assertInvalid();
+        }
+    }
+    
+    @Test
+    public void read_otherMagicOrVersion() throws IOException
+    {
+        writeSnapshot();
+        flipByte( 0 );
+        assertInvalid();
+        
+        writeSnapshot();
+        flipByte( 7 );
+        assertInvalid();
+    }
+    
+    @Test
+    public void read_corruptRowCount() throws IOException
+    {
+        writeSnapshot();
+        flipByte( 11 );
+        assertInvalid();
+    }
+    
+    private void writeSnapshot()
+    {
+        List< PetRow > rows = new ArrayList<>();
+        rows.add( new PetRow( 1, "Bella", "Terrier", null ) );
+        rows.add( new PetRow( 2, "Max", null, null ) );
+        CatalogSnapshot.write( mFile, rows );
+        assertEquals( 2, CatalogSnapshot.read( mFile ).size() );
+    }
+    
+    /**
+     * Check that the snapshot is ignored, and deleted so it's written again.
+     */
+    private void assertInvalid()
+    {
+        assertNull( CatalogSnapshot.read( mFile ) );
+        assertFalse( mFile.exists() );
+    }
+    
+    private void truncate( long length ) throws IOException
+    {
+        RandomAccessFile file = new RandomAccessFile( mFile, "rw" );
+        try
+        {
+            file.setLength( length );
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+    
+    private void flipByte( long position ) throws IOException
+    {
+        RandomAccessFile file = new RandomAccessFile( mFile, "rw" );
+        try
+        {
+            file.seek( position );
+            int value = file.read();
+            file.seek( position );
+            file.write( value ^ 0x01 );
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.engineerfadyfawzi.pets.benchmark;
+
+import com.engineerfadyfawzi.pets.data.BreedIndex;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building a {@link BreedIndex} (once per change of the pets) and suggesting breeds from it (once
+ * per keystroke), with short prefixes matching many breeds and longer ones matching a few.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class BreedIndexBenchmark
+{
+    private static final int SUGGESTIONS = 5;
+    
+    @Param( { "100", "1000", "10000" } )
+    public int breeds;
+    
+    private String[] mNames;
+    private int[] mCounts;
+    private BreedIndex mBreedIndex;
+    private String mThreeLetters;
+    
+    @Setup
+    public void setUp()
+    {
+        Random random = new Random( 42 );
+        mNames = new String[ breeds ];
+        mCounts = new int[ breeds ];
+        for ( int i = 0; i < breeds; i++ )
+        {
+            // Breed-like names: a capitalized word of 4 to 11 letters, with a few distinct starts.
+            char[] name = new char[ 4 + random.nextInt( 8 ) ];
+            for ( int j = 0; j < name.length; j++ )
+                name[ j ] = ( char ) ( 'a' + random.nextInt( j == 0 ? 8 : 26 ) );
+            name[ 0 ] = Character.toUpperCase( name[ 0 ] );
+            mNames[ i ] = new String( name ) + " " + i;
+            mCounts[ i ] = 1 + random.nextInt( 50 );
+        }
+        mBreedIndex = new BreedIndex( mNames, mCounts );
+        mThreeLetters = mNames[ 0 ].substring( 0, 3 );
+    }
+    
+    @Benchmark
+    public BreedIndex build()
+    {
+        return new BreedIndex( mNames, mCounts );
+    }
+    
+    @Benchmark
+    public List< String > suggestOneLetter()
+    {
+        return mBreedIndex.suggest( "b", SUGGESTIONS );
+    }
+    
+    @Benchmark
+    public List< String > suggestThreeLetters()
+    {
+        return mBreedIndex.suggest( mThreeLetters, SUGGESTIONS );
+    }
+    
+    @Benchmark
+    public List< String > suggestNoMatch()
+    {
+        return mBreedIndex.suggest( "zzz", SUGGESTIONS );
+    }
+}
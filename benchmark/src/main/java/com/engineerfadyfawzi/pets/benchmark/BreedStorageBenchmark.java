@@ -0,0 +1,189 @@
+package com.engineerfadyfawzi.pets.benchmark;
+
+import com.engineerfadyfawzi.pets.data.PetSchema.Breeds;
+import com.engineerfadyfawzi.pets.data.PetSchema.Changes;
+import com.engineerfadyfawzi.pets.data.PetSchema.Pets;
+import com.engineerfadyfawzi.pets.data.PetSchema.Weights;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The breeds of the pets stored as text on each pet, as before version 2 of the database (with
+ * and without an index of the breeds), against the breeds table referenced by a breed id of
+ * each pet: the size of the database file, printed once it's filled, and the count of the pets
+ * of each breed, the BREEDS query of the provider.
+ *
+ * <pre>
+ * ./gradlew :benchmark:jmh -Pjmh="BreedStorageBenchmark"
+ * </pre>
+ *
+ * The lookup layout is the database of the app, created from PetSchema and counted with the
+ * breeds query of the provider, so its pets also have the columns added since version 2. It runs
+ * on the SQLite of sqlite-jdbc rather than the one of a device, so the numbers are only comparable
+ * to each other.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+@State( Scope.Thread )
+public class BreedStorageBenchmark
+{
+    /**
+     * The breeds are made of an origin and a kind, 120 of them
+     */
+    private static final String[] ORIGINS = { "German", "English", "American", "Australian", "Siberian",
+            "Scottish", "Irish", "Miniature", "Standard", "Toy" };
+    private static final String[] KINDS = { "Shepherd", "Terrier", "Retriever", "Spaniel", "Setter",
+            "Pointer", "Hound", "Mastiff", "Schnauzer", "Poodle", "Longhair", "Shorthair" };
+    
+    @Param( { "text", "text-indexed", "lookup" } )
+    public String layout;
+    
+    @Param( { "100000" } )
+    public int rows;
+    
+    private File mDatabaseFile;
+    private Connection mConnection;
+    private PreparedStatement mCountByBreed;
+    
+    @Setup( Level.Trial )
+    public void setUp() throws IOException, SQLException
+    {
+        mDatabaseFile = File.createTempFile( "pets-breeds-" + layout, ".db" );
+        mDatabaseFile.delete();
+        boolean lookup = "lookup".equals( layout );
+        
+        String[] breeds = new String[ ORIGINS.length * KINDS.length ];
+        for ( int i = 0; i < breeds.length; i++ )
+            breeds[ i ] = ORIGINS[ i / KINDS.length ] + " " + KINDS[ i % KINDS.length ];
+        
+        if ( lookup )
+        {
+            // The database of the app, created from PetSchema.
+            mConnection = PetDatabase.open( mDatabaseFile );
+            PetDatabase.insertBreeds( mConnection, breeds );
+        }
+        else
+        {
+            // The pets table of version 1, spelled out like the upgrade steps of PetDbHelper, as
+            // the current schema has no text breed to compare with.
+            mConnection = DriverManager.getConnection( "jdbc:sqlite:" + mDatabaseFile.getPath() );
+            Statement statement = mConnection.createStatement();
+            try
+            {
+                statement.execute( "CREATE TABLE pets (_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                        + "name TEXT NOT NULL, breed TEXT, gender INTEGER NOT NULL, "
+                        + "weight INTEGER NOT NULL DEFAULT 0)" );
+                if ( "text-indexed".equals( layout ) )
+                    statement.execute( "CREATE INDEX pets_breed_index ON pets(breed)" );
+            }
+            finally
+            {
+                statement.close();
+            }
+        }
+        
+        // The same pets for each layout, a few breeds far more common than the others.
+        Random random = new Random( 42 );
+        PreparedStatement insertPet = mConnection.prepareStatement( "INSERT INTO " + Pets.TABLE_NAME + " ("
+                + Pets.COLUMN_PET_NAME + ", " + ( lookup ? Pets.COLUMN_PET_BREED_ID : "breed" ) + ", "
+                + Pets.COLUMN_PET_GENDER + ", " + Pets.COLUMN_PET_WEIGHT + ") VALUES (?, ?, ?, ?)" );
+        mConnection.setAutoCommit( false );
+        try
+        {
+            for ( int i = 0; i < rows; i++ )
+            {
+                int breed = Math.min( breeds.length - 1, ( int ) Math.abs( random.nextGaussian() * breeds.length / 3 ) );
+                insertPet.setString( 1, "Pet " + i );
+                if ( lookup )
+                    insertPet.setLong( 2, breed + 1 );
+                else
+                    insertPet.setString( 2, breeds[ breed ] );
+                insertPet.setInt( 3, random.nextInt( 3 ) );
+                insertPet.setInt( 4, 1 + random.nextInt( 50 ) );
+                insertPet.executeUpdate();
+            }
+            mConnection.commit();
+        }
+        finally
+        {
+            mConnection.setAutoCommit( true );
+            insertPet.close();
+        }
+        
+        Statement statement = mConnection.createStatement();
+        try
+        {
+            // The triggers of the app also log each new pet and its weight, which isn't part of the
+            // comparison, so those tables are emptied (the rollups first, as the delete of a pet does).
+            if ( lookup )
+                for ( String table : new String[]{ Changes.TABLE_NAME, Weights.DAILY_TABLE_NAME,
+                        Weights.MONTHLY_TABLE_NAME, Weights.TABLE_NAME } )
+                    statement.execute( "DELETE FROM " + table );
+            
+            // Without the free pages left by the inserts, so the file only holds the data.
+            statement.execute( "VACUUM" );
+        }
+        finally
+        {
+            statement.close();
+        }
+        System.out.println( layout + ": " + rows + " pets in " + mDatabaseFile.length() / 1024 + " KiB" );
+        
+        // The breeds with their number of pets, as the BREEDS query of PetProvider.
+        mCountByBreed = mConnection.prepareStatement( lookup
+                ? PetDatabase.select( Breeds.PETS_TABLES, Breeds.QUALIFIED_ID, Breeds.QUALIFIED_NAME,
+                Breeds.PET_COUNT ) + " GROUP BY " + Breeds.QUALIFIED_ID
+                : "SELECT breed, COUNT(_id) FROM pets GROUP BY breed" );
+    }
+    
+    @TearDown( Level.Trial )
+    public void tearDown() throws SQLException
+    {
+        mConnection.close();
+        PetDatabase.delete( mDatabaseFile );
+    }
+    
+    @Benchmark
+    public long countByBreed() throws SQLException
+    {
+        long pets = 0;
+        ResultSet resultSet = mCountByBreed.executeQuery();
+        try
+        {
+            int countColumn = resultSet.getMetaData().getColumnCount();
+            while ( resultSet.next() )
+                pets += resultSet.getLong( countColumn );
+        }
+        finally
+        {
+            resultSet.close();
+        }
+        return pets;
+    }
+}
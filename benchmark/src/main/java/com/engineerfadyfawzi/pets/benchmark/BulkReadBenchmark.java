@@ -0,0 +1,231 @@
+package com.engineerfadyfawzi.pets.benchmark;
+
+import com.engineerfadyfawzi.pets.data.PetBulkChunk;
+import com.engineerfadyfawzi.pets.data.PetSchema;
+import com.engineerfadyfawzi.pets.data.PetSchema.Deletions;
+import com.engineerfadyfawzi.pets.data.PetSchema.Pets;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading the whole roster the way the METHOD_BULK_READ call of the provider does it (keyset
+ * chunks of the pets read into column arrays and packed strings, which the caller unpacks) against
+ * iterating one cursor over all the pets with a getter per cell, as a consumer of query() does:
+ *
+ * <pre>
+ * ./gradlew :benchmark:jmh -Pjmh="BulkReadBenchmark"
+ * </pre>
+ *
+ * Both read the pets view of the app, created from PetSchema, with a pet in twenty soft deleted,
+ * and the chunks are packed by the PetBulkChunk of the provider. It runs on the SQLite of
+ * sqlite-jdbc, in one process, so it only compares the reads and the per-cell work. The copies of
+ * a device (the cursor into its CursorWindow, the chunk into a Bundle, each through Binder) come
+ * on top of it.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+@State( Scope.Thread )
+public class BulkReadBenchmark
+{
+    private static final String[] BREEDS = { "Terrier", "Labrador", "Beagle", "Siamese", "Persian",
+            "Poodle", "Bulldog", "Maine Coon", "Boxer", "Sphynx" };
+    
+    /**
+     * Pets of a chunk, the BULK_READ_DEFAULT_LIMIT of PetContract
+     */
+    private static final int CHUNK = 2000;
+    
+    @Param( { "100000" } )
+    public int rows;
+    
+    private File mDatabaseFile;
+    private Connection mConnection;
+    private PreparedStatement mQueryPets;
+    private PreparedStatement mQueryChunk;
+    
+    @Setup( Level.Trial )
+    public void setUp() throws IOException, SQLException
+    {
+        mDatabaseFile = File.createTempFile( "pets-bulk", ".db" );
+        mDatabaseFile.delete();
+        mConnection = PetDatabase.open( mDatabaseFile );
+        PetDatabase.insertBreeds( mConnection, BREEDS );
+        
+        Random random = new Random( 42 );
+        PreparedStatement insertPet = mConnection.prepareStatement( "INSERT INTO " + Pets.TABLE_NAME + " ("
+                + Pets.COLUMN_PET_NAME + ", " + Pets.COLUMN_PET_BREED_ID + ", " + Pets.COLUMN_PET_GENDER + ", "
+                + Pets.COLUMN_PET_WEIGHT + ") VALUES (?, ?, ?, ?)" );
+        Statement statement = mConnection.createStatement();
+        mConnection.setAutoCommit( false );
+        try
+        {
+            for ( int i = 0; i < rows; i++ )
+            {
+                insertPet.setString( 1, "Pet " + i );
+                // A pet in ten has no breed.
+                if ( random.nextInt( 10 ) == 0 )
+                    insertPet.setNull( 2, Types.INTEGER );
+                else
+                    insertPet.setLong( 2, 1 + random.nextInt( BREEDS.length ) );
+                insertPet.setInt( 3, random.nextInt( 3 ) );
+                insertPet.setInt( 4, 1 + random.nextInt( 50 ) );
+                insertPet.executeUpdate();
+            }
+            
+            // A pet in twenty is deleted, and not purged yet, so the view leaves it out.
+            statement.execute( "INSERT INTO " + Deletions.TABLE_NAME + " (" + Deletions.COLUMN_DELETION_TIME
+                    + ") VALUES (" + System.currentTimeMillis() + ")" );
+            statement.execute( "UPDATE " + Pets.TABLE_NAME + " SET " + Pets.COLUMN_PET_DELETION_ID + " = 1"
+                    + " WHERE " + PetSchema.COLUMN_ID + " % 20 = 0" );
+            mConnection.commit();
+        }
+        finally
+        {
+            mConnection.setAutoCommit( true );
+            insertPet.close();
+            statement.close();
+        }
+        
+        // The query() of the provider for the pets in order, and the query of PetProvider.bulkReadPets().
+        mQueryPets = mConnection.prepareStatement( PetDatabase.select( Pets.VIEW_NAME, PetBulkChunk.COLUMNS )
+                + " ORDER BY " + PetSchema.COLUMN_ID );
+        mQueryChunk = mConnection.prepareStatement( PetDatabase.select( Pets.VIEW_NAME, PetBulkChunk.COLUMNS )
+                + " WHERE " + PetBulkChunk.SELECTION + " ORDER BY " + PetBulkChunk.ORDER_BY + " LIMIT ?" );
+    }
+    
+    @TearDown( Level.Trial )
+    public void tearDown() throws SQLException
+    {
+        mConnection.close();
+        PetDatabase.delete( mDatabaseFile );
+    }
+    
+    /**
+     * All the pets through one cursor, with a getter per cell, the index of each column looked up
+     * once, as a consumer of query() does with getColumnIndexOrThrow().
+     *
+     * @return
+     *
+     * @throws SQLException
+     */
+    @Benchmark
+    public long cursor() throws SQLException
+    {
+        long checksum = 0;
+        ResultSet resultSet = mQueryPets.executeQuery();
+        try
+        {
+            int idColumn = resultSet.findColumn( PetSchema.COLUMN_ID );
+            int nameColumn = resultSet.findColumn( Pets.COLUMN_PET_NAME );
+            int breedColumn = resultSet.findColumn( Pets.COLUMN_PET_BREED );
+            int genderColumn = resultSet.findColumn( Pets.COLUMN_PET_GENDER );
+            int weightColumn = resultSet.findColumn( Pets.COLUMN_PET_WEIGHT );
+            while ( resultSet.next() )
+            {
+                checksum += resultSet.getLong( idColumn );
+                checksum += resultSet.getString( nameColumn ).length();
+                String breed = resultSet.getString( breedColumn );
+                checksum += breed == null ? 0 : breed.length();
+                checksum += resultSet.getInt( genderColumn );
+                checksum += resultSet.getInt( weightColumn );
+            }
+        }
+        finally
+        {
+            resultSet.close();
+        }
+        return checksum;
+    }
+    
+    /**
+     * All the pets in chunks of column arrays, read after the last id of the previous chunk, then
+     * unpacked by the caller.
+     *
+     * @return
+     *
+     * @throws SQLException
+     */
+    @Benchmark
+    public long bulkRead() throws SQLException
+    {
+        long checksum = 0;
+        long afterId = 0;
+        while ( afterId != -1 )
+        {
+            PetBulkChunk chunk = readChunk( afterId );
+            long[] ids = chunk.getIds();
+            int[] genders = chunk.getGenders();
+            int[] weights = chunk.getWeights();
+            String names = chunk.getNames();
+            int[] nameEnds = chunk.getNameEnds();
+            String breeds = chunk.getBreeds();
+            int[] breedEnds = chunk.getBreedEnds();
+            for ( int i = 0; i < ids.length; i++ )
+            {
+                checksum += ids[ i ];
+                checksum += names.substring( i == 0 ? 0 : nameEnds[ i - 1 ], nameEnds[ i ] ).length();
+                checksum += breeds.substring( i == 0 ? 0 : breedEnds[ i - 1 ], breedEnds[ i ] ).length();
+                checksum += genders[ i ];
+                checksum += weights[ i ];
+            }
+            afterId = chunk.getNextAfterId();
+        }
+        return checksum;
+    }
+    
+    /**
+     * Read a chunk like PetProvider.bulkReadPets(), which doesn't know the number of rows of a
+     * JDBC result in advance.
+     *
+     * @param afterId
+     *
+     * @return
+     *
+     * @throws SQLException
+     */
+    private PetBulkChunk readChunk( long afterId ) throws SQLException
+    {
+        PetBulkChunk chunk = new PetBulkChunk( CHUNK, CHUNK );
+        mQueryChunk.setLong( 1, afterId );
+        mQueryChunk.setInt( 2, CHUNK );
+        ResultSet resultSet = mQueryChunk.executeQuery();
+        try
+        {
+            // The column order is fixed by PetBulkChunk.COLUMNS, so no lookups are needed.
+            while ( resultSet.next() )
+                chunk.addRow( resultSet.getLong( 1 ), resultSet.getString( 2 ), resultSet.getString( 3 ),
+                        resultSet.getInt( 4 ), resultSet.getInt( 5 ) );
+        }
+        finally
+        {
+            resultSet.close();
+        }
+        return chunk;
+    }
+}
@@ -0,0 +1,180 @@
+package com.engineerfadyfawzi.pets.benchmark;
+
+import com.engineerfadyfawzi.pets.data.PetSchema;
+import com.engineerfadyfawzi.pets.data.PetSchema.Pets;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time from a cold start to the first row of the catalog: opening the database the way
+ * PetDbHelper does (the pragmas of the storage profile, then the schema of onCreate() if the file
+ * is new), preparing the catalog query of LivePetQuery, and reading its first row. With prewarm,
+ * the open and the prepare are done before the measurement, as PetProvider.prewarm() does in the
+ * background at process start, so only the query is left on the path to the first row.
+ *
+ * Each measurement is a single shot in a new JVM, so the class loading and the first use of the
+ * driver are part of it:
+ *
+ * <pre>
+ * ./gradlew :benchmark:jmh -Pjmh="CatalogStartupBenchmark"
+ * ./gradlew :benchmark:jmh -Pjmh="CatalogStartupBenchmark -f 1 -i 20"
+ * </pre>
+ *
+ * The second one measures 20 shots in one JVM, once it's warm. The database is the one of the app,
+ * created from {@link PetSchema} as PetDbHelper creates it, but it runs on the SQLite of
+ * sqlite-jdbc rather than the one of a device, and without the process start of Android, so it
+ * measures the database part of the cold start, and the numbers are only comparable to each other.
+ */
+@BenchmarkMode( Mode.SingleShotTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 0 )
+@Measurement( iterations = 1 )
+@Fork( 10 )
+@State( Scope.Thread )
+public class CatalogStartupBenchmark
+{
+    /**
+     * The catalog query of LivePetQuery
+     */
+    private static final String QUERY_CATALOG = PetDatabase.select( Pets.VIEW_NAME, Pets.CATALOG_COLUMNS );
+    
+    private static final String[] BREEDS = { "Terrier", "Labrador", "Beagle", "Siamese", "Persian",
+            "Poodle", "Bulldog", "Maine Coon", "Boxer", "Sphynx" };
+    
+    /**
+     * A database created on first start, or one holding the pets already
+     */
+    @Param( { "new", "existing" } )
+    public String database;
+    
+    @Param( { "false", "true" } )
+    public boolean prewarm;
+    
+    @Param( { "1000" } )
+    public int rows;
+    
+    private File mDatabaseFile;
+    private Connection mConnection;
+    private PreparedStatement mQueryCatalog;
+    
+    @Setup( Level.Iteration )
+    public void setUp() throws IOException, SQLException
+    {
+        mDatabaseFile = File.createTempFile( "pets-startup-" + database, ".db" );
+        mDatabaseFile.delete();
+        if ( "existing".equals( database ) )
+        {
+            open();
+            insertPets();
+            close();
+        }
+        
+        if ( prewarm )
+            open();
+    }
+    
+    @TearDown( Level.Iteration )
+    public void tearDown() throws SQLException
+    {
+        close();
+        PetDatabase.delete( mDatabaseFile );
+    }
+    
+    /**
+     * Open the database unless it's prewarmed, then read the first row of the catalog.
+     *
+     * @return
+     *
+     * @throws SQLException
+     */
+    @Benchmark
+    public String firstRow() throws SQLException
+    {
+        if ( mConnection == null )
+            open();
+        
+        ResultSet resultSet = mQueryCatalog.executeQuery();
+        try
+        {
+            if ( !resultSet.next() )
+                return null;
+            resultSet.getLong( 1 );
+            resultSet.getString( 3 );
+            resultSet.getString( 4 );
+            return resultSet.getString( 2 );
+        }
+        finally
+        {
+            resultSet.close();
+        }
+    }
+    
+    /**
+     * Open the database like PetDbHelper.getWritableDatabase(), creating it if it's new, and
+     * prepare the catalog query.
+     *
+     * @throws SQLException
+     */
+    private void open() throws SQLException
+    {
+        mConnection = PetDatabase.open( mDatabaseFile );
+        mQueryCatalog = mConnection.prepareStatement( QUERY_CATALOG );
+    }
+    
+    private void close() throws SQLException
+    {
+        if ( mConnection == null )
+            return;
+        mConnection.close();
+        mConnection = null;
+        mQueryCatalog = null;
+    }
+    
+    private void insertPets() throws SQLException
+    {
+        PetDatabase.insertBreeds( mConnection, BREEDS );
+        
+        PreparedStatement insertPet = mConnection.prepareStatement( "INSERT INTO " + Pets.TABLE_NAME + " ("
+                + Pets.COLUMN_PET_NAME + ", " + Pets.COLUMN_PET_BREED_ID + ", " + Pets.COLUMN_PET_GENDER + ", "
+                + Pets.COLUMN_PET_WEIGHT + ", " + Pets.COLUMN_PET_SYNC_ID + ") VALUES (?, ?, ?, ?, ?)" );
+        mConnection.setAutoCommit( false );
+        try
+        {
+            for ( int i = 0; i < rows; i++ )
+            {
+                insertPet.setString( 1, "Pet " + i );
+                insertPet.setLong( 2, 1 + i % BREEDS.length );
+                insertPet.setInt( 3, i % 3 );
+                insertPet.setInt( 4, 1 + i % 50 );
+                insertPet.setString( 5, "pet-" + i );
+                insertPet.executeUpdate();
+            }
+            mConnection.commit();
+        }
+        finally
+        {
+            mConnection.setAutoCommit( true );
+            insertPet.close();
+        }
+    }
+}
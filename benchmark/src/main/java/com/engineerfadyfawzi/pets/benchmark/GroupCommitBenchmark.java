@@ -0,0 +1,169 @@
+package com.engineerfadyfawzi.pets.benchmark;
+
+import com.engineerfadyfawzi.pets.data.PetSchema;
+import com.engineerfadyfawzi.pets.data.PetSchema.Pets;
+import com.engineerfadyfawzi.pets.data.PetValidation;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Edits per second saved the way PetWriteQueue groups them with METHOD_APPLY_GROUP (the edits of
+ * a group in one transaction, so one commit) against one commit per edit, with the durabilities
+ * of a group: synced to disk (full) or not (relaxed). The edits are the weight updates of the
+ * provider, on the schema of the app, so each one runs the triggers of the change log, of the
+ * version and of the weight history too.
+ *
+ * <pre>
+ * ./gradlew :benchmark:jmh -Pjmh="GroupCommitBenchmark"
+ * </pre>
+ *
+ * It runs on the SQLite of sqlite-jdbc, on the disk of the machine, so only the ratios carry over
+ * to a device, whose flash usually makes a synced commit even slower.
+ */
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+@State( Scope.Thread )
+public class GroupCommitBenchmark
+{
+    /**
+     * Edits of a group, about the edits of a burst in the catalog
+     */
+    private static final int EDITS = 50;
+    
+    private static final int PETS = 1000;
+    
+    @Param( { "full", "relaxed" } )
+    public String durability;
+    
+    private final Random mRandom = new Random( 42 );
+    private File mDatabaseFile;
+    private Connection mConnection;
+    private PreparedStatement mUpdatePet;
+    
+    @Setup( Level.Trial )
+    public void setUp() throws IOException, SQLException
+    {
+        mDatabaseFile = File.createTempFile( "pets-group", ".db" );
+        mDatabaseFile.delete();
+        mConnection = PetDatabase.open( mDatabaseFile );
+        Statement statement = mConnection.createStatement();
+        try
+        {
+            // Like PetDbHelper.setRelaxedDurability().
+            if ( "relaxed".equals( durability ) )
+                statement.execute( "PRAGMA synchronous = OFF" );
+        }
+        finally
+        {
+            statement.close();
+        }
+        
+        PreparedStatement insertPet = mConnection.prepareStatement( "INSERT INTO " + Pets.TABLE_NAME + " ("
+                + Pets.COLUMN_PET_NAME + ", " + Pets.COLUMN_PET_GENDER + ", " + Pets.COLUMN_PET_WEIGHT
+                + ") VALUES (?, ?, ?)" );
+        mConnection.setAutoCommit( false );
+        try
+        {
+            for ( int i = 0; i < PETS; i++ )
+            {
+                insertPet.setString( 1, "Pet " + i );
+                insertPet.setInt( 2, PetValidation.GENDER_UNKNOWN );
+                insertPet.setInt( 3, 10 );
+                insertPet.executeUpdate();
+            }
+            mConnection.commit();
+        }
+        finally
+        {
+            mConnection.setAutoCommit( true );
+            insertPet.close();
+        }
+        
+        // The update of a pet URI by PetProvider.updatePet(), as SQLiteDatabase.update() builds it.
+        mUpdatePet = mConnection.prepareStatement( "UPDATE " + Pets.TABLE_NAME + " SET " + Pets.COLUMN_PET_WEIGHT
+                + "=? WHERE " + PetSchema.getNotDeletedCondition( Pets.TABLE_NAME ) + " AND ("
+                + PetSchema.toPetsTableSelection( PetSchema.COLUMN_ID + "=?" ) + ")" );
+    }
+    
+    @TearDown( Level.Trial )
+    public void tearDown() throws SQLException
+    {
+        mConnection.close();
+        PetDatabase.delete( mDatabaseFile );
+    }
+    
+    /**
+     * Each edit committed on its own, like separate updates of the provider.
+     *
+     * @return
+     *
+     * @throws SQLException
+     */
+    @Benchmark
+    @OperationsPerInvocation( EDITS )
+    public int individualCommits() throws SQLException
+    {
+        int updated = 0;
+        for ( int i = 0; i < EDITS; i++ )
+            updated += updatePet();
+        return updated;
+    }
+    
+    /**
+     * The same edits in one group, committed once.
+     *
+     * @return
+     *
+     * @throws SQLException
+     */
+    @Benchmark
+    @OperationsPerInvocation( EDITS )
+    public int groupCommit() throws SQLException
+    {
+        mConnection.setAutoCommit( false );
+        try
+        {
+            int updated = 0;
+            for ( int i = 0; i < EDITS; i++ )
+                updated += updatePet();
+            mConnection.commit();
+            return updated;
+        }
+        finally
+        {
+            mConnection.setAutoCommit( true );
+        }
+    }
+    
+    private int updatePet() throws SQLException
+    {
+        mUpdatePet.setInt( 1, 1 + mRandom.nextInt( 50 ) );
+        mUpdatePet.setLong( 2, 1 + ( long ) mRandom.nextInt( PETS ) );
+        return mUpdatePet.executeUpdate();
+    }
+}
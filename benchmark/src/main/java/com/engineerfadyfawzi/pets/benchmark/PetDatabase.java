@@ -0,0 +1,150 @@
+package com.engineerfadyfawzi.pets.benchmark;
+
+import com.engineerfadyfawzi.pets.data.PetSchema;
+import com.engineerfadyfawzi.pets.data.PetSchema.Breeds;
+import com.engineerfadyfawzi.pets.data.PetStorageProfile;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Opens the database of a benchmark the way PetDbHelper does, on the SQLite of sqlite-jdbc: the
+ * pragmas of the storage profile, then, if the file is new, the statements of
+ * {@link PetSchema#getCreateStatements()} in one transaction, as PetDbHelper.onCreate() runs them.
+ * So the benchmarks read and write the tables, indexes, triggers and views of the app.
+ */
+final class PetDatabase
+{
+    private PetDatabase()
+    {
+    
+    }
+    
+    /**
+     * Open the database with the default storage profile, creating it if it's new.
+     *
+     * @param file
+     *
+     * @return
+     *
+     * @throws SQLException
+     */
+    static Connection open( File file ) throws SQLException
+    {
+        return open( file, PetStorageProfile.DEFAULT );
+    }
+    
+    /**
+     * Open the database with the storage profile, creating it if it's new.
+     *
+     * @param file
+     * @param profile
+     *
+     * @return
+     *
+     * @throws SQLException
+     */
+    static Connection open( File file, PetStorageProfile profile ) throws SQLException
+    {
+        Connection connection = DriverManager.getConnection( "jdbc:sqlite:" + file.getPath() );
+        try
+        {
+            Statement statement = connection.createStatement();
+            try
+            {
+                // PetDbHelper.onConfigure(), then onCreate() in a transaction if the version is 0.
+                statement.execute( profile.getPageSizePragma() );
+                for ( String pragma : profile.getConnectionPragmas() )
+                    statement.execute( pragma );
+                
+                ResultSet resultSet = statement.executeQuery( "PRAGMA user_version" );
+                int version = resultSet.next() ? resultSet.getInt( 1 ) : 0;
+                resultSet.close();
+                if ( version == 0 )
+                {
+                    connection.setAutoCommit( false );
+                    for ( String sql : PetSchema.getCreateStatements() )
+                        statement.execute( sql );
+                    statement.execute( "PRAGMA user_version = " + PetSchema.DATABASE_VERSION );
+                    connection.commit();
+                    connection.setAutoCommit( true );
+                }
+            }
+            finally
+            {
+                statement.close();
+            }
+        }
+        catch ( SQLException sqlException )
+        {
+            connection.close();
+            throw sqlException;
+        }
+        return connection;
+    }
+    
+    /**
+     * Insert the breeds in order, so their ids are 1 to the number of breeds.
+     *
+     * @param connection
+     * @param breeds
+     *
+     * @throws SQLException
+     */
+    static void insertBreeds( Connection connection, String[] breeds ) throws SQLException
+    {
+        PreparedStatement insertBreed = connection.prepareStatement( "INSERT INTO " + Breeds.TABLE_NAME
+                + " (" + Breeds.COLUMN_BREED_NAME + ") VALUES (?)" );
+        try
+        {
+            for ( String breed : breeds )
+            {
+                insertBreed.setString( 1, breed );
+                insertBreed.executeUpdate();
+            }
+        }
+        finally
+        {
+            insertBreed.close();
+        }
+    }
+    
+    /**
+     * Return the SQL query of the columns of a table or view, as SQLiteQueryBuilder builds it
+     * for a query of the provider without a selection.
+     *
+     * @param from    table or view.
+     * @param columns
+     *
+     * @return
+     */
+    static String select( String from, String... columns )
+    {
+        StringBuilder sql = new StringBuilder( "SELECT " );
+        for ( int i = 0; i < columns.length; i++ )
+        {
+            if ( i > 0 )
+                sql.append( ", " );
+            sql.append( columns[ i ] );
+        }
+        return sql.append( " FROM " ).append( from ).toString();
+    }
+    
+    /**
+     * Delete the database file, and its journal.
+     *
+     * @param file
+     */
+    static void delete( File file )
+    {
+        file.delete();
+        new File( file.getPath() + "-journal" ).delete();
+        new File( file.getPath() + "-wal" ).delete();
+        new File( file.getPath() + "-shm" ).delete();
+    }
+}
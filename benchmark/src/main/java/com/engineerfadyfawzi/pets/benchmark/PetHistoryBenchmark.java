@@ -0,0 +1,212 @@
+package com.engineerfadyfawzi.pets.benchmark;
+
+import com.engineerfadyfawzi.pets.data.PetSchema;
+import com.engineerfadyfawzi.pets.data.PetSchema.Pets;
+import com.engineerfadyfawzi.pets.data.PetValidation;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The latency of the catalog as the history of the shelter grows: the same pets in care, with a
+ * growing number of closed records (adopted or transferred pets), either kept in the pets table
+ * and filtered out by status with the status index, or moved to the archive table as
+ * PetProvider.archiveClosedPets() does:
+ *
+ * <pre>
+ * ./gradlew :benchmark:jmh -Pjmh="PetHistoryBenchmark"
+ * ./gradlew :benchmark:jmh -Pjmh="PetHistoryBenchmark -p history=1000000"
+ * </pre>
+ *
+ * The pets in care are spread across the whole history, as long stays and recent arrivals are.
+ * The database is the one of the app, created from PetSchema, triggers and views included, and the
+ * queries are the ones of LivePetQuery. It runs on the SQLite of sqlite-jdbc rather than the one of
+ * a device, so the numbers are only comparable to each other.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+@State( Scope.Thread )
+public class PetHistoryBenchmark
+{
+    private static final String[] BREEDS = { "Terrier", "Labrador", "Beagle", "Siamese", "Persian",
+            "Poodle", "Bulldog", "Maine Coon", "Boxer", "Sphynx" };
+    
+    /**
+     * Closed records kept in the pets table, or moved to the archive table
+     */
+    @Param( { "single-table", "archived" } )
+    public String layout;
+    
+    /**
+     * Number of closed records
+     */
+    @Param( { "0", "10000", "100000", "1000000" } )
+    public int history;
+    
+    @Param( { "1000" } )
+    public int inCare;
+    
+    private final Random mRandom = new Random( 42 );
+    private File mDatabaseFile;
+    private Connection mConnection;
+    private PreparedStatement mQueryCatalog;
+    private PreparedStatement mQueryPet;
+    private long[] mInCareIds;
+    
+    @Setup( Level.Trial )
+    public void setUp() throws IOException, SQLException
+    {
+        mDatabaseFile = File.createTempFile( "pets-history-" + layout, ".db" );
+        mDatabaseFile.delete();
+        mConnection = PetDatabase.open( mDatabaseFile );
+        PetDatabase.insertBreeds( mConnection, BREEDS );
+        boolean archived = "archived".equals( layout );
+        
+        // The pets in care, picked at random among all the pets, in the order of their ids.
+        int pets = history + inCare;
+        boolean[] isInCare = new boolean[ pets ];
+        for ( int picked = 0; picked < inCare; )
+        {
+            int i = mRandom.nextInt( pets );
+            if ( !isInCare[ i ] )
+            {
+                isInCare[ i ] = true;
+                picked++;
+            }
+        }
+        mInCareIds = new long[ inCare ];
+        
+        // The archived records are inserted in the archive table directly, as if
+        // PetProvider.archiveClosedPets() had moved them.
+        String columns = Pets.COLUMN_PET_NAME + ", " + Pets.COLUMN_PET_BREED_ID + ", " + Pets.COLUMN_PET_GENDER + ", "
+                + Pets.COLUMN_PET_WEIGHT + ", " + Pets.COLUMN_PET_SYNC_ID + ", " + Pets.COLUMN_PET_STATUS;
+        PreparedStatement insertPet = mConnection.prepareStatement( "INSERT INTO " + Pets.TABLE_NAME
+                + " (" + PetSchema.COLUMN_ID + ", " + columns + ") VALUES (?, ?, ?, ?, ?, ?, ?)" );
+        PreparedStatement archivePet = mConnection.prepareStatement( "INSERT INTO " + Pets.ARCHIVE_TABLE_NAME
+                + " (" + PetSchema.COLUMN_ID + ", " + columns + ", " + Pets.COLUMN_PET_ARCHIVED
+                + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?)" );
+        mConnection.setAutoCommit( false );
+        try
+        {
+            int inCareCount = 0;
+            for ( int i = 0; i < pets; i++ )
+            {
+                long id = i + 1;
+                int status = isInCare[ i ] ? PetValidation.STATUS_IN_CARE
+                        : mRandom.nextInt( 10 ) == 0 ? PetValidation.STATUS_TRANSFERRED
+                        : PetValidation.STATUS_ADOPTED;
+                if ( status == PetValidation.STATUS_IN_CARE )
+                    mInCareIds[ inCareCount++ ] = id;
+                
+                PreparedStatement insert = archived && status != PetValidation.STATUS_IN_CARE
+                        ? archivePet : insertPet;
+                insert.setLong( 1, id );
+                insert.setString( 2, "Pet " + i );
+                insert.setLong( 3, 1 + mRandom.nextInt( BREEDS.length ) );
+                insert.setInt( 4, mRandom.nextInt( 3 ) );
+                insert.setInt( 5, 1 + mRandom.nextInt( 50 ) );
+                insert.setString( 6, "pet-" + i );
+                insert.setInt( 7, status );
+                if ( insert == archivePet )
+                    insert.setLong( 8, 1500000000000L + i );
+                insert.executeUpdate();
+            }
+            mConnection.commit();
+        }
+        finally
+        {
+            mConnection.setAutoCommit( true );
+            insertPet.close();
+            archivePet.close();
+        }
+        
+        // Once the closed records are archived, the pets table only holds pets in care, and the
+        // catalog query of LivePetQuery reads all of the pets view. Otherwise it's filtered by status.
+        String queryCatalog = PetDatabase.select( Pets.VIEW_NAME, Pets.CATALOG_COLUMNS );
+        mQueryCatalog = mConnection.prepareStatement( archived ? queryCatalog
+                : queryCatalog + " WHERE " + Pets.COLUMN_PET_STATUS + " = " + PetValidation.STATUS_IN_CARE );
+        mQueryPet = mConnection.prepareStatement( queryCatalog + " WHERE " + PetSchema.COLUMN_ID + " = ?" );
+    }
+    
+    @TearDown( Level.Trial )
+    public void tearDown() throws SQLException
+    {
+        mConnection.close();
+        PetDatabase.delete( mDatabaseFile );
+    }
+    
+    /**
+     * The catalog query of LivePetQuery, reading every row.
+     *
+     * @return
+     *
+     * @throws SQLException
+     */
+    @Benchmark
+    public int queryCatalog() throws SQLException
+    {
+        int count = 0;
+        ResultSet resultSet = mQueryCatalog.executeQuery();
+        try
+        {
+            while ( resultSet.next() )
+            {
+                resultSet.getLong( 1 );
+                resultSet.getString( 2 );
+                resultSet.getString( 3 );
+                resultSet.getString( 4 );
+                count++;
+            }
+        }
+        finally
+        {
+            resultSet.close();
+        }
+        return count;
+    }
+    
+    /**
+     * The refresh of a changed pet of the catalog by LivePetQuery.
+     *
+     * @return
+     *
+     * @throws SQLException
+     */
+    @Benchmark
+    public String queryPet() throws SQLException
+    {
+        mQueryPet.setLong( 1, mInCareIds[ mRandom.nextInt( inCare ) ] );
+        ResultSet resultSet = mQueryPet.executeQuery();
+        try
+        {
+            return resultSet.next() ? resultSet.getString( 2 ) : null;
+        }
+        finally
+        {
+            resultSet.close();
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package com.engineerfadyfawzi.pets.benchmark;
+
+import com.engineerfadyfawzi.pets.data.PetStorageProfile;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The statements of the provider (the save of a pet with its breed lookup, an update, the catalog
+ * query, a lookup by id, and a bulk import) on a database file opened with each
+ * {@link PetStorageProfile}, so the profiles can be compared on the same workload:
+ *
+ * <pre>
+ * ./gradlew :benchmark:jmh -Pjmh="PetStorageProfileBenchmark"
+ * ./gradlew :benchmark:jmh -Pjmh="PetStorageProfileBenchmark -p rows=100000"
+ * </pre>
+ *
+ * It runs on the SQLite of sqlite-jdbc rather than the one of a device, so the numbers are only
+ * comparable to each other. The tables are the ones of the pets and the breeds, without the
+ * triggers of the history and the weights.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+@State( Scope.Thread )
+public class PetStorageProfileBenchmark
+{
+    private static final String[] BREEDS = { "Terrier", "Labrador", "Beagle", "Siamese", "Persian",
+            "Poodle", "Bulldog", "Maine Coon", "Boxer", "Sphynx" };
+    
+    private static final int BULK_ROWS = 1000;
+    
+    @Param( { "balanced", "read-heavy-mmap", "bulk-load" } )
+    public String profile;
+    
+    @Param( { "10000" } )
+    public int rows;
+    
+    private final Random mRandom = new Random( 42 );
+    private File mDatabaseFile;
+    private Connection mConnection;
+    private PreparedStatement mFindBreed;
+    private PreparedStatement mInsertPet;
+    private PreparedStatement mUpdatePet;
+    private PreparedStatement mQueryPet;
+    private PreparedStatement mQueryCatalog;
+    private long mMaxId;
+    
+    @Setup( Level.Trial )
+    public void setUp() throws IOException, SQLException
+    {
+        mDatabaseFile = File.createTempFile( "pets-" + profile, ".db" );
+        mDatabaseFile.delete();
+        mConnection = DriverManager.getConnection( "jdbc:sqlite:" + mDatabaseFile.getPath() );
+        
+        // Like PetDbHelper.onConfigure(): the page size is set before the tables are created.
+        PetStorageProfile storageProfile = PetStorageProfile.forName( profile );
+        Statement statement = mConnection.createStatement();
+        try
+        {
+            statement.execute( storageProfile.getPageSizePragma() );
+            for ( String pragma : storageProfile.getConnectionPragmas() )
+                statement.execute( pragma );
+            
+            statement.execute( "CREATE TABLE breeds (_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + "name TEXT NOT NULL UNIQUE COLLATE NOCASE)" );
+            statement.execute( "CREATE TABLE pets (_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + "name TEXT NOT NULL, breed_id INTEGER REFERENCES breeds(_id), "
+                    + "gender INTEGER NOT NULL, weight INTEGER NOT NULL DEFAULT 0, photo TEXT, "
+                    + "version INTEGER NOT NULL DEFAULT 1, sync_id TEXT, status INTEGER NOT NULL DEFAULT 0)" );
+            statement.execute( "CREATE INDEX pets_breed_id_index ON pets (breed_id)" );
+            statement.execute( "CREATE VIEW pets_view AS SELECT pets._id, pets.name, breeds.name AS breed, "
+                    + "pets.gender, pets.weight, pets.status FROM pets LEFT JOIN breeds ON pets.breed_id = breeds._id" );
+            for ( String breed : BREEDS )
+                statement.execute( "INSERT INTO breeds (name) VALUES ('" + breed + "')" );
+        }
+        finally
+        {
+            statement.close();
+        }
+        
+        mFindBreed = mConnection.prepareStatement( "SELECT _id FROM breeds WHERE name = ?" );
+        mInsertPet = mConnection.prepareStatement( "INSERT INTO pets (name, breed_id, gender, weight) VALUES (?, ?, ?, ?)" );
+        mUpdatePet = mConnection.prepareStatement( "UPDATE pets SET weight = ?, version = version + 1 WHERE _id = ?" );
+        mQueryPet = mConnection.prepareStatement( "SELECT _id, name, breed, gender, weight FROM pets_view WHERE _id = ?" );
+        mQueryCatalog = mConnection.prepareStatement( "SELECT _id, name, breed, status FROM pets_view ORDER BY name" );
+        
+        mConnection.setAutoCommit( false );
+        for ( int i = 0; i < rows; i++ )
+            insertPet();
+        mConnection.commit();
+        mConnection.setAutoCommit( true );
+    }
+    
+    @TearDown( Level.Trial )
+    public void tearDown() throws SQLException
+    {
+        mConnection.close();
+        mDatabaseFile.delete();
+        new File( mDatabaseFile.getPath() + "-journal" ).delete();
+    }
+    
+    /**
+     * A save from the editor: the breed lookup and the insert in one transaction.
+     *
+     * @return
+     *
+     * @throws SQLException
+     */
+    @Benchmark
+    public long savePet() throws SQLException
+    {
+        mConnection.setAutoCommit( false );
+        try
+        {
+            long id = insertPet();
+            mConnection.commit();
+            return id;
+        }
+        finally
+        {
+            mConnection.setAutoCommit( true );
+        }
+    }
+    
+    @Benchmark
+    public int updatePet() throws SQLException
+    {
+        mUpdatePet.setInt( 1, 1 + mRandom.nextInt( 50 ) );
+        mUpdatePet.setLong( 2, 1 + ( long ) mRandom.nextInt( rows ) );
+        return mUpdatePet.executeUpdate();
+    }
+    
+    @Benchmark
+    public String queryPet() throws SQLException
+    {
+        mQueryPet.setLong( 1, 1 + ( long ) mRandom.nextInt( rows ) );
+        ResultSet resultSet = mQueryPet.executeQuery();
+        try
+        {
+            return resultSet.next() ? resultSet.getString( 2 ) : null;
+        }
+        finally
+        {
+            resultSet.close();
+        }
+    }
+    
+    /**
+     * The catalog query of LivePetQuery, reading every row.
+     *
+     * @return
+     *
+     * @throws SQLException
+     */
+    @Benchmark
+    @OutputTimeUnit( TimeUnit.MILLISECONDS )
+    public int queryCatalog() throws SQLException
+    {
+        int count = 0;
+        ResultSet resultSet = mQueryCatalog.executeQuery();
+        try
+        {
+            while ( resultSet.next() )
+            {
+                resultSet.getLong( 1 );
+                resultSet.getString( 2 );
+                resultSet.getString( 3 );
+                count += resultSet.getInt( 4 ) + 1;
+            }
+        }
+        finally
+        {
+            resultSet.close();
+        }
+        return count;
+    }
+    
+    /**
+     * An import, or a sync pulling many pets: {@link #BULK_ROWS} saves in one transaction.
+     *
+     * @return
+     *
+     * @throws SQLException
+     */
+    @Benchmark
+    @OutputTimeUnit( TimeUnit.MILLISECONDS )
+    public long bulkLoad() throws SQLException
+    {
+        mConnection.setAutoCommit( false );
+        try
+        {
+            long id = 0;
+            for ( int i = 0; i < BULK_ROWS; i++ )
+                id = insertPet();
+            mConnection.commit();
+            return id;
+        }
+        finally
+        {
+            mConnection.setAutoCommit( true );
+        }
+    }
+    
+    private long insertPet() throws SQLException
+    {
+        long breedId = 0;
+        mFindBreed.setString( 1, BREEDS[ mRandom.nextInt( BREEDS.length ) ] );
+        ResultSet breed = mFindBreed.executeQuery();
+        try
+        {
+            if ( breed.next() )
+                breedId = breed.getLong( 1 );
+        }
+        finally
+        {
+            breed.close();
+        }
+        
+        mInsertPet.setString( 1, "Pet " + mRandom.nextInt( 1000000 ) );
+        mInsertPet.setLong( 2, breedId );
+        mInsertPet.setInt( 3, mRandom.nextInt( 3 ) );
+        mInsertPet.setInt( 4, mRandom.nextInt( 50 ) );
+        mInsertPet.executeUpdate();
+        return ++mMaxId;
+    }
+}
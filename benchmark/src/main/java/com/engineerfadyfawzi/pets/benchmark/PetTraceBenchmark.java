@@ -0,0 +1,124 @@
+package com.engineerfadyfawzi.pets.benchmark;
+
+import com.engineerfadyfawzi.pets.data.PetTrace;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What recording a call of the provider costs the calling thread (sanitizing its arguments and
+ * writing it to a trace), and reading a trace back for a replay.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Thread )
+public class PetTraceBenchmark
+{
+    private static final int TRACE_CALLS = 1000;
+    
+    private final PetTrace.Sanitizer mSanitizer = new PetTrace.Sanitizer();
+    private PetTrace.Writer mWriter;
+    private PetTrace.Call mInsert;
+    private byte[] mTrace;
+    
+    @Setup( Level.Trial )
+    public void setUp() throws IOException
+    {
+        LinkedHashMap< String, Object > values = new LinkedHashMap<>();
+        values.put( "name", "Toto" );
+        values.put( "breed", "Terrier" );
+        values.put( "gender", 1 );
+        values.put( "weight", 7 );
+        mInsert = new PetTrace.Call( PetTrace.KIND_INSERT, "content://com.engineerfadyfawzi.pets/pets",
+                null, null, null, null, null, null, values );
+        
+        ByteArrayOutputStream trace = new ByteArrayOutputStream();
+        PetTrace.Writer writer = new PetTrace.Writer( trace, 0 );
+        for ( int i = 0; i < TRACE_CALLS; i++ )
+        {
+            mInsert.startMicros = i * 100;
+            writer.write( mInsert );
+        }
+        writer.close();
+        mTrace = trace.toByteArray();
+        
+        // The written calls are only compressed, and thrown away.
+        mWriter = new PetTrace.Writer( new OutputStream()
+        {
+            @Override
+            public void write( int b )
+            {
+            
+            }
+            
+            @Override
+            public void write( byte[] b, int off, int len )
+            {
+            
+            }
+        }, 0 );
+    }
+    
+    @TearDown( Level.Trial )
+    public void tearDown() throws IOException
+    {
+        mWriter.close();
+    }
+    
+    @Benchmark
+    public Object sanitizeInsert()
+    {
+        LinkedHashMap< String, Object > sanitized = new LinkedHashMap<>();
+        for ( String key : mInsert.values.keySet() )
+            sanitized.put( key, mSanitizer.sanitizeValue( mInsert.values.get( key ) ) );
+        return sanitized;
+    }
+    
+    @Benchmark
+    public String sanitizeSelection()
+    {
+        return mSanitizer.sanitizeSelection( "name = 'Toto' AND breed LIKE 'Terr%'" );
+    }
+    
+    @Benchmark
+    public void writeInsert() throws IOException
+    {
+        mWriter.write( mInsert );
+    }
+    
+    @Benchmark
+    @OutputTimeUnit( TimeUnit.MICROSECONDS )
+    public List< PetTrace.Call > readTrace() throws IOException
+    {
+        PetTrace.Reader reader = new PetTrace.Reader( new ByteArrayInputStream( mTrace ) );
+        try
+        {
+            return reader.readAll();
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.engineerfadyfawzi.pets.benchmark;
+
+import com.engineerfadyfawzi.pets.data.PetTracer;
+import com.engineerfadyfawzi.pets.data.TraceBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What a trace section costs the traced thread, without a sink (as in a release run that isn't
+ * traced) and with a trace buffer.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Thread )
+public class PetTracerBenchmark
+{
+    /**
+     * Sets a trace buffer as the sink of the benchmarks using it.
+     */
+    @State( Scope.Thread )
+    public static class Buffered
+    {
+        private final TraceBuffer mTraceBuffer = new TraceBuffer( 10000 );
+        
+        @Setup( Level.Iteration )
+        public void setUp()
+        {
+            PetTracer.setSink( mTraceBuffer );
+        }
+        
+        @TearDown( Level.Iteration )
+        public void tearDown()
+        {
+            PetTracer.setSink( null );
+            mTraceBuffer.clear();
+        }
+    }
+    
+    @Benchmark
+    public void sectionWithoutSink()
+    {
+        PetTracer.beginSection( "PetProvider.insertPet" );
+        PetTracer.endSection();
+    }
+    
+    @Benchmark
+    public void sectionInBuffer( Buffered buffered )
+    {
+        PetTracer.beginSection( "PetProvider.insertPet" );
+        PetTracer.endSection();
+    }
+}
@@ -0,0 +1,59 @@
+package com.engineerfadyfawzi.pets.benchmark;
+
+import com.engineerfadyfawzi.pets.data.PetValidation;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The checks of the possible values of the pets, and of the shelter id of each shelter URI. The
+ * shelter id is also checked with the regular expression it used to be checked with, as a
+ * baseline. The other rules of the pet values are checked by the generated PetValidator, which
+ * uses the Android ContentValues, so it isn't measured here.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Thread )
+public class PetValidationBenchmark
+{
+    // Not final, so the JIT can't fold the checks into constants.
+    public int gender = PetValidation.GENDER_MALE;
+    public int status = PetValidation.STATUS_ADOPTED;
+    public String shelterId = "north-shelter_2";
+    
+    @Benchmark
+    public boolean validateGender()
+    {
+        return PetValidation.isValidGender( gender );
+    }
+    
+    @Benchmark
+    public boolean validateStatus()
+    {
+        return PetValidation.isValidStatus( status );
+    }
+    
+    @Benchmark
+    public boolean validateShelterId()
+    {
+        return PetValidation.isValidShelterId( shelterId );
+    }
+    
+    @Benchmark
+    public boolean validateShelterIdWithRegex()
+    {
+        return shelterId.matches( "[A-Za-z0-9_-]+" );
+    }
+}
@@ -0,0 +1,254 @@
+package com.engineerfadyfawzi.pets.benchmark;
+
+import com.engineerfadyfawzi.pets.data.PetIdBitmap;
+import com.engineerfadyfawzi.pets.data.PetSchema;
+import com.engineerfadyfawzi.pets.data.PetSchema.Pets;
+import com.engineerfadyfawzi.pets.data.PetSchema.Tags;
+import com.engineerfadyfawzi.pets.data.PetValidation;
+import com.engineerfadyfawzi.pets.data.TagIndex;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filtering the pets by tags with a {@link TagIndex}, for shelters of a few hundred to half a
+ * million pets: a common tag (half of the pets), a rare one (one pet in a hundred) and a tag
+ * which isn't in the index. The query* benchmarks run the filters as the provider does, on the
+ * SQLite of sqlite-jdbc with the schema of the app: the pets view with the selection of
+ * {@link TagIndex#getSelection}, either by the ids of the matching pets (queryIds*), or with the
+ * pet tags table (queryPetTags*), which the provider falls back to when too many pets match.
+ *
+ * <pre>
+ * ./gradlew :benchmark:jmh -Pjmh="TagIndexBenchmark -p pets=500000"
+ * </pre>
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class TagIndexBenchmark
+{
+    private static final long COMMON_TAG = 1;
+    private static final long RARE_TAG = 2;
+    private static final long OTHER_TAG = 3;
+    private static final long MISSING_TAG = 4;
+    
+    /**
+     * Names of the tags, in the order of their ids
+     */
+    private static final String[] TAGS = { "Common", "Rare", "Other", "Missing" };
+    
+    /**
+     * Largest number of matching pets to select by id, to pick the form of the selection: the ids
+     * whatever the number of pets, or the pet tags table whatever it is.
+     */
+    private static final int ALL_IDS = Integer.MAX_VALUE;
+    private static final int NO_IDS = 0;
+    
+    @Param( { "500", "10000", "100000", "500000" } )
+    public int pets;
+    
+    private TagIndex mTagIndex;
+    
+    private File mDatabaseFile;
+    private Connection mConnection;
+    
+    @Setup( Level.Trial )
+    public void setUp() throws IOException, SQLException
+    {
+        mDatabaseFile = File.createTempFile( "pets-tags", ".db" );
+        mDatabaseFile.delete();
+        mConnection = PetDatabase.open( mDatabaseFile );
+        
+        // Same seed for each fork, so the runs are comparable.
+        Random random = new Random( 42 );
+        mTagIndex = new TagIndex();
+        PreparedStatement insertTag = mConnection.prepareStatement( "INSERT INTO " + Tags.TABLE_NAME
+                + " (" + Tags.COLUMN_TAG_NAME + ") VALUES (?)" );
+        PreparedStatement insertPet = mConnection.prepareStatement( "INSERT INTO " + Pets.TABLE_NAME
+                + " (" + PetSchema.COLUMN_ID + ", " + Pets.COLUMN_PET_NAME + ", " + Pets.COLUMN_PET_GENDER
+                + ") VALUES (?, ?, ?)" );
+        PreparedStatement insertPetTag = mConnection.prepareStatement( "INSERT INTO " + Tags.PET_TAGS_TABLE_NAME
+                + " (" + Tags.COLUMN_PET_ID + ", " + Tags.COLUMN_TAG_ID + ") VALUES (?, ?)" );
+        mConnection.setAutoCommit( false );
+        try
+        {
+            for ( String tag : TAGS )
+            {
+                insertTag.setString( 1, tag );
+                insertTag.executeUpdate();
+            }
+            for ( long petId = 1; petId <= pets; petId++ )
+            {
+                insertPet.setLong( 1, petId );
+                insertPet.setString( 2, "Pet " + petId );
+                insertPet.setInt( 3, PetValidation.GENDER_UNKNOWN );
+                insertPet.executeUpdate();
+                if ( random.nextInt( 2 ) == 0 )
+                    addTag( insertPetTag, COMMON_TAG, petId );
+                if ( random.nextInt( 100 ) == 0 )
+                    addTag( insertPetTag, RARE_TAG, petId );
+                if ( random.nextInt( 4 ) == 0 )
+                    addTag( insertPetTag, OTHER_TAG, petId );
+            }
+            mConnection.commit();
+        }
+        finally
+        {
+            mConnection.setAutoCommit( true );
+            insertTag.close();
+            insertPet.close();
+            insertPetTag.close();
+        }
+    }
+    
+    @TearDown( Level.Trial )
+    public void tearDown() throws SQLException
+    {
+        mConnection.close();
+        PetDatabase.delete( mDatabaseFile );
+    }
+    
+    private void addTag( PreparedStatement insertPetTag, long tagId, long petId ) throws SQLException
+    {
+        mTagIndex.add( tagId, petId );
+        insertPetTag.setLong( 1, petId );
+        insertPetTag.setLong( 2, tagId );
+        insertPetTag.executeUpdate();
+    }
+    
+    @Benchmark
+    public PetIdBitmap matchAllCommonAndRare()
+    {
+        return mTagIndex.match( new long[]{ COMMON_TAG, RARE_TAG }, new long[ 0 ] );
+    }
+    
+    @Benchmark
+    public PetIdBitmap matchAllCommonAndOther()
+    {
+        return mTagIndex.match( new long[]{ COMMON_TAG, OTHER_TAG }, new long[ 0 ] );
+    }
+    
+    @Benchmark
+    public PetIdBitmap matchAnyRareOrOther()
+    {
+        return mTagIndex.match( new long[ 0 ], new long[]{ RARE_TAG, OTHER_TAG } );
+    }
+    
+    @Benchmark
+    public PetIdBitmap matchMissing()
+    {
+        return mTagIndex.match( new long[]{ COMMON_TAG, MISSING_TAG }, new long[ 0 ] );
+    }
+    
+    @Benchmark
+    public long[] matchAndListIds()
+    {
+        // What the provider does with a match: list the ids for the IN clause of the query.
+        return mTagIndex.match( new long[]{ COMMON_TAG }, new long[]{ RARE_TAG, OTHER_TAG } ).toArray();
+    }
+    
+    @Benchmark
+    public long[] queryIdsAllCommonAndRare() throws SQLException
+    {
+        return query( new long[]{ COMMON_TAG, RARE_TAG }, new long[ 0 ], ALL_IDS );
+    }
+    
+    @Benchmark
+    public long[] queryIdsAllCommonAndOther() throws SQLException
+    {
+        return query( new long[]{ COMMON_TAG, OTHER_TAG }, new long[ 0 ], ALL_IDS );
+    }
+    
+    @Benchmark
+    public long[] queryIdsAllAndAny() throws SQLException
+    {
+        // The filter of matchAndListIds().
+        return query( new long[]{ COMMON_TAG }, new long[]{ RARE_TAG, OTHER_TAG }, ALL_IDS );
+    }
+    
+    @Benchmark
+    public long[] queryPetTagsAllCommonAndRare() throws SQLException
+    {
+        return query( new long[]{ COMMON_TAG, RARE_TAG }, new long[ 0 ], NO_IDS );
+    }
+    
+    @Benchmark
+    public long[] queryPetTagsAllCommonAndOther() throws SQLException
+    {
+        return query( new long[]{ COMMON_TAG, OTHER_TAG }, new long[ 0 ], NO_IDS );
+    }
+    
+    @Benchmark
+    public long[] queryPetTagsAnyRareOrOther() throws SQLException
+    {
+        return query( new long[ 0 ], new long[]{ RARE_TAG, OTHER_TAG }, NO_IDS );
+    }
+    
+    @Benchmark
+    public long[] queryPetTagsAllAndAny() throws SQLException
+    {
+        return query( new long[]{ COMMON_TAG }, new long[]{ RARE_TAG, OTHER_TAG }, NO_IDS );
+    }
+    
+    /**
+     * Query the ids of the pets of the pets view matching the tags, with the selection the
+     * provider builds for them.
+     *
+     * @param allTagIds
+     * @param anyTagIds
+     * @param maxIds    largest number of pets to select by id.
+     *
+     * @return
+     *
+     * @throws SQLException
+     */
+    private long[] query( long[] allTagIds, long[] anyTagIds, int maxIds ) throws SQLException
+    {
+        String sql = PetDatabase.select( Pets.VIEW_NAME, PetSchema.COLUMN_ID ) + " WHERE "
+                + mTagIndex.getSelection( allTagIds, anyTagIds, maxIds ) + " ORDER BY " + PetSchema.COLUMN_ID;
+        
+        long[] petIds = new long[ 16 ];
+        int count = 0;
+        PreparedStatement query = mConnection.prepareStatement( sql );
+        try
+        {
+            ResultSet resultSet = query.executeQuery();
+            while ( resultSet.next() )
+            {
+                if ( count == petIds.length )
+                    petIds = Arrays.copyOf( petIds, count * 2 );
+                petIds[ count++ ] = resultSet.getLong( 1 );
+            }
+            resultSet.close();
+        }
+        finally
+        {
+            query.close();
+        }
+        return Arrays.copyOf( petIds, count );
+    }
+}
@@ -0,0 +1,157 @@
+package com.engineerfadyfawzi.pets.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Immutable in-memory index of the breeds, used to suggest breeds while the user is typing
+ * without querying the database on every keystroke.
+ *
+ * The breeds are kept in an array sorted by their lower case name, so all the breeds starting
+ * with a prefix are one contiguous range found with two binary searches.
+ */
+public final class BreedIndex
+{
+    /**
+     * An index with no breeds.
+     */
+    public static final BreedIndex EMPTY = new BreedIndex( new String[ 0 ], new int[ 0 ] );
+    
+    /**
+     * Lower case breed names (the search keys), in ascending order.
+     */
+    private final String[] mKeys;
+    
+    /**
+     * Breed names as they were entered, in the same order as {@link #mKeys}.
+     */
+    private final String[] mNames;
+    
+    /**
+     * Number of pets of each breed, in the same order as {@link #mKeys}.
+     */
+    private final int[] mCounts;
+    
+    /**
+     * Constructs a new {@link BreedIndex}
+     *
+     * @param names  of the breeds, in any order.
+     * @param counts number of pets of each breed, in the same order as the names.
+     */
+    public BreedIndex( String[] names, int[] counts )
+    {
+        if ( names.length != counts.length )
+            throw new IllegalArgumentException( "Each breed requires a pet count" );
+        
+        final String[] keys = new String[ names.length ];
+        Integer[] order = new Integer[ names.length ];
+        for ( int i = 0; i < names.length; i++ )
+        {
+            keys[ i ] = names[ i ].toLowerCase( Locale.ROOT );
+            order[ i ] = i;
+        }
+        
+        Arrays.sort( order, new Comparator< Integer >()
+        {
+            @Override
+            public int compare( Integer first, Integer second )
+            {
+                return keys[ first ].compareTo( keys[ second ] );
+            }
+        } );
+        
+        mKeys = new String[ names.length ];
+        mNames = new String[ names.length ];
+        mCounts = new int[ names.length ];
+        for ( int i = 0; i < order.length; i++ )
+        {
+            mKeys[ i ] = keys[ order[ i ] ];
+            mNames[ i ] = names[ order[ i ] ];
+            mCounts[ i ] = counts[ order[ i ] ];
+        }
+    }
+    
+    /**
+     * Return the breeds starting with the given prefix (ignoring case), most common first,
+     * at most limit of them.
+     *
+     * @param prefix
+     * @param limit
+     *
+     * @return
+     */
+    public List< String > suggest( String prefix, int limit )
+    {
+        List< String > suggestions = new ArrayList<>();
+        if ( prefix == null || limit <= 0 )
+            return suggestions;
+        
+        String key = prefix.trim().toLowerCase( Locale.ROOT );
+        if ( key.isEmpty() )
+            return suggestions;
+        
+        // All the keys starting with the prefix sort between the prefix itself and the prefix
+        // followed by the highest char.
+        int from = lowerBound( key );
+        int to = lowerBound( key + Character.MAX_VALUE );
+        
+        // Keep the top "limit" breeds of the range, sorted by descending count, by insertion.
+        // The range and the limit are both small, so this is cheaper than sorting the range.
+        int[] top = new int[ Math.min( limit, to - from ) ];
+        int size = 0;
+        for ( int i = from; i < to; i++ )
+        {
+            if ( size == top.length && mCounts[ i ] <= mCounts[ top[ size - 1 ] ] )
+                continue;
+            
+            int position = size < top.length ? size++ : size - 1;
+            while ( position > 0 && mCounts[ top[ position - 1 ] ] < mCounts[ i ] )
+            {
+                top[ position ] = top[ position - 1 ];
+                position--;
+            }
+            top[ position ] = i;
+        }
+        
+        for ( int i = 0; i < size; i++ )
+            suggestions.add( mNames[ top[ i ] ] );
+        
+        return suggestions;
+    }
+    
+    /**
+     * Return the number of breeds in the index.
+     *
+     * @return
+     */
+    public int size()
+    {
+        return mKeys.length;
+    }
+    
+    /**
+     * Return the index of the first key that isn't less than the given key.
+     *
+     * @param key
+     *
+     * @return
+     */
+    private int lowerBound( String key )
+    {
+        int low = 0;
+        int high = mKeys.length;
+        while ( low < high )
+        {
+            int middle = ( low + high ) >>> 1;
+            if ( mKeys[ middle ].compareTo( key ) < 0 )
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        
+        return low;
+    }
+}
@@ -0,0 +1,80 @@
+package com.engineerfadyfawzi.pets.data;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Defines a column of a {@link Table}: the column name constant it's put on, the type of the
+ * values, and the rules the values must follow when they're inserted or updated.
+ *
+ * The name of the accessors is derived from the constant, without its "COLUMN_" and table
+ * prefixes: COLUMN_PET_SYNC_ID of the "Pet" table is read with getSyncId(), for instance.
+ */
+@Retention( RetentionPolicy.SOURCE )
+@Target( ElementType.FIELD )
+public @interface Column
+{
+    /**
+     * Java type of the values
+     */
+    enum Type
+    {
+        INT,
+        LONG,
+        TEXT
+    }
+    
+    Type type();
+    
+    /**
+     * Whether the column is only read by clients, and set by the provider.
+     *
+     * @return
+     */
+    boolean readOnly() default false;
+    
+    /**
+     * Whether an insert must give the column a value.
+     *
+     * @return
+     */
+    boolean required() default false;
+    
+    /**
+     * Whether the value can't be null.
+     *
+     * @return
+     */
+    boolean notNull() default false;
+    
+    /**
+     * Whether a text value can't be null or empty.
+     *
+     * @return
+     */
+    boolean notEmpty() default false;
+    
+    /**
+     * Minimum of a number value, if there's one.
+     *
+     * @return
+     */
+    long min() default Long.MIN_VALUE;
+    
+    /**
+     * Only possible values of a number value, if there are only some.
+     *
+     * @return
+     */
+    int[] values() default {};
+    
+    /**
+     * Message of the exception thrown for an invalid value, by default "<table> requires valid
+     * <column>".
+     *
+     * @return
+     */
+    String error() default "";
+}
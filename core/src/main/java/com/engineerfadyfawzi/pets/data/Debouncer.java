@@ -0,0 +1,74 @@
+package com.engineerfadyfawzi.pets.data;
+
+/**
+ * Coalesces bursts of changes into one write, such as the keystrokes of an editor into one save
+ * of its draft: the write is due once no change was made for the delay, but no later than the
+ * maximum delay after the first change, so continuous changes are still written now and then.
+ *
+ * It only computes when the write is due, from the times it's given (for instance
+ * SystemClock.uptimeMillis()), the caller schedules it. It isn't thread safe.
+ */
+public final class Debouncer
+{
+    private final long mDelayMillis;
+    private final long mMaxDelayMillis;
+    
+    /**
+     * Number of changes since the last write, and the time of the first of them.
+     */
+    private int mChanges;
+    private long mFirstChangeTime;
+    
+    /**
+     * Constructs a new {@link Debouncer}
+     *
+     * @param delayMillis    without changes after which the write is due.
+     * @param maxDelayMillis after the first change after which the write is due anyway.
+     */
+    public Debouncer( long delayMillis, long maxDelayMillis )
+    {
+        if ( delayMillis < 0 || maxDelayMillis < delayMillis )
+            throw new IllegalArgumentException( "Debouncer requires a delay up to the maximum delay" );
+        
+        mDelayMillis = delayMillis;
+        mMaxDelayMillis = maxDelayMillis;
+    }
+    
+    /**
+     * Count a change, and return when the write of the changes is due, replacing the time
+     * returned for the previous change.
+     *
+     * @param now time of the change.
+     *
+     * @return
+     */
+    public long change( long now )
+    {
+        if ( mChanges++ == 0 )
+            mFirstChangeTime = now;
+        
+        return Math.min( now + mDelayMillis, mFirstChangeTime + mMaxDelayMillis );
+    }
+    
+    /**
+     * Return whether there are changes which weren't taken yet.
+     *
+     * @return
+     */
+    public boolean hasChanges()
+    {
+        return mChanges > 0;
+    }
+    
+    /**
+     * Take the changes, when they're written (or dropped): the next change starts a new burst.
+     *
+     * @return the number of changes since they were last taken.
+     */
+    public int takeChanges()
+    {
+        int changes = mChanges;
+        mChanges = 0;
+        return changes;
+    }
+}
@@ -0,0 +1,139 @@
+package com.engineerfadyfawzi.pets.data;
+
+import java.util.Arrays;
+
+/**
+ * A chunk of pets of the bulk read of the provider, packed into column arrays: the ids, genders
+ * and weights as arrays, and the names and breeds each concatenated into one string with the end
+ * offset of each row, so a caller reads a chunk without a CursorWindow and a getter per cell.
+ *
+ * The chunk is read with {@link #COLUMNS}, {@link #SELECTION} and {@link #ORDER_BY} from the pets
+ * view, after the last id of the previous chunk, and each row is added in order.
+ */
+public final class PetBulkChunk
+{
+    /**
+     * Columns of the query of a chunk, in the order of {@link #addRow}
+     */
+    public static final String[] COLUMNS = {
+            PetSchema.COLUMN_ID,
+            PetSchema.Pets.COLUMN_PET_NAME,
+            PetSchema.Pets.COLUMN_PET_BREED,
+            PetSchema.Pets.COLUMN_PET_GENDER,
+            PetSchema.Pets.COLUMN_PET_WEIGHT };
+    
+    /**
+     * Selection of the query of a chunk, with the last id of the previous chunk (0 for the first
+     * one) as its argument, and its order. The primary key index makes this a range scan, however
+     * deep into the table we are.
+     */
+    public static final String SELECTION = PetSchema.COLUMN_ID + ">?";
+    public static final String ORDER_BY = PetSchema.COLUMN_ID;
+    
+    private final int mLimit;
+    private final long[] mIds;
+    private final int[] mGenders;
+    private final int[] mWeights;
+    private final int[] mNameEnds;
+    private final int[] mBreedEnds;
+    private final StringBuilder mNames = new StringBuilder();
+    private final StringBuilder mBreeds = new StringBuilder();
+    private int mCount;
+    
+    /**
+     * Constructs a new {@link PetBulkChunk}
+     *
+     * @param capacity number of rows of the chunk, if it's known, or its limit.
+     * @param limit    of the query of the chunk.
+     */
+    public PetBulkChunk( int capacity, int limit )
+    {
+        if ( capacity < 0 || capacity > limit )
+            throw new IllegalArgumentException( "Chunk requires a capacity between 0 and its limit" );
+        
+        mLimit = limit;
+        mIds = new long[ capacity ];
+        mGenders = new int[ capacity ];
+        mWeights = new int[ capacity ];
+        mNameEnds = new int[ capacity ];
+        mBreedEnds = new int[ capacity ];
+    }
+    
+    /**
+     * Add the next row of the chunk.
+     *
+     * @param id
+     * @param name
+     * @param breed  or null if the pet has no breed.
+     * @param gender
+     * @param weight
+     */
+    public void addRow( long id, String name, String breed, int gender, int weight )
+    {
+        int row = mCount++;
+        mIds[ row ] = id;
+        mNames.append( name );
+        mNameEnds[ row ] = mNames.length();
+        if ( breed != null )
+            mBreeds.append( breed );
+        mBreedEnds[ row ] = mBreeds.length();
+        mGenders[ row ] = gender;
+        mWeights[ row ] = weight;
+    }
+    
+    public int getCount()
+    {
+        return mCount;
+    }
+    
+    public long[] getIds()
+    {
+        return mCount == mIds.length ? mIds : Arrays.copyOf( mIds, mCount );
+    }
+    
+    public int[] getGenders()
+    {
+        return trim( mGenders );
+    }
+    
+    public int[] getWeights()
+    {
+        return trim( mWeights );
+    }
+    
+    public String getNames()
+    {
+        return mNames.toString();
+    }
+    
+    public int[] getNameEnds()
+    {
+        return trim( mNameEnds );
+    }
+    
+    public String getBreeds()
+    {
+        return mBreeds.toString();
+    }
+    
+    public int[] getBreedEnds()
+    {
+        return trim( mBreedEnds );
+    }
+    
+    /**
+     * Return the id to read the next chunk after: the last id of this one, or -1 if it's the last
+     * chunk. A short chunk means there is nothing after it.
+     *
+     * @return
+     */
+    public long getNextAfterId()
+    {
+        return mCount < mLimit ? -1 : mIds[ mCount - 1 ];
+    }
+    
+    private int[] trim( int[] column )
+    {
+        return mCount == column.length ? column : Arrays.copyOf( column, mCount );
+    }
+}
@@ -0,0 +1,531 @@
+package com.engineerfadyfawzi.pets.data;
+
+import java.util.Arrays;
+
+/**
+ * Compressed set of pet ids, for combining the pets of several tags with set operations instead
+ * of joins.
+ *
+ * The ids are split by their high bits into chunks of 65536 ids. Each chunk is kept as a sorted
+ * array of the low 16 bits of its ids while it's sparse, and as a bitmap of 65536 bits once it
+ * has more than {@link #MAX_ARRAY_SIZE} ids, which is the size where the bitmap becomes the
+ * smaller of the two. Ids are usually allocated in order, so most chunks are dense.
+ *
+ * It isn't thread safe.
+ */
+public final class PetIdBitmap
+{
+    /**
+     * Largest number of ids of a chunk kept as a sorted array (8 KiB, the size of a bitmap)
+     */
+    private static final int MAX_ARRAY_SIZE = 4096;
+    
+    /**
+     * Number of longs of the bitmap of a chunk
+     */
+    private static final int BITMAP_WORDS = 65536 / 64;
+    
+    /**
+     * Largest id of a set, so the high bits of an id fit an int key
+     */
+    public static final long MAX_ID = ( ( long ) Integer.MAX_VALUE << 16 ) | 0xFFFF;
+    
+    /**
+     * Keys (high bits of the ids) of the chunks, sorted, and the chunks of these keys
+     */
+    private int[] mKeys;
+    private Chunk[] mChunks;
+    private int mSize;
+    
+    public PetIdBitmap()
+    {
+        this( 4 );
+    }
+    
+    private PetIdBitmap( int capacity )
+    {
+        mKeys = new int[ Math.max( capacity, 1 ) ];
+        mChunks = new Chunk[ mKeys.length ];
+    }
+    
+    /**
+     * Add an id. Adding ids in increasing order is the fastest.
+     *
+     * @param id
+     *
+     * @return whether the id wasn't in the set.
+     */
+    public boolean add( long id )
+    {
+        checkId( id );
+        int key = ( int ) ( id >>> 16 );
+        int index = findChunk( key );
+        if ( index < 0 )
+        {
+            index = -index - 1;
+            insertChunk( index, key, new Chunk() );
+        }
+        
+        return mChunks[ index ].add( ( char ) id );
+    }
+    
+    /**
+     * Remove an id.
+     *
+     * @param id
+     *
+     * @return whether the id was in the set.
+     */
+    public boolean remove( long id )
+    {
+        if ( id < 0 || id > MAX_ID )
+            return false;
+        
+        int index = findChunk( ( int ) ( id >>> 16 ) );
+        if ( index < 0 || !mChunks[ index ].remove( ( char ) id ) )
+            return false;
+        
+        if ( mChunks[ index ].mCardinality == 0 )
+            removeChunk( index );
+        return true;
+    }
+    
+    public boolean contains( long id )
+    {
+        if ( id < 0 || id > MAX_ID )
+            return false;
+        
+        int index = findChunk( ( int ) ( id >>> 16 ) );
+        return index >= 0 && mChunks[ index ].contains( ( char ) id );
+    }
+    
+    /**
+     * Return the number of ids.
+     *
+     * @return
+     */
+    public int getCardinality()
+    {
+        int cardinality = 0;
+        for ( int i = 0; i < mSize; i++ )
+            cardinality += mChunks[ i ].mCardinality;
+        return cardinality;
+    }
+    
+    public boolean isEmpty()
+    {
+        return mSize == 0;
+    }
+    
+    /**
+     * Return the ids, in increasing order.
+     *
+     * @return
+     */
+    public long[] toArray()
+    {
+        long[] ids = new long[ getCardinality() ];
+        int position = 0;
+        for ( int i = 0; i < mSize; i++ )
+            position = mChunks[ i ].copyTo( ( long ) mKeys[ i ] << 16, ids, position );
+        return ids;
+    }
+    
+    /**
+     * Return a copy of the set.
+     *
+     * @return
+     */
+    public PetIdBitmap copy()
+    {
+        PetIdBitmap copy = new PetIdBitmap( mSize );
+        for ( int i = 0; i < mSize; i++ )
+            copy.appendChunk( mKeys[ i ], mChunks[ i ].copy() );
+        return copy;
+    }
+    
+    /**
+     * Return a new set of the ids in both sets.
+     *
+     * @param first
+     * @param second
+     *
+     * @return
+     */
+    public static PetIdBitmap and( PetIdBitmap first, PetIdBitmap second )
+    {
+        PetIdBitmap result = new PetIdBitmap( Math.min( first.mSize, second.mSize ) );
+        int i = 0;
+        int j = 0;
+        while ( i < first.mSize && j < second.mSize )
+        {
+            if ( first.mKeys[ i ] < second.mKeys[ j ] )
+                i++;
+            else if ( first.mKeys[ i ] > second.mKeys[ j ] )
+                j++;
+            else
+            {
+                Chunk chunk = Chunk.and( first.mChunks[ i ], second.mChunks[ j ] );
+                if ( chunk.mCardinality > 0 )
+                    result.appendChunk( first.mKeys[ i ], chunk );
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Return a new set of the ids in either set.
+     *
+     * @param first
+     * @param second
+     *
+     * @return
+     */
+    public static PetIdBitmap or( PetIdBitmap first, PetIdBitmap second )
+    {
+        PetIdBitmap result = new PetIdBitmap( first.mSize + second.mSize );
+        int i = 0;
+        int j = 0;
+        while ( i < first.mSize || j < second.mSize )
+        {
+            if ( j == second.mSize || ( i < first.mSize && first.mKeys[ i ] < second.mKeys[ j ] ) )
+            {
+                result.appendChunk( first.mKeys[ i ], first.mChunks[ i ].copy() );
+                i++;
+            }
+            else if ( i == first.mSize || first.mKeys[ i ] > second.mKeys[ j ] )
+            {
+                result.appendChunk( second.mKeys[ j ], second.mChunks[ j ].copy() );
+                j++;
+            }
+            else
+            {
+                result.appendChunk( first.mKeys[ i ], Chunk.or( first.mChunks[ i ], second.mChunks[ j ] ) );
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Return a new set of the ids in the first set but not in the second one.
+     *
+     * @param first
+     * @param second
+     *
+     * @return
+     */
+    public static PetIdBitmap andNot( PetIdBitmap first, PetIdBitmap second )
+    {
+        PetIdBitmap result = new PetIdBitmap( first.mSize );
+        int j = 0;
+        for ( int i = 0; i < first.mSize; i++ )
+        {
+            while ( j < second.mSize && second.mKeys[ j ] < first.mKeys[ i ] )
+                j++;
+            
+            Chunk chunk = j < second.mSize && second.mKeys[ j ] == first.mKeys[ i ]
+                    ? Chunk.andNot( first.mChunks[ i ], second.mChunks[ j ] )
+                    : first.mChunks[ i ].copy();
+            if ( chunk.mCardinality > 0 )
+                result.appendChunk( first.mKeys[ i ], chunk );
+        }
+        return result;
+    }
+    
+    private static void checkId( long id )
+    {
+        if ( id < 0 || id > MAX_ID )
+            throw new IllegalArgumentException( "Bitmap requires a valid id " + id );
+    }
+    
+    /**
+     * Return the index of the chunk of the key, or -(insertion point) - 1 if there is none.
+     * The last chunk is checked first, since ids are usually added in increasing order.
+     *
+     * @param key
+     *
+     * @return
+     */
+    private int findChunk( int key )
+    {
+        if ( mSize > 0 && mKeys[ mSize - 1 ] == key )
+            return mSize - 1;
+        if ( mSize == 0 || mKeys[ mSize - 1 ] < key )
+            return -mSize - 1;
+        return Arrays.binarySearch( mKeys, 0, mSize, key );
+    }
+    
+    private void insertChunk( int index, int key, Chunk chunk )
+    {
+        if ( mSize == mKeys.length )
+        {
+            mKeys = Arrays.copyOf( mKeys, mSize * 2 );
+            mChunks = Arrays.copyOf( mChunks, mSize * 2 );
+        }
+        
+        System.arraycopy( mKeys, index, mKeys, index + 1, mSize - index );
+        System.arraycopy( mChunks, index, mChunks, index + 1, mSize - index );
+        mKeys[ index ] = key;
+        mChunks[ index ] = chunk;
+        mSize++;
+    }
+    
+    private void appendChunk( int key, Chunk chunk )
+    {
+        insertChunk( mSize, key, chunk );
+    }
+    
+    private void removeChunk( int index )
+    {
+        System.arraycopy( mKeys, index + 1, mKeys, index, mSize - index - 1 );
+        System.arraycopy( mChunks, index + 1, mChunks, index, mSize - index - 1 );
+        mSize--;
+        mChunks[ mSize ] = null;
+    }
+    
+    /**
+     * The low 16 bits of the ids of a chunk, as a sorted array (mValues) while there are at most
+     * {@link #MAX_ARRAY_SIZE} of them, and as a bitmap (mBits) otherwise.
+     */
+    private static final class Chunk
+    {
+        private char[] mValues = new char[ 4 ];
+        private long[] mBits;
+        private int mCardinality;
+        
+        boolean add( char value )
+        {
+            if ( mBits != null )
+            {
+                long bit = 1L << value;
+                if ( ( mBits[ value >>> 6 ] & bit ) != 0 )
+                    return false;
+                
+                mBits[ value >>> 6 ] |= bit;
+                mCardinality++;
+                return true;
+            }
+            
+            int index = mCardinality > 0 && mValues[ mCardinality - 1 ] < value
+                    ? -mCardinality - 1
+                    : Arrays.binarySearch( mValues, 0, mCardinality, value );
+            if ( index >= 0 )
+                return false;
+            
+            if ( mCardinality == MAX_ARRAY_SIZE )
+            {
+                toBits();
+                return add( value );
+            }
+            
+            index = -index - 1;
+            if ( mCardinality == mValues.length )
+                mValues = Arrays.copyOf( mValues, Math.min( mCardinality * 2, MAX_ARRAY_SIZE ) );
+            System.arraycopy( mValues, index, mValues, index + 1, mCardinality - index );
+            mValues[ index ] = value;
+            mCardinality++;
+            return true;
+        }
+        
+        boolean remove( char value )
+        {
+            if ( mBits != null )
+            {
+                long bit = 1L << value;
+                if ( ( mBits[ value >>> 6 ] & bit ) == 0 )
+                    return false;
+                
+                mBits[ value >>> 6 ] &= ~bit;
+                mCardinality--;
+                
+                // Only back to an array well below the limit, so removing and adding ids around
+                // the limit doesn't convert the chunk every time.
+                if ( mCardinality <= MAX_ARRAY_SIZE / 2 )
+                    toValues();
+                return true;
+            }
+            
+            int index = Arrays.binarySearch( mValues, 0, mCardinality, value );
+            if ( index < 0 )
+                return false;
+            
+            System.arraycopy( mValues, index + 1, mValues, index, mCardinality - index - 1 );
+            mCardinality--;
+            return true;
+        }
+        
+        boolean contains( char value )
+        {
+            if ( mBits != null )
+                return ( mBits[ value >>> 6 ] & ( 1L << value ) ) != 0;
+            return Arrays.binarySearch( mValues, 0, mCardinality, value ) >= 0;
+        }
+        
+        int copyTo( long high, long[] ids, int position )
+        {
+            if ( mBits == null )
+            {
+                for ( int i = 0; i < mCardinality; i++ )
+                    ids[ position++ ] = high | mValues[ i ];
+                return position;
+            }
+            
+            for ( int word = 0; word < BITMAP_WORDS; word++ )
+            {
+                long bits = mBits[ word ];
+                while ( bits != 0 )
+                {
+                    ids[ position++ ] = high | ( word << 6 ) | Long.numberOfTrailingZeros( bits );
+                    bits &= bits - 1;
+                }
+            }
+            return position;
+        }
+        
+        Chunk copy()
+        {
+            Chunk copy = new Chunk();
+            copy.mCardinality = mCardinality;
+            if ( mBits != null )
+                copy.mBits = mBits.clone();
+            else
+                copy.mValues = Arrays.copyOf( mValues, Math.max( mCardinality, 1 ) );
+            return copy;
+        }
+        
+        static Chunk and( Chunk first, Chunk second )
+        {
+            Chunk result = new Chunk();
+            if ( first.mBits != null && second.mBits != null )
+            {
+                result.mBits = new long[ BITMAP_WORDS ];
+                for ( int word = 0; word < BITMAP_WORDS; word++ )
+                {
+                    result.mBits[ word ] = first.mBits[ word ] & second.mBits[ word ];
+                    result.mCardinality += Long.bitCount( result.mBits[ word ] );
+                }
+                if ( result.mCardinality <= MAX_ARRAY_SIZE )
+                    result.toValues();
+                return result;
+            }
+            
+            // At least one of them is an array, so the result is at most as large as that array.
+            Chunk array = first.mBits == null ? first : second;
+            Chunk other = array == first ? second : first;
+            result.mValues = new char[ Math.max( array.mCardinality, 1 ) ];
+            for ( int i = 0; i < array.mCardinality; i++ )
+                if ( other.contains( array.mValues[ i ] ) )
+                    result.mValues[ result.mCardinality++ ] = array.mValues[ i ];
+            return result;
+        }
+        
+        static Chunk or( Chunk first, Chunk second )
+        {
+            Chunk result = new Chunk();
+            if ( first.mBits == null && second.mBits == null
+                    && first.mCardinality + second.mCardinality <= MAX_ARRAY_SIZE )
+            {
+                // Merge the two sorted arrays.
+                result.mValues = new char[ Math.max( first.mCardinality + second.mCardinality, 1 ) ];
+                int i = 0;
+                int j = 0;
+                while ( i < first.mCardinality || j < second.mCardinality )
+                {
+                    char value;
+                    if ( j == second.mCardinality
+                            || ( i < first.mCardinality && first.mValues[ i ] < second.mValues[ j ] ) )
+                        value = first.mValues[ i++ ];
+                    else if ( i == first.mCardinality || first.mValues[ i ] > second.mValues[ j ] )
+                        value = second.mValues[ j++ ];
+                    else
+                    {
+                        value = first.mValues[ i++ ];
+                        j++;
+                    }
+                    result.mValues[ result.mCardinality++ ] = value;
+                }
+                return result;
+            }
+            
+            result.mBits = new long[ BITMAP_WORDS ];
+            first.orInto( result.mBits );
+            second.orInto( result.mBits );
+            for ( long word : result.mBits )
+                result.mCardinality += Long.bitCount( word );
+            if ( result.mCardinality <= MAX_ARRAY_SIZE )
+                result.toValues();
+            return result;
+        }
+        
+        static Chunk andNot( Chunk first, Chunk second )
+        {
+            Chunk result = new Chunk();
+            if ( first.mBits == null )
+            {
+                result.mValues = new char[ Math.max( first.mCardinality, 1 ) ];
+                for ( int i = 0; i < first.mCardinality; i++ )
+                    if ( !second.contains( first.mValues[ i ] ) )
+                        result.mValues[ result.mCardinality++ ] = first.mValues[ i ];
+                return result;
+            }
+            
+            result.mBits = first.mBits.clone();
+            if ( second.mBits != null )
+            {
+                for ( int word = 0; word < BITMAP_WORDS; word++ )
+                    result.mBits[ word ] &= ~second.mBits[ word ];
+            }
+            else
+            {
+                for ( int i = 0; i < second.mCardinality; i++ )
+                    result.mBits[ second.mValues[ i ] >>> 6 ] &= ~( 1L << second.mValues[ i ] );
+            }
+            for ( long word : result.mBits )
+                result.mCardinality += Long.bitCount( word );
+            if ( result.mCardinality <= MAX_ARRAY_SIZE )
+                result.toValues();
+            return result;
+        }
+        
+        private void orInto( long[] bits )
+        {
+            if ( mBits != null )
+            {
+                for ( int word = 0; word < BITMAP_WORDS; word++ )
+                    bits[ word ] |= mBits[ word ];
+                return;
+            }
+            
+            for ( int i = 0; i < mCardinality; i++ )
+                bits[ mValues[ i ] >>> 6 ] |= 1L << mValues[ i ];
+        }
+        
+        private void toBits()
+        {
+            mBits = new long[ BITMAP_WORDS ];
+            for ( int i = 0; i < mCardinality; i++ )
+                mBits[ mValues[ i ] >>> 6 ] |= 1L << mValues[ i ];
+            mValues = null;
+        }
+        
+        private void toValues()
+        {
+            mValues = new char[ Math.max( mCardinality, 1 ) ];
+            int position = 0;
+            for ( int word = 0; word < BITMAP_WORDS; word++ )
+            {
+                long bits = mBits[ word ];
+                while ( bits != 0 )
+                {
+                    mValues[ position++ ] = ( char ) ( ( word << 6 ) | Long.numberOfTrailingZeros( bits ) );
+                    bits &= bits - 1;
+                }
+            }
+            mBits = null;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.engineerfadyfawzi.pets.data;
+
+import java.util.Comparator;
+
+/**
+ * A single pet of the catalog list: the columns the list shows, as read by LivePetQuery or from
+ * a CatalogSnapshot.
+ */
+public final class PetRow
+{
+    /**
+     * Order of the rows by id, which is the default order of the pets query.
+     */
+    public static final Comparator< PetRow > BY_ID = new Comparator< PetRow >()
+    {
+        @Override
+        public int compare( PetRow first, PetRow second )
+        {
+            return first.id < second.id ? -1 : ( first.id == second.id ? 0 : 1 );
+        }
+    };
+    
+    public final long id;
+    public final String name;
+    public final String breed;
+    public final String photo;
+    
+    public PetRow( long id, String name, String breed, String photo )
+    {
+        this.id = id;
+        this.name = name;
+        this.breed = breed;
+        this.photo = photo;
+    }
+}
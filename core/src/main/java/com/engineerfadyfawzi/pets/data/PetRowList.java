@@ -0,0 +1,160 @@
+package com.engineerfadyfawzi.pets.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The sorted rows of a live list of pets, such as LivePetQuery's, to which the new state of
+ * single rows is applied in place: a row is inserted at, removed from or moved to its position,
+ * found with a binary search, instead of sorting the whole list again.
+ *
+ * Rows comparing equal in the given order are ordered by id, so each row has exactly one
+ * position. It isn't thread safe, except {@link #sort(List)}.
+ */
+public final class PetRowList
+{
+    /**
+     * Listener of the changes of single rows, called after the list has been changed.
+     */
+    public interface Listener
+    {
+        void onRowInserted( int position );
+        
+        void onRowRemoved( int position );
+        
+        void onRowChanged( int position );
+        
+        void onRowMoved( int fromPosition, int toPosition );
+    }
+    
+    private final Comparator< PetRow > mOrder;
+    
+    /**
+     * The rows, sorted by {@link #mOrder}, and the same rows by id.
+     */
+    private final List< PetRow > mRows = new ArrayList<>();
+    private final HashMap< Long, PetRow > mRowsById = new HashMap<>();
+    
+    private Listener mListener;
+    
+    /**
+     * Constructs a new {@link PetRowList}
+     *
+     * @param order of the rows, for instance {@link PetRow#BY_ID}.
+     */
+    public PetRowList( final Comparator< PetRow > order )
+    {
+        mOrder = new Comparator< PetRow >()
+        {
+            @Override
+            public int compare( PetRow first, PetRow second )
+            {
+                int result = order.compare( first, second );
+                return result != 0 ? result : PetRow.BY_ID.compare( first, second );
+            }
+        };
+    }
+    
+    /**
+     * Set the listener of the changes of single rows, or null for none.
+     *
+     * @param listener
+     */
+    public void setListener( Listener listener )
+    {
+        mListener = listener;
+    }
+    
+    /**
+     * Sort rows in the order of the list, for instance the rows of a query before they replace
+     * the list with {@link #replaceAll(List)}. It only reads the order, so it can be called on
+     * any thread.
+     *
+     * @param rows
+     */
+    public void sort( List< PetRow > rows )
+    {
+        Collections.sort( rows, mOrder );
+    }
+    
+    /**
+     * Replace all the rows, without notifying the listener.
+     *
+     * @param rows sorted by {@link #sort(List)}, with one row per id.
+     */
+    public void replaceAll( List< PetRow > rows )
+    {
+        mRows.clear();
+        mRowsById.clear();
+        mRows.addAll( rows );
+        for ( PetRow row : rows )
+            mRowsById.put( row.id, row );
+    }
+    
+    /**
+     * Apply the new state of a single row, and notify the listener of its change, if any.
+     *
+     * @param id     of the row.
+     * @param newRow the new row, or null if it isn't part of the list (anymore).
+     */
+    public void applyRow( long id, PetRow newRow )
+    {
+        PetRow oldRow = mRowsById.get( id );
+        int oldPosition = oldRow == null ? -1 : Collections.binarySearch( mRows, oldRow, mOrder );
+        
+        if ( oldPosition < 0 && newRow == null )
+            return;
+        
+        if ( newRow == null )
+        {
+            mRows.remove( oldPosition );
+            mRowsById.remove( id );
+            if ( mListener != null )
+                mListener.onRowRemoved( oldPosition );
+            return;
+        }
+        
+        mRowsById.put( id, newRow );
+        if ( oldPosition >= 0 )
+            mRows.remove( oldPosition );
+        
+        // The row isn't in the list (anymore), so the search returns where to insert it.
+        int newPosition = -( Collections.binarySearch( mRows, newRow, mOrder ) + 1 );
+        mRows.add( newPosition, newRow );
+        
+        if ( mListener == null )
+            return;
+        
+        if ( oldPosition < 0 )
+            mListener.onRowInserted( newPosition );
+        else if ( oldPosition == newPosition )
+            mListener.onRowChanged( newPosition );
+        else
+            mListener.onRowMoved( oldPosition, newPosition );
+    }
+    
+    public PetRow get( int position )
+    {
+        return mRows.get( position );
+    }
+    
+    public int size()
+    {
+        return mRows.size();
+    }
+    
+    /**
+     * Return a copy of the first rows, at most count of them.
+     *
+     * @param count
+     *
+     * @return
+     */
+    public List< PetRow > getFirstRows( int count )
+    {
+        return new ArrayList<>( mRows.subList( 0, Math.min( count, mRows.size() ) ) );
+    }
+}
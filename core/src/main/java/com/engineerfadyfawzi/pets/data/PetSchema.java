@@ -0,0 +1,867 @@
+package com.engineerfadyfawzi.pets.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The schema of the pets database as of the current database version: the names of its tables,
+ * views and columns, and the SQL statements creating it. PetDbHelper creates the database with
+ * {@link #getCreateStatements()}, and PetContract exposes the names. Only plain Java is used here,
+ * so the benchmarks create the same database on a JVM.
+ *
+ * The steps upgrading an older database stay in PetDbHelper, since they must not change when the
+ * current schema does.
+ */
+public final class PetSchema
+{
+    /**
+     * Database version. If you change the database schema, you must increment the database version.
+     */
+    public static final int DATABASE_VERSION = 12;
+    
+    /**
+     * Name of the id column of the tables with one, the _ID of Android's BaseColumns
+     */
+    public static final String COLUMN_ID = "_id";
+    
+    /**
+     * The pets table, the archived pets table, and the views joining them with their breed.
+     * See PetContract.PetEntry.
+     */
+    public static final class Pets
+    {
+        public static final String TABLE_NAME = "pets";
+        public static final String VIEW_NAME = "pets_with_breed";
+        public static final String ARCHIVE_TABLE_NAME = "pets_archive";
+        public static final String ARCHIVE_VIEW_NAME = "archived_pets_with_breed";
+        public static final String HISTORY_VIEW_NAME = "pet_history_with_breed";
+        
+        public static final String COLUMN_PET_NAME = "name";
+        public static final String COLUMN_PET_BREED = "breed";
+        public static final String COLUMN_PET_BREED_ID = "breed_id";
+        public static final String COLUMN_PET_GENDER = "gender";
+        public static final String COLUMN_PET_WEIGHT = "weight";
+        public static final String COLUMN_PET_PHOTO = "photo";
+        public static final String COLUMN_PET_VERSION = "version";
+        public static final String COLUMN_PET_SYNC_ID = "sync_id";
+        public static final String COLUMN_PET_STATUS = "status";
+        public static final String COLUMN_PET_ARCHIVED = "archived";
+        
+        /**
+         * Column of the pets table: the id of the delete of the pet, or 0 if it isn't deleted by
+         * itself. Type: INTEGER
+         */
+        public static final String COLUMN_PET_DELETION_ID = "deletion_id";
+        
+        /**
+         * Columns of each row of the catalog, read from the pets view (see LivePetQuery)
+         */
+        public static final String[] CATALOG_COLUMNS = {
+                COLUMN_ID,
+                COLUMN_PET_NAME,
+                COLUMN_PET_BREED,
+                COLUMN_PET_PHOTO };
+        
+        private Pets()
+        {
+        
+        }
+    }
+    
+    /**
+     * The breeds table. See PetContract.BreedEntry.
+     */
+    public static final class Breeds
+    {
+        public static final String TABLE_NAME = "breeds";
+        public static final String COLUMN_BREED_NAME = Pets.COLUMN_PET_BREED;
+        public static final String COLUMN_BREED_PET_COUNT = "pet_count";
+        
+        /**
+         * Tables of the query of the breeds with their number of pets: each breed joined with its
+         * pets (which aren't deleted), grouped by {@link #QUALIFIED_ID} so they can be counted.
+         * The columns of the query are the qualified ones, as the names are ambiguous.
+         */
+        public static final String PETS_TABLES = TABLE_NAME + " LEFT OUTER JOIN "
+                + Pets.TABLE_NAME + " ON " + Pets.TABLE_NAME + "." + Pets.COLUMN_PET_BREED_ID
+                + " = " + TABLE_NAME + "." + COLUMN_ID
+                + " AND " + getNotDeletedCondition( Pets.TABLE_NAME );
+        public static final String QUALIFIED_ID = TABLE_NAME + "." + COLUMN_ID;
+        public static final String QUALIFIED_NAME = TABLE_NAME + "." + COLUMN_BREED_NAME;
+        public static final String PET_COUNT = "COUNT(" + Pets.TABLE_NAME + "." + COLUMN_ID + ")";
+        
+        private Breeds()
+        {
+        
+        }
+    }
+    
+    /**
+     * The change log of the pets. See PetContract.ChangeEntry.
+     */
+    public static final class Changes
+    {
+        public static final String TABLE_NAME = "pet_changes";
+        public static final String COLUMN_SEQ = "seq";
+        public static final String COLUMN_OP = "op";
+        public static final String COLUMN_PET_ID = "pet_id";
+        public static final String COLUMN_SYNC_ID = "sync_id";
+        
+        public static final int OP_INSERT = 1;
+        public static final int OP_UPDATE = 2;
+        public static final int OP_DELETE = 3;
+        
+        private Changes()
+        {
+        
+        }
+    }
+    
+    /**
+     * The drafts of the editor. See PetContract.DraftEntry.
+     */
+    public static final class Drafts
+    {
+        public static final String TABLE_NAME = "pet_drafts";
+        public static final String COLUMN_DRAFT_PET_ID = "pet_id";
+        public static final String COLUMN_DRAFT_UPDATED = "updated";
+        
+        private Drafts()
+        {
+        
+        }
+    }
+    
+    /**
+     * The weight measurements and their rollups. See PetContract.WeightEntry.
+     */
+    public static final class Weights
+    {
+        public static final String TABLE_NAME = "pet_weights";
+        public static final String DAILY_TABLE_NAME = "pet_weights_daily";
+        public static final String MONTHLY_TABLE_NAME = "pet_weights_monthly";
+        
+        public static final String COLUMN_PET_ID = "pet_id";
+        public static final String COLUMN_MEASURED = "measured";
+        public static final String COLUMN_WEIGHT = "weight";
+        public static final String COLUMN_PERIOD_START = "period_start";
+        public static final String COLUMN_MEASUREMENTS = "measurements";
+        public static final String COLUMN_TOTAL_WEIGHT = "total_weight";
+        public static final String COLUMN_MIN_WEIGHT = "min_weight";
+        public static final String COLUMN_MAX_WEIGHT = "max_weight";
+        
+        private Weights()
+        {
+        
+        }
+    }
+    
+    /**
+     * The medical records. See PetContract.RecordEntry.
+     */
+    public static final class Records
+    {
+        public static final String TABLE_NAME = "pet_records";
+        public static final String COLUMN_RECORD_PET_ID = "pet_id";
+        public static final String COLUMN_RECORD_TYPE = "type";
+        public static final String COLUMN_RECORD_DESCRIPTION = "description";
+        public static final String COLUMN_RECORD_PERFORMED = "performed";
+        public static final String COLUMN_RECORD_NOTES = "notes";
+        
+        private Records()
+        {
+        
+        }
+    }
+    
+    /**
+     * The tags, and the tags of each pet. See PetContract.TagEntry.
+     */
+    public static final class Tags
+    {
+        public static final String TABLE_NAME = "tags";
+        public static final String PET_TAGS_TABLE_NAME = "pet_tags";
+        public static final String COLUMN_TAG_NAME = "name";
+        public static final String COLUMN_TAG_PET_COUNT = "pet_count";
+        public static final String COLUMN_PET_ID = "pet_id";
+        public static final String COLUMN_TAG_ID = "tag_id";
+        
+        private Tags()
+        {
+        
+        }
+    }
+    
+    /**
+     * Deletes of pets, which can be undone until they're purged. The pets deleted by a delete
+     * reference it by the {@link Pets#COLUMN_PET_DELETION_ID} of the pets table, except for a
+     * delete of all the pets, which only stores the last pet id it deletes, so it's a single insert
+     * whatever the number of pets.
+     *
+     * It's only used by the provider, so it's not part of the contract.
+     */
+    public static final class Deletions
+    {
+        public static final String TABLE_NAME = "pet_deletions";
+        public static final String COLUMN_DELETION_ID = COLUMN_ID;
+        
+        /**
+         * Time of the delete, in milliseconds since the epoch. Type: INTEGER
+         */
+        public static final String COLUMN_DELETION_TIME = "deleted";
+        
+        /**
+         * For a delete of all the pets, the id of the last pet it deletes: every pet up to this id
+         * which isn't deleted otherwise. 0 for a delete of some pets. Type: INTEGER
+         */
+        public static final String COLUMN_DELETION_LAST_PET_ID = "last_pet_id";
+        
+        /**
+         * For a delete of all the pets, the number of pets it deletes which no later delete of all
+         * the pets deletes too, so undoing it doesn't count them. 0 for a delete of some pets.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_DELETION_PET_COUNT = "pet_count";
+        
+        private Deletions()
+        {
+        
+        }
+    }
+    
+    /**
+     * Counts of the pets, kept up to date by triggers, as a single row, so they're read without
+     * counting the pets. Like the deletes, it's only used by the provider.
+     */
+    public static final class Counts
+    {
+        public static final String TABLE_NAME = "pet_counts";
+        
+        /**
+         * Number of pets which aren't deleted. Type: INTEGER
+         */
+        public static final String COLUMN_LIVE_PETS = "live_pets";
+        
+        private Counts()
+        {
+        
+        }
+    }
+    
+    /**
+     * SQL statement to create the breeds table.
+     */
+    public static final String SQL_CREATE_BREEDS_TABLE = "CREATE TABLE " + Breeds.TABLE_NAME + " ("
+            + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + Breeds.COLUMN_BREED_NAME + " TEXT NOT NULL UNIQUE COLLATE NOCASE);";
+    
+    /**
+     * SQL statement to create the pets table, as of the current database version.
+     */
+    private static final String SQL_CREATE_PETS_TABLE = "CREATE TABLE " + Pets.TABLE_NAME + " ("
+            + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + Pets.COLUMN_PET_NAME + " TEXT NOT NULL, "
+            + Pets.COLUMN_PET_BREED_ID + " INTEGER REFERENCES "
+            + Breeds.TABLE_NAME + "(" + COLUMN_ID + "), "
+            + Pets.COLUMN_PET_GENDER + " INTEGER NOT NULL, "
+            + Pets.COLUMN_PET_WEIGHT + " INTEGER NOT NULL DEFAULT 0, "
+            + Pets.COLUMN_PET_PHOTO + " TEXT, "
+            + Pets.COLUMN_PET_VERSION + " INTEGER NOT NULL DEFAULT 1, "
+            + Pets.COLUMN_PET_SYNC_ID + " TEXT, "
+            + Pets.COLUMN_PET_STATUS + " INTEGER NOT NULL DEFAULT " + PetValidation.STATUS_IN_CARE + ", "
+            + Pets.COLUMN_PET_DELETION_ID + " INTEGER NOT NULL DEFAULT 0);";
+    
+    /**
+     * SQL statement to create the deletes table, as of the current database version.
+     */
+    private static final String SQL_CREATE_DELETIONS_TABLE = "CREATE TABLE " + Deletions.TABLE_NAME + " ("
+            + Deletions.COLUMN_DELETION_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + Deletions.COLUMN_DELETION_TIME + " INTEGER NOT NULL, "
+            + Deletions.COLUMN_DELETION_LAST_PET_ID + " INTEGER NOT NULL DEFAULT 0, "
+            + Deletions.COLUMN_DELETION_PET_COUNT + " INTEGER NOT NULL DEFAULT 0);";
+    
+    /**
+     * SQL statement to create the counts table, as of the current database version, with its row.
+     */
+    private static final String[] SQL_CREATE_COUNTS_TABLE = {
+            "CREATE TABLE " + Counts.TABLE_NAME + " (" + Counts.COLUMN_LIVE_PETS + " INTEGER NOT NULL);",
+            "INSERT INTO " + Counts.TABLE_NAME + " VALUES (0);" };
+    
+    /**
+     * SQL expression of the last pet id of the deletes of all the pets, or 0 if there are none:
+     * every pet up to it is deleted.
+     */
+    public static final String SQL_LAST_DELETED_PET_ID = "(SELECT IFNULL(MAX(" + Deletions.COLUMN_DELETION_LAST_PET_ID
+            + "), 0) FROM " + Deletions.TABLE_NAME + ")";
+    
+    /**
+     * SQL statements to create the triggers counting the pets which aren't deleted: a pet counts
+     * while neither its deletion id nor a delete of all the pets deletes it. A pet whose own
+     * delete is undone while a delete of all the pets still deletes it is counted by the earliest
+     * such delete instead (see {@link Deletions#COLUMN_DELETION_PET_COUNT}). The deletes of all the
+     * pets themselves are counted by the provider.
+     */
+    private static final String[] SQL_CREATE_COUNTS_TRIGGERS = {
+            "CREATE TRIGGER pets_insert_count AFTER INSERT ON " + Pets.TABLE_NAME
+                    + " WHEN " + isLive( "NEW" ) + " BEGIN " + addLivePets( "+ 1" ) + " END;",
+            "CREATE TRIGGER pets_delete_count AFTER DELETE ON " + Pets.TABLE_NAME
+                    + " WHEN " + isLive( "OLD" ) + " BEGIN " + addLivePets( "- 1" ) + " END;",
+            "CREATE TRIGGER pets_mark_deleted_count AFTER UPDATE OF " + Pets.COLUMN_PET_DELETION_ID
+                    + " ON " + Pets.TABLE_NAME
+                    + " WHEN " + isLive( "OLD" ) + " AND NEW." + Pets.COLUMN_PET_DELETION_ID + " <> 0"
+                    + " BEGIN " + addLivePets( "- 1" ) + " END;",
+            "CREATE TRIGGER pets_unmark_deleted_count AFTER UPDATE OF " + Pets.COLUMN_PET_DELETION_ID
+                    + " ON " + Pets.TABLE_NAME
+                    + " WHEN OLD." + Pets.COLUMN_PET_DELETION_ID + " <> 0 AND NEW." + Pets.COLUMN_PET_DELETION_ID + " = 0"
+                    + " BEGIN UPDATE " + Counts.TABLE_NAME
+                    + " SET " + Counts.COLUMN_LIVE_PETS + " = " + Counts.COLUMN_LIVE_PETS + " + 1"
+                    + " WHERE NEW." + COLUMN_ID + " > " + SQL_LAST_DELETED_PET_ID + "; "
+                    + "UPDATE " + Deletions.TABLE_NAME
+                    + " SET " + Deletions.COLUMN_DELETION_PET_COUNT + " = " + Deletions.COLUMN_DELETION_PET_COUNT + " + 1"
+                    + " WHERE " + Deletions.COLUMN_DELETION_ID + " = (SELECT " + Deletions.COLUMN_DELETION_ID
+                    + " FROM " + Deletions.TABLE_NAME
+                    + " WHERE " + Deletions.COLUMN_DELETION_LAST_PET_ID + " >= NEW." + COLUMN_ID
+                    + " ORDER BY " + Deletions.COLUMN_DELETION_LAST_PET_ID + " LIMIT 1); END;" };
+    
+    /**
+     * SQL statement to index the pets by delete, so the pets of a delete are found without a
+     * full table scan when it's undone or purged.
+     */
+    private static final String SQL_CREATE_PETS_DELETION_INDEX = "CREATE INDEX pets_deletion_id_index ON "
+            + Pets.TABLE_NAME + "(" + Pets.COLUMN_PET_DELETION_ID + ");";
+    
+    /**
+     * SQL statement to create the archived pets table: the columns of the pets table, as of the
+     * current database version, and the time the pet was archived. The ids are kept, so they're
+     * not AUTOINCREMENT (the pets table never reuses them anyway).
+     */
+    private static final String SQL_CREATE_ARCHIVE_TABLE = "CREATE TABLE " + Pets.ARCHIVE_TABLE_NAME + " ("
+            + COLUMN_ID + " INTEGER PRIMARY KEY, "
+            + Pets.COLUMN_PET_NAME + " TEXT NOT NULL, "
+            + Pets.COLUMN_PET_BREED_ID + " INTEGER REFERENCES "
+            + Breeds.TABLE_NAME + "(" + COLUMN_ID + "), "
+            + Pets.COLUMN_PET_GENDER + " INTEGER NOT NULL, "
+            + Pets.COLUMN_PET_WEIGHT + " INTEGER NOT NULL DEFAULT 0, "
+            + Pets.COLUMN_PET_PHOTO + " TEXT, "
+            + Pets.COLUMN_PET_VERSION + " INTEGER NOT NULL DEFAULT 1, "
+            + Pets.COLUMN_PET_SYNC_ID + " TEXT, "
+            + Pets.COLUMN_PET_STATUS + " INTEGER NOT NULL, "
+            + Pets.COLUMN_PET_ARCHIVED + " INTEGER NOT NULL);";
+    
+    /**
+     * SQL statement to index the pets by status, so the closed records to archive are found
+     * without a full table scan.
+     */
+    private static final String SQL_CREATE_PETS_STATUS_INDEX = "CREATE INDEX pets_status_index ON "
+            + Pets.TABLE_NAME + "(" + Pets.COLUMN_PET_STATUS + ");";
+    
+    /**
+     * SQL condition of the delete triggers of the pets table, which must not fire when a pet is
+     * only moved to the archive: the archived copy is inserted before the pet is deleted.
+     */
+    private static final String SQL_WHEN_NOT_ARCHIVED = " WHEN NOT EXISTS (SELECT 1 FROM "
+            + Pets.ARCHIVE_TABLE_NAME + " WHERE " + COLUMN_ID + " = OLD." + COLUMN_ID + ")";
+    
+    /**
+     * SQL statement to index the pets by sync id, which is unique.
+     */
+    private static final String SQL_CREATE_PETS_SYNC_ID_INDEX = "CREATE UNIQUE INDEX pets_sync_id_index ON "
+            + Pets.TABLE_NAME + "(" + Pets.COLUMN_PET_SYNC_ID + ");";
+    
+    /**
+     * SQL statement to index the pets by breed, so grouping or filtering by breed doesn't need
+     * a full table scan.
+     */
+    private static final String SQL_CREATE_PETS_BREED_INDEX = "CREATE INDEX pets_breed_id_index ON "
+            + Pets.TABLE_NAME + "(" + Pets.COLUMN_PET_BREED_ID + ");";
+    
+    /**
+     * SQL statement to create the trigger incrementing the version of each updated pet,
+     * unless the update sets the version itself (like a sync does).
+     */
+    private static final String SQL_CREATE_PETS_VERSION_TRIGGER = "CREATE TRIGGER pets_version"
+            + " AFTER UPDATE OF "
+            + Pets.COLUMN_PET_NAME + ", "
+            + Pets.COLUMN_PET_BREED_ID + ", "
+            + Pets.COLUMN_PET_GENDER + ", "
+            + Pets.COLUMN_PET_WEIGHT + ", "
+            + Pets.COLUMN_PET_PHOTO + " ON " + Pets.TABLE_NAME
+            + " WHEN NEW." + Pets.COLUMN_PET_VERSION + " = OLD." + Pets.COLUMN_PET_VERSION
+            + " BEGIN UPDATE " + Pets.TABLE_NAME
+            + " SET " + Pets.COLUMN_PET_VERSION + " = OLD." + Pets.COLUMN_PET_VERSION + " + 1"
+            + " WHERE " + COLUMN_ID + " = NEW." + COLUMN_ID + "; END;";
+    
+    /**
+     * SQL statement to create the view that joins the breed name back into each pet,
+     * so the pets keep the same columns they had when the breed was stored as text. Deleted pets
+     * aren't part of it, so every query of the pets leaves them out.
+     */
+    public static final String SQL_CREATE_PETS_VIEW = "CREATE VIEW " + Pets.VIEW_NAME + " AS SELECT "
+            + "p." + COLUMN_ID + " AS " + COLUMN_ID + ", "
+            + "p." + Pets.COLUMN_PET_NAME + " AS " + Pets.COLUMN_PET_NAME + ", "
+            + "p." + Pets.COLUMN_PET_BREED_ID + " AS " + Pets.COLUMN_PET_BREED_ID + ", "
+            + "b." + Breeds.COLUMN_BREED_NAME + " AS " + Pets.COLUMN_PET_BREED + ", "
+            + "p." + Pets.COLUMN_PET_GENDER + " AS " + Pets.COLUMN_PET_GENDER + ", "
+            + "p." + Pets.COLUMN_PET_WEIGHT + " AS " + Pets.COLUMN_PET_WEIGHT + ", "
+            + "p." + Pets.COLUMN_PET_PHOTO + " AS " + Pets.COLUMN_PET_PHOTO + ", "
+            + "p." + Pets.COLUMN_PET_VERSION + " AS " + Pets.COLUMN_PET_VERSION + ", "
+            + "p." + Pets.COLUMN_PET_SYNC_ID + " AS " + Pets.COLUMN_PET_SYNC_ID + ", "
+            + "p." + Pets.COLUMN_PET_STATUS + " AS " + Pets.COLUMN_PET_STATUS
+            + " FROM " + Pets.TABLE_NAME + " p LEFT OUTER JOIN " + Breeds.TABLE_NAME + " b"
+            + " ON p." + Pets.COLUMN_PET_BREED_ID + " = b." + COLUMN_ID
+            + " WHERE " + getNotDeletedCondition( "p" ) + ";";
+    
+    /**
+     * SQL statement to create the view that joins the breed name back into each archived pet,
+     * with the same columns as the pets view and the time the pet was archived.
+     */
+    public static final String SQL_CREATE_ARCHIVE_VIEW = "CREATE VIEW " + Pets.ARCHIVE_VIEW_NAME + " AS SELECT "
+            + "a." + COLUMN_ID + " AS " + COLUMN_ID + ", "
+            + "a." + Pets.COLUMN_PET_NAME + " AS " + Pets.COLUMN_PET_NAME + ", "
+            + "a." + Pets.COLUMN_PET_BREED_ID + " AS " + Pets.COLUMN_PET_BREED_ID + ", "
+            + "b." + Breeds.COLUMN_BREED_NAME + " AS " + Pets.COLUMN_PET_BREED + ", "
+            + "a." + Pets.COLUMN_PET_GENDER + " AS " + Pets.COLUMN_PET_GENDER + ", "
+            + "a." + Pets.COLUMN_PET_WEIGHT + " AS " + Pets.COLUMN_PET_WEIGHT + ", "
+            + "a." + Pets.COLUMN_PET_PHOTO + " AS " + Pets.COLUMN_PET_PHOTO + ", "
+            + "a." + Pets.COLUMN_PET_VERSION + " AS " + Pets.COLUMN_PET_VERSION + ", "
+            + "a." + Pets.COLUMN_PET_SYNC_ID + " AS " + Pets.COLUMN_PET_SYNC_ID + ", "
+            + "a." + Pets.COLUMN_PET_STATUS + " AS " + Pets.COLUMN_PET_STATUS + ", "
+            + "a." + Pets.COLUMN_PET_ARCHIVED + " AS " + Pets.COLUMN_PET_ARCHIVED
+            + " FROM " + Pets.ARCHIVE_TABLE_NAME + " a LEFT OUTER JOIN " + Breeds.TABLE_NAME + " b"
+            + " ON a." + Pets.COLUMN_PET_BREED_ID + " = b." + COLUMN_ID + ";";
+    
+    /**
+     * SQL statement to create the view of all the pets, in care and archived.
+     */
+    public static final String SQL_CREATE_HISTORY_VIEW = "CREATE VIEW " + Pets.HISTORY_VIEW_NAME
+            + " AS SELECT *, NULL AS " + Pets.COLUMN_PET_ARCHIVED + " FROM " + Pets.VIEW_NAME
+            + " UNION ALL SELECT * FROM " + Pets.ARCHIVE_VIEW_NAME + ";";
+    
+    /**
+     * SQL statement to create the change log table of the pets.
+     */
+    private static final String SQL_CREATE_CHANGES_TABLE = "CREATE TABLE " + Changes.TABLE_NAME + " ("
+            + Changes.COLUMN_SEQ + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + Changes.COLUMN_OP + " INTEGER NOT NULL, "
+            + Changes.COLUMN_PET_ID + " INTEGER NOT NULL, "
+            + Changes.COLUMN_SYNC_ID + " TEXT);";
+    
+    /**
+     * SQL statement to index the change log by pet, for compaction.
+     */
+    private static final String SQL_CREATE_CHANGES_PET_INDEX = "CREATE INDEX pet_changes_pet_id_index ON "
+            + Changes.TABLE_NAME + "(" + Changes.COLUMN_PET_ID + ");";
+    
+    /**
+     * SQL statements to create the triggers appending each change of the pets table to the log.
+     * Updates are only logged when a column of the pet itself changes (not only its version).
+     */
+    private static final String[] SQL_CREATE_CHANGES_TRIGGERS = {
+            createChangeTrigger( "pets_insert_log", "INSERT", "", Changes.OP_INSERT, "NEW" ),
+            createChangeTrigger( "pets_update_log", "UPDATE OF "
+                    + Pets.COLUMN_PET_NAME + ", "
+                    + Pets.COLUMN_PET_BREED_ID + ", "
+                    + Pets.COLUMN_PET_GENDER + ", "
+                    + Pets.COLUMN_PET_WEIGHT + ", "
+                    + Pets.COLUMN_PET_PHOTO, "", Changes.OP_UPDATE, "NEW" ),
+            createChangeTrigger( "pets_delete_log", "DELETE", SQL_WHEN_NOT_ARCHIVED, Changes.OP_DELETE, "OLD" ) };
+    
+    /**
+     * SQL statement to create the drafts table of the editor, one draft per pet.
+     */
+    private static final String SQL_CREATE_DRAFTS_TABLE = "CREATE TABLE " + Drafts.TABLE_NAME + " ("
+            + Drafts.COLUMN_DRAFT_PET_ID + " INTEGER PRIMARY KEY, "
+            + Pets.COLUMN_PET_NAME + " TEXT, "
+            + Pets.COLUMN_PET_BREED + " TEXT, "
+            + Pets.COLUMN_PET_GENDER + " INTEGER NOT NULL DEFAULT 0, "
+            + Pets.COLUMN_PET_WEIGHT + " TEXT, "
+            + Pets.COLUMN_PET_PHOTO + " TEXT, "
+            + Drafts.COLUMN_DRAFT_UPDATED + " INTEGER NOT NULL);";
+    
+    /**
+     * SQL statement to create the medical records table. The reference to the pets isn't enforced
+     * (foreign keys are off, and archived pets keep their records), the provider deletes the
+     * records of the pets it deletes.
+     */
+    private static final String SQL_CREATE_RECORDS_TABLE = "CREATE TABLE " + Records.TABLE_NAME + " ("
+            + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + Records.COLUMN_RECORD_PET_ID + " INTEGER NOT NULL REFERENCES "
+            + Pets.TABLE_NAME + "(" + COLUMN_ID + "), "
+            + Records.COLUMN_RECORD_TYPE + " INTEGER NOT NULL, "
+            + Records.COLUMN_RECORD_DESCRIPTION + " TEXT NOT NULL, "
+            + Records.COLUMN_RECORD_PERFORMED + " INTEGER NOT NULL, "
+            + Records.COLUMN_RECORD_NOTES + " TEXT);";
+    
+    /**
+     * SQL statement to index the records by pet, type and time, so the records of a pet, and its
+     * last vaccination, are found without a scan.
+     */
+    private static final String SQL_CREATE_RECORDS_PET_INDEX = "CREATE INDEX pet_records_pet_id_index ON "
+            + Records.TABLE_NAME + "(" + Records.COLUMN_RECORD_PET_ID + ", "
+            + Records.COLUMN_RECORD_TYPE + ", " + Records.COLUMN_RECORD_PERFORMED + ");";
+    
+    /**
+     * SQL statements to create the tags table, and the table of the tags of each pet, keyed by pet
+     * then tag, and indexed by tag then pet to read the pets of a tag in order.
+     */
+    private static final String SQL_CREATE_TAGS_TABLE = "CREATE TABLE " + Tags.TABLE_NAME + " ("
+            + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + Tags.COLUMN_TAG_NAME + " TEXT NOT NULL UNIQUE COLLATE NOCASE);";
+    
+    private static final String SQL_CREATE_PET_TAGS_TABLE = "CREATE TABLE " + Tags.PET_TAGS_TABLE_NAME + " ("
+            + Tags.COLUMN_PET_ID + " INTEGER NOT NULL REFERENCES "
+            + Pets.TABLE_NAME + "(" + COLUMN_ID + "), "
+            + Tags.COLUMN_TAG_ID + " INTEGER NOT NULL REFERENCES "
+            + Tags.TABLE_NAME + "(" + COLUMN_ID + "), "
+            + "PRIMARY KEY (" + Tags.COLUMN_PET_ID + ", " + Tags.COLUMN_TAG_ID + "));";
+    
+    private static final String SQL_CREATE_PET_TAGS_TAG_INDEX = "CREATE INDEX pet_tags_tag_id_index ON "
+            + Tags.PET_TAGS_TABLE_NAME + "(" + Tags.COLUMN_TAG_ID + ", " + Tags.COLUMN_PET_ID + ");";
+    
+    /**
+     * SQL statement to create the weight measurements table.
+     */
+    private static final String SQL_CREATE_WEIGHTS_TABLE = "CREATE TABLE " + Weights.TABLE_NAME + " ("
+            + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + Weights.COLUMN_PET_ID + " INTEGER NOT NULL, "
+            + Weights.COLUMN_MEASURED + " INTEGER NOT NULL, "
+            + Weights.COLUMN_WEIGHT + " INTEGER NOT NULL);";
+    
+    /**
+     * SQL statement to index the measurements by pet and time, for the history of a pet and
+     * for recomputing a rollup.
+     */
+    private static final String SQL_CREATE_WEIGHTS_PET_INDEX = "CREATE INDEX pet_weights_pet_id_index ON "
+            + Weights.TABLE_NAME + "(" + Weights.COLUMN_PET_ID + ", " + Weights.COLUMN_MEASURED + ");";
+    
+    /**
+     * Length of a day in milliseconds
+     */
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000;
+    
+    /**
+     * SQL expression of the current time in milliseconds since the epoch
+     */
+    private static final String SQL_NOW_MILLIS = "CAST((julianday('now') - 2440587.5) * " + DAY_MILLIS + " AS INTEGER)";
+    
+    /**
+     * SQL statements to create the triggers keeping the weight history up to date: the rollups of
+     * each inserted, updated (moved to another time or pet) or deleted measurement, a measurement
+     * for each new weight of a pet, and the history of each deleted pet.
+     */
+    private static final String[] SQL_CREATE_WEIGHTS_TRIGGERS = {
+            "CREATE TRIGGER pet_weights_insert_rollup AFTER INSERT ON " + Weights.TABLE_NAME + " BEGIN "
+                    + addToRollup( Weights.DAILY_TABLE_NAME, dayStart( "NEW" ) )
+                    + addToRollup( Weights.MONTHLY_TABLE_NAME, monthStart( "NEW", "" ) )
+                    + " END;",
+            "CREATE TRIGGER pet_weights_delete_rollup AFTER DELETE ON " + Weights.TABLE_NAME + " BEGIN "
+                    + removeFromRollup( Weights.DAILY_TABLE_NAME, dayStart( "OLD" ),
+                    dayStart( "OLD" ) + " + " + DAY_MILLIS, Weights.TABLE_NAME, Weights.COLUMN_MEASURED,
+                    Weights.COLUMN_WEIGHT, Weights.COLUMN_WEIGHT )
+                    + removeFromRollup( Weights.MONTHLY_TABLE_NAME, monthStart( "OLD", "" ),
+                    monthStart( "OLD", ", '+1 month'" ), Weights.DAILY_TABLE_NAME,
+                    Weights.COLUMN_PERIOD_START, Weights.COLUMN_MIN_WEIGHT, Weights.COLUMN_MAX_WEIGHT )
+                    + " END;",
+            // An updated measurement is removed from the periods of its old time and pet, then added
+            // to the periods of its new ones. Each monthly rollup is recomputed from the daily ones
+            // once they're both done.
+            "CREATE TRIGGER pet_weights_update_rollup AFTER UPDATE OF " + Weights.COLUMN_PET_ID + ", "
+                    + Weights.COLUMN_MEASURED + ", " + Weights.COLUMN_WEIGHT + " ON " + Weights.TABLE_NAME
+                    + " BEGIN "
+                    + removeFromRollup( Weights.DAILY_TABLE_NAME, dayStart( "OLD" ),
+                    dayStart( "OLD" ) + " + " + DAY_MILLIS, Weights.TABLE_NAME, Weights.COLUMN_MEASURED,
+                    Weights.COLUMN_WEIGHT, Weights.COLUMN_WEIGHT )
+                    + addToRollup( Weights.DAILY_TABLE_NAME, dayStart( "NEW" ) )
+                    + removeFromRollup( Weights.MONTHLY_TABLE_NAME, monthStart( "OLD", "" ),
+                    monthStart( "OLD", ", '+1 month'" ), Weights.DAILY_TABLE_NAME,
+                    Weights.COLUMN_PERIOD_START, Weights.COLUMN_MIN_WEIGHT, Weights.COLUMN_MAX_WEIGHT )
+                    + addToRollup( Weights.MONTHLY_TABLE_NAME, monthStart( "NEW", "" ) )
+                    + " END;",
+            "CREATE TRIGGER pets_insert_weight AFTER INSERT ON " + Pets.TABLE_NAME
+                    + " WHEN NEW." + Pets.COLUMN_PET_WEIGHT + " > 0 BEGIN " + insertMeasurement() + " END;",
+            "CREATE TRIGGER pets_update_weight AFTER UPDATE OF " + Pets.COLUMN_PET_WEIGHT
+                    + " ON " + Pets.TABLE_NAME
+                    + " WHEN NEW." + Pets.COLUMN_PET_WEIGHT + " > 0"
+                    + " AND NEW." + Pets.COLUMN_PET_WEIGHT + " <> OLD." + Pets.COLUMN_PET_WEIGHT
+                    + " BEGIN " + insertMeasurement() + " END;",
+            // The rollups are deleted first, so deleting the measurements has nothing to roll up.
+            "CREATE TRIGGER pets_delete_weights AFTER DELETE ON " + Pets.TABLE_NAME + SQL_WHEN_NOT_ARCHIVED + " BEGIN "
+                    + "DELETE FROM " + Weights.DAILY_TABLE_NAME
+                    + " WHERE " + Weights.COLUMN_PET_ID + " = OLD." + COLUMN_ID + "; "
+                    + "DELETE FROM " + Weights.MONTHLY_TABLE_NAME
+                    + " WHERE " + Weights.COLUMN_PET_ID + " = OLD." + COLUMN_ID + "; "
+                    + "DELETE FROM " + Weights.TABLE_NAME
+                    + " WHERE " + Weights.COLUMN_PET_ID + " = OLD." + COLUMN_ID + "; END;" };
+    
+    /**
+     * SQL statements creating the database, in order
+     */
+    private static final List< String > CREATE_STATEMENTS;
+    
+    static
+    {
+        List< String > statements = new ArrayList<>();
+        statements.addAll( Arrays.asList( SQL_CREATE_BREEDS_TABLE, SQL_CREATE_PETS_TABLE,
+                SQL_CREATE_PETS_BREED_INDEX, SQL_CREATE_PETS_SYNC_ID_INDEX, SQL_CREATE_PETS_VERSION_TRIGGER,
+                SQL_CREATE_PETS_STATUS_INDEX, SQL_CREATE_PETS_VIEW, SQL_CREATE_ARCHIVE_TABLE,
+                SQL_CREATE_ARCHIVE_VIEW, SQL_CREATE_HISTORY_VIEW ) );
+        statements.addAll( getChangeLogStatements() );
+        statements.add( SQL_CREATE_DRAFTS_TABLE );
+        statements.addAll( getWeightHistoryStatements() );
+        statements.addAll( Arrays.asList( SQL_CREATE_RECORDS_TABLE, SQL_CREATE_RECORDS_PET_INDEX,
+                SQL_CREATE_TAGS_TABLE, SQL_CREATE_PET_TAGS_TABLE, SQL_CREATE_PET_TAGS_TAG_INDEX,
+                SQL_CREATE_DELETIONS_TABLE, SQL_CREATE_PETS_DELETION_INDEX ) );
+        statements.addAll( Arrays.asList( SQL_CREATE_COUNTS_TABLE ) );
+        statements.addAll( Arrays.asList( SQL_CREATE_COUNTS_TRIGGERS ) );
+        CREATE_STATEMENTS = Collections.unmodifiableList( statements );
+    }
+    
+    // Only constants and static helpers, so there's no reason to instantiate it.
+    private PetSchema()
+    {
+    
+    }
+    
+    /**
+     * Return the SQL statements creating the database as of {@link #DATABASE_VERSION}, to run in
+     * order, in one transaction.
+     *
+     * @return
+     */
+    public static List< String > getCreateStatements()
+    {
+        return CREATE_STATEMENTS;
+    }
+    
+    /**
+     * Return the SQL condition of the pets (of the pets table, or of the given alias of it) which
+     * aren't deleted: neither deleted by themselves, nor by a delete of all the pets. The last
+     * delete of all the pets covers the earlier ones, and the ids of the pets only grow, so the
+     * condition is a range of ids.
+     *
+     * @param table name or alias of the pets table.
+     *
+     * @return
+     */
+    public static String getNotDeletedCondition( String table )
+    {
+        // Nearly every pet has a deletion id of 0, so the unary + keeps SQLite from using the
+        // index of the deletion ids for it, which would read more than the table itself.
+        return "+" + table + "." + Pets.COLUMN_PET_DELETION_ID + " = 0 AND " + table + "." + COLUMN_ID
+                + " > " + SQL_LAST_DELETED_PET_ID;
+    }
+    
+    /**
+     * Clients write their selections against the columns of the pets view, which can include
+     * {@link Pets#COLUMN_PET_BREED}. Return a selection that selects the same pets but can be
+     * used on the pets table itself.
+     *
+     * @param selection
+     *
+     * @return
+     */
+    public static String toPetsTableSelection( String selection )
+    {
+        if ( selection == null || selection.isEmpty() )
+            return selection;
+        
+        return COLUMN_ID + " IN (SELECT " + COLUMN_ID + " FROM " + Pets.VIEW_NAME + " WHERE " + selection + ")";
+    }
+    
+    /**
+     * Return the SQL condition of a trigger on whether the old or new pet isn't deleted.
+     *
+     * @param row "OLD" or "NEW".
+     *
+     * @return
+     */
+    private static String isLive( String row )
+    {
+        return row + "." + Pets.COLUMN_PET_DELETION_ID + " = 0 AND " + row + "." + COLUMN_ID
+                + " > " + SQL_LAST_DELETED_PET_ID;
+    }
+    
+    /**
+     * Return the SQL statement of a trigger changing the number of pets which aren't deleted.
+     *
+     * @param change for instance "+ 1".
+     *
+     * @return
+     */
+    private static String addLivePets( String change )
+    {
+        return "UPDATE " + Counts.TABLE_NAME + " SET " + Counts.COLUMN_LIVE_PETS + " = " + Counts.COLUMN_LIVE_PETS
+                + " " + change + ";";
+    }
+    
+    /**
+     * Return the SQL statements creating the weight history tables, their rollups and the
+     * triggers maintaining them.
+     *
+     * @return
+     */
+    private static List< String > getWeightHistoryStatements()
+    {
+        List< String > statements = new ArrayList<>();
+        statements.add( SQL_CREATE_WEIGHTS_TABLE );
+        statements.add( SQL_CREATE_WEIGHTS_PET_INDEX );
+        statements.add( createRollupTable( Weights.DAILY_TABLE_NAME ) );
+        statements.add( createRollupTable( Weights.MONTHLY_TABLE_NAME ) );
+        statements.addAll( Arrays.asList( SQL_CREATE_WEIGHTS_TRIGGERS ) );
+        return statements;
+    }
+    
+    /**
+     * Return the SQL statement to create a rollup table of the weight history, with one row per
+     * pet and period.
+     *
+     * @param name of the table.
+     *
+     * @return
+     */
+    private static String createRollupTable( String name )
+    {
+        return "CREATE TABLE " + name + " ("
+                + Weights.COLUMN_PET_ID + " INTEGER NOT NULL, "
+                + Weights.COLUMN_PERIOD_START + " INTEGER NOT NULL, "
+                + Weights.COLUMN_MEASUREMENTS + " INTEGER NOT NULL, "
+                + Weights.COLUMN_TOTAL_WEIGHT + " INTEGER NOT NULL, "
+                + Weights.COLUMN_MIN_WEIGHT + " INTEGER NOT NULL, "
+                + Weights.COLUMN_MAX_WEIGHT + " INTEGER NOT NULL, "
+                + "PRIMARY KEY (" + Weights.COLUMN_PET_ID + ", " + Weights.COLUMN_PERIOD_START + "));";
+    }
+    
+    /**
+     * Return the SQL expression of the start of the day (UTC) of the NEW or OLD measurement.
+     *
+     * @param row NEW or OLD.
+     *
+     * @return
+     */
+    private static String dayStart( String row )
+    {
+        return "(" + row + "." + Weights.COLUMN_MEASURED + " / " + DAY_MILLIS + ") * " + DAY_MILLIS;
+    }
+    
+    /**
+     * Return the SQL expression of the start of the month (UTC) of the NEW or OLD measurement.
+     *
+     * @param row       NEW or OLD.
+     * @param modifiers more date modifiers, for instance ", '+1 month'" for the start of the next month.
+     *
+     * @return
+     */
+    private static String monthStart( String row, String modifiers )
+    {
+        return "CAST(strftime('%s', " + row + "." + Weights.COLUMN_MEASURED + " / 1000, 'unixepoch',"
+                + " 'start of month'" + modifiers + ") AS INTEGER) * 1000";
+    }
+    
+    /**
+     * Return the SQL statements adding the NEW measurement to its period of a rollup table.
+     *
+     * @param table       rollup table.
+     * @param periodStart SQL expression of the start of the period of the measurement.
+     *
+     * @return
+     */
+    private static String addToRollup( String table, String periodStart )
+    {
+        return "INSERT OR IGNORE INTO " + table + " VALUES (NEW." + Weights.COLUMN_PET_ID + ", "
+                + periodStart + ", 0, 0, NEW." + Weights.COLUMN_WEIGHT + ", NEW." + Weights.COLUMN_WEIGHT + "); "
+                + "UPDATE " + table + " SET "
+                + Weights.COLUMN_MEASUREMENTS + " = " + Weights.COLUMN_MEASUREMENTS + " + 1, "
+                + Weights.COLUMN_TOTAL_WEIGHT + " = " + Weights.COLUMN_TOTAL_WEIGHT
+                + " + NEW." + Weights.COLUMN_WEIGHT + ", "
+                + Weights.COLUMN_MIN_WEIGHT + " = MIN(" + Weights.COLUMN_MIN_WEIGHT
+                + ", NEW." + Weights.COLUMN_WEIGHT + "), "
+                + Weights.COLUMN_MAX_WEIGHT + " = MAX(" + Weights.COLUMN_MAX_WEIGHT
+                + ", NEW." + Weights.COLUMN_WEIGHT + ")"
+                + " WHERE " + Weights.COLUMN_PET_ID + " = NEW." + Weights.COLUMN_PET_ID
+                + " AND " + Weights.COLUMN_PERIOD_START + " = " + periodStart + "; ";
+    }
+    
+    /**
+     * Return the SQL statements removing the OLD measurement from its period of a rollup table.
+     * The count and total are decremented, but the minimum and maximum can't be, so they're
+     * recomputed from the finer rows of the same period (which are already up to date).
+     *
+     * @param table        rollup table.
+     * @param periodStart  SQL expression of the start of the period of the measurement.
+     * @param periodEnd    SQL expression of the start of the next period.
+     * @param sourceTable  table of the finer rows: the measurements, or the daily rollups.
+     * @param sourceTime   column of the time of the finer rows.
+     * @param sourceMin    column of the weight, or minimum weight, of the finer rows.
+     * @param sourceMax    column of the weight, or maximum weight, of the finer rows.
+     *
+     * @return
+     */
+    private static String removeFromRollup( String table, String periodStart, String periodEnd,
+            String sourceTable, String sourceTime, String sourceMin, String sourceMax )
+    {
+        String sourceWhere = " FROM " + sourceTable
+                + " WHERE " + Weights.COLUMN_PET_ID + " = OLD." + Weights.COLUMN_PET_ID
+                + " AND " + sourceTime + " >= " + periodStart + " AND " + sourceTime + " < " + periodEnd + ")";
+        String where = " WHERE " + Weights.COLUMN_PET_ID + " = OLD." + Weights.COLUMN_PET_ID
+                + " AND " + Weights.COLUMN_PERIOD_START + " = " + periodStart;
+        
+        // The period of the last measurement is deleted, as it has no minimum or maximum anymore.
+        return "DELETE FROM " + table + where + " AND " + Weights.COLUMN_MEASUREMENTS + " = 1; "
+                + "UPDATE " + table + " SET "
+                + Weights.COLUMN_MEASUREMENTS + " = " + Weights.COLUMN_MEASUREMENTS + " - 1, "
+                + Weights.COLUMN_TOTAL_WEIGHT + " = " + Weights.COLUMN_TOTAL_WEIGHT
+                + " - OLD." + Weights.COLUMN_WEIGHT + ", "
+                + Weights.COLUMN_MIN_WEIGHT + " = (SELECT MIN(" + sourceMin + ")" + sourceWhere + ", "
+                + Weights.COLUMN_MAX_WEIGHT + " = (SELECT MAX(" + sourceMax + ")" + sourceWhere
+                + where + "; ";
+    }
+    
+    /**
+     * Return the SQL statement recording the NEW weight of a pet as a measurement, now.
+     *
+     * @return
+     */
+    private static String insertMeasurement()
+    {
+        return "INSERT INTO " + Weights.TABLE_NAME + " (" + Weights.COLUMN_PET_ID + ", "
+                + Weights.COLUMN_MEASURED + ", " + Weights.COLUMN_WEIGHT + ")"
+                + " VALUES (NEW." + COLUMN_ID + ", " + SQL_NOW_MILLIS + ", NEW." + Pets.COLUMN_PET_WEIGHT + ");";
+    }
+    
+    /**
+     * Return the SQL statements creating the change log table and the triggers maintaining it.
+     *
+     * @return
+     */
+    private static List< String > getChangeLogStatements()
+    {
+        List< String > statements = new ArrayList<>();
+        statements.add( SQL_CREATE_CHANGES_TABLE );
+        statements.add( SQL_CREATE_CHANGES_PET_INDEX );
+        statements.addAll( Arrays.asList( SQL_CREATE_CHANGES_TRIGGERS ) );
+        return statements;
+    }
+    
+    /**
+     * Return the SQL statement to create a trigger logging each pet changed by the given statement.
+     *
+     * @param name      of the trigger.
+     * @param statement INSERT, UPDATE (optionally OF some columns) or DELETE.
+     * @param when      WHEN condition of the trigger, or an empty string.
+     * @param op        logged for the change.
+     * @param row       NEW or OLD, the row holding the id of the changed pet.
+     *
+     * @return
+     */
+    private static String createChangeTrigger( String name, String statement, String when, int op, String row )
+    {
+        return "CREATE TRIGGER " + name + " AFTER " + statement + " ON " + Pets.TABLE_NAME + when
+                + " BEGIN INSERT INTO " + Changes.TABLE_NAME
+                + " (" + Changes.COLUMN_OP + ", " + Changes.COLUMN_PET_ID + ", "
+                + Changes.COLUMN_SYNC_ID + ")"
+                + " VALUES (" + op + ", " + row + "." + COLUMN_ID + ", "
+                + row + "." + Pets.COLUMN_PET_SYNC_ID + "); END;";
+    }
+}
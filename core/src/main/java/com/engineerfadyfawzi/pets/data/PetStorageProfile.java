@@ -0,0 +1,164 @@
+package com.engineerfadyfawzi.pets.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Named set of SQLite storage settings a pets database is opened with: page size, page cache
+ * size, memory-mapped I/O, synchronous level and temporary storage.
+ *
+ * Every setting but the page size applies to the connection, as soon as its pragma runs. The page
+ * size of an existing database only changes when it's rebuilt (VACUUM), see
+ * {@link #getPageSizePragma()}.
+ *
+ * The journal stays the rollback journal with every profile, so the backups and restores of the
+ * database work the same way whichever profile is selected.
+ */
+public final class PetStorageProfile
+{
+    /**
+     * About the SQLite defaults of Android, made explicit: a 2 MiB page cache, nothing
+     * memory-mapped, and every transaction synced to disk before it's reported done.
+     */
+    public static final PetStorageProfile BALANCED = new PetStorageProfile( "balanced",
+            4096, 2 * 1024, 0, "FULL", "DEFAULT" );
+    
+    /**
+     * For browsing large catalogs: a larger page cache, and the database file memory-mapped, so
+     * reads of the pages which aren't cached copy nothing. Sorts and temporary indexes stay in
+     * memory. On devices whose SQLite disables memory-mapped I/O, the mmap_size pragma has no
+     * effect, and the profile only differs by its cache.
+     */
+    public static final PetStorageProfile READ_HEAVY_MMAP = new PetStorageProfile( "read-heavy-mmap",
+            4096, 8 * 1024, 64L * 1024 * 1024, "FULL", "MEMORY" );
+    
+    /**
+     * For importing or syncing many pets: larger pages and a larger cache, so that a big
+     * transaction splits and writes fewer pages, and a journal which isn't synced before each
+     * commit. A power loss during a commit can lose the last transactions, and, rarely, corrupt
+     * the database, which a backup can restore.
+     */
+    public static final PetStorageProfile BULK_LOAD = new PetStorageProfile( "bulk-load",
+            8192, 16 * 1024, 0, "NORMAL", "MEMORY" );
+    
+    /**
+     * Profile used when none was selected.
+     */
+    public static final PetStorageProfile DEFAULT = BALANCED;
+    
+    private static final List< PetStorageProfile > ALL = Collections.unmodifiableList( Arrays.asList(
+            BALANCED, READ_HEAVY_MMAP, BULK_LOAD ) );
+    
+    private final String mName;
+    private final int mPageSize;
+    private final int mCacheSizeKib;
+    private final long mMmapSize;
+    private final String mSynchronous;
+    private final String mTempStore;
+    
+    /**
+     * @param name         of the profile, as selected at runtime.
+     * @param pageSize     in bytes, a power of two between 512 and 65536.
+     * @param cacheSizeKib size of the page cache of a connection, in KiB.
+     * @param mmapSize     maximum number of bytes of the database file memory-mapped, 0 for none.
+     * @param synchronous  level of the synchronous pragma: OFF, NORMAL or FULL.
+     * @param tempStore    value of the temp_store pragma: DEFAULT, FILE or MEMORY.
+     */
+    private PetStorageProfile( String name, int pageSize, int cacheSizeKib, long mmapSize,
+                               String synchronous, String tempStore )
+    {
+        mName = name;
+        mPageSize = pageSize;
+        mCacheSizeKib = cacheSizeKib;
+        mMmapSize = mmapSize;
+        mSynchronous = synchronous;
+        mTempStore = tempStore;
+    }
+    
+    /**
+     * Return every profile, the default first.
+     *
+     * @return
+     */
+    public static List< PetStorageProfile > getAll()
+    {
+        return ALL;
+    }
+    
+    /**
+     * Return the profile with the given name.
+     *
+     * @param name
+     *
+     * @return
+     *
+     * @throws IllegalArgumentException if there's no such profile.
+     */
+    public static PetStorageProfile forName( String name )
+    {
+        for ( PetStorageProfile profile : ALL )
+            if ( profile.mName.equals( name ) )
+                return profile;
+        
+        throw new IllegalArgumentException( "Unknown storage profile " + name );
+    }
+    
+    public String getName()
+    {
+        return mName;
+    }
+    
+    public int getPageSize()
+    {
+        return mPageSize;
+    }
+    
+    /**
+     * Return the pragma setting the page size. It must run before the first table of a new
+     * database is created, or be followed by a VACUUM to rebuild an existing database with it.
+     *
+     * @return
+     */
+    public String getPageSizePragma()
+    {
+        return "PRAGMA page_size = " + mPageSize;
+    }
+    
+    /**
+     * Return the pragma setting the synchronous level of the profile, for instance to set it
+     * back after a transaction committed with another level.
+     *
+     * @return
+     */
+    public String getSynchronousPragma()
+    {
+        return "PRAGMA synchronous = " + mSynchronous;
+    }
+    
+    /**
+     * Return the pragmas applying the other settings to a connection, in the order they're run.
+     *
+     * @return
+     */
+    public List< String > getConnectionPragmas()
+    {
+        List< String > pragmas = new ArrayList<>( 4 );
+        
+        // A negative cache size is a number of KiB rather than of pages, so it doesn't depend on
+        // the page size.
+        pragmas.add( "PRAGMA cache_size = -" + mCacheSizeKib );
+        pragmas.add( String.format( Locale.US, "PRAGMA mmap_size = %d", mMmapSize ) );
+        pragmas.add( getSynchronousPragma() );
+        pragmas.add( "PRAGMA temp_store = " + mTempStore );
+        return pragmas;
+    }
+    
+    @Override
+    public String toString()
+    {
+        return mName;
+    }
+}
@@ -0,0 +1,552 @@
+package com.engineerfadyfawzi.pets.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A recorded workload of PetProvider: the calls made to it, with their arguments and
+ * timings, written by PetCallRecorder and replayed by {@link PetTraceReplayer}.
+ *
+ * The file is a gzipped stream of calls in the order they finished, each with its start time
+ * relative to the start of the recording. The calls of a group (a batch, or a group applied with
+ * PetContract.METHOD_APPLY_GROUP) are nested in the call of the group.
+ *
+ * The values users typed (strings of the arguments, of the values, of the URIs and the string
+ * literals of the selections) are replaced by pseudonyms before they're written, see
+ * {@link Sanitizer}. Numbers are kept, since they're ids, genders or weights, which the
+ * workload depends on.
+ *
+ * Only plain Java is used here, so the traces can be read and replayed outside of Android.
+ */
+public final class PetTrace
+{
+    /**
+     * Kinds of calls
+     */
+    public static final int KIND_QUERY = 1;
+    public static final int KIND_INSERT = 2;
+    public static final int KIND_UPDATE = 3;
+    public static final int KIND_DELETE = 4;
+    public static final int KIND_BATCH = 5;
+    public static final int KIND_CALL = 6;
+    
+    /**
+     * First bytes of a trace file (after decompression), and version of the format
+     */
+    private static final int MAGIC = 0x50545243; // "PTRC"
+    private static final int VERSION = 1;
+    
+    /**
+     * Types of the values of the {@link Call#values}. Ints and longs are told apart, since the
+     * extras of a call are read with their type.
+     */
+    private static final int VALUE_NULL = 0;
+    private static final int VALUE_LONG = 1;
+    private static final int VALUE_DOUBLE = 2;
+    private static final int VALUE_STRING = 3;
+    private static final int VALUE_BLOB = 4;
+    private static final int VALUE_INT = 5;
+    
+    private static final Charset UTF_8 = Charset.forName( "UTF-8" );
+    
+    // Only static helpers and nested classes, so there's no reason to instantiate it.
+    private PetTrace()
+    {
+    
+    }
+    
+    /**
+     * A single call of the provider. The fields that don't apply to the kind of call are null.
+     */
+    public static final class Call
+    {
+        public final int kind;
+        public final String uri;
+        public final String[] projection;
+        public final String selection;
+        public final String[] selectionArgs;
+        public final String sortOrder;
+        public final String method;
+        public final String arg;
+        
+        /**
+         * Content values of an insert or update, or extras of a call. A blob is only recorded
+         * by its size, as a byte array of zeros.
+         */
+        public final Map< String, Object > values;
+        
+        /**
+         * Calls of a group, in order
+         */
+        public final List< Call > children = new ArrayList<>();
+        
+        /**
+         * Start of the call since the start of the recording, and its duration, in microseconds
+         */
+        public long startMicros;
+        public long durationMicros;
+        
+        /**
+         * Number of rows returned, inserted, updated or deleted (or operations applied), and
+         * whether the call threw instead.
+         */
+        public int resultCount;
+        public boolean failed;
+        
+        public Call( int kind, String uri, String[] projection, String selection, String[] selectionArgs,
+                String sortOrder, String method, String arg, Map< String, Object > values )
+        {
+            this.kind = kind;
+            this.uri = uri;
+            this.projection = projection;
+            this.selection = selection;
+            this.selectionArgs = selectionArgs;
+            this.sortOrder = sortOrder;
+            this.method = method;
+            this.arg = arg;
+            this.values = values;
+        }
+        
+        /**
+         * Return the kind and the URI without its ids and query, which calls are grouped by in
+         * the reports, for instance "query pets/#".
+         *
+         * @return
+         */
+        public String getPattern()
+        {
+            String path = uri == null ? "" : uri.replaceFirst( "^[a-z]+://[^/]*/?", "" ).replaceFirst( "\\?.*$", "" )
+                    .replaceAll( "(^|/)[0-9]+(?=/|$)", "$1#" );
+            String name = kind == KIND_QUERY ? "query" : kind == KIND_INSERT ? "insert" : kind == KIND_UPDATE
+                    ? "update" : kind == KIND_DELETE ? "delete" : kind == KIND_BATCH ? "batch" : "call " + method;
+            return name + " " + path;
+        }
+    }
+    
+    /**
+     * Replaces the values users typed by pseudonyms: the same value (ignoring case) always gets
+     * the same pseudonym within a recording, of the same length and case, so lookups by name,
+     * breed or tag behave the same when replayed. The pseudonyms are keyed by a random salt that
+     * isn't written, so they can't be reversed by hashing guesses.
+     */
+    public static final class Sanitizer
+    {
+        private static final Pattern NUMBER = Pattern.compile( "-?[0-9]+(\\.[0-9]+)?" );
+        private static final Pattern STRING_LITERAL = Pattern.compile( "'((?:[^']|'')*)'" );
+        
+        private final byte[] mSalt = new byte[ 16 ];
+        private final MessageDigest mDigest;
+        
+        public Sanitizer()
+        {
+            new SecureRandom().nextBytes( mSalt );
+            try
+            {
+                mDigest = MessageDigest.getInstance( "SHA-256" );
+            }
+            catch ( NoSuchAlgorithmException noSuchAlgorithmException )
+            {
+                throw new IllegalStateException( "SHA-256 is required", noSuchAlgorithmException );
+            }
+        }
+        
+        /**
+         * Return the pseudonym of a string, or the string itself if it's null or a number.
+         *
+         * @param value
+         *
+         * @return
+         */
+        public synchronized String sanitize( String value )
+        {
+            if ( value == null || value.isEmpty() || NUMBER.matcher( value ).matches() )
+                return value;
+            
+            mDigest.reset();
+            mDigest.update( mSalt );
+            byte[] hash = mDigest.digest( value.toLowerCase( Locale.US ).getBytes( UTF_8 ) );
+            
+            char[] pseudonym = new char[ value.length() ];
+            for ( int i = 0; i < pseudonym.length; i++ )
+            {
+                char letter = ( char ) ( 'a' + ( ( hash[ i % hash.length ] & 0xff ) + i / hash.length ) % 26 );
+                pseudonym[ i ] = Character.isUpperCase( value.charAt( i ) ) ? Character.toUpperCase( letter ) : letter;
+            }
+            return new String( pseudonym );
+        }
+        
+        public String[] sanitize( String[] values )
+        {
+            if ( values == null )
+                return null;
+            
+            String[] sanitized = new String[ values.length ];
+            for ( int i = 0; i < values.length; i++ )
+                sanitized[ i ] = sanitize( values[ i ] );
+            return sanitized;
+        }
+        
+        /**
+         * Return the selection with its string literals replaced by pseudonyms. The rest of it is
+         * SQL written by the app, and kept.
+         *
+         * @param selection
+         *
+         * @return
+         */
+        public String sanitizeSelection( String selection )
+        {
+            if ( selection == null || selection.indexOf( '\'' ) == -1 )
+                return selection;
+            
+            Matcher matcher = STRING_LITERAL.matcher( selection );
+            StringBuffer sanitized = new StringBuffer();
+            while ( matcher.find() )
+                matcher.appendReplacement( sanitized,
+                        Matcher.quoteReplacement( "'" + sanitize( matcher.group( 1 ).replace( "''", "'" ) ) + "'" ) );
+            matcher.appendTail( sanitized );
+            return sanitized.toString();
+        }
+        
+        /**
+         * Return the value with a string replaced by its pseudonym, and a blob by zeros.
+         *
+         * @param value
+         *
+         * @return
+         */
+        public Object sanitizeValue( Object value )
+        {
+            if ( value instanceof String )
+                return sanitize( ( String ) value );
+            if ( value instanceof byte[] )
+                return new byte[ ( ( byte[] ) value ).length ];
+            if ( value instanceof Boolean )
+                return ( Boolean ) value ? 1L : 0L;
+            return value;
+        }
+    }
+    
+    /**
+     * Writes the calls of a trace. The calls are written in the order they're given, which is
+     * thread safe.
+     */
+    public static final class Writer implements Closeable
+    {
+        private final DataOutputStream mOutput;
+        
+        public Writer( OutputStream output, long startMillis ) throws IOException
+        {
+            mOutput = new DataOutputStream( new BufferedOutputStream( new GZIPOutputStream( output ) ) );
+            mOutput.writeInt( MAGIC );
+            mOutput.writeInt( VERSION );
+            mOutput.writeLong( startMillis );
+        }
+        
+        public synchronized void write( Call call ) throws IOException
+        {
+            writeCall( mOutput, call );
+        }
+        
+        @Override
+        public synchronized void close() throws IOException
+        {
+            mOutput.close();
+        }
+    }
+    
+    /**
+     * Reads the calls of a trace.
+     */
+    public static final class Reader implements Closeable
+    {
+        private final DataInputStream mInput;
+        private final long mStartMillis;
+        
+        public Reader( InputStream input ) throws IOException
+        {
+            mInput = new DataInputStream( new BufferedInputStream( new GZIPInputStream( input ) ) );
+            if ( mInput.readInt() != MAGIC )
+                throw new IOException( "Not a trace" );
+            int version = mInput.readInt();
+            if ( version != VERSION )
+                throw new IOException( "Unsupported trace version " + version );
+            mStartMillis = mInput.readLong();
+        }
+        
+        /**
+         * Return the wall clock time when the recording started.
+         *
+         * @return
+         */
+        public long getStartMillis()
+        {
+            return mStartMillis;
+        }
+        
+        /**
+         * Return the next call, or null at the end of the trace.
+         *
+         * @return
+         *
+         * @throws IOException
+         */
+        public Call read() throws IOException
+        {
+            int kind = mInput.read();
+            return kind == -1 ? null : readCall( mInput, kind );
+        }
+        
+        /**
+         * Return all the remaining calls, sorted by start time.
+         *
+         * @return
+         *
+         * @throws IOException
+         */
+        public List< Call > readAll() throws IOException
+        {
+            ArrayList< Call > calls = new ArrayList<>();
+            Call call;
+            while ( ( call = read() ) != null )
+                calls.add( call );
+            
+            Collections.sort( calls, new Comparator< Call >()
+            {
+                @Override
+                public int compare( Call first, Call second )
+                {
+                    return first.startMicros < second.startMicros ? -1 : ( first.startMicros == second.startMicros ? 0 : 1 );
+                }
+            } );
+            return calls;
+        }
+        
+        @Override
+        public void close() throws IOException
+        {
+            mInput.close();
+        }
+    }
+    
+    private static void writeCall( DataOutputStream output, Call call ) throws IOException
+    {
+        output.writeByte( call.kind );
+        output.writeBoolean( call.failed );
+        writeVarLong( output, call.startMicros );
+        writeVarLong( output, call.durationMicros );
+        writeVarLong( output, call.resultCount + 1L );
+        writeString( output, call.uri );
+        writeStrings( output, call.projection );
+        writeString( output, call.selection );
+        writeStrings( output, call.selectionArgs );
+        writeString( output, call.sortOrder );
+        writeString( output, call.method );
+        writeString( output, call.arg );
+        writeValues( output, call.values );
+        
+        writeVarLong( output, call.children.size() );
+        for ( Call child : call.children )
+            writeCall( output, child );
+    }
+    
+    private static Call readCall( DataInputStream input, int kind ) throws IOException
+    {
+        boolean failed = input.readBoolean();
+        long startMicros = readVarLong( input );
+        long durationMicros = readVarLong( input );
+        int resultCount = ( int ) ( readVarLong( input ) - 1 );
+        
+        Call call = new Call( kind, readString( input ), readStrings( input ), readString( input ),
+                readStrings( input ), readString( input ), readString( input ), readString( input ),
+                readValues( input ) );
+        call.failed = failed;
+        call.startMicros = startMicros;
+        call.durationMicros = durationMicros;
+        call.resultCount = resultCount;
+        
+        long children = readVarLong( input );
+        for ( long i = 0; i < children; i++ )
+            call.children.add( readCall( input, input.readUnsignedByte() ) );
+        return call;
+    }
+    
+    /**
+     * Write an unsigned number in 7 bit groups, so the small numbers most of them are take a byte
+     * or two.
+     */
+    private static void writeVarLong( DataOutputStream output, long value ) throws IOException
+    {
+        while ( ( value & ~0x7fL ) != 0 )
+        {
+            output.writeByte( ( int ) ( ( value & 0x7f ) | 0x80 ) );
+            value >>>= 7;
+        }
+        output.writeByte( ( int ) value );
+    }
+    
+    private static long readVarLong( DataInputStream input ) throws IOException
+    {
+        long value = 0;
+        for ( int shift = 0; shift < 64; shift += 7 )
+        {
+            int b = input.readUnsignedByte();
+            value |= ( long ) ( b & 0x7f ) << shift;
+            if ( ( b & 0x80 ) == 0 )
+                return value;
+        }
+        throw new IOException( "Malformed trace" );
+    }
+    
+    /**
+     * Write a string as its UTF-8 length plus one (0 for null) and its bytes, since
+     * {@link DataOutputStream#writeUTF} is limited to 64 KB.
+     */
+    private static void writeString( DataOutputStream output, String value ) throws IOException
+    {
+        if ( value == null )
+        {
+            writeVarLong( output, 0 );
+            return;
+        }
+        
+        byte[] bytes = value.getBytes( UTF_8 );
+        writeVarLong( output, bytes.length + 1L );
+        output.write( bytes );
+    }
+    
+    private static String readString( DataInputStream input ) throws IOException
+    {
+        long length = readVarLong( input ) - 1;
+        if ( length < 0 )
+            return null;
+        if ( length > Integer.MAX_VALUE )
+            throw new EOFException( "Malformed trace" );
+        
+        byte[] bytes = new byte[ ( int ) length ];
+        input.readFully( bytes );
+        return new String( bytes, UTF_8 );
+    }
+    
+    private static void writeStrings( DataOutputStream output, String[] values ) throws IOException
+    {
+        writeVarLong( output, values == null ? 0 : values.length + 1L );
+        if ( values != null )
+            for ( String value : values )
+                writeString( output, value );
+    }
+    
+    private static String[] readStrings( DataInputStream input ) throws IOException
+    {
+        long length = readVarLong( input ) - 1;
+        if ( length < 0 )
+            return null;
+        
+        String[] values = new String[ ( int ) length ];
+        for ( int i = 0; i < values.length; i++ )
+            values[ i ] = readString( input );
+        return values;
+    }
+    
+    private static void writeValues( DataOutputStream output, Map< String, Object > values ) throws IOException
+    {
+        writeVarLong( output, values == null ? 0 : values.size() + 1L );
+        if ( values == null )
+            return;
+        
+        for ( Map.Entry< String, Object > entry : values.entrySet() )
+        {
+            writeString( output, entry.getKey() );
+            Object value = entry.getValue();
+            if ( value == null )
+            {
+                output.writeByte( VALUE_NULL );
+            }
+            else if ( value instanceof Float || value instanceof Double )
+            {
+                output.writeByte( VALUE_DOUBLE );
+                output.writeDouble( ( ( Number ) value ).doubleValue() );
+            }
+            else if ( value instanceof Integer || value instanceof Short || value instanceof Byte )
+            {
+                output.writeByte( VALUE_INT );
+                output.writeInt( ( ( Number ) value ).intValue() );
+            }
+            else if ( value instanceof Number )
+            {
+                output.writeByte( VALUE_LONG );
+                output.writeLong( ( ( Number ) value ).longValue() );
+            }
+            else if ( value instanceof byte[] )
+            {
+                output.writeByte( VALUE_BLOB );
+                writeVarLong( output, ( ( byte[] ) value ).length );
+            }
+            else
+            {
+                output.writeByte( VALUE_STRING );
+                writeString( output, value.toString() );
+            }
+        }
+    }
+    
+    private static Map< String, Object > readValues( DataInputStream input ) throws IOException
+    {
+        long size = readVarLong( input ) - 1;
+        if ( size < 0 )
+            return null;
+        
+        LinkedHashMap< String, Object > values = new LinkedHashMap<>();
+        for ( long i = 0; i < size; i++ )
+        {
+            String key = readString( input );
+            int type = input.readUnsignedByte();
+            switch ( type )
+            {
+                case VALUE_NULL:
+                    values.put( key, null );
+                    break;
+                case VALUE_INT:
+                    values.put( key, input.readInt() );
+                    break;
+                case VALUE_LONG:
+                    values.put( key, input.readLong() );
+                    break;
+                case VALUE_DOUBLE:
+                    values.put( key, input.readDouble() );
+                    break;
+                case VALUE_STRING:
+                    values.put( key, readString( input ) );
+                    break;
+                case VALUE_BLOB:
+                    values.put( key, new byte[ ( int ) readVarLong( input ) ] );
+                    break;
+                default:
+                    throw new IOException( "Malformed trace value type " + type );
+            }
+        }
+        return values;
+    }
+}
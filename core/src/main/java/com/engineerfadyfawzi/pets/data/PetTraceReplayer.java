@@ -0,0 +1,277 @@
+package com.engineerfadyfawzi.pets.data;
+
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Replays a {@link PetTrace} against a {@link Target}, and reports how the latency of each kind
+ * of call compares with the recording, so a recorded workload can be used as a regression
+ * benchmark.
+ *
+ * The calls are replayed one at a time in the order they started, either at the original speed
+ * (each call waits until its recorded start time, so the database is as idle between the calls
+ * as it was) or at the maximum speed. Calls which overlapped when they were recorded are
+ * serialized.
+ *
+ * The target should be a fresh database, or one seeded with a backup taken when the recording
+ * started, so the ids of the trace refer to the same pets.
+ *
+ * Only plain Java is used here, so it also runs on a JVM, through {@link #main(String[])}.
+ */
+public final class PetTraceReplayer
+{
+    /**
+     * Speed of a replay
+     */
+    public enum Speed
+    {
+        ORIGINAL,
+        MAXIMUM
+    }
+    
+    /**
+     * Where the calls are replayed, for instance the provider through a ContentResolver, see
+     * ContentResolverReplayTarget in the app.
+     */
+    public interface Target
+    {
+        /**
+         * Execute the call (and the calls of its group, as a group), and return the number of
+         * rows returned or changed, as recorded in {@link PetTrace.Call#resultCount}.
+         *
+         * @param call
+         *
+         * @return
+         *
+         * @throws Exception if the call fails.
+         */
+        int execute( PetTrace.Call call ) throws Exception;
+    }
+    
+    /**
+     * Latencies of the calls of a pattern (see {@link PetTrace.Call#getPattern()}), recorded
+     * and replayed, in microseconds.
+     */
+    public static final class Stats
+    {
+        private long[] mRecordedMicros = new long[ 16 ];
+        private long[] mReplayedMicros = new long[ 16 ];
+        private int mCount;
+        
+        /**
+         * Calls which failed only when replayed (or only when recorded), and calls which returned
+         * or changed another number of rows.
+         */
+        public int newFailures;
+        public int fixedFailures;
+        public int resultMismatches;
+        
+        void add( long recordedMicros, long replayedMicros )
+        {
+            if ( mCount == mRecordedMicros.length )
+            {
+                mRecordedMicros = Arrays.copyOf( mRecordedMicros, mCount * 2 );
+                mReplayedMicros = Arrays.copyOf( mReplayedMicros, mCount * 2 );
+            }
+            mRecordedMicros[ mCount ] = recordedMicros;
+            mReplayedMicros[ mCount ] = replayedMicros;
+            mCount++;
+        }
+        
+        public int getCount()
+        {
+            return mCount;
+        }
+        
+        /**
+         * Return the given percentile (from 0 to 100) of the recorded latencies.
+         *
+         * @param percentile
+         *
+         * @return
+         */
+        public long getRecordedMicros( int percentile )
+        {
+            return getPercentile( mRecordedMicros, percentile );
+        }
+        
+        /**
+         * Return the given percentile (from 0 to 100) of the replayed latencies.
+         *
+         * @param percentile
+         *
+         * @return
+         */
+        public long getReplayedMicros( int percentile )
+        {
+            return getPercentile( mReplayedMicros, percentile );
+        }
+        
+        private long getPercentile( long[] micros, int percentile )
+        {
+            if ( mCount == 0 )
+                return 0;
+            
+            long[] sorted = Arrays.copyOf( micros, mCount );
+            Arrays.sort( sorted );
+            return sorted[ Math.min( mCount - 1, ( int ) ( ( long ) mCount * percentile / 100 ) ) ];
+        }
+    }
+    
+    /**
+     * Result of a replay: the stats of each pattern, sorted by pattern.
+     */
+    public static final class Report
+    {
+        public final Map< String, Stats > stats = new TreeMap<>();
+        public long replayMillis;
+        
+        @Override
+        public String toString()
+        {
+            StringBuilder report = new StringBuilder( String.format( Locale.US,
+                    "%-40s %7s %21s %21s %8s %s%n", "call", "count", "recorded p50/p95 us",
+                    "replayed p50/p95 us", "p50", "differences" ) );
+            for ( Map.Entry< String, Stats > entry : stats.entrySet() )
+            {
+                Stats patternStats = entry.getValue();
+                long recorded = patternStats.getRecordedMicros( 50 );
+                long replayed = patternStats.getReplayedMicros( 50 );
+                report.append( String.format( Locale.US, "%-40s %7d %10d/%-10d %10d/%-10d %+7.0f%% %s%n",
+                        entry.getKey(), patternStats.getCount(), recorded, patternStats.getRecordedMicros( 95 ),
+                        replayed, patternStats.getReplayedMicros( 95 ),
+                        recorded == 0 ? 0.0 : ( replayed - recorded ) * 100.0 / recorded,
+                        getDifferences( patternStats ) ) );
+            }
+            return report.append( "Replayed in " ).append( replayMillis ).append( " ms" ).toString();
+        }
+        
+        private static String getDifferences( Stats stats )
+        {
+            ArrayList< String > differences = new ArrayList<>();
+            if ( stats.newFailures > 0 )
+                differences.add( stats.newFailures + " new failures" );
+            if ( stats.fixedFailures > 0 )
+                differences.add( stats.fixedFailures + " fixed failures" );
+            if ( stats.resultMismatches > 0 )
+                differences.add( stats.resultMismatches + " other results" );
+            return differences.isEmpty() ? "" : differences.toString();
+        }
+    }
+    
+    // Only static helpers, so there's no reason to instantiate it.
+    private PetTraceReplayer()
+    {
+    
+    }
+    
+    /**
+     * Replay the calls (as returned by {@link PetTrace.Reader#readAll()}) against the target.
+     *
+     * @param calls
+     * @param target
+     * @param speed
+     *
+     * @return
+     *
+     * @throws InterruptedException if interrupted while waiting for the start of a call.
+     */
+    public static Report replay( List< PetTrace.Call > calls, Target target, Speed speed )
+            throws InterruptedException
+    {
+        Report report = new Report();
+        long startNanos = System.nanoTime();
+        for ( PetTrace.Call call : calls )
+        {
+            if ( speed == Speed.ORIGINAL )
+            {
+                long waitNanos = startNanos + call.startMicros * 1000 - System.nanoTime();
+                if ( waitNanos > 0 )
+                    Thread.sleep( waitNanos / 1000000, ( int ) ( waitNanos % 1000000 ) );
+            }
+            
+            boolean failed = false;
+            int resultCount = -1;
+            long callStartNanos = System.nanoTime();
+            try
+            {
+                resultCount = target.execute( call );
+            }
+            catch ( Exception exception )
+            {
+                failed = true;
+            }
+            long micros = ( System.nanoTime() - callStartNanos ) / 1000;
+            
+            Stats stats = report.stats.get( call.getPattern() );
+            if ( stats == null )
+            {
+                stats = new Stats();
+                report.stats.put( call.getPattern(), stats );
+            }
+            stats.add( call.durationMicros, micros );
+            if ( failed && !call.failed )
+                stats.newFailures++;
+            else if ( !failed && call.failed )
+                stats.fixedFailures++;
+            else if ( !failed && resultCount != call.resultCount )
+                stats.resultMismatches++;
+        }
+        
+        report.replayMillis = ( System.nanoTime() - startNanos ) / 1000000;
+        return report;
+    }
+    
+    /**
+     * Replay a trace file on a JVM, and print the report:
+     * {@code PetTraceReplayer <trace> [<target class> [max]]}. The target class implements
+     * {@link Target} and has a public no-argument constructor. Without a target, only the
+     * recorded latencies are reported.
+     *
+     * @param args
+     *
+     * @throws Exception
+     */
+    public static void main( String[] args ) throws Exception
+    {
+        if ( args.length < 1 )
+        {
+            System.err.println( "Usage: PetTraceReplayer <trace> [<target class> [max]]" );
+            System.exit( 2 );
+        }
+        
+        List< PetTrace.Call > calls;
+        PetTrace.Reader reader = new PetTrace.Reader( new FileInputStream( args[ 0 ] ) );
+        try
+        {
+            calls = reader.readAll();
+        }
+        finally
+        {
+            reader.close();
+        }
+        
+        // Without a target, the recorded results are given back, so only the recording is reported.
+        Target target = new Target()
+        {
+            @Override
+            public int execute( PetTrace.Call call )
+            {
+                if ( call.failed )
+                    throw new IllegalStateException( "Recorded failure" );
+                return call.resultCount;
+            }
+        };
+        if ( args.length > 1 )
+            target = ( Target ) Class.forName( args[ 1 ] ).getConstructor().newInstance();
+        Speed speed = args.length > 2 && "max".equals( args[ 2 ] ) ? Speed.MAXIMUM : Speed.ORIGINAL;
+        
+        System.out.println( calls.size() + " calls" );
+        System.out.println( replay( calls, target, args.length > 1 ? speed : Speed.MAXIMUM ) );
+    }
+}
@@ -0,0 +1,74 @@
+package com.engineerfadyfawzi.pets.data;
+
+/**
+ * Named trace sections through the app, such as the save of a pet from the editor down to
+ * SQLite and back up to the catalog, so a slow path can be broken down by step.
+ *
+ * Like android.os.Trace, a section is begun and ended on the same thread, and sections nest:
+ *
+ * <pre>
+ * PetTracer.beginSection( "PetProvider.insertPet" );
+ * try
+ * {
+ *     ...
+ * }
+ * finally
+ * {
+ *     PetTracer.endSection();
+ * }
+ * </pre>
+ *
+ * The sections go to the {@link Sink} set with {@link #setSink(Sink)}: systrace on a device, or a
+ * {@link TraceBuffer} in a JVM test. Without a sink, a section costs a volatile read.
+ */
+public final class PetTracer
+{
+    /**
+     * Where the sections go. Both methods are called on the thread of the section.
+     */
+    public interface Sink
+    {
+        void beginSection( String name );
+        
+        void endSection();
+    }
+    
+    private static volatile Sink sSink;
+    
+    // Only static helpers, so there's no reason to instantiate it.
+    private PetTracer()
+    {
+    
+    }
+    
+    /**
+     * Set where the sections go from now on, or null to stop tracing. Sections in progress are
+     * ended in the sink they were begun in only if it's still set, so a sink is best set before
+     * the traced work starts.
+     *
+     * @param sink
+     */
+    public static void setSink( Sink sink )
+    {
+        sSink = sink;
+    }
+    
+    public static Sink getSink()
+    {
+        return sSink;
+    }
+    
+    public static void beginSection( String name )
+    {
+        Sink sink = sSink;
+        if ( sink != null )
+            sink.beginSection( name );
+    }
+    
+    public static void endSection()
+    {
+        Sink sink = sSink;
+        if ( sink != null )
+            sink.endSection();
+    }
+}
@@ -0,0 +1,113 @@
+package com.engineerfadyfawzi.pets.data;
+
+/**
+ * The possible values of the pets and records and the rules of the shelter ids, shared by
+ * PetContract (which exposes them) and PetProvider (which rejects the invalid values). Only plain
+ * Java is used here, so the rules can be measured on a JVM.
+ *
+ * The other rules of the pet values are defined with the columns of PetContract.PetEntry, and
+ * checked by the PetValidator generated from them.
+ */
+public final class PetValidation
+{
+    /**
+     * Possible values for the gender of the pet.
+     */
+    public static final int GENDER_UNKNOWN = 0;
+    public static final int GENDER_MALE = 1;
+    public static final int GENDER_FEMALE = 2;
+    
+    /**
+     * Possible values for the adoption status of the pet.
+     */
+    public static final int STATUS_IN_CARE = 0;
+    public static final int STATUS_ADOPTED = 1;
+    public static final int STATUS_TRANSFERRED = 2;
+    
+    /**
+     * Possible values for the type of a medical record.
+     */
+    public static final int TYPE_VACCINATION = 1;
+    public static final int TYPE_TREATMENT = 2;
+    
+    // Only static helpers, so there's no reason to instantiate it.
+    private PetValidation()
+    {
+    
+    }
+    
+    /**
+     * Returns whether or not the given gender is {@link #GENDER_UNKNOWN}, {@link #GENDER_MALE}
+     * or {@link #GENDER_FEMALE}.
+     *
+     * @param gender
+     *
+     * @return
+     */
+    public static boolean isValidGender( int gender )
+    {
+        return gender == GENDER_UNKNOWN || gender == GENDER_MALE || gender == GENDER_FEMALE;
+    }
+    
+    /**
+     * Returns whether or not the given status is {@link #STATUS_IN_CARE}, {@link #STATUS_ADOPTED}
+     * or {@link #STATUS_TRANSFERRED}.
+     *
+     * @param status
+     *
+     * @return
+     */
+    public static boolean isValidStatus( int status )
+    {
+        return status == STATUS_IN_CARE || status == STATUS_ADOPTED || status == STATUS_TRANSFERRED;
+    }
+    
+    /**
+     * Returns whether or not the given type is {@link #TYPE_VACCINATION} or {@link #TYPE_TREATMENT}.
+     *
+     * @param type
+     *
+     * @return
+     */
+    public static boolean isValidRecordType( int type )
+    {
+        return type == TYPE_VACCINATION || type == TYPE_TREATMENT;
+    }
+    
+    /**
+     * Returns whether or not the given description of a record is neither null nor empty.
+     *
+     * @param description
+     *
+     * @return
+     */
+    public static boolean isValidRecordDescription( String description )
+    {
+        return description != null && !description.isEmpty();
+    }
+    
+    /**
+     * Returns whether or not the given shelter id is made of letters, digits, '_' and '-' only,
+     * with at least one of them. It's checked for each shelter URI, so the chars are checked
+     * one by one instead of with a regular expression compiled on every call.
+     *
+     * @param shelterId
+     *
+     * @return
+     */
+    public static boolean isValidShelterId( String shelterId )
+    {
+        if ( shelterId == null || shelterId.isEmpty() )
+            return false;
+        
+        for ( int i = 0; i < shelterId.length(); i++ )
+        {
+            char c = shelterId.charAt( i );
+            if ( !( c >= 'a' && c <= 'z' ) && !( c >= 'A' && c <= 'Z' ) && !( c >= '0' && c <= '9' )
+                    && c != '_' && c != '-' )
+                return false;
+        }
+        
+        return true;
+    }
+}
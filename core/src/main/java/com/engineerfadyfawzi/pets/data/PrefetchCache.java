@@ -0,0 +1,171 @@
+package com.engineerfadyfawzi.pets.data;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded cache of values read ahead of their use, by id, such as the pets around the visible
+ * rows of the catalog, read before the editor of one of them is opened.
+ *
+ * The ids to read are claimed, so they aren't read twice while they're being read, and the
+ * values read are completed with the generation of the cache when they were claimed: a value
+ * read before an invalidation isn't cached after it, so a cached value is never older than the
+ * last invalidation. Beyond the maximum size, the least recently used values are dropped.
+ *
+ * It's thread safe. Whoever reads the values (a query, a file) is up to the caller.
+ *
+ * @param <V> type of the values.
+ */
+public final class PrefetchCache< V >
+{
+    private final int mMaxSize;
+    
+    /**
+     * The cached values, from the least recently used one to the most recently used one.
+     */
+    private final LinkedHashMap< Long, V > mValues;
+    
+    /**
+     * Ids being read, and the number of invalidations so far. Guarded by this.
+     */
+    private final HashSet< Long > mPendingIds = new HashSet<>();
+    private int mGeneration;
+    
+    private int mHitCount;
+    private int mMissCount;
+    
+    /**
+     * Constructs a new {@link PrefetchCache}
+     *
+     * @param maxSize maximum number of cached values.
+     */
+    public PrefetchCache( final int maxSize )
+    {
+        if ( maxSize < 1 )
+            throw new IllegalArgumentException( "Cache requires a positive size" );
+        
+        mMaxSize = maxSize;
+        mValues = new LinkedHashMap< Long, V >( 16, 0.75f, true )
+        {
+            @Override
+            protected boolean removeEldestEntry( Map.Entry< Long, V > eldest )
+            {
+                return size() > maxSize;
+            }
+        };
+    }
+    
+    /**
+     * Return the cached value of the id, counted as a hit, or null if it isn't cached, counted
+     * as a miss.
+     *
+     * @param id
+     *
+     * @return
+     */
+    public synchronized V get( long id )
+    {
+        V value = mValues.get( id );
+        if ( value != null )
+            mHitCount++;
+        else
+            mMissCount++;
+        return value;
+    }
+    
+    /**
+     * Return the generation of the cache, to complete the values claimed after it with. Take it
+     * before the ids are claimed.
+     *
+     * @return
+     */
+    public synchronized int getGeneration()
+    {
+        return mGeneration;
+    }
+    
+    /**
+     * Claim the ids which aren't cached nor being read, to read them. Cheap enough to call on
+     * each scroll, and it doesn't change which values are the least recently used.
+     *
+     * @param ids
+     *
+     * @return the claimed ids, to complete with {@link #complete(List, Map, int)}.
+     */
+    public synchronized List< Long > claim( long[] ids )
+    {
+        List< Long > claimedIds = new ArrayList<>();
+        for ( long id : ids )
+        {
+            if ( !mValues.containsKey( id ) && mPendingIds.add( id ) )
+                claimedIds.add( id );
+        }
+        return claimedIds;
+    }
+    
+    /**
+     * Cache the values read for the claimed ids, unless the cache was invalidated since the
+     * given generation, and release the ids. An id without a value (such as a deleted pet) isn't
+     * cached.
+     *
+     * @param claimedIds
+     * @param values     read, by id.
+     * @param generation of the cache when the ids were claimed.
+     */
+    public synchronized void complete( List< Long > claimedIds, Map< Long, V > values, int generation )
+    {
+        mPendingIds.removeAll( claimedIds );
+        if ( generation != mGeneration )
+            return;
+        
+        for ( Long id : claimedIds )
+        {
+            V value = values.get( id );
+            if ( value != null )
+                mValues.put( id, value );
+        }
+    }
+    
+    /**
+     * Drop the value of the id, and don't cache the values being read.
+     *
+     * @param id
+     */
+    public synchronized void invalidate( long id )
+    {
+        mGeneration++;
+        mValues.remove( id );
+    }
+    
+    /**
+     * Drop all the values, and don't cache the values being read.
+     */
+    public synchronized void invalidateAll()
+    {
+        mGeneration++;
+        mValues.clear();
+    }
+    
+    public synchronized int size()
+    {
+        return mValues.size();
+    }
+    
+    public int getMaxSize()
+    {
+        return mMaxSize;
+    }
+    
+    public synchronized int getHitCount()
+    {
+        return mHitCount;
+    }
+    
+    public synchronized int getMissCount()
+    {
+        return mMissCount;
+    }
+}
@@ -0,0 +1,23 @@
+package com.engineerfadyfawzi.pets.data;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a contract class whose {@link Column} constants define a table, so the schema processor
+ * generates a typed reader of its cursors, a writer of its values and a validator of its values,
+ * named after {@link #value()}: for instance PetReader, PetWriter and PetValidator for "Pet".
+ */
+@Retention( RetentionPolicy.SOURCE )
+@Target( ElementType.TYPE )
+public @interface Table
+{
+    /**
+     * Name of the rows, the prefix of the generated classes and of their error messages.
+     *
+     * @return
+     */
+    String value();
+}
@@ -0,0 +1,170 @@
+package com.engineerfadyfawzi.pets.data;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * In-memory index of the pets of each tag, as a {@link PetIdBitmap} per tag id, so a combination
+ * of tags is answered with a few set operations instead of one join per tag.
+ *
+ * It's built from the pet tags table by PetProvider the first time the pets are filtered by tags,
+ * then kept up to date by the provider after each change of the tags. Pets deleted but still
+ * undoable keep their tags, but are left out of the matches. It's thread safe.
+ */
+public final class TagIndex
+{
+    /**
+     * Pets of each tag, by tag id. Tags without pets have no entry.
+     */
+    private final HashMap< Long, PetIdBitmap > mPetsByTag = new HashMap<>();
+    
+    /**
+     * Pets marked deleted, left out of the matches until they're unmarked or removed
+     */
+    private final PetIdBitmap mDeletedPets = new PetIdBitmap();
+    
+    public synchronized void add( long tagId, long petId )
+    {
+        PetIdBitmap pets = mPetsByTag.get( tagId );
+        if ( pets == null )
+        {
+            pets = new PetIdBitmap();
+            mPetsByTag.put( tagId, pets );
+        }
+        pets.add( petId );
+    }
+    
+    public synchronized void remove( long tagId, long petId )
+    {
+        PetIdBitmap pets = mPetsByTag.get( tagId );
+        if ( pets != null && pets.remove( petId ) && pets.isEmpty() )
+            mPetsByTag.remove( tagId );
+    }
+    
+    /**
+     * Remove a pet from all the tags, when it's deleted.
+     *
+     * @param petId
+     */
+    public synchronized void removePet( long petId )
+    {
+        for ( Long tagId : mPetsByTag.keySet().toArray( new Long[ 0 ] ) )
+            remove( tagId, petId );
+        mDeletedPets.remove( petId );
+    }
+    
+    /**
+     * Leave a pet out of the matches, when it's deleted but the deletion can still be undone.
+     *
+     * @param petId
+     */
+    public synchronized void markDeleted( long petId )
+    {
+        mDeletedPets.add( petId );
+    }
+    
+    /**
+     * Match a pet again, when its deletion is undone.
+     *
+     * @param petId
+     */
+    public synchronized void unmarkDeleted( long petId )
+    {
+        mDeletedPets.remove( petId );
+    }
+    
+    /**
+     * Return the pets having all the given tags, and at least one of the other given tags if
+     * there are any, except the pets marked deleted. At least one tag must be given.
+     *
+     * @param allTagIds
+     * @param anyTagIds
+     *
+     * @return a new set, the caller can keep it.
+     */
+    public synchronized PetIdBitmap match( long[] allTagIds, long[] anyTagIds )
+    {
+        if ( allTagIds.length == 0 && anyTagIds.length == 0 )
+            throw new IllegalArgumentException( "Tag filter requires a tag" );
+        
+        PetIdBitmap[] allPets = new PetIdBitmap[ allTagIds.length ];
+        for ( int i = 0; i < allTagIds.length; i++ )
+        {
+            allPets[ i ] = mPetsByTag.get( allTagIds[ i ] );
+            if ( allPets[ i ] == null )
+                return new PetIdBitmap();
+        }
+        
+        // Intersect the smallest sets first, so the intermediate sets stay small.
+        Arrays.sort( allPets, new Comparator< PetIdBitmap >()
+        {
+            @Override
+            public int compare( PetIdBitmap first, PetIdBitmap second )
+            {
+                return first.getCardinality() - second.getCardinality();
+            }
+        } );
+        PetIdBitmap result = null;
+        for ( PetIdBitmap pets : allPets )
+            result = result == null ? pets.copy() : PetIdBitmap.and( result, pets );
+        
+        if ( anyTagIds.length == 0 )
+            return withoutDeletedPets( result );
+        
+        PetIdBitmap anyPets = new PetIdBitmap();
+        for ( long tagId : anyTagIds )
+        {
+            PetIdBitmap pets = mPetsByTag.get( tagId );
+            if ( pets != null )
+                anyPets = PetIdBitmap.or( anyPets, pets );
+        }
+        
+        return withoutDeletedPets( result == null ? anyPets : PetIdBitmap.and( result, anyPets ) );
+    }
+    
+    /**
+     * Return the selection of the pets matching the tags, for a query of the pets view: the ids of
+     * the pets of {@link #match}, or if there are more than the given number of them, which would
+     * make the selection too long, the same filter with one subquery of the pet tags table per tag.
+     *
+     * @param allTagIds
+     * @param anyTagIds
+     * @param maxIds    largest number of pets to select by id.
+     *
+     * @return
+     */
+    public String getSelection( long[] allTagIds, long[] anyTagIds, int maxIds )
+    {
+        PetIdBitmap pets = match( allTagIds, anyTagIds );
+        if ( pets.getCardinality() <= maxIds )
+        {
+            StringBuilder selection = new StringBuilder( PetSchema.COLUMN_ID + " IN (" );
+            long[] petIds = pets.toArray();
+            for ( int i = 0; i < petIds.length; i++ )
+                selection.append( i == 0 ? "" : "," ).append( petIds[ i ] );
+            return selection.append( ")" ).toString();
+        }
+        
+        // The same filter with the pet tags table, one subquery per tag.
+        String tagPets = PetSchema.COLUMN_ID + " IN (SELECT " + PetSchema.Tags.COLUMN_PET_ID + " FROM "
+                + PetSchema.Tags.PET_TAGS_TABLE_NAME + " WHERE " + PetSchema.Tags.COLUMN_TAG_ID;
+        StringBuilder selection = new StringBuilder();
+        for ( long tagId : allTagIds )
+            selection.append( selection.length() == 0 ? "" : " AND " )
+                    .append( tagPets ).append( "=" ).append( tagId ).append( ")" );
+        if ( anyTagIds.length > 0 )
+        {
+            selection.append( selection.length() == 0 ? "" : " AND " ).append( tagPets ).append( " IN (" );
+            for ( int i = 0; i < anyTagIds.length; i++ )
+                selection.append( i == 0 ? "" : "," ).append( anyTagIds[ i ] );
+            selection.append( "))" );
+        }
+        return selection.toString();
+    }
+    
+    private PetIdBitmap withoutDeletedPets( PetIdBitmap pets )
+    {
+        return mDeletedPets.isEmpty() ? pets : PetIdBitmap.andNot( pets, mDeletedPets );
+    }
+}
@@ -0,0 +1,347 @@
+package com.engineerfadyfawzi.pets.data;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The two caches of the thumbnails of the pet photos: a memory cache bounded in bytes, and a
+ * disk cache of thumbnail files bounded in bytes, so a thumbnail is only decoded from the full
+ * photo once. Beyond their maximum sizes, the least recently used thumbnails are dropped from
+ * memory, and the least recently used files are deleted.
+ *
+ * How a thumbnail is decoded, read, written and sized is up to the subclass (a Bitmap on a
+ * device). It counts where each thumbnail came from, for the hit rates of the caches.
+ *
+ * @param <T> type of the thumbnails.
+ */
+public abstract class ThumbnailCache< T >
+{
+    /**
+     * Share of the maximum memory of the process given to the memory cache
+     */
+    public static final int MEMORY_CACHE_SHARE = 8;
+    
+    private final File mDiskCacheDirectory;
+    private final long mDiskCacheMaxBytes;
+    private final int mThumbnailSize;
+    private final int mMemoryCacheMaxBytes;
+    
+    /**
+     * The thumbnails in memory by photo path, from the least recently used one to the most
+     * recently used one, and their total size. Guarded by this.
+     */
+    private final LinkedHashMap< String, T > mMemoryCache = new LinkedHashMap<>( 16, 0.75f, true );
+    private int mMemoryCacheBytes;
+    
+    /**
+     * Number of thumbnails found in memory, found on disk, and decoded from the photo. Guarded by
+     * this.
+     */
+    private int mMemoryHitCount;
+    private int mDiskHitCount;
+    private int mDecodeCount;
+    
+    /**
+     * Lock of the writes and the trims of the disk cache
+     */
+    private final Object mDiskCacheLock = new Object();
+    
+    /**
+     * Return the maximum size of the memory cache for the given maximum memory of the process:
+     * an eighth of it.
+     *
+     * @param maxMemory in bytes, as Runtime.maxMemory() returns it.
+     *
+     * @return
+     */
+    public static int getMemoryCacheMaxBytes( long maxMemory )
+    {
+        return ( int ) Math.min( Integer.MAX_VALUE, maxMemory / MEMORY_CACHE_SHARE );
+    }
+    
+    /**
+     * Constructs a new {@link ThumbnailCache}
+     *
+     * @param diskCacheDirectory  of the thumbnail files.
+     * @param diskCacheMaxBytes   maximum size of the thumbnail files.
+     * @param thumbnailSize       width and height of the thumbnails in pixels.
+     * @param memoryCacheMaxBytes maximum size of the thumbnails in memory.
+     */
+    protected ThumbnailCache( File diskCacheDirectory, long diskCacheMaxBytes, int thumbnailSize,
+                              int memoryCacheMaxBytes )
+    {
+        if ( memoryCacheMaxBytes < 1 || diskCacheMaxBytes < 1 )
+            throw new IllegalArgumentException( "Cache requires a positive size" );
+        
+        mDiskCacheDirectory = diskCacheDirectory;
+        mDiskCacheMaxBytes = diskCacheMaxBytes;
+        mThumbnailSize = thumbnailSize;
+        mMemoryCacheMaxBytes = memoryCacheMaxBytes;
+    }
+    
+    /**
+     * Return the size of the thumbnail in memory, in bytes.
+     *
+     * @param thumbnail
+     *
+     * @return
+     */
+    protected abstract int sizeOf( T thumbnail );
+    
+    /**
+     * Decode a thumbnail of {@link #getThumbnailSize()} from the photo.
+     *
+     * @param photoFile
+     *
+     * @return the thumbnail, or null if the photo can't be decoded.
+     */
+    protected abstract T decodeThumbnail( File photoFile );
+    
+    /**
+     * Read a thumbnail written by {@link #writeThumbnail(Object, OutputStream)}.
+     *
+     * @param cacheFile
+     *
+     * @return the thumbnail, or null if it can't be read.
+     */
+    protected abstract T readThumbnail( File cacheFile );
+    
+    /**
+     * Write the thumbnail to a file of the disk cache.
+     *
+     * @param thumbnail
+     * @param output
+     *
+     * @throws IOException if it can't be written.
+     */
+    protected abstract void writeThumbnail( T thumbnail, OutputStream output ) throws IOException;
+    
+    /**
+     * Return the thumbnail of the photo if it's in memory, counted as a memory hit. Cheap enough
+     * for the main thread.
+     *
+     * @param photoPath
+     *
+     * @return the thumbnail, or null if it isn't in memory.
+     */
+    public synchronized T getFromMemory( String photoPath )
+    {
+        T thumbnail = mMemoryCache.get( photoPath );
+        if ( thumbnail != null )
+            mMemoryHitCount++;
+        return thumbnail;
+    }
+    
+    /**
+     * Return the thumbnail of the photo from the memory cache, the disk cache, or by decoding the
+     * photo, in that order, and keep it in the caches it wasn't in. Reads files, so it must not be
+     * called on the main thread.
+     *
+     * @param photoPath
+     *
+     * @return the thumbnail, or null if the photo can't be decoded.
+     */
+    public T load( String photoPath )
+    {
+        T thumbnail = getFromMemory( photoPath );
+        if ( thumbnail != null )
+            return thumbnail;
+        
+        // Photo files have unique names (see PetPhotoStore), so the name identifies the photo.
+        File photoFile = new File( photoPath );
+        File cacheFile = new File( mDiskCacheDirectory,
+                photoFile.getName() + "_" + mThumbnailSize + ".jpg" );
+        
+        // A cached thumbnail older than the photo is stale, so it's decoded again.
+        if ( cacheFile.lastModified() >= photoFile.lastModified() )
+            thumbnail = readThumbnail( cacheFile );
+        
+        boolean decoded = thumbnail == null;
+        if ( decoded )
+        {
+            thumbnail = decodeThumbnail( photoFile );
+            if ( thumbnail != null )
+                writeToDiskCache( cacheFile, thumbnail );
+        }
+        else
+        {
+            // Touch the file, so the disk cache trims the least recently used files first.
+            cacheFile.setLastModified( System.currentTimeMillis() );
+        }
+        
+        synchronized ( this )
+        {
+            if ( decoded )
+                mDecodeCount++;
+            else
+                mDiskHitCount++;
+            if ( thumbnail != null )
+                putInMemory( photoPath, thumbnail );
+        }
+        return thumbnail;
+    }
+    
+    /**
+     * Keep the thumbnail in memory, then drop the least recently used thumbnails until the
+     * memory cache fits its maximum size.
+     *
+     * @param photoPath
+     * @param thumbnail
+     */
+    private synchronized void putInMemory( String photoPath, T thumbnail )
+    {
+        T previous = mMemoryCache.put( photoPath, thumbnail );
+        if ( previous != null )
+            mMemoryCacheBytes -= sizeOf( previous );
+        mMemoryCacheBytes += sizeOf( thumbnail );
+        
+        Iterator< Map.Entry< String, T > > entries = mMemoryCache.entrySet().iterator();
+        while ( mMemoryCacheBytes > mMemoryCacheMaxBytes && entries.hasNext() )
+        {
+            mMemoryCacheBytes -= sizeOf( entries.next().getValue() );
+            entries.remove();
+        }
+    }
+    
+    /**
+     * Write the thumbnail to the disk cache, then trim the disk cache to its maximum size.
+     *
+     * @param cacheFile
+     * @param thumbnail
+     */
+    private void writeToDiskCache( File cacheFile, T thumbnail )
+    {
+        synchronized ( mDiskCacheLock )
+        {
+            if ( !mDiskCacheDirectory.isDirectory() && !mDiskCacheDirectory.mkdirs() )
+                return;
+            
+            OutputStream output = null;
+            try
+            {
+                output = new FileOutputStream( cacheFile );
+                writeThumbnail( thumbnail, output );
+            }
+            catch ( IOException ioException )
+            {
+                // Decoded again next time.
+                cacheFile.delete();
+            }
+            finally
+            {
+                if ( output != null )
+                {
+                    try
+                    {
+                        output.close();
+                    }
+                    catch ( IOException ignored )
+                    {
+                        // The thumbnail is already written or already deleted.
+                    }
+                }
+            }
+            
+            trimDiskCache();
+        }
+    }
+    
+    /**
+     * Delete the least recently used thumbnail files until the disk cache fits its maximum size.
+     */
+    private void trimDiskCache()
+    {
+        File[] files = mDiskCacheDirectory.listFiles();
+        if ( files == null )
+            return;
+        
+        long totalBytes = 0;
+        for ( File file : files )
+            totalBytes += file.length();
+        
+        if ( totalBytes <= mDiskCacheMaxBytes )
+            return;
+        
+        Arrays.sort( files, new Comparator< File >()
+        {
+            @Override
+            public int compare( File first, File second )
+            {
+                long firstModified = first.lastModified();
+                long secondModified = second.lastModified();
+                return firstModified < secondModified ? -1 : ( firstModified == secondModified ? 0 : 1 );
+            }
+        } );
+        
+        for ( int i = 0; i < files.length && totalBytes > mDiskCacheMaxBytes; i++ )
+        {
+            totalBytes -= files[ i ].length();
+            files[ i ].delete();
+        }
+    }
+    
+    public int getThumbnailSize()
+    {
+        return mThumbnailSize;
+    }
+    
+    public int getMemoryCacheMaxBytes()
+    {
+        return mMemoryCacheMaxBytes;
+    }
+    
+    public synchronized int getMemoryCacheBytes()
+    {
+        return mMemoryCacheBytes;
+    }
+    
+    public synchronized int getMemoryCacheCount()
+    {
+        return mMemoryCache.size();
+    }
+    
+    /**
+     * Return the total size of the thumbnail files.
+     *
+     * @return
+     */
+    public long getDiskCacheBytes()
+    {
+        synchronized ( mDiskCacheLock )
+        {
+            File[] files = mDiskCacheDirectory.listFiles();
+            long totalBytes = 0;
+            if ( files != null )
+                for ( File file : files )
+                    totalBytes += file.length();
+            return totalBytes;
+        }
+    }
+    
+    public long getDiskCacheMaxBytes()
+    {
+        return mDiskCacheMaxBytes;
+    }
+    
+    public synchronized int getMemoryHitCount()
+    {
+        return mMemoryHitCount;
+    }
+    
+    public synchronized int getDiskHitCount()
+    {
+        return mDiskHitCount;
+    }
+    
+    public synchronized int getDecodeCount()
+    {
+        return mDecodeCount;
+    }
+}
@@ -0,0 +1,247 @@
+package com.engineerfadyfawzi.pets.data;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A {@link PetTracer.Sink} keeping the last sections in memory, for instance in a JVM test:
+ *
+ * <pre>
+ * TraceBuffer traceBuffer = new TraceBuffer( 1000 );
+ * PetTracer.setSink( traceBuffer );
+ * ... run the traced code ...
+ * PetTracer.setSink( null );
+ * traceBuffer.getSections();
+ * </pre>
+ *
+ * The sections can be written with {@link #writeJson(Writer)} in the Trace Event format, which
+ * trace viewers open (Perfetto at ui.perfetto.dev, or chrome://tracing).
+ *
+ * It's thread safe. When it's full, the oldest sections are dropped.
+ */
+public final class TraceBuffer implements PetTracer.Sink
+{
+    /**
+     * A section which ended, with its times in nanoseconds since the buffer was created.
+     */
+    public static final class Section
+    {
+        public final String name;
+        public final long threadId;
+        public final String threadName;
+        public final long startNanos;
+        public final long durationNanos;
+        
+        /**
+         * Number of the sections it's nested in, on its thread.
+         */
+        public final int depth;
+        
+        Section( String name, long threadId, String threadName, long startNanos, long durationNanos, int depth )
+        {
+            this.name = name;
+            this.threadId = threadId;
+            this.threadName = threadName;
+            this.startNanos = startNanos;
+            this.durationNanos = durationNanos;
+            this.depth = depth;
+        }
+        
+        @Override
+        public String toString()
+        {
+            return String.format( Locale.US, "%s [%s] %.3f ms", name, threadName, durationNanos / 1e6 );
+        }
+    }
+    
+    /**
+     * Sections begun and not ended yet on a thread, innermost last.
+     */
+    private static final class OpenSections
+    {
+        String[] names = new String[ 8 ];
+        long[] startNanos = new long[ 8 ];
+        int size;
+    }
+    
+    private final long mOriginNanos = System.nanoTime();
+    
+    private final ThreadLocal< OpenSections > mOpenSections = new ThreadLocal< OpenSections >()
+    {
+        @Override
+        protected OpenSections initialValue()
+        {
+            return new OpenSections();
+        }
+    };
+    
+    /**
+     * Last sections which ended, as a ring starting at mNext once it's full. Guarded by this.
+     */
+    private final Section[] mSections;
+    private int mNext;
+    private long mEndedCount;
+    
+    /**
+     * @param capacity number of sections kept.
+     */
+    public TraceBuffer( int capacity )
+    {
+        if ( capacity <= 0 )
+            throw new IllegalArgumentException( "Trace buffer requires a capacity" );
+        mSections = new Section[ capacity ];
+    }
+    
+    @Override
+    public void beginSection( String name )
+    {
+        OpenSections open = mOpenSections.get();
+        if ( open.size == open.names.length )
+        {
+            open.names = Arrays.copyOf( open.names, open.size * 2 );
+            open.startNanos = Arrays.copyOf( open.startNanos, open.size * 2 );
+        }
+        open.names[ open.size ] = name;
+        open.startNanos[ open.size ] = System.nanoTime() - mOriginNanos;
+        open.size++;
+    }
+    
+    @Override
+    public void endSection()
+    {
+        long endNanos = System.nanoTime() - mOriginNanos;
+        OpenSections open = mOpenSections.get();
+        
+        // A section begun before the buffer was set has nothing to end here.
+        if ( open.size == 0 )
+            return;
+        
+        open.size--;
+        String name = open.names[ open.size ];
+        open.names[ open.size ] = null;
+        long startNanos = open.startNanos[ open.size ];
+        
+        Thread thread = Thread.currentThread();
+        Section section = new Section( name, thread.getId(), thread.getName(), startNanos,
+                endNanos - startNanos, open.size );
+        synchronized ( this )
+        {
+            mSections[ mNext ] = section;
+            mNext = ( mNext + 1 ) % mSections.length;
+            mEndedCount++;
+        }
+    }
+    
+    /**
+     * Return the sections kept, in the order they ended.
+     *
+     * @return
+     */
+    public synchronized List< Section > getSections()
+    {
+        List< Section > sections = new ArrayList<>( mSections.length );
+        int count = ( int ) Math.min( mEndedCount, mSections.length );
+        int first = mEndedCount > mSections.length ? mNext : 0;
+        for ( int i = 0; i < count; i++ )
+            sections.add( mSections[ ( first + i ) % mSections.length ] );
+        return sections;
+    }
+    
+    /**
+     * Return the sections kept with the given name, in the order they ended.
+     *
+     * @param name
+     *
+     * @return
+     */
+    public List< Section > getSections( String name )
+    {
+        List< Section > sections = new ArrayList<>();
+        for ( Section section : getSections() )
+            if ( section.name.equals( name ) )
+                sections.add( section );
+        return sections;
+    }
+    
+    /**
+     * Return the number of sections which were dropped because the buffer was full.
+     *
+     * @return
+     */
+    public synchronized long getDroppedCount()
+    {
+        return Math.max( 0, mEndedCount - mSections.length );
+    }
+    
+    public synchronized void clear()
+    {
+        Arrays.fill( mSections, null );
+        mNext = 0;
+        mEndedCount = 0;
+    }
+    
+    /**
+     * Write the sections kept as a JSON trace in the Trace Event format: one complete event
+     * per section, and the name of each thread.
+     *
+     * @param writer
+     *
+     * @throws IOException
+     */
+    public void writeJson( Writer writer ) throws IOException
+    {
+        List< Section > sections = getSections();
+        Map< Long, String > threadNames = new LinkedHashMap<>();
+        
+        writer.write( "{\"displayTimeUnit\":\"ms\",\"traceEvents\":[" );
+        boolean first = true;
+        for ( Section section : sections )
+        {
+            threadNames.put( section.threadId, section.threadName );
+            writer.write( first ? "\n" : ",\n" );
+            first = false;
+            writer.write( String.format( Locale.US,
+                    "{\"name\":%s,\"cat\":\"pets\",\"ph\":\"X\",\"pid\":1,\"tid\":%d,\"ts\":%.3f,\"dur\":%.3f}",
+                    quote( section.name ), section.threadId, section.startNanos / 1e3, section.durationNanos / 1e3 ) );
+        }
+        for ( Map.Entry< Long, String > entry : threadNames.entrySet() )
+        {
+            writer.write( first ? "\n" : ",\n" );
+            first = false;
+            writer.write( String.format( Locale.US,
+                    "{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":%d,\"args\":{\"name\":%s}}",
+                    entry.getKey(), quote( entry.getValue() ) ) );
+        }
+        writer.write( "\n]}\n" );
+        writer.flush();
+    }
+    
+    /**
+     * Return the string as a JSON string literal.
+     *
+     * @param value
+     *
+     * @return
+     */
+    private static String quote( String value )
+    {
+        StringBuilder quoted = new StringBuilder( value.length() + 2 ).append( '"' );
+        for ( int i = 0; i < value.length(); i++ )
+        {
+            char c = value.charAt( i );
+            if ( c == '"' || c == '\\' )
+                quoted.append( '\\' ).append( c );
+            else if ( c < 0x20 )
+                quoted.append( String.format( Locale.US, "\\u%04x", ( int ) c ) );
+            else
+                quoted.append( c );
+        }
+        return quoted.append( '"' ).toString();
+    }
+}
@@ -0,0 +1,76 @@
+package com.engineerfadyfawzi.pets.data;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BreedIndexTest
+{
+    private final BreedIndex mBreedIndex = new BreedIndex(
+            new String[]{ "Beagle", "Labrador", "boxer", "Bulldog", "Border Collie", "Siamese", "Labradoodle" },
+            new int[]{ 12, 30, 7, 15, 7, 4, 2 } );
+    
+    @Test
+    public void suggest_prefixIgnoringCase_mostCommonFirst()
+    {
+        assertEquals( Arrays.asList( "Bulldog", "Beagle", "Border Collie", "boxer" ), mBreedIndex.suggest( "b", 10 ) );
+        assertEquals( Arrays.asList( "Labrador", "Labradoodle" ), mBreedIndex.suggest( "LAB", 10 ) );
+        assertEquals( Collections.singletonList( "Border Collie" ), mBreedIndex.suggest( "bor", 10 ) );
+    }
+    
+    @Test
+    public void suggest_tiesInNameOrder()
+    {
+        // "Border Collie" and "boxer" have as many pets.
+        assertEquals( Arrays.asList( "Border Collie", "boxer" ), mBreedIndex.suggest( "bo", 10 ) );
+    }
+    
+    @Test
+    public void suggest_keepsTheTopOfTheLimit()
+    {
+        assertEquals( Arrays.asList( "Bulldog", "Beagle" ), mBreedIndex.suggest( "B", 2 ) );
+        assertEquals( Collections.singletonList( "Labrador" ), mBreedIndex.suggest( "l", 1 ) );
+    }
+    
+    @Test
+    public void suggest_trimsThePrefix()
+    {
+        assertEquals( Collections.singletonList( "Siamese" ), mBreedIndex.suggest( "  sia ", 10 ) );
+    }
+    
+    @Test
+    public void suggest_nothing()
+    {
+        assertTrue( mBreedIndex.suggest( "z", 10 ).isEmpty() );
+        assertTrue( mBreedIndex.suggest( "", 10 ).isEmpty() );
+        assertTrue( mBreedIndex.suggest( "   ", 10 ).isEmpty() );
+        assertTrue( mBreedIndex.suggest( null, 10 ).isEmpty() );
+        assertTrue( mBreedIndex.suggest( "b", 0 ).isEmpty() );
+        assertTrue( BreedIndex.EMPTY.suggest( "b", 10 ).isEmpty() );
+    }
+    
+    @Test
+    public void suggest_wholeName()
+    {
+        // The prefix is the whole name, and the prefix of a longer name.
+        assertEquals( Arrays.asList( "Labrador", "Labradoodle" ), mBreedIndex.suggest( "labrado", 10 ) );
+        assertEquals( Collections.singletonList( "Labrador" ), mBreedIndex.suggest( "labrador", 10 ) );
+    }
+    
+    @Test
+    public void size()
+    {
+        assertEquals( 7, mBreedIndex.size() );
+        assertEquals( 0, BreedIndex.EMPTY.size() );
+    }
+    
+    @Test( expected = IllegalArgumentException.class )
+    public void constructor_requiresACountPerBreed()
+    {
+        new BreedIndex( new String[]{ "Beagle" }, new int[ 0 ] );
+    }
+}
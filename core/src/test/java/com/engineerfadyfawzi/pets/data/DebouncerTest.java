@@ -0,0 +1,155 @@
+package com.engineerfadyfawzi.pets.data;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Types into a simulated editor, with the delays of the draft autosave, and counts the writes of
+ * the draft: one per burst of typing, and one per maximum delay while typing continuously.
+ */
+public class DebouncerTest
+{
+    private static final long DELAY_MILLIS = 500;
+    private static final long MAX_DELAY_MILLIS = 3000;
+    
+    @Test
+    public void burst_writesOnce()
+    {
+        Editor editor = new Editor();
+        
+        // 25 keystrokes, 100 ms apart, then a pause.
+        for ( int i = 0; i < 25; i++ )
+            editor.type( 100 );
+        editor.idle( 10000 );
+        
+        assertEquals( 1, editor.mWrites.size() );
+        assertEquals( 25, ( int ) editor.mWrites.get( 0 ) );
+    }
+    
+    @Test
+    public void burst_writtenDelayAfterLastChange()
+    {
+        Editor editor = new Editor();
+        for ( int i = 0; i < 10; i++ )
+            editor.type( 100 );
+        
+        // Nothing is written while typing, nor until the delay after the last keystroke.
+        assertEquals( 0, editor.mWrites.size() );
+        editor.idle( DELAY_MILLIS - 1 );
+        assertEquals( 0, editor.mWrites.size() );
+        editor.idle( 1 );
+        
+        assertEquals( 1, editor.mWrites.size() );
+        assertEquals( 10, ( int ) editor.mWrites.get( 0 ) );
+    }
+    
+    @Test
+    public void separateBursts_writeOnceEach()
+    {
+        Editor editor = new Editor();
+        for ( int burst = 0; burst < 5; burst++ )
+        {
+            for ( int i = 0; i < 8; i++ )
+                editor.type( 80 );
+            editor.idle( 2000 );
+        }
+        
+        assertEquals( 5, editor.mWrites.size() );
+        for ( int changes : editor.mWrites )
+            assertEquals( 8, changes );
+    }
+    
+    @Test
+    public void continuousTyping_writesEveryMaxDelay()
+    {
+        Editor editor = new Editor();
+        
+        // A minute of typing, a keystroke every 200 ms, never pausing for the delay.
+        for ( int i = 0; i < 300; i++ )
+            editor.type( 200 );
+        editor.idle( DELAY_MILLIS );
+        
+        int changes = 0;
+        for ( int writeChanges : editor.mWrites )
+            changes += writeChanges;
+        assertEquals( 300, changes );
+        
+        // A write at most every maximum delay, so no typing is lost for longer than that.
+        assertEquals( 60000 / MAX_DELAY_MILLIS, editor.mWrites.size() );
+        for ( int i = 1; i < editor.mWriteTimes.size(); i++ )
+            assertTrue( editor.mWriteTimes.get( i ) - editor.mWriteTimes.get( i - 1 ) <= MAX_DELAY_MILLIS );
+    }
+    
+    @Test
+    public void takeChanges_startsNewBurst()
+    {
+        Debouncer debouncer = new Debouncer( DELAY_MILLIS, MAX_DELAY_MILLIS );
+        assertFalse( debouncer.hasChanges() );
+        assertEquals( 1000 + DELAY_MILLIS, debouncer.change( 1000 ) );
+        assertEquals( 1000 + MAX_DELAY_MILLIS, debouncer.change( 3800 ) );
+        assertTrue( debouncer.hasChanges() );
+        
+        // Written when the editor is paused, the next change is the first of a new burst.
+        assertEquals( 2, debouncer.takeChanges() );
+        assertFalse( debouncer.hasChanges() );
+        assertEquals( 4500 + DELAY_MILLIS, debouncer.change( 4500 ) );
+    }
+    
+    @Test( expected = IllegalArgumentException.class )
+    public void maxDelay_notBelowDelay()
+    {
+        new Debouncer( DELAY_MILLIS, DELAY_MILLIS - 1 );
+    }
+    
+    /**
+     * Editor saving its draft like EditorActivity: each change replaces the scheduled write
+     * with one at the time the debouncer returns. The time only moves forward through
+     * {@link #type(long)} and {@link #idle(long)}, which run the write once it's due.
+     */
+    private static final class Editor
+    {
+        private final Debouncer mDebouncer = new Debouncer( DELAY_MILLIS, MAX_DELAY_MILLIS );
+        private long mNow = 0;
+        
+        /**
+         * Time of the scheduled write, or -1 if none
+         */
+        private long mWriteTime = -1;
+        
+        /**
+         * Number of changes of each write, and the time of each write
+         */
+        final List< Integer > mWrites = new ArrayList<>();
+        final List< Long > mWriteTimes = new ArrayList<>();
+        
+        /**
+         * Wait for the given time, then type a key.
+         *
+         * @param afterMillis
+         */
+        void type( long afterMillis )
+        {
+            idle( afterMillis );
+            mWriteTime = mDebouncer.change( mNow );
+        }
+        
+        void idle( long millis )
+        {
+            long end = mNow + millis;
+            if ( mWriteTime != -1 && mWriteTime <= end )
+            {
+                mNow = mWriteTime;
+                mWriteTime = -1;
+                mWrites.add( mDebouncer.takeChanges() );
+                mWriteTimes.add( mNow );
+            }
+            mNow = end;
+        }
+    }
+}
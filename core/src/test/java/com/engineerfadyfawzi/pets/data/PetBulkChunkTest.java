@@ -0,0 +1,63 @@
+package com.engineerfadyfawzi.pets.data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that {@link PetBulkChunk} packs the rows into columns a caller can unpack, and where the
+ * next chunk starts.
+ */
+public class PetBulkChunkTest
+{
+    @Test
+    public void addRow_packsColumns()
+    {
+        PetBulkChunk chunk = new PetBulkChunk( 3, 3 );
+        chunk.addRow( 4, "Tommy", "Terrier", PetValidation.GENDER_MALE, 7 );
+        chunk.addRow( 9, "Garfield", null, PetValidation.GENDER_UNKNOWN, 0 );
+        chunk.addRow( 12, "Kitty", "Siamese", PetValidation.GENDER_FEMALE, 3 );
+        
+        assertEquals( 3, chunk.getCount() );
+        assertArrayEquals( new long[] { 4, 9, 12 }, chunk.getIds() );
+        assertArrayEquals( new int[] { PetValidation.GENDER_MALE, PetValidation.GENDER_UNKNOWN,
+                PetValidation.GENDER_FEMALE }, chunk.getGenders() );
+        assertArrayEquals( new int[] { 7, 0, 3 }, chunk.getWeights() );
+        assertEquals( "TommyGarfieldKitty", chunk.getNames() );
+        assertArrayEquals( new int[] { 5, 13, 18 }, chunk.getNameEnds() );
+        
+        // A pet without a breed has an empty one.
+        assertEquals( "TerrierSiamese", chunk.getBreeds() );
+        assertArrayEquals( new int[] { 7, 7, 14 }, chunk.getBreedEnds() );
+    }
+    
+    @Test
+    public void nextAfterId_lastIdOfFullChunk()
+    {
+        PetBulkChunk chunk = new PetBulkChunk( 2, 2 );
+        chunk.addRow( 4, "Tommy", "Terrier", PetValidation.GENDER_MALE, 7 );
+        chunk.addRow( 9, "Garfield", null, PetValidation.GENDER_UNKNOWN, 0 );
+        assertEquals( 9, chunk.getNextAfterId() );
+    }
+    
+    @Test
+    public void nextAfterId_noneAfterShortChunk()
+    {
+        PetBulkChunk chunk = new PetBulkChunk( 3, 3 );
+        chunk.addRow( 4, "Tommy", "Terrier", PetValidation.GENDER_MALE, 7 );
+        assertEquals( -1, chunk.getNextAfterId() );
+        
+        // The columns only hold the rows read.
+        assertEquals( 1, chunk.getIds().length );
+        assertEquals( 1, chunk.getBreedEnds().length );
+        
+        assertEquals( -1, new PetBulkChunk( 0, 3 ).getNextAfterId() );
+    }
+    
+    @Test( expected = IllegalArgumentException.class )
+    public void constructor_capacityAboveLimit()
+    {
+        new PetBulkChunk( 4, 3 );
+    }
+}
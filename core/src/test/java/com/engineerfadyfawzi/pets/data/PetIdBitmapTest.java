@@ -0,0 +1,219 @@
+package com.engineerfadyfawzi.pets.data;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks {@link PetIdBitmap} against a TreeSet of the same ids, across the chunks of 65536 ids
+ * and across the conversion of a chunk between a sorted array and a bitmap.
+ */
+public class PetIdBitmapTest
+{
+    /**
+     * Number of ids of a chunk
+     */
+    private static final long CHUNK = 65536;
+    
+    @Test
+    public void addRemoveContains_matchTreeSet()
+    {
+        Random random = new Random( 1 );
+        PetIdBitmap bitmap = new PetIdBitmap();
+        TreeSet< Long > expected = new TreeSet<>();
+        
+        // Enough ids in the first chunk for it to become a bitmap, a few in the others.
+        for ( int i = 0; i < 20000; i++ )
+        {
+            long id = random.nextInt( 10 ) < 8 ? random.nextInt( ( int ) CHUNK ) : random.nextInt( ( int ) ( 4 * CHUNK ) );
+            assertEquals( expected.add( id ), bitmap.add( id ) );
+        }
+        assertSameIds( expected, bitmap );
+        
+        // Then remove most of them, so the first chunk goes back to an array.
+        for ( int i = 0; i < 40000; i++ )
+        {
+            long id = random.nextInt( ( int ) ( 4 * CHUNK ) );
+            assertEquals( expected.remove( id ), bitmap.remove( id ) );
+        }
+        for ( Long id : expected.toArray( new Long[ 0 ] ) )
+            if ( random.nextInt( 10 ) < 9 )
+            {
+                expected.remove( id );
+                assertTrue( bitmap.remove( id ) );
+            }
+        assertSameIds( expected, bitmap );
+        
+        for ( long id = 0; id < 4 * CHUNK; id++ )
+            assertEquals( expected.contains( id ), bitmap.contains( id ) );
+    }
+    
+    @Test
+    public void chunkBoundaries()
+    {
+        PetIdBitmap bitmap = new PetIdBitmap();
+        long[] ids = { 0, CHUNK - 1, CHUNK, 2 * CHUNK - 1, 2 * CHUNK, PetIdBitmap.MAX_ID };
+        
+        // Added out of order, so chunks are inserted before the last one.
+        for ( int i = ids.length - 1; i >= 0; i-- )
+            assertTrue( bitmap.add( ids[ i ] ) );
+        
+        assertArrayEquals( ids, bitmap.toArray() );
+        assertFalse( bitmap.contains( CHUNK + 1 ) );
+        assertFalse( bitmap.contains( -1 ) );
+        assertFalse( bitmap.remove( PetIdBitmap.MAX_ID + 1 ) );
+        
+        // Emptied chunks are dropped.
+        assertTrue( bitmap.remove( CHUNK ) );
+        assertTrue( bitmap.remove( 2 * CHUNK - 1 ) );
+        assertArrayEquals( new long[]{ 0, CHUNK - 1, 2 * CHUNK, PetIdBitmap.MAX_ID }, bitmap.toArray() );
+    }
+    
+    @Test( expected = IllegalArgumentException.class )
+    public void add_rejectsNegativeId()
+    {
+        new PetIdBitmap().add( -1 );
+    }
+    
+    @Test
+    public void andOrAndNot_matchTreeSets()
+    {
+        Random random = new Random( 2 );
+        for ( int round = 0; round < 50; round++ )
+        {
+            TreeSet< Long > firstIds = new TreeSet<>();
+            TreeSet< Long > secondIds = new TreeSet<>();
+            PetIdBitmap first = randomBitmap( random, firstIds );
+            PetIdBitmap second = randomBitmap( random, secondIds );
+            
+            TreeSet< Long > both = new TreeSet<>( firstIds );
+            both.retainAll( secondIds );
+            TreeSet< Long > either = new TreeSet<>( firstIds );
+            either.addAll( secondIds );
+            TreeSet< Long > firstOnly = new TreeSet<>( firstIds );
+            firstOnly.removeAll( secondIds );
+            
+            assertSameIds( both, PetIdBitmap.and( first, second ) );
+            assertSameIds( either, PetIdBitmap.or( first, second ) );
+            assertSameIds( firstOnly, PetIdBitmap.andNot( first, second ) );
+            
+            // The operands are left unchanged.
+            assertSameIds( firstIds, first );
+            assertSameIds( secondIds, second );
+        }
+    }
+    
+    @Test
+    public void and_ofDenseChunksBelowArrayLimit()
+    {
+        // Two bitmap chunks whose intersection is small enough to be an array again.
+        PetIdBitmap evens = new PetIdBitmap();
+        PetIdBitmap multiplesOfThree = new PetIdBitmap();
+        for ( long id = 0; id < CHUNK; id += 2 )
+            evens.add( id );
+        for ( long id = 0; id < CHUNK; id += 3 )
+            multiplesOfThree.add( id );
+        
+        PetIdBitmap multiplesOfSix = PetIdBitmap.and( evens, multiplesOfThree );
+        assertEquals( ( CHUNK + 5 ) / 6, multiplesOfSix.getCardinality() );
+        for ( long id = 0; id < CHUNK; id++ )
+            assertEquals( id % 6 == 0, multiplesOfSix.contains( id ) );
+        
+        // Adding to a result keeps it consistent.
+        assertTrue( multiplesOfSix.add( 1 ) );
+        assertTrue( multiplesOfSix.contains( 1 ) );
+    }
+    
+    @Test
+    public void andNot_ofADenseChunk()
+    {
+        // Removing most ids of a bitmap chunk makes it an array, removing all of them drops it.
+        PetIdBitmap pets = new PetIdBitmap();
+        PetIdBitmap deletedPets = new PetIdBitmap();
+        for ( long id = 0; id < 2 * CHUNK; id++ )
+        {
+            pets.add( id );
+            if ( id >= 10 )
+                deletedPets.add( id );
+        }
+        
+        PetIdBitmap result = PetIdBitmap.andNot( pets, deletedPets );
+        assertArrayEquals( new long[]{ 0, 1, 2, 3, 4, 5, 6, 7, 8, 9 }, result.toArray() );
+        assertTrue( result.add( CHUNK ) );
+        assertEquals( 11, result.getCardinality() );
+        assertEquals( 2 * CHUNK, pets.getCardinality() );
+    }
+    
+    @Test
+    public void copy_isIndependent()
+    {
+        PetIdBitmap bitmap = new PetIdBitmap();
+        for ( long id = 0; id < 10000; id++ )
+            bitmap.add( id );
+        
+        PetIdBitmap copy = bitmap.copy();
+        copy.remove( 5 );
+        copy.add( 3 * CHUNK );
+        
+        assertTrue( bitmap.contains( 5 ) );
+        assertFalse( bitmap.contains( 3 * CHUNK ) );
+        assertEquals( 10000, bitmap.getCardinality() );
+        assertEquals( 10000, copy.getCardinality() );
+    }
+    
+    /**
+     * Return a set of ids over four chunks, each chunk either sparse, dense or empty, and add
+     * the same ids to the given set.
+     *
+     * @param random
+     * @param ids
+     *
+     * @return
+     */
+    private static PetIdBitmap randomBitmap( Random random, TreeSet< Long > ids )
+    {
+        PetIdBitmap bitmap = new PetIdBitmap();
+        for ( int chunk = 0; chunk < 4; chunk++ )
+        {
+            int count;
+            switch ( random.nextInt( 3 ) )
+            {
+                case 0:
+                    count = 0;
+                    break;
+                case 1:
+                    count = random.nextInt( 3000 );
+                    break;
+                default:
+                    count = 5000 + random.nextInt( 30000 );
+                    break;
+            }
+            
+            for ( int i = 0; i < count; i++ )
+            {
+                long id = chunk * CHUNK + random.nextInt( ( int ) CHUNK );
+                ids.add( id );
+                bitmap.add( id );
+            }
+        }
+        return bitmap;
+    }
+    
+    private static void assertSameIds( TreeSet< Long > expected, PetIdBitmap bitmap )
+    {
+        long[] expectedIds = new long[ expected.size() ];
+        int i = 0;
+        for ( Long id : expected )
+            expectedIds[ i++ ] = id;
+        
+        assertEquals( expected.size(), bitmap.getCardinality() );
+        assertEquals( expected.isEmpty(), bitmap.isEmpty() );
+        assertArrayEquals( expectedIds, bitmap.toArray() );
+    }
+}
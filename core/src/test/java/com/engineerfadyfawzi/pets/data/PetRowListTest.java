@@ -0,0 +1,274 @@
+package com.engineerfadyfawzi.pets.data;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Applies random inserts, updates, deletes and tag changes to a table of pets, the way
+ * LivePetQuery applies them to its list (the new state of each changed row, or null when it
+ * doesn't match the filter anymore), and compares the list with a full requery after each one.
+ */
+public class PetRowListTest
+{
+    private static final String[] NAMES = { "Bella", "Max", "Luna", "Charlie", "Lucy", "Cooper", "Daisy", "Milo" };
+    private static final String[] BREEDS = { "Terrier", "Beagle", "Persian", null };
+    
+    /**
+     * Order of the catalog by name, the ties by id
+     */
+    private static final Comparator< PetRow > BY_NAME = new Comparator< PetRow >()
+    {
+        @Override
+        public int compare( PetRow first, PetRow second )
+        {
+            return first.name.compareTo( second.name );
+        }
+    };
+    
+    private final Random mRandom = new Random( 4 );
+    
+    /**
+     * The table: all the pets by id, and the tags of each pet
+     */
+    private final Map< Long, PetRow > mPets = new HashMap<>();
+    private final Map< Long, Set< String > > mTags = new HashMap<>();
+    private long mNextId = 1;
+    
+    /**
+     * Ids of the list, as the listener sees them: each notified change is applied to it
+     */
+    private final List< Long > mNotifiedIds = new ArrayList<>();
+    
+    private PetRowList mRowList;
+    
+    @Before
+    public void setUp()
+    {
+        mRowList = new PetRowList( BY_NAME );
+        mRowList.setListener( new PetRowList.Listener()
+        {
+            @Override
+            public void onRowInserted( int position )
+            {
+                mNotifiedIds.add( position, mRowList.get( position ).id );
+            }
+            
+            @Override
+            public void onRowRemoved( int position )
+            {
+                mNotifiedIds.remove( position );
+            }
+            
+            @Override
+            public void onRowChanged( int position )
+            {
+                assertEquals( ( long ) mNotifiedIds.get( position ), mRowList.get( position ).id );
+            }
+            
+            @Override
+            public void onRowMoved( int fromPosition, int toPosition )
+            {
+                assertTrue( fromPosition != toPosition );
+                mNotifiedIds.add( toPosition, mNotifiedIds.remove( fromPosition ) );
+            }
+        } );
+    }
+    
+    @Test
+    public void randomEdits_matchFullRequery()
+    {
+        for ( int i = 0; i < 200; i++ )
+            insertPet( false );
+        reload( false );
+        
+        for ( int i = 0; i < 5000; i++ )
+        {
+            editRandomPet( false );
+            assertMatchesRequery( false );
+        }
+    }
+    
+    @Test
+    public void randomEdits_filteredByTag_matchFullRequery()
+    {
+        for ( int i = 0; i < 200; i++ )
+            insertPet( true );
+        reload( true );
+        
+        for ( int i = 0; i < 5000; i++ )
+        {
+            editRandomPet( true );
+            assertMatchesRequery( true );
+        }
+    }
+    
+    @Test
+    public void randomEdits_onInitialRows_thenReload()
+    {
+        for ( int i = 0; i < 200; i++ )
+            insertPet( false );
+        
+        // Like a CatalogSnapshot: the first rows of the list in another order, then edits
+        // applied to them before the first load.
+        List< PetRow > initialRows = requery( false ).subList( 0, 40 );
+        List< PetRow > shuffledRows = new ArrayList<>( initialRows );
+        Collections.shuffle( shuffledRows, mRandom );
+        mRowList.sort( shuffledRows );
+        mRowList.replaceAll( shuffledRows );
+        mNotifiedIds.clear();
+        for ( PetRow row : shuffledRows )
+            mNotifiedIds.add( row.id );
+        
+        Map< Long, PetRow > expected = new HashMap<>();
+        for ( PetRow row : initialRows )
+            expected.put( row.id, row );
+        for ( int i = 0; i < 500; i++ )
+        {
+            long id = editRandomPet( false );
+            PetRow row = matches( id, false ) ? mPets.get( id ) : null;
+            if ( row == null )
+                expected.remove( id );
+            else
+                expected.put( id, row );
+            
+            List< PetRow > expectedRows = new ArrayList<>( expected.values() );
+            mRowList.sort( expectedRows );
+            assertSameRows( expectedRows );
+        }
+        
+        reload( false );
+        assertMatchesRequery( false );
+    }
+    
+    @Test
+    public void applyRow_ofARowNotInTheList_notifiesNothing()
+    {
+        mRowList.setListener( null );
+        mRowList.applyRow( 42, null );
+        assertEquals( 0, mRowList.size() );
+    }
+    
+    /**
+     * Insert, update, delete or change the tags of a random pet, and apply its new state to the
+     * list.
+     *
+     * @param byTag whether the list only has the pets tagged "kids".
+     *
+     * @return the id of the changed pet.
+     */
+    private long editRandomPet( boolean byTag )
+    {
+        int operation = mRandom.nextInt( 10 );
+        if ( operation < 3 || mPets.isEmpty() )
+            return insertPet( byTag );
+        
+        long id = randomPetId();
+        if ( operation < 7 )
+        {
+            // Sometimes the same name, so the row changes in place.
+            PetRow pet = mPets.get( id );
+            String name = mRandom.nextBoolean() ? pet.name : NAMES[ mRandom.nextInt( NAMES.length ) ];
+            mPets.put( id, new PetRow( id, name, BREEDS[ mRandom.nextInt( BREEDS.length ) ], null ) );
+        }
+        else if ( operation < 9 )
+            toggleTag( id );
+        else
+        {
+            mPets.remove( id );
+            mTags.remove( id );
+        }
+        
+        mRowList.applyRow( id, matches( id, byTag ) ? mPets.get( id ) : null );
+        return id;
+    }
+    
+    private long insertPet( boolean byTag )
+    {
+        long id = mNextId++;
+        mPets.put( id, new PetRow( id, NAMES[ mRandom.nextInt( NAMES.length ) ],
+                BREEDS[ mRandom.nextInt( BREEDS.length ) ], null ) );
+        mTags.put( id, new HashSet< String >() );
+        if ( mRandom.nextBoolean() )
+            toggleTag( id );
+        
+        mRowList.applyRow( id, matches( id, byTag ) ? mPets.get( id ) : null );
+        return id;
+    }
+    
+    private void toggleTag( long id )
+    {
+        Set< String > tags = mTags.get( id );
+        if ( !tags.remove( "kids" ) )
+            tags.add( "kids" );
+    }
+    
+    private long randomPetId()
+    {
+        List< Long > ids = new ArrayList<>( mPets.keySet() );
+        return ids.get( mRandom.nextInt( ids.size() ) );
+    }
+    
+    /**
+     * Return whether the pet is in the list: it exists, isn't a Persian (the selection of the
+     * list), and has the "kids" tag if the list is filtered by tag.
+     *
+     * @param id
+     * @param byTag
+     *
+     * @return
+     */
+    private boolean matches( long id, boolean byTag )
+    {
+        PetRow pet = mPets.get( id );
+        return pet != null && !"Persian".equals( pet.breed ) && ( !byTag || mTags.get( id ).contains( "kids" ) );
+    }
+    
+    private List< PetRow > requery( boolean byTag )
+    {
+        List< PetRow > rows = new ArrayList<>();
+        for ( PetRow pet : mPets.values() )
+            if ( matches( pet.id, byTag ) )
+                rows.add( pet );
+        mRowList.sort( rows );
+        return rows;
+    }
+    
+    private void reload( boolean byTag )
+    {
+        List< PetRow > rows = requery( byTag );
+        mRowList.replaceAll( rows );
+        mNotifiedIds.clear();
+        for ( PetRow row : rows )
+            mNotifiedIds.add( row.id );
+    }
+    
+    private void assertMatchesRequery( boolean byTag )
+    {
+        assertSameRows( requery( byTag ) );
+    }
+    
+    private void assertSameRows( List< PetRow > expected )
+    {
+        assertEquals( expected.size(), mRowList.size() );
+        assertEquals( expected.size(), mNotifiedIds.size() );
+        for ( int i = 0; i < expected.size(); i++ )
+        {
+            assertTrue( expected.get( i ) == mRowList.get( i ) );
+            assertEquals( expected.get( i ).id, ( long ) mNotifiedIds.get( i ) );
+        }
+        assertEquals( expected, mRowList.getFirstRows( expected.size() + 1 ) );
+    }
+}
@@ -0,0 +1,35 @@
+package com.engineerfadyfawzi.pets.data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PetStorageProfileTest
+{
+    @Test
+    public void synchronousPragma_isTheProfileLevel()
+    {
+        assertEquals( "PRAGMA synchronous = FULL", PetStorageProfile.BALANCED.getSynchronousPragma() );
+        assertEquals( "PRAGMA synchronous = FULL", PetStorageProfile.READ_HEAVY_MMAP.getSynchronousPragma() );
+        assertEquals( "PRAGMA synchronous = NORMAL", PetStorageProfile.BULK_LOAD.getSynchronousPragma() );
+        
+        // The level a relaxed group sets back is the one the connection was opened with.
+        for ( PetStorageProfile profile : PetStorageProfile.getAll() )
+            assertTrue( profile.getConnectionPragmas().contains( profile.getSynchronousPragma() ) );
+    }
+    
+    @Test
+    public void forName_findsEachProfile()
+    {
+        for ( PetStorageProfile profile : PetStorageProfile.getAll() )
+            assertTrue( profile == PetStorageProfile.forName( profile.getName() ) );
+        assertTrue( PetStorageProfile.DEFAULT == PetStorageProfile.getAll().get( 0 ) );
+    }
+    
+    @Test( expected = IllegalArgumentException.class )
+    public void forName_rejectsUnknownName()
+    {
+        PetStorageProfile.forName( "fastest" );
+    }
+}
@@ -0,0 +1,62 @@
+package com.engineerfadyfawzi.pets.data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PetValidationTest
+{
+    @Test
+    public void isValidGender()
+    {
+        assertTrue( PetValidation.isValidGender( PetValidation.GENDER_UNKNOWN ) );
+        assertTrue( PetValidation.isValidGender( PetValidation.GENDER_MALE ) );
+        assertTrue( PetValidation.isValidGender( PetValidation.GENDER_FEMALE ) );
+        assertFalse( PetValidation.isValidGender( -1 ) );
+        assertFalse( PetValidation.isValidGender( 3 ) );
+    }
+    
+    @Test
+    public void isValidStatus()
+    {
+        assertTrue( PetValidation.isValidStatus( PetValidation.STATUS_IN_CARE ) );
+        assertTrue( PetValidation.isValidStatus( PetValidation.STATUS_ADOPTED ) );
+        assertTrue( PetValidation.isValidStatus( PetValidation.STATUS_TRANSFERRED ) );
+        assertFalse( PetValidation.isValidStatus( -1 ) );
+        assertFalse( PetValidation.isValidStatus( 3 ) );
+    }
+    
+    @Test
+    public void isValidRecordType()
+    {
+        assertTrue( PetValidation.isValidRecordType( PetValidation.TYPE_VACCINATION ) );
+        assertTrue( PetValidation.isValidRecordType( PetValidation.TYPE_TREATMENT ) );
+        assertFalse( PetValidation.isValidRecordType( 0 ) );
+        assertFalse( PetValidation.isValidRecordType( 3 ) );
+    }
+    
+    @Test
+    public void isValidRecordDescription()
+    {
+        assertTrue( PetValidation.isValidRecordDescription( "Rabies" ) );
+        assertFalse( PetValidation.isValidRecordDescription( "" ) );
+        assertFalse( PetValidation.isValidRecordDescription( null ) );
+    }
+    
+    @Test
+    public void isValidShelterId()
+    {
+        assertTrue( PetValidation.isValidShelterId( "north" ) );
+        assertTrue( PetValidation.isValidShelterId( "North_Side-2" ) );
+        assertFalse( PetValidation.isValidShelterId( null ) );
+        assertFalse( PetValidation.isValidShelterId( "" ) );
+        
+        // Anything that could leave the shelter's directory, or isn't ASCII.
+        assertFalse( PetValidation.isValidShelterId( "../pets" ) );
+        assertFalse( PetValidation.isValidShelterId( "north/south" ) );
+        assertFalse( PetValidation.isValidShelterId( "north.db" ) );
+        assertFalse( PetValidation.isValidShelterId( "nord\u00e9" ) );
+        assertFalse( PetValidation.isValidShelterId( "north side" ) );
+    }
+}
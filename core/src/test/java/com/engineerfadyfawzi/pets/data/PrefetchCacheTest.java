@@ -0,0 +1,167 @@
+package com.engineerfadyfawzi.pets.data;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link PrefetchCache} never holds more than its maximum size, whatever is read
+ * into it, and measures its hit rate for a catalog scrolled up and down, with the pets around
+ * the visible rows prefetched, and the editor opened for some of the visible pets.
+ */
+public class PrefetchCacheTest
+{
+    private static final int MAX_SIZE = 100;
+    
+    /**
+     * Rows on screen, and rows prefetched above and below them
+     */
+    private static final int VISIBLE_ROWS = 10;
+    private static final int PREFETCHED_ROWS = 20;
+    
+    @Test
+    public void size_neverAboveMaxSize()
+    {
+        Random random = new Random( 4 );
+        PrefetchCache< String > cache = new PrefetchCache<>( MAX_SIZE );
+        for ( int round = 0; round < 1000; round++ )
+        {
+            long[] ids = new long[ random.nextInt( 3 * MAX_SIZE ) ];
+            for ( int i = 0; i < ids.length; i++ )
+                ids[ i ] = random.nextInt( 100000 );
+            
+            prefetch( cache, ids );
+            assertTrue( cache.size() <= MAX_SIZE );
+        }
+        assertEquals( MAX_SIZE, cache.size() );
+    }
+    
+    @Test
+    public void full_dropsLeastRecentlyUsed()
+    {
+        PrefetchCache< String > cache = new PrefetchCache<>( 3 );
+        prefetch( cache, new long[]{ 1, 2, 3 } );
+        
+        // Using 1 makes 2 the least recently used, claiming doesn't use 3.
+        cache.get( 1 );
+        assertEquals( Collections.< Long >emptyList(), cache.claim( new long[]{ 3 } ) );
+        prefetch( cache, new long[]{ 4 } );
+        
+        assertNull( cache.get( 2 ) );
+        assertEquals( "1", cache.get( 1 ) );
+        assertEquals( "3", cache.get( 3 ) );
+        assertEquals( "4", cache.get( 4 ) );
+    }
+    
+    @Test
+    public void claim_skipsCachedAndPendingIds()
+    {
+        PrefetchCache< String > cache = new PrefetchCache<>( MAX_SIZE );
+        prefetch( cache, new long[]{ 1 } );
+        
+        int generation = cache.getGeneration();
+        List< Long > claimedIds = cache.claim( new long[]{ 1, 2, 3, 2 } );
+        assertEquals( Arrays.asList( 2L, 3L ), claimedIds );
+        assertEquals( Collections.< Long >emptyList(), cache.claim( new long[]{ 2, 3 } ) );
+        
+        // Pet 3 wasn't found, so it isn't cached, and it's claimed again next time.
+        cache.complete( claimedIds, values( new long[]{ 2 } ), generation );
+        assertEquals( "2", cache.get( 2 ) );
+        assertNull( cache.get( 3 ) );
+        assertEquals( Collections.singletonList( 3L ), cache.claim( new long[]{ 3 } ) );
+    }
+    
+    @Test
+    public void invalidate_dropsValuesReadBefore()
+    {
+        PrefetchCache< String > cache = new PrefetchCache<>( MAX_SIZE );
+        prefetch( cache, new long[]{ 1, 2 } );
+        
+        int generation = cache.getGeneration();
+        List< Long > claimedIds = cache.claim( new long[]{ 3, 4 } );
+        cache.invalidate( 1 );
+        cache.complete( claimedIds, values( new long[]{ 3, 4 } ), generation );
+        
+        assertNull( cache.get( 1 ) );
+        assertEquals( "2", cache.get( 2 ) );
+        assertNull( cache.get( 3 ) );
+        
+        // They're read again, this time after the change.
+        assertEquals( Arrays.asList( 3L, 4L ), cache.claim( new long[]{ 3, 4 } ) );
+        
+        cache.invalidateAll();
+        assertEquals( 0, cache.size() );
+    }
+    
+    @Test
+    public void hitRate_ofScrolledCatalog()
+    {
+        Random random = new Random( 5 );
+        PrefetchCache< String > cache = new PrefetchCache<>( MAX_SIZE );
+        int pets = 2000;
+        int firstVisibleRow = 0;
+        for ( int step = 0; step < 5000; step++ )
+        {
+            // Scroll a few rows, mostly down, then open a visible pet now and then.
+            firstVisibleRow += random.nextInt( 10 ) < 7 ? random.nextInt( 4 ) : -random.nextInt( 4 );
+            firstVisibleRow = Math.max( 0, Math.min( pets - VISIBLE_ROWS, firstVisibleRow ) );
+            
+            int first = Math.max( 0, firstVisibleRow - PREFETCHED_ROWS );
+            int last = Math.min( pets - 1, firstVisibleRow + VISIBLE_ROWS - 1 + PREFETCHED_ROWS );
+            long[] ids = new long[ last - first + 1 ];
+            for ( int i = 0; i < ids.length; i++ )
+                ids[ i ] = first + i;
+            prefetch( cache, ids );
+            
+            // A change of a pet drops it, it's a miss until the next scroll prefetches it again.
+            if ( random.nextInt( 50 ) == 0 )
+                cache.invalidate( firstVisibleRow + random.nextInt( VISIBLE_ROWS ) );
+            
+            if ( random.nextInt( 5 ) == 0 )
+                cache.get( firstVisibleRow + random.nextInt( VISIBLE_ROWS ) );
+        }
+        
+        int hits = cache.getHitCount();
+        int misses = cache.getMissCount();
+        double hitRate = ( double ) hits / ( hits + misses );
+        System.out.println( "Prefetch cache hit rate " + Math.round( hitRate * 1000 ) / 10.0 + "% ("
+                + hits + " hits, " + misses + " misses), " + cache.size() + " of " + MAX_SIZE + " pets cached" );
+        
+        // Only the pets changed since the last scroll are missed.
+        assertTrue( hitRate > 0.95 );
+        assertTrue( cache.size() <= MAX_SIZE );
+    }
+    
+    /**
+     * Prefetch the ids the way the app does, reading a value for each of them right away.
+     *
+     * @param cache
+     * @param ids
+     */
+    private static void prefetch( PrefetchCache< String > cache, long[] ids )
+    {
+        int generation = cache.getGeneration();
+        List< Long > claimedIds = cache.claim( ids );
+        long[] claimed = new long[ claimedIds.size() ];
+        for ( int i = 0; i < claimed.length; i++ )
+            claimed[ i ] = claimedIds.get( i );
+        cache.complete( claimedIds, values( claimed ), generation );
+    }
+    
+    private static Map< Long, String > values( long[] ids )
+    {
+        Map< Long, String > values = new HashMap<>();
+        for ( long id : ids )
+            values.put( id, String.valueOf( id ) );
+        return values;
+    }
+}
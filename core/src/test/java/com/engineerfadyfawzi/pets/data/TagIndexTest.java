@@ -0,0 +1,204 @@
+package com.engineerfadyfawzi.pets.data;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the tag filters of {@link TagIndex} against the same filters evaluated pet by pet, as
+ * the join of the pet tags table would.
+ */
+public class TagIndexTest
+{
+    private static final long KIDS = 1;
+    private static final long SENIOR = 2;
+    private static final long SPECIAL_NEEDS = 3;
+    private static final long UNUSED = 4;
+    
+    private TagIndex mTagIndex;
+    
+    @Before
+    public void setUp()
+    {
+        mTagIndex = new TagIndex();
+        mTagIndex.add( KIDS, 1 );
+        mTagIndex.add( KIDS, 2 );
+        mTagIndex.add( KIDS, 3 );
+        mTagIndex.add( SENIOR, 2 );
+        mTagIndex.add( SENIOR, 3 );
+        mTagIndex.add( SENIOR, 4 );
+        mTagIndex.add( SPECIAL_NEEDS, 3 );
+        mTagIndex.add( SPECIAL_NEEDS, 5 );
+    }
+    
+    @Test
+    public void match_allTags()
+    {
+        assertArrayEquals( new long[]{ 2, 3 }, match( new long[]{ KIDS, SENIOR }, new long[ 0 ] ) );
+        assertArrayEquals( new long[]{ 3 }, match( new long[]{ KIDS, SENIOR, SPECIAL_NEEDS }, new long[ 0 ] ) );
+    }
+    
+    @Test
+    public void match_anyTags()
+    {
+        assertArrayEquals( new long[]{ 2, 3, 4, 5 }, match( new long[ 0 ], new long[]{ SENIOR, SPECIAL_NEEDS } ) );
+        assertArrayEquals( new long[]{ 3, 5 }, match( new long[ 0 ], new long[]{ SPECIAL_NEEDS, UNUSED } ) );
+    }
+    
+    @Test
+    public void match_allAndAnyTags()
+    {
+        assertArrayEquals( new long[]{ 2, 3 }, match( new long[]{ KIDS }, new long[]{ SENIOR, SPECIAL_NEEDS } ) );
+    }
+    
+    @Test
+    public void match_unusedTagHasNoPets()
+    {
+        assertArrayEquals( new long[ 0 ], match( new long[]{ KIDS, UNUSED }, new long[ 0 ] ) );
+        assertArrayEquals( new long[ 0 ], match( new long[ 0 ], new long[]{ UNUSED } ) );
+    }
+    
+    @Test( expected = IllegalArgumentException.class )
+    public void match_requiresATag()
+    {
+        mTagIndex.match( new long[ 0 ], new long[ 0 ] );
+    }
+    
+    @Test
+    public void remove_andRemovePet()
+    {
+        mTagIndex.remove( KIDS, 2 );
+        assertArrayEquals( new long[]{ 1, 3 }, match( new long[]{ KIDS }, new long[ 0 ] ) );
+        
+        mTagIndex.removePet( 3 );
+        assertArrayEquals( new long[]{ 1 }, match( new long[]{ KIDS }, new long[ 0 ] ) );
+        assertArrayEquals( new long[]{ 5 }, match( new long[]{ SPECIAL_NEEDS }, new long[ 0 ] ) );
+        
+        // Removing the last pet of a tag leaves the tag without pets.
+        mTagIndex.removePet( 5 );
+        assertArrayEquals( new long[ 0 ], match( new long[ 0 ], new long[]{ SPECIAL_NEEDS } ) );
+    }
+    
+    @Test
+    public void markDeleted_leavesPetOutOfMatches()
+    {
+        mTagIndex.markDeleted( 2 );
+        mTagIndex.markDeleted( 5 );
+        assertArrayEquals( new long[]{ 1, 3 }, match( new long[]{ KIDS }, new long[ 0 ] ) );
+        assertArrayEquals( new long[]{ 3, 4 }, match( new long[ 0 ], new long[]{ SENIOR, SPECIAL_NEEDS } ) );
+        
+        // Undoing the deletion matches the pet again, with its tags.
+        mTagIndex.unmarkDeleted( 2 );
+        assertArrayEquals( new long[]{ 2, 3 }, match( new long[]{ KIDS, SENIOR }, new long[ 0 ] ) );
+        
+        // Purging the pet forgets that it was deleted.
+        mTagIndex.removePet( 5 );
+        mTagIndex.add( SPECIAL_NEEDS, 5 );
+        assertArrayEquals( new long[]{ 3, 5 }, match( new long[]{ SPECIAL_NEEDS }, new long[ 0 ] ) );
+    }
+    
+    @Test
+    public void match_returnsACopy()
+    {
+        PetIdBitmap pets = mTagIndex.match( new long[]{ KIDS }, new long[ 0 ] );
+        pets.add( 100 );
+        pets.remove( 1 );
+        
+        assertArrayEquals( new long[]{ 1, 2, 3 }, match( new long[]{ KIDS }, new long[ 0 ] ) );
+    }
+    
+    @Test
+    public void getSelection_selectsPetsById()
+    {
+        assertEquals( "_id IN (2,3)", mTagIndex.getSelection( new long[]{ KIDS }, new long[]{ SENIOR }, 2 ) );
+        assertEquals( "_id IN ()", mTagIndex.getSelection( new long[]{ UNUSED }, new long[ 0 ], 2 ) );
+    }
+    
+    @Test
+    public void getSelection_selectsManyPetsWithPetTags()
+    {
+        assertEquals( "_id IN (SELECT pet_id FROM pet_tags WHERE tag_id=1)"
+                        + " AND _id IN (SELECT pet_id FROM pet_tags WHERE tag_id IN (2,3))",
+                mTagIndex.getSelection( new long[]{ KIDS }, new long[]{ SENIOR, SPECIAL_NEEDS }, 1 ) );
+        assertEquals( "_id IN (SELECT pet_id FROM pet_tags WHERE tag_id IN (2,3))",
+                mTagIndex.getSelection( new long[ 0 ], new long[]{ SENIOR, SPECIAL_NEEDS }, 1 ) );
+    }
+    
+    @Test
+    public void match_randomFiltersMatchPetByPet()
+    {
+        Random random = new Random( 3 );
+        TagIndex tagIndex = new TagIndex();
+        Map< Long, TreeSet< Long > > tagsByPet = new HashMap<>();
+        for ( long petId = 1; petId <= 200000; petId++ )
+        {
+            TreeSet< Long > tags = new TreeSet<>();
+            for ( long tagId = 1; tagId <= 6; tagId++ )
+            {
+                // Tag 1 on most pets, so its chunks are bitmaps, tag 6 on a few.
+                if ( random.nextInt( 100 ) < 90 / tagId )
+                {
+                    tags.add( tagId );
+                    tagIndex.add( tagId, petId );
+                }
+            }
+            tagsByPet.put( petId, tags );
+        }
+        
+        for ( int round = 0; round < 20; round++ )
+        {
+            long[] allTagIds = randomTags( random );
+            long[] anyTagIds = randomTags( random );
+            if ( allTagIds.length == 0 && anyTagIds.length == 0 )
+                continue;
+            
+            List< Long > expected = new ArrayList<>();
+            for ( long petId = 1; petId <= 200000; petId++ )
+            {
+                TreeSet< Long > tags = tagsByPet.get( petId );
+                boolean matches = true;
+                for ( long tagId : allTagIds )
+                    matches &= tags.contains( tagId );
+                
+                boolean anyMatches = anyTagIds.length == 0;
+                for ( long tagId : anyTagIds )
+                    anyMatches |= tags.contains( tagId );
+                
+                if ( matches && anyMatches )
+                    expected.add( petId );
+            }
+            
+            long[] actual = tagIndex.match( allTagIds, anyTagIds ).toArray();
+            assertEquals( expected.size(), actual.length );
+            for ( int i = 0; i < actual.length; i++ )
+                assertEquals( ( long ) expected.get( i ), actual[ i ] );
+        }
+    }
+    
+    private long[] match( long[] allTagIds, long[] anyTagIds )
+    {
+        return mTagIndex.match( allTagIds, anyTagIds ).toArray();
+    }
+    
+    private static long[] randomTags( Random random )
+    {
+        List< Long > tags = new ArrayList<>();
+        for ( long tagId = 1; tagId <= 6; tagId++ )
+            if ( random.nextInt( 4 ) == 0 )
+                tags.add( tagId );
+        
+        long[] tagIds = new long[ tags.size() ];
+        for ( int i = 0; i < tagIds.length; i++ )
+            tagIds[ i ] = tags.get( i );
+        return tagIds;
+    }
+}
@@ -0,0 +1,262 @@
+package com.engineerfadyfawzi.pets.data;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the memory cache of {@link ThumbnailCache} stays under its ceiling, an eighth of
+ * the maximum memory, and the disk cache under its maximum size, whatever is loaded, and measures
+ * the hit rates of the memory and disk caches for a scrolled catalog, and after a restart of the
+ * process. The thumbnails are byte arrays of the size of an ARGB_8888 Bitmap.
+ */
+public class ThumbnailCacheTest
+{
+    private static final int THUMBNAIL_SIZE = 96;
+    private static final int THUMBNAIL_BYTES = THUMBNAIL_SIZE * THUMBNAIL_SIZE * 4;
+    
+    /**
+     * Size of a thumbnail file, about the one of a JPEG of the thumbnail
+     */
+    private static final int THUMBNAIL_FILE_BYTES = 4096;
+    
+    private static final long DISK_CACHE_MAX_BYTES = 20 * 1024 * 1024;
+    private static final long MAX_MEMORY = 64 * 1024 * 1024;
+    
+    /**
+     * Pets of the catalog, and rows on screen
+     */
+    private static final int PETS = 500;
+    private static final int VISIBLE_ROWS = 8;
+    
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+    
+    @Test
+    public void memoryCacheMaxBytes_isAnEighthOfMaxMemory()
+    {
+        assertEquals( 8 * 1024 * 1024, ThumbnailCache.getMemoryCacheMaxBytes( MAX_MEMORY ) );
+        assertEquals( 32 * 1024 * 1024, ThumbnailCache.getMemoryCacheMaxBytes( 256 * 1024 * 1024 ) );
+        assertEquals( Integer.MAX_VALUE, ThumbnailCache.getMemoryCacheMaxBytes( Long.MAX_VALUE ) );
+    }
+    
+    @Test
+    public void memoryCache_neverAboveCeiling() throws IOException
+    {
+        File[] photos = createPhotos( 1000 );
+        TestCache cache = new TestCache( DISK_CACHE_MAX_BYTES, ThumbnailCache.getMemoryCacheMaxBytes( MAX_MEMORY ) );
+        Random random = new Random( 31 );
+        for ( int i = 0; i < 5000; i++ )
+        {
+            assertNotNull( cache.load( photos[ random.nextInt( photos.length ) ].getPath() ) );
+            assertTrue( cache.getMemoryCacheBytes() <= cache.getMemoryCacheMaxBytes() );
+        }
+        
+        // As many thumbnails as fit under the ceiling.
+        assertEquals( cache.getMemoryCacheMaxBytes() / THUMBNAIL_BYTES, cache.getMemoryCacheCount() );
+        assertEquals( cache.getMemoryCacheCount() * THUMBNAIL_BYTES, cache.getMemoryCacheBytes() );
+    }
+    
+    @Test
+    public void memoryCache_dropsLeastRecentlyUsed() throws IOException
+    {
+        File[] photos = createPhotos( 4 );
+        TestCache cache = new TestCache( DISK_CACHE_MAX_BYTES, 3 * THUMBNAIL_BYTES );
+        for ( int i = 0; i < 3; i++ )
+            cache.load( photos[ i ].getPath() );
+        
+        // Using the first one makes the second one the least recently used.
+        assertNotNull( cache.getFromMemory( photos[ 0 ].getPath() ) );
+        cache.load( photos[ 3 ].getPath() );
+        
+        assertNull( cache.getFromMemory( photos[ 1 ].getPath() ) );
+        assertNotNull( cache.getFromMemory( photos[ 0 ].getPath() ) );
+        assertNotNull( cache.getFromMemory( photos[ 2 ].getPath() ) );
+        assertNotNull( cache.getFromMemory( photos[ 3 ].getPath() ) );
+        
+        // It's still on disk.
+        cache.load( photos[ 1 ].getPath() );
+        assertEquals( 1, cache.getDiskHitCount() );
+        assertEquals( 4, cache.getDecodeCount() );
+    }
+    
+    @Test
+    public void diskCache_neverAboveMaxBytes() throws IOException
+    {
+        File[] photos = createPhotos( 100 );
+        long diskCacheMaxBytes = 10 * THUMBNAIL_FILE_BYTES;
+        TestCache cache = new TestCache( diskCacheMaxBytes, THUMBNAIL_BYTES );
+        for ( File photo : photos )
+        {
+            cache.load( photo.getPath() );
+            assertTrue( cache.getDiskCacheBytes() <= diskCacheMaxBytes );
+        }
+        assertEquals( diskCacheMaxBytes, cache.getDiskCacheBytes() );
+    }
+    
+    @Test
+    public void diskCache_deletesLeastRecentlyUsed() throws IOException
+    {
+        File[] photos = createPhotos( 4 );
+        TestCache cache = new TestCache( 3 * THUMBNAIL_FILE_BYTES, THUMBNAIL_BYTES );
+        for ( int i = 0; i < 3; i++ )
+            cache.load( photos[ i ].getPath() );
+        
+        // The second one was used the longest time ago.
+        File directory = new File( mFolder.getRoot(), "thumbnails" );
+        File[] files = directory.listFiles();
+        assertNotNull( files );
+        for ( File file : files )
+            assertTrue( file.setLastModified( file.getName().startsWith( photos[ 1 ].getName() ) ? 1000 : 2000 ) );
+        cache.load( photos[ 3 ].getPath() );
+        
+        assertEquals( 3, directory.list().length );
+        for ( int i = 0; i < 4; i++ )
+            assertEquals( i != 1, new File( directory, photos[ i ].getName() + "_" + THUMBNAIL_SIZE + ".jpg" ).isFile() );
+    }
+    
+    @Test
+    public void changedPhoto_decodedAgain() throws IOException
+    {
+        File[] photos = createPhotos( 1 );
+        new TestCache( DISK_CACHE_MAX_BYTES, THUMBNAIL_BYTES ).load( photos[ 0 ].getPath() );
+        
+        TestCache cache = new TestCache( DISK_CACHE_MAX_BYTES, THUMBNAIL_BYTES );
+        cache.load( photos[ 0 ].getPath() );
+        assertEquals( 1, cache.getDiskHitCount() );
+        
+        assertTrue( photos[ 0 ].setLastModified( System.currentTimeMillis() + 60000 ) );
+        cache = new TestCache( DISK_CACHE_MAX_BYTES, THUMBNAIL_BYTES );
+        cache.load( photos[ 0 ].getPath() );
+        assertEquals( 0, cache.getDiskHitCount() );
+        assertEquals( 1, cache.getDecodeCount() );
+    }
+    
+    @Test
+    public void scrolledCatalog_hitRates() throws IOException
+    {
+        File[] photos = createPhotos( PETS );
+        
+        // The memory cache of a device with 16 MiB for the app holds 56 thumbnails.
+        TestCache cache = new TestCache( DISK_CACHE_MAX_BYTES, ThumbnailCache.getMemoryCacheMaxBytes( 16 * 1024 * 1024 ) );
+        int requests = scroll( cache, photos, new Random( 31 ) );
+        
+        // Each photo is decoded once, after that its thumbnail is in memory or on disk.
+        assertEquals( PETS, cache.getDecodeCount() );
+        assertEquals( requests, cache.getMemoryHitCount() + cache.getDiskHitCount() + cache.getDecodeCount() );
+        System.out.println( "Scrolled catalog: " + requests + " thumbnails, "
+                + percent( cache.getMemoryHitCount(), requests ) + " from memory, "
+                + percent( cache.getDiskHitCount(), requests ) + " from disk, "
+                + percent( cache.getDecodeCount(), requests ) + " decoded" );
+        assertTrue( cache.getMemoryHitCount() > 0.8 * requests );
+        
+        // After a restart of the process, the thumbnails not in memory come from disk.
+        cache = new TestCache( DISK_CACHE_MAX_BYTES, ThumbnailCache.getMemoryCacheMaxBytes( 16 * 1024 * 1024 ) );
+        requests = scroll( cache, photos, new Random( 32 ) );
+        System.out.println( "Scrolled catalog after a restart: " + requests + " thumbnails, "
+                + percent( cache.getMemoryHitCount(), requests ) + " from memory, "
+                + percent( cache.getDiskHitCount(), requests ) + " from disk" );
+        assertEquals( 0, cache.getDecodeCount() );
+        assertEquals( requests, cache.getMemoryHitCount() + cache.getDiskHitCount() );
+    }
+    
+    /**
+     * Scroll a catalog of the photos up and down at random, a few rows at a time, and load the
+     * thumbnail of each row coming on screen, from memory on the main thread if it's there.
+     *
+     * @param cache
+     * @param photos
+     * @param random
+     *
+     * @return the number of thumbnails shown.
+     */
+    private static int scroll( TestCache cache, File[] photos, Random random )
+    {
+        int requests = 0;
+        int first = 0;
+        for ( int row = 0; row < VISIBLE_ROWS; row++ )
+            requests += show( cache, photos[ row ] );
+        
+        // Flings through the whole catalog, and small scrolls around the rows looked at.
+        for ( int step = 0; step < 5000; step++ )
+        {
+            int rows = step % 500 < 100 ? 3 : random.nextInt( 7 ) - 3;
+            int newFirst = Math.max( 0, Math.min( photos.length - VISIBLE_ROWS, first + rows ) );
+            for ( int row = newFirst; row < newFirst + VISIBLE_ROWS; row++ )
+            {
+                if ( row < first || row >= first + VISIBLE_ROWS )
+                    requests += show( cache, photos[ row ] );
+            }
+            first = newFirst;
+        }
+        return requests;
+    }
+    
+    private static int show( TestCache cache, File photo )
+    {
+        if ( cache.getFromMemory( photo.getPath() ) == null )
+            assertNotNull( cache.load( photo.getPath() ) );
+        return 1;
+    }
+    
+    private static String percent( int count, int total )
+    {
+        return ( count * 1000L / total ) / 10.0 + "%";
+    }
+    
+    private File[] createPhotos( int count ) throws IOException
+    {
+        File[] photos = new File[ count ];
+        for ( int i = 0; i < count; i++ )
+        {
+            photos[ i ] = mFolder.newFile( "photo_" + i + ".jpg" );
+            assertTrue( photos[ i ].setLastModified( 1000 ) );
+        }
+        return photos;
+    }
+    
+    /**
+     * Cache of byte arrays: a decoded thumbnail is as big as a Bitmap, and a file as a JPEG.
+     */
+    private final class TestCache extends ThumbnailCache< byte[] >
+    {
+        TestCache( long diskCacheMaxBytes, int memoryCacheMaxBytes )
+        {
+            super( new File( mFolder.getRoot(), "thumbnails" ), diskCacheMaxBytes, THUMBNAIL_SIZE, memoryCacheMaxBytes );
+        }
+        
+        @Override
+        protected int sizeOf( byte[] thumbnail )
+        {
+            return thumbnail.length;
+        }
+        
+        @Override
+        protected byte[] decodeThumbnail( File photoFile )
+        {
+            return photoFile.isFile() ? new byte[ THUMBNAIL_BYTES ] : null;
+        }
+        
+        @Override
+        protected byte[] readThumbnail( File cacheFile )
+        {
+            return cacheFile.length() == THUMBNAIL_FILE_BYTES ? new byte[ THUMBNAIL_BYTES ] : null;
+        }
+        
+        @Override
+        protected void writeThumbnail( byte[] thumbnail, OutputStream output ) throws IOException
+        {
+            output.write( new byte[ THUMBNAIL_FILE_BYTES ] );
+        }
+    }
+}
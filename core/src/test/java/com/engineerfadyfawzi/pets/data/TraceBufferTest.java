@@ -0,0 +1,140 @@
+package com.engineerfadyfawzi.pets.data;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TraceBufferTest
+{
+    @After
+    public void tearDown()
+    {
+        PetTracer.setSink( null );
+    }
+    
+    @Test
+    public void getSections_inTheOrderTheyEnded()
+    {
+        TraceBuffer traceBuffer = new TraceBuffer( 10 );
+        traceBuffer.beginSection( "outer" );
+        traceBuffer.beginSection( "inner" );
+        traceBuffer.endSection();
+        traceBuffer.endSection();
+        
+        List< TraceBuffer.Section > sections = traceBuffer.getSections();
+        assertEquals( 2, sections.size() );
+        assertEquals( "inner", sections.get( 0 ).name );
+        assertEquals( 1, sections.get( 0 ).depth );
+        assertEquals( "outer", sections.get( 1 ).name );
+        assertEquals( 0, sections.get( 1 ).depth );
+        
+        // The inner section is within the outer one.
+        TraceBuffer.Section inner = sections.get( 0 );
+        TraceBuffer.Section outer = sections.get( 1 );
+        assertTrue( inner.startNanos >= outer.startNanos );
+        assertTrue( inner.startNanos + inner.durationNanos <= outer.startNanos + outer.durationNanos );
+    }
+    
+    @Test
+    public void wrapsAround_keepingTheLastSections()
+    {
+        TraceBuffer traceBuffer = new TraceBuffer( 3 );
+        for ( int i = 0; i < 8; i++ )
+        {
+            traceBuffer.beginSection( "section " + i );
+            traceBuffer.endSection();
+        }
+        
+        List< TraceBuffer.Section > sections = traceBuffer.getSections();
+        assertEquals( 3, sections.size() );
+        assertEquals( "section 5", sections.get( 0 ).name );
+        assertEquals( "section 6", sections.get( 1 ).name );
+        assertEquals( "section 7", sections.get( 2 ).name );
+        assertEquals( 5, traceBuffer.getDroppedCount() );
+        
+        // Exactly full: nothing dropped, the first section is still first.
+        traceBuffer.clear();
+        for ( int i = 0; i < 3; i++ )
+        {
+            traceBuffer.beginSection( "section " + i );
+            traceBuffer.endSection();
+        }
+        assertEquals( "section 0", traceBuffer.getSections().get( 0 ).name );
+        assertEquals( 0, traceBuffer.getDroppedCount() );
+    }
+    
+    @Test
+    public void endSection_withoutBegin_isIgnored()
+    {
+        TraceBuffer traceBuffer = new TraceBuffer( 3 );
+        traceBuffer.endSection();
+        assertTrue( traceBuffer.getSections().isEmpty() );
+    }
+    
+    @Test
+    public void deepNesting_growsTheOpenSections()
+    {
+        TraceBuffer traceBuffer = new TraceBuffer( 100 );
+        for ( int i = 0; i < 20; i++ )
+            traceBuffer.beginSection( "depth " + i );
+        for ( int i = 0; i < 20; i++ )
+            traceBuffer.endSection();
+        
+        List< TraceBuffer.Section > sections = traceBuffer.getSections();
+        assertEquals( 20, sections.size() );
+        assertEquals( "depth 19", sections.get( 0 ).name );
+        assertEquals( 19, sections.get( 0 ).depth );
+        assertEquals( "depth 0", sections.get( 19 ).name );
+    }
+    
+    @Test
+    public void getSections_byName_throughPetTracer()
+    {
+        TraceBuffer traceBuffer = new TraceBuffer( 10 );
+        PetTracer.setSink( traceBuffer );
+        for ( int i = 0; i < 3; i++ )
+        {
+            PetTracer.beginSection( "PetProvider.insertPet" );
+            PetTracer.beginSection( "SQLite insert pet" );
+            PetTracer.endSection();
+            PetTracer.endSection();
+        }
+        PetTracer.setSink( null );
+        PetTracer.beginSection( "not traced" );
+        PetTracer.endSection();
+        
+        assertEquals( 3, traceBuffer.getSections( "PetProvider.insertPet" ).size() );
+        assertEquals( 3, traceBuffer.getSections( "SQLite insert pet" ).size() );
+        assertEquals( 6, traceBuffer.getSections().size() );
+    }
+    
+    @Test
+    public void writeJson_quotesTheNames() throws IOException
+    {
+        TraceBuffer traceBuffer = new TraceBuffer( 10 );
+        traceBuffer.beginSection( "say \"hi\"\\\n" );
+        traceBuffer.endSection();
+        
+        StringWriter writer = new StringWriter();
+        traceBuffer.writeJson( writer );
+        String json = writer.toString();
+        
+        assertTrue( json.startsWith( "{\"displayTimeUnit\":\"ms\",\"traceEvents\":[" ) );
+        assertTrue( json.contains( "\"name\":\"say \\\"hi\\\"\\\\\\u000a\"" ) );
+        assertTrue( json.contains( "\"ph\":\"X\"" ) );
+        assertTrue( json.contains( "\"name\":\"thread_name\"" ) );
+        assertTrue( json.endsWith( "\n]}\n" ) );
+    }
+    
+    @Test( expected = IllegalArgumentException.class )
+    public void constructor_requiresACapacity()
+    {
+        new TraceBuffer( 0 );
+    }
+}
@@ -0,0 +1,499 @@
+package com.engineerfadyfawzi.pets.processor;
+
+import com.engineerfadyfawzi.pets.data.Column;
+import com.engineerfadyfawzi.pets.data.Table;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates the reader, writer and validator of each {@link Table} from its {@link Column}
+ * constants, in the package of the table:
+ *
+ * - &lt;Table&gt;Reader reads the columns of a cursor with typed getters, looking the column indices
+ * up once per cursor.
+ * - &lt;Table&gt;Writer sets the writable columns of a ContentValues with typed setters.
+ * - &lt;Table&gt;Validator checks the values of an insert or update against the rules of the columns.
+ *
+ * The generated code only uses the Android classes by name, so this processor is plain Java.
+ */
+public class SchemaProcessor extends AbstractProcessor
+{
+    /**
+     * A column of a table, as defined by the annotation of its constant.
+     */
+    private static final class ColumnDefinition
+    {
+        final String constant;
+        final String property;
+        final Column column;
+        
+        ColumnDefinition( String constant, String property, Column column )
+        {
+            this.constant = constant;
+            this.property = property;
+            this.column = column;
+        }
+        
+        /**
+         * Return the property with its first letter in upper case, as used in the accessor names.
+         *
+         * @return
+         */
+        String getCapitalized()
+        {
+            return Character.toUpperCase( property.charAt( 0 ) ) + property.substring( 1 );
+        }
+        
+        String getJavaType()
+        {
+            switch ( column.type() )
+            {
+                case INT:
+                    return "int";
+                case LONG:
+                    return "long";
+                default:
+                    return "String";
+            }
+        }
+        
+        /**
+         * Return the Cursor getter and the ContentValues getter of the type, such as "Int" for
+         * getInt() and getAsInteger().
+         *
+         * @return
+         */
+        String getCursorType()
+        {
+            switch ( column.type() )
+            {
+                case INT:
+                    return "Int";
+                case LONG:
+                    return "Long";
+                default:
+                    return "String";
+            }
+        }
+        
+        String getValuesType()
+        {
+            return column.type() == Column.Type.INT ? "Integer" : getCursorType();
+        }
+        
+        boolean isNullable()
+        {
+            return !column.notNull() && !column.notEmpty();
+        }
+        
+        boolean hasRules()
+        {
+            return !isNullable() || column.min() != Long.MIN_VALUE || column.values().length > 0;
+        }
+    }
+    
+    @Override
+    public Set< String > getSupportedAnnotationTypes()
+    {
+        return Collections.singleton( Table.class.getCanonicalName() );
+    }
+    
+    @Override
+    public SourceVersion getSupportedSourceVersion()
+    {
+        return SourceVersion.latestSupported();
+    }
+    
+    @Override
+    public boolean process( Set< ? extends TypeElement > annotations, RoundEnvironment roundEnvironment )
+    {
+        for ( Element element : roundEnvironment.getElementsAnnotatedWith( Table.class ) )
+        {
+            if ( element.getKind() != ElementKind.CLASS )
+            {
+                error( element, "@Table requires a class" );
+                continue;
+            }
+            
+            TypeElement table = ( TypeElement ) element;
+            List< ColumnDefinition > columns = getColumns( table );
+            if ( columns == null )
+                continue;
+            
+            try
+            {
+                generate( table, columns );
+            }
+            catch ( IOException ioException )
+            {
+                error( table, "Failed to generate the schema classes: " + ioException );
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Return the columns of the table in the order of their constants, or null after reporting
+     * an error if a definition is invalid.
+     *
+     * @param table
+     *
+     * @return
+     */
+    private List< ColumnDefinition > getColumns( TypeElement table )
+    {
+        String prefix = table.getAnnotation( Table.class ).value().toUpperCase( Locale.ROOT ) + "_";
+        List< ColumnDefinition > columns = new ArrayList<>();
+        boolean valid = true;
+        for ( Element member : table.getEnclosedElements() )
+        {
+            Column column = member.getAnnotation( Column.class );
+            if ( column == null )
+                continue;
+            
+            VariableElement field = ( VariableElement ) member;
+            if ( !field.getModifiers().contains( Modifier.STATIC ) || !( field.getConstantValue() instanceof String ) )
+            {
+                error( field, "@Column requires a column name constant" );
+                valid = false;
+                continue;
+            }
+            if ( column.type() == Column.Type.TEXT && ( column.min() != Long.MIN_VALUE || column.values().length > 0 ) )
+            {
+                error( field, "A text column can't have a minimum or possible values" );
+                valid = false;
+            }
+            if ( column.type() != Column.Type.TEXT && column.notEmpty() )
+            {
+                error( field, "Only a text column can be required not to be empty" );
+                valid = false;
+            }
+            
+            String constant = field.getSimpleName().toString();
+            columns.add( new ColumnDefinition( constant, getProperty( constant, prefix ), column ) );
+        }
+        
+        if ( columns.isEmpty() )
+        {
+            error( table, "@Table requires at least one @Column" );
+            valid = false;
+        }
+        
+        return valid ? columns : null;
+    }
+    
+    /**
+     * Return the property of a column constant, such as "syncId" for COLUMN_PET_SYNC_ID or "id"
+     * for _ID.
+     *
+     * @param constant
+     * @param prefix   of the table, such as "PET_".
+     *
+     * @return
+     */
+    private static String getProperty( String constant, String prefix )
+    {
+        String name = constant;
+        if ( name.startsWith( "COLUMN_" ) )
+            name = name.substring( "COLUMN_".length() );
+        if ( name.startsWith( prefix ) )
+            name = name.substring( prefix.length() );
+        
+        StringBuilder property = new StringBuilder();
+        for ( String word : name.toLowerCase( Locale.ROOT ).split( "_" ) )
+        {
+            if ( word.isEmpty() )
+                continue;
+            property.append( property.length() == 0 ? word
+                    : Character.toUpperCase( word.charAt( 0 ) ) + word.substring( 1 ) );
+        }
+        return property.toString();
+    }
+    
+    private void generate( TypeElement table, List< ColumnDefinition > columns ) throws IOException
+    {
+        String packageName = getPackage( table ).getQualifiedName().toString();
+        String tableName = table.getAnnotation( Table.class ).value();
+        
+        // The table class as it's referred to from its package, such as "PetContract.PetEntry".
+        String tableClass = table.getQualifiedName().toString();
+        if ( !packageName.isEmpty() )
+            tableClass = tableClass.substring( packageName.length() + 1 );
+        
+        write( table, packageName, tableName + "Reader", generateReader( packageName, tableName, tableClass, columns ) );
+        write( table, packageName, tableName + "Writer", generateWriter( packageName, tableName, tableClass, columns ) );
+        write( table, packageName, tableName + "Validator",
+                generateValidator( packageName, tableName, tableClass, columns ) );
+    }
+    
+    private String generateReader( String packageName, String tableName, String tableClass,
+            List< ColumnDefinition > columns )
+    {
+        String className = tableName + "Reader";
+        StringBuilder code = new StringBuilder();
+        appendHeader( code, packageName, "android.database.Cursor" );
+        code.append( "/**\n" )
+                .append( " * Typed reader of the rows of {@link " ).append( tableClass ).append( "}. The column indices are\n" )
+                .append( " * looked up once, so all the rows of a cursor should be read through the same reader, see\n" )
+                .append( " * {@link #of(" ).append( className ).append( ", Cursor)}.\n" )
+                .append( " *\n" )
+                .append( " * Generated from the columns of " ).append( tableClass ).append( ", don't edit.\n" )
+                .append( " */\n" )
+                .append( "public final class " ).append( className ).append( "\n{\n" )
+                .append( "    private final Cursor mCursor;\n" );
+        for ( ColumnDefinition column : columns )
+            code.append( "    private final int m" ).append( column.getCapitalized() ).append( "Index;\n" );
+        
+        code.append( "\n" )
+                .append( "    public " ).append( className ).append( "( Cursor cursor )\n    {\n" )
+                .append( "        mCursor = cursor;\n" );
+        for ( ColumnDefinition column : columns )
+            code.append( "        m" ).append( column.getCapitalized() ).append( "Index = cursor.getColumnIndex( " )
+                    .append( tableClass ).append( '.' ).append( column.constant ).append( " );\n" );
+        code.append( "    }\n\n" )
+                .append( "    /**\n" )
+                .append( "     * Return a reader of the cursor: the given reader if it reads this cursor, or a new one.\n" )
+                .append( "     *\n" )
+                .append( "     * @param reader of the previous cursor, or null.\n" )
+                .append( "     * @param cursor\n" )
+                .append( "     *\n" )
+                .append( "     * @return\n" )
+                .append( "     */\n" )
+                .append( "    public static " ).append( className ).append( " of( " ).append( className )
+                .append( " reader, Cursor cursor )\n    {\n" )
+                .append( "        return reader != null && reader.mCursor == cursor ? reader : new " ).append( className )
+                .append( "( cursor );\n" )
+                .append( "    }\n\n" )
+                .append( "    public Cursor getCursor()\n    {\n        return mCursor;\n    }\n" );
+        
+        for ( ColumnDefinition column : columns )
+        {
+            String index = "m" + column.getCapitalized() + "Index";
+            code.append( "\n" )
+                    .append( "    /**\n" )
+                    .append( "     * Return whether the cursor has the {@link " ).append( tableClass ).append( '#' )
+                    .append( column.constant ).append( "} column.\n" )
+                    .append( "     *\n" )
+                    .append( "     * @return\n" )
+                    .append( "     */\n" )
+                    .append( "    public boolean has" ).append( column.getCapitalized() ).append( "()\n    {\n" )
+                    .append( "        return " ).append( index ).append( " != -1;\n" )
+                    .append( "    }\n\n" )
+                    .append( "    public " ).append( column.getJavaType() ).append( " get" ).append( column.getCapitalized() )
+                    .append( "()\n    {\n" )
+                    .append( "        return mCursor.get" ).append( column.getCursorType() ).append( "( " ).append( index )
+                    .append( " );\n" )
+                    .append( "    }\n" );
+            
+            if ( column.column.type() != Column.Type.TEXT && column.isNullable() )
+                code.append( "\n" )
+                        .append( "    public boolean is" ).append( column.getCapitalized() ).append( "Null()\n    {\n" )
+                        .append( "        return mCursor.isNull( " ).append( index ).append( " );\n" )
+                        .append( "    }\n" );
+        }
+        
+        return code.append( "}\n" ).toString();
+    }
+    
+    private String generateWriter( String packageName, String tableName, String tableClass,
+            List< ColumnDefinition > columns )
+    {
+        String className = tableName + "Writer";
+        StringBuilder code = new StringBuilder();
+        appendHeader( code, packageName, "android.content.ContentValues" );
+        code.append( "/**\n" )
+                .append( " * Typed writer of the values of an insert or update of {@link " ).append( tableClass )
+                .append( "}. Only the\n" )
+                .append( " * columns clients can write have setters.\n" )
+                .append( " *\n" )
+                .append( " * Generated from the columns of " ).append( tableClass ).append( ", don't edit.\n" )
+                .append( " */\n" )
+                .append( "public final class " ).append( className ).append( "\n{\n" )
+                .append( "    private final ContentValues mValues;\n\n" )
+                .append( "    public " ).append( className ).append( "()\n    {\n" )
+                .append( "        this( new ContentValues() );\n" )
+                .append( "    }\n\n" )
+                .append( "    /**\n" )
+                .append( "     * @param values to set the columns of, returned by {@link #getValues()}.\n" )
+                .append( "     */\n" )
+                .append( "    public " ).append( className ).append( "( ContentValues values )\n    {\n" )
+                .append( "        mValues = values;\n" )
+                .append( "    }\n\n" )
+                .append( "    public ContentValues getValues()\n    {\n        return mValues;\n    }\n" );
+        
+        for ( ColumnDefinition column : columns )
+        {
+            if ( column.column.readOnly() )
+                continue;
+            
+            String constant = tableClass + "." + column.constant;
+            code.append( "\n" )
+                    .append( "    public " ).append( className ).append( " set" ).append( column.getCapitalized() )
+                    .append( "( " ).append( column.getJavaType() ).append( ' ' ).append( column.property ).append( " )\n    {\n" )
+                    .append( "        mValues.put( " ).append( constant ).append( ", " ).append( column.property ).append( " );\n" )
+                    .append( "        return this;\n" )
+                    .append( "    }\n" );
+            
+            if ( column.column.type() != Column.Type.TEXT && column.isNullable() )
+                code.append( "\n" )
+                        .append( "    public " ).append( className ).append( " set" ).append( column.getCapitalized() )
+                        .append( "Null()\n    {\n" )
+                        .append( "        mValues.putNull( " ).append( constant ).append( " );\n" )
+                        .append( "        return this;\n" )
+                        .append( "    }\n" );
+        }
+        
+        return code.append( "}\n" ).toString();
+    }
+    
+    private String generateValidator( String packageName, String tableName, String tableClass,
+            List< ColumnDefinition > columns )
+    {
+        String className = tableName + "Validator";
+        StringBuilder code = new StringBuilder();
+        appendHeader( code, packageName, "android.content.ContentValues" );
+        code.append( "/**\n" )
+                .append( " * Validator of the values of an insert or update of {@link " ).append( tableClass ).append( "}.\n" )
+                .append( " *\n" )
+                .append( " * Generated from the columns of " ).append( tableClass ).append( ", don't edit.\n" )
+                .append( " */\n" )
+                .append( "public final class " ).append( className ).append( "\n{\n" )
+                .append( "    private " ).append( className ).append( "()\n    {\n\n    }\n\n" )
+                .append( "    /**\n" )
+                .append( "     * Check the values of an insert, or the given values of an update.\n" )
+                .append( "     *\n" )
+                .append( "     * @param values\n" )
+                .append( "     * @param isInsert\n" )
+                .append( "     *\n" )
+                .append( "     * @throws IllegalArgumentException if a value is invalid.\n" )
+                .append( "     */\n" )
+                .append( "    public static void validate( ContentValues values, boolean isInsert )\n    {\n" );
+        
+        boolean first = true;
+        for ( ColumnDefinition column : columns )
+        {
+            if ( column.column.readOnly() || !column.hasRules() )
+                continue;
+            
+            String constant = tableClass + "." + column.constant;
+            String value = column.property;
+            if ( !first )
+                code.append( "\n" );
+            first = false;
+            
+            code.append( "        if ( " ).append( column.column.required() ? "isInsert || " : "" )
+                    .append( "values.containsKey( " ).append( constant ).append( " ) )\n        {\n" )
+                    .append( "            " ).append( column.getValuesType() ).append( ' ' ).append( value )
+                    .append( " = values.getAs" ).append( column.getValuesType() ).append( "( " ).append( constant )
+                    .append( " );\n" )
+                    .append( "            if ( " ).append( getInvalidCondition( column ) ).append( " )\n" )
+                    .append( "                throw new IllegalArgumentException( \"" ).append( getError( tableName, column ) )
+                    .append( "\" );\n" )
+                    .append( "        }\n" );
+        }
+        
+        return code.append( "    }\n}\n" ).toString();
+    }
+    
+    /**
+     * Return the condition of an invalid value of the column, held by a variable named after the
+     * property.
+     *
+     * @param column
+     *
+     * @return
+     */
+    private static String getInvalidCondition( ColumnDefinition column )
+    {
+        String value = column.property;
+        String suffix = column.column.type() == Column.Type.LONG ? "L" : "";
+        List< String > rules = new ArrayList<>();
+        if ( column.column.notEmpty() )
+            rules.add( value + ".isEmpty()" );
+        if ( column.column.min() != Long.MIN_VALUE )
+            rules.add( value + " < " + column.column.min() + suffix );
+        if ( column.column.values().length > 0 )
+        {
+            StringBuilder anyOf = new StringBuilder( "!( " );
+            for ( int i = 0; i < column.column.values().length; i++ )
+                anyOf.append( i == 0 ? "" : " || " ).append( value ).append( " == " )
+                        .append( column.column.values()[ i ] ).append( suffix );
+            rules.add( anyOf.append( " )" ).toString() );
+        }
+        
+        if ( !column.isNullable() )
+        {
+            StringBuilder condition = new StringBuilder( value ).append( " == null" );
+            for ( String rule : rules )
+                condition.append( " || " ).append( rule );
+            return condition.toString();
+        }
+        
+        // A null value is valid, so the rules are only checked when there's a value.
+        if ( rules.size() == 1 )
+            return value + " != null && " + rules.get( 0 );
+        StringBuilder condition = new StringBuilder( value ).append( " != null && ( " );
+        for ( int i = 0; i < rules.size(); i++ )
+            condition.append( i == 0 ? "" : " || " ).append( rules.get( i ) );
+        return condition.append( " )" ).toString();
+    }
+    
+    private static String getError( String tableName, ColumnDefinition column )
+    {
+        String error = column.column.error();
+        if ( error.isEmpty() )
+            error = tableName + " requires valid " + column.property.replaceAll( "([A-Z])", " $1" ).toLowerCase( Locale.ROOT );
+        return error.replace( "\\", "\\\\" ).replace( "\"", "\\\"" );
+    }
+    
+    private static void appendHeader( StringBuilder code, String packageName, String androidImport )
+    {
+        if ( !packageName.isEmpty() )
+            code.append( "package " ).append( packageName ).append( ";\n\n" );
+        code.append( "import " ).append( androidImport ).append( ";\n\n" );
+    }
+    
+    private void write( TypeElement table, String packageName, String className, String code ) throws IOException
+    {
+        String qualifiedName = packageName.isEmpty() ? className : packageName + "." + className;
+        Writer writer = processingEnv.getFiler().createSourceFile( qualifiedName, table ).openWriter();
+        try
+        {
+            writer.write( code );
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+    
+    private static PackageElement getPackage( Element element )
+    {
+        while ( element.getKind() != ElementKind.PACKAGE )
+            element = element.getEnclosingElement();
+        return ( PackageElement ) element;
+    }
+    
+    private void error( Element element, String message )
+    {
+        processingEnv.getMessager().printMessage( Diagnostic.Kind.ERROR, message, element );
+    }
+}